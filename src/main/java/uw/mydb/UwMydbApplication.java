@@ -6,12 +6,15 @@ import uw.mydb.mysql.MySqlGroupManager;
 import uw.mydb.proxy.ProxyServer;
 import uw.mydb.route.RouteManager;
 import uw.mydb.route.SchemaCheckService;
+import uw.mydb.util.EventLoopManager;
 
 @SpringCloudApplication
 public class UwMydbApplication {
 
     public static void main(String[] args) throws InterruptedException {
         SpringApplication.run(UwMydbApplication.class, args);
+        //启动前后端共享的reactor线程。
+        EventLoopManager.start();
         //启动mysql后端服务器集群。
         MySqlGroupManager.init();
         //启动mysql group心跳
@@ -22,7 +25,13 @@ public class UwMydbApplication {
         SchemaCheckService.start();
         //代理服务器启动
         ProxyServer.start();
-
+        //关闭时按启动的逆序停止服务，最后关闭共享的reactor线程。
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            ProxyServer.stop();
+            SchemaCheckService.stop();
+            MySqlGroupManager.stop();
+            EventLoopManager.stop();
+        }, "mydb_shutdown"));
     }
 
 }
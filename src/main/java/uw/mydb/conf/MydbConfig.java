@@ -211,6 +211,91 @@ public class MydbConfig {
          */
         private int port = 3300;
 
+        /**
+         * 网络传输类型，EPOLL不可用时自动降级为NIO。
+         */
+        private TransportTypeEnum transportType = TransportTypeEnum.EPOLL;
+
+        /**
+         * 是否开启SO_REUSEPORT，仅EPOLL模式有效。
+         */
+        private boolean reusePort = false;
+
+        /**
+         * acceptor数量，开启reusePort后会按此数量多次绑定端口。
+         */
+        private int acceptorNum = 1;
+
+        /**
+         * 共享的io线程数，前端和后端连接共用，0为netty默认值。
+         */
+        private int workerThreads = 0;
+
+        /**
+         * 前端写缓冲低水位，低于此值时恢复后端读取。
+         */
+        private int writeBufferLowWaterMark = 64 * 1024;
+
+        /**
+         * 前端写缓冲高水位，高于此值时暂停后端读取。
+         */
+        private int writeBufferHighWaterMark = 256 * 1024;
+
+        /**
+         * 结果集转发时，累计写入多少字节后flush一次。
+         */
+        private int flushBytes = 64 * 1024;
+
+        /**
+         * 预编译语句模板缓存数量。
+         */
+        private int stmtTemplateCacheSize = 4096;
+
+        /**
+         * sql解析模板缓存数量，为0时不缓存。
+         */
+        private int sqlTemplateCacheSize = 4096;
+
+        /**
+         * 每个前端会话最多打开的预编译语句数量。
+         */
+        private int maxStmtPerSession = 1024;
+
+        /**
+         * 单个逻辑数据包的最大字节数，超过的连接会被关闭。
+         * 超过16MB的数据包按帧流式转发；需要解析路由的大sql会在内存中合并，同样受此值限制。
+         */
+        private long maxPacketSize = 64 * 1024 * 1024;
+
+        /**
+         * 是否支持压缩协议(CLIENT_COMPRESS)，客户端也要求压缩时才启用。
+         */
+        private boolean compress = false;
+
+        /**
+         * 压缩级别，0-9，-1为zlib默认级别。
+         */
+        private int compressLevel = -1;
+
+        /**
+         * LOAD DATA LOCAL INFILE转发到后端时，单个数据包的字节数。
+         */
+        private int loadDataPacketSize = 64 * 1024;
+
+        /**
+         * LOAD DATA LOCAL INFILE时每个分片最多缓冲的字节数，超过时暂停读取客户端数据。
+         */
+        private int loadDataBufferBytes = 4 * 1024 * 1024;
+
+        /**
+         * SELECT结果缓存的最大总字节数，存放在堆外内存，0为关闭。表配置cacheTtl或者hint指定cache后才缓存。
+         */
+        private long resultCacheBytes = 64 * 1024 * 1024;
+
+        /**
+         * 单个SELECT结果允许缓存的最大字节数，超过时不缓存。
+         */
+        private int resultCacheMaxResultBytes = 1024 * 1024;
 
         public String getIp() {
             return ip;
@@ -228,6 +313,157 @@ public class MydbConfig {
             this.port = port;
         }
 
+        public TransportTypeEnum getTransportType() {
+            return transportType;
+        }
+
+        public void setTransportType(TransportTypeEnum transportType) {
+            this.transportType = transportType;
+        }
+
+        public boolean isReusePort() {
+            return reusePort;
+        }
+
+        public void setReusePort(boolean reusePort) {
+            this.reusePort = reusePort;
+        }
+
+        public int getAcceptorNum() {
+            return acceptorNum;
+        }
+
+        public void setAcceptorNum(int acceptorNum) {
+            this.acceptorNum = acceptorNum;
+        }
+
+        public int getWorkerThreads() {
+            return workerThreads;
+        }
+
+        public void setWorkerThreads(int workerThreads) {
+            this.workerThreads = workerThreads;
+        }
+
+        public int getWriteBufferLowWaterMark() {
+            return writeBufferLowWaterMark;
+        }
+
+        public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+            this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+        }
+
+        public int getWriteBufferHighWaterMark() {
+            return writeBufferHighWaterMark;
+        }
+
+        public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+            this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+        }
+
+        public int getFlushBytes() {
+            return flushBytes;
+        }
+
+        public void setFlushBytes(int flushBytes) {
+            this.flushBytes = flushBytes;
+        }
+
+        public int getStmtTemplateCacheSize() {
+            return stmtTemplateCacheSize;
+        }
+
+        public void setStmtTemplateCacheSize(int stmtTemplateCacheSize) {
+            this.stmtTemplateCacheSize = stmtTemplateCacheSize;
+        }
+
+        public int getSqlTemplateCacheSize() {
+            return sqlTemplateCacheSize;
+        }
+
+        public void setSqlTemplateCacheSize(int sqlTemplateCacheSize) {
+            this.sqlTemplateCacheSize = sqlTemplateCacheSize;
+        }
+
+        public int getMaxStmtPerSession() {
+            return maxStmtPerSession;
+        }
+
+        public void setMaxStmtPerSession(int maxStmtPerSession) {
+            this.maxStmtPerSession = maxStmtPerSession;
+        }
+
+        public long getMaxPacketSize() {
+            return maxPacketSize;
+        }
+
+        public void setMaxPacketSize(long maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+        }
+
+        public boolean isCompress() {
+            return compress;
+        }
+
+        public void setCompress(boolean compress) {
+            this.compress = compress;
+        }
+
+        public int getCompressLevel() {
+            return compressLevel;
+        }
+
+        public void setCompressLevel(int compressLevel) {
+            this.compressLevel = compressLevel;
+        }
+
+        public int getLoadDataPacketSize() {
+            return loadDataPacketSize;
+        }
+
+        public void setLoadDataPacketSize(int loadDataPacketSize) {
+            this.loadDataPacketSize = loadDataPacketSize;
+        }
+
+        public int getLoadDataBufferBytes() {
+            return loadDataBufferBytes;
+        }
+
+        public void setLoadDataBufferBytes(int loadDataBufferBytes) {
+            this.loadDataBufferBytes = loadDataBufferBytes;
+        }
+
+        public long getResultCacheBytes() {
+            return resultCacheBytes;
+        }
+
+        public void setResultCacheBytes(long resultCacheBytes) {
+            this.resultCacheBytes = resultCacheBytes;
+        }
+
+        public int getResultCacheMaxResultBytes() {
+            return resultCacheMaxResultBytes;
+        }
+
+        public void setResultCacheMaxResultBytes(int resultCacheMaxResultBytes) {
+            this.resultCacheMaxResultBytes = resultCacheMaxResultBytes;
+        }
+
+        /**
+         * 网络传输类型。
+         */
+        public enum TransportTypeEnum {
+            /**
+             * java nio。
+             */
+            NIO,
+
+            /**
+             * linux native epoll。
+             */
+            EPOLL;
+        }
+
     }
 
     /**
@@ -294,6 +530,32 @@ public class MydbConfig {
          */
         private GroupSwitchTypeEnum switchType;
 
+        /**
+         * 故障切换后的回切类型
+         */
+        private GroupFailbackTypeEnum failbackType = GroupFailbackTypeEnum.AUTO;
+
+        /**
+         * 自动回切前master需要持续存活的秒数
+         */
+        private int failbackDelay = 60;
+
+        /**
+         * 读负载均衡类型
+         */
+        private BalanceTypeEnum balanceType = BalanceTypeEnum.ROUND_ROBIN;
+
+        /**
+         * slave最大复制延迟秒数，超过时不参与读，0表示不检查
+         */
+        private long maxSlaveLag = 0;
+
+        /**
+         * 写后读一致性，只对主从组有效。开启后会话写入后的读只路由到已应用该写入GTID的slave，
+         * 没有满足的slave时读master。需要mysql 5.7以上并开启gtid_mode
+         */
+        private boolean gtidConsistency = false;
+
         /**
          * mysql主机列表
          */
@@ -328,6 +590,46 @@ public class MydbConfig {
             this.switchType = switchType;
         }
 
+        public GroupFailbackTypeEnum getFailbackType() {
+            return failbackType;
+        }
+
+        public void setFailbackType(GroupFailbackTypeEnum failbackType) {
+            this.failbackType = failbackType;
+        }
+
+        public int getFailbackDelay() {
+            return failbackDelay;
+        }
+
+        public void setFailbackDelay(int failbackDelay) {
+            this.failbackDelay = failbackDelay;
+        }
+
+        public BalanceTypeEnum getBalanceType() {
+            return balanceType;
+        }
+
+        public void setBalanceType(BalanceTypeEnum balanceType) {
+            this.balanceType = balanceType;
+        }
+
+        public long getMaxSlaveLag() {
+            return maxSlaveLag;
+        }
+
+        public void setMaxSlaveLag(long maxSlaveLag) {
+            this.maxSlaveLag = maxSlaveLag;
+        }
+
+        public boolean isGtidConsistency() {
+            return gtidConsistency;
+        }
+
+        public void setGtidConsistency(boolean gtidConsistency) {
+            this.gtidConsistency = gtidConsistency;
+        }
+
         public List<MysqlConfig> getMasters() {
             return masters;
         }
@@ -348,6 +650,24 @@ public class MydbConfig {
             NOT_SWITCH, SWITCH;
         }
 
+        public enum GroupFailbackTypeEnum {
+            // master恢复并持续存活failbackDelay秒后自动回切
+            AUTO,
+            // 只能手动回切
+            MANUAL;
+        }
+
+        public enum BalanceTypeEnum {
+            // 加权轮询
+            ROUND_ROBIN,
+            // 加权随机
+            WEIGHTED_RANDOM,
+            // 最少未完成请求
+            LEAST_REQUEST,
+            // 随机两选一，比较延迟EWMA和未完成请求数
+            P2C_EWMA;
+        }
+
         public enum GroupTypeEnum {
             // 单一节点
             SINGLE_NODE(GlobalConstants.SINGLE_NODE_HEARTBEAT_SQL, GlobalConstants.MYSQL_SLAVE_STATUS_COLUMNS),
@@ -428,6 +748,56 @@ public class MydbConfig {
          */
         private int connMaxAge = 1800;
 
+        /**
+         * 每个连接缓存的预编译语句数量，超出时关闭最久未用的语句。
+         */
+        private int stmtCacheSize = 64;
+
+        /**
+         * 获取连接时最多排队的请求数，超出时直接报错。
+         */
+        private int maxWaiters = 1000;
+
+        /**
+         * 获取连接超时毫秒数。
+         */
+        private long acquireTimeout = 10000;
+
+        /**
+         * 心跳间隔毫秒数。
+         */
+        private long heartbeatInterval = 5000;
+
+        /**
+         * 心跳超时毫秒数。
+         */
+        private long heartbeatTimeout = 3000;
+
+        /**
+         * 心跳连续失败多少次后标记为下线。
+         */
+        private int heartbeatFailThreshold = 3;
+
+        /**
+         * 心跳连续成功多少次后重新上线。
+         */
+        private int heartbeatRecoverThreshold = 2;
+
+        /**
+         * 每个连接上同时执行的最大命令数，大于1时开启流水线。
+         * 开启后自动提交的只读请求在没有空闲连接时，可以追加到正在执行只读请求的连接上，按顺序接收返回。
+         */
+        private int pipelineDepth = 1;
+
+        /**
+         * 是否支持压缩协议(CLIENT_COMPRESS)，mysql服务器也支持时才启用。
+         */
+        private boolean compress = false;
+
+        /**
+         * 压缩级别，0-9，-1为zlib默认级别。
+         */
+        private int compressLevel = -1;
 
         public int getWeight() {
             return weight;
@@ -516,6 +886,86 @@ public class MydbConfig {
         public void setConnMaxAge(int connMaxAge) {
             this.connMaxAge = connMaxAge;
         }
+
+        public int getStmtCacheSize() {
+            return stmtCacheSize;
+        }
+
+        public void setStmtCacheSize(int stmtCacheSize) {
+            this.stmtCacheSize = stmtCacheSize;
+        }
+
+        public int getMaxWaiters() {
+            return maxWaiters;
+        }
+
+        public void setMaxWaiters(int maxWaiters) {
+            this.maxWaiters = maxWaiters;
+        }
+
+        public long getAcquireTimeout() {
+            return acquireTimeout;
+        }
+
+        public void setAcquireTimeout(long acquireTimeout) {
+            this.acquireTimeout = acquireTimeout;
+        }
+
+        public long getHeartbeatInterval() {
+            return heartbeatInterval;
+        }
+
+        public void setHeartbeatInterval(long heartbeatInterval) {
+            this.heartbeatInterval = heartbeatInterval;
+        }
+
+        public long getHeartbeatTimeout() {
+            return heartbeatTimeout;
+        }
+
+        public void setHeartbeatTimeout(long heartbeatTimeout) {
+            this.heartbeatTimeout = heartbeatTimeout;
+        }
+
+        public int getHeartbeatFailThreshold() {
+            return heartbeatFailThreshold;
+        }
+
+        public void setHeartbeatFailThreshold(int heartbeatFailThreshold) {
+            this.heartbeatFailThreshold = heartbeatFailThreshold;
+        }
+
+        public int getHeartbeatRecoverThreshold() {
+            return heartbeatRecoverThreshold;
+        }
+
+        public void setHeartbeatRecoverThreshold(int heartbeatRecoverThreshold) {
+            this.heartbeatRecoverThreshold = heartbeatRecoverThreshold;
+        }
+
+        public int getPipelineDepth() {
+            return pipelineDepth;
+        }
+
+        public void setPipelineDepth(int pipelineDepth) {
+            this.pipelineDepth = pipelineDepth;
+        }
+
+        public boolean isCompress() {
+            return compress;
+        }
+
+        public void setCompress(boolean compress) {
+            this.compress = compress;
+        }
+
+        public int getCompressLevel() {
+            return compressLevel;
+        }
+
+        public void setCompressLevel(int compressLevel) {
+            this.compressLevel = compressLevel;
+        }
     }
 
     /**
@@ -605,6 +1055,11 @@ public class MydbConfig {
          */
         private MatchTypeEnum matchType = MatchTypeEnum.MATCH_FIX;
 
+        /**
+         * SELECT结果缓存的秒数，0为不缓存。只缓存单表单节点的查询，表有写入时失效。
+         */
+        private int cacheTtl = 0;
+
         public String getName() {
             return name;
         }
@@ -636,6 +1091,14 @@ public class MydbConfig {
         public void setMatchType(MatchTypeEnum matchType) {
             this.matchType = matchType;
         }
+
+        public int getCacheTtl() {
+            return cacheTtl;
+        }
+
+        public void setCacheTtl(int cacheTtl) {
+            this.cacheTtl = cacheTtl;
+        }
     }
 
     /**
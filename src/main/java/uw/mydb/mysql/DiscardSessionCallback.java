@@ -0,0 +1,46 @@
+package uw.mydb.mysql;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 丢弃所有返回数据的回调。
+ * 前端已经提前结束时，后端session用它消化剩余的返回数据，结束后正常归还连接池。
+ *
+ * @author axeon
+ */
+class DiscardSessionCallback implements MySqlSessionCallback {
+
+    static final DiscardSessionCallback INSTANCE = new DiscardSessionCallback();
+
+    @Override
+    public void receiveOkPacket(byte packetId, ByteBuf buf) {
+    }
+
+    @Override
+    public void receiveErrorPacket(byte packetId, ByteBuf buf) {
+    }
+
+    @Override
+    public void receiveResultSetHeaderPacket(byte packetId, ByteBuf buf) {
+    }
+
+    @Override
+    public void receiveFieldDataPacket(byte packetId, ByteBuf buf) {
+    }
+
+    @Override
+    public void receiveFieldDataEOFPacket(byte packetId, ByteBuf buf) {
+    }
+
+    @Override
+    public void receiveRowDataPacket(byte packetId, ByteBuf buf) {
+    }
+
+    @Override
+    public void receiveRowDataEOFPacket(byte packetId, ByteBuf buf) {
+    }
+
+    @Override
+    public void unbind() {
+    }
+}
@@ -0,0 +1,148 @@
+package uw.mydb.mysql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GTID集合。
+ * 解析"uuid[:tag]:1-100:102,uuid2:1-5"格式，用于判断slave是否已经应用了指定的写入。
+ * 实例不可变，可以在线程间共享。
+ *
+ * @author axeon
+ */
+public final class GtidSet {
+
+    /**
+     * 每个uuid(含tag)对应的区间，按[start,end,start,end...]顺序保存，闭区间。
+     */
+    private final Map<String, long[]> intervals;
+
+    /**
+     * 原始文本。
+     */
+    private final String text;
+
+    private GtidSet(Map<String, long[]> intervals, String text) {
+        this.intervals = intervals;
+        this.text = text;
+    }
+
+    /**
+     * 解析GTID集合。
+     *
+     * @param text
+     * @return 为空或格式错误时返回null
+     */
+    public static GtidSet parse(String text) {
+        if (text == null) {
+            return null;
+        }
+        Map<String, long[]> intervals = new HashMap<>();
+        for (String part : text.split(",")) {
+            String[] segs = part.trim().split(":");
+            if (segs.length < 2 || segs[0].isEmpty()) {
+                continue;
+            }
+            String source = segs[0].toLowerCase();
+            List<long[]> ranges = new ArrayList<>();
+            for (int i = 1; i < segs.length; i++) {
+                String seg = segs[i].trim();
+                if (seg.isEmpty()) {
+                    continue;
+                }
+                if (!Character.isDigit(seg.charAt(0))) {
+                    //mysql 8.4的tag，之后的区间属于uuid:tag。
+                    putRanges(intervals, source, ranges);
+                    ranges = new ArrayList<>();
+                    source = segs[0].toLowerCase() + ":" + seg.toLowerCase();
+                    continue;
+                }
+                int pos = seg.indexOf('-');
+                try {
+                    long start = Long.parseLong(pos < 0 ? seg : seg.substring(0, pos));
+                    long end = pos < 0 ? start : Long.parseLong(seg.substring(pos + 1));
+                    ranges.add(new long[]{start, end});
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            putRanges(intervals, source, ranges);
+        }
+        if (intervals.isEmpty()) {
+            return null;
+        }
+        return new GtidSet(intervals, text);
+    }
+
+    /**
+     * 保存一个uuid的区间，和已有的区间合并。
+     *
+     * @param intervals
+     * @param source
+     * @param ranges
+     */
+    private static void putRanges(Map<String, long[]> intervals, String source, List<long[]> ranges) {
+        if (ranges.isEmpty()) {
+            return;
+        }
+        long[] exists = intervals.get(source);
+        long[] merged = new long[(exists == null ? 0 : exists.length) + ranges.size() * 2];
+        int n = 0;
+        if (exists != null) {
+            System.arraycopy(exists, 0, merged, 0, exists.length);
+            n = exists.length;
+        }
+        for (long[] range : ranges) {
+            merged[n++] = range[0];
+            merged[n++] = range[1];
+        }
+        intervals.put(source, merged);
+    }
+
+    /**
+     * 是否包含另一个集合的全部GTID。
+     *
+     * @param other
+     * @return
+     */
+    public boolean contains(GtidSet other) {
+        for (Map.Entry<String, long[]> entry : other.intervals.entrySet()) {
+            long[] mine = intervals.get(entry.getKey());
+            if (mine == null) {
+                return false;
+            }
+            long[] theirs = entry.getValue();
+            for (int i = 0; i < theirs.length; i += 2) {
+                if (!covers(mine, theirs[i], theirs[i + 1])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 区间列表中是否有一个区间覆盖[start,end]。
+     * Executed_Gtid_Set中的区间是合并过的，不需要考虑跨多个区间的情况。
+     *
+     * @param ranges
+     * @param start
+     * @param end
+     * @return
+     */
+    private static boolean covers(long[] ranges, long start, long end) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] <= start && end <= ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,206 @@
+package uw.mydb.mysql;
+
+import uw.mydb.conf.MydbConfig;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * mysql服务负载均衡策略。
+ * 只在可读(存活且复制延迟未超限)的服务中选择，没有可读的服务时返回null。
+ *
+ * @author axeon
+ */
+abstract class MySqlBalancer {
+
+    /**
+     * 根据负载均衡类型创建实例。
+     *
+     * @param balanceType
+     * @return
+     */
+    static MySqlBalancer create(MydbConfig.MysqlGroupConfig.BalanceTypeEnum balanceType) {
+        if (balanceType == null) {
+            return new RoundRobin();
+        }
+        switch (balanceType) {
+            case WEIGHTED_RANDOM:
+                return new WeightedRandom();
+            case LEAST_REQUEST:
+                return new LeastRequest();
+            case P2C_EWMA:
+                return new PowerOfTwoChoices();
+            default:
+                return new RoundRobin();
+        }
+    }
+
+    /**
+     * 获得服务权重，最小为1。
+     *
+     * @param service
+     * @return
+     */
+    static int weight(MySqlService service) {
+        return Math.max(1, service.getConfig().getWeight());
+    }
+
+    /**
+     * 选择一个服务。
+     *
+     * @param services
+     * @return
+     */
+    abstract MySqlService select(List<MySqlService> services);
+
+    /**
+     * 加权轮询，按权重累计区间定位，不需要重复列表。
+     */
+    static final class RoundRobin extends MySqlBalancer {
+
+        private final AtomicInteger index = new AtomicInteger();
+
+        @Override
+        MySqlService select(List<MySqlService> services) {
+            int size = services.size();
+            if (size == 0) {
+                return null;
+            }
+            int totalWeight = 0;
+            for (int i = 0; i < size; i++) {
+                totalWeight += weight(services.get(i));
+            }
+            int pos = (index.getAndIncrement() & Integer.MAX_VALUE) % totalWeight;
+            int start = 0;
+            for (; start < size - 1; start++) {
+                pos -= weight(services.get(start));
+                if (pos < 0) {
+                    break;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                MySqlService service = services.get((start + i) % size);
+                if (service.isReadable()) {
+                    return service;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 加权随机，只在可读的服务中按权重随机。
+     */
+    static final class WeightedRandom extends MySqlBalancer {
+
+        @Override
+        MySqlService select(List<MySqlService> services) {
+            int totalWeight = 0;
+            for (MySqlService service : services) {
+                if (service.isReadable()) {
+                    totalWeight += weight(service);
+                }
+            }
+            if (totalWeight == 0) {
+                return null;
+            }
+            int pos = ThreadLocalRandom.current().nextInt(totalWeight);
+            for (MySqlService service : services) {
+                if (service.isReadable()) {
+                    pos -= weight(service);
+                    if (pos < 0) {
+                        return service;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 最少未完成请求，负载按权重折算，从随机位置开始比较以打散相同负载的情况。
+     */
+    static final class LeastRequest extends MySqlBalancer {
+
+        @Override
+        MySqlService select(List<MySqlService> services) {
+            int size = services.size();
+            if (size == 0) {
+                return null;
+            }
+            int start = ThreadLocalRandom.current().nextInt(size);
+            MySqlService best = null;
+            double bestLoad = Double.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                MySqlService service = services.get((start + i) % size);
+                if (!service.isReadable()) {
+                    continue;
+                }
+                double load = (double) service.getOutstandingRequests() / weight(service);
+                if (load < bestLoad) {
+                    best = service;
+                    bestLoad = load;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * 随机选两个可读的服务，取延迟EWMA乘以未完成请求数较小的一个。
+     * 比全量比较开销小，也避免所有请求同时涌向同一个最快的服务。
+     */
+    static final class PowerOfTwoChoices extends MySqlBalancer {
+
+        /**
+         * 计算服务代价，耗时加1避免毫秒级以下的服务代价都为0。
+         *
+         * @param service
+         * @return
+         */
+        private static double cost(MySqlService service) {
+            return (service.getLatencyEwma() + 1) * (service.getOutstandingRequests() + 1) / weight(service);
+        }
+
+        @Override
+        MySqlService select(List<MySqlService> services) {
+            int size = services.size();
+            if (size == 0) {
+                return null;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int start = random.nextInt(size);
+            MySqlService first = null;
+            for (int i = 0; i < size; i++) {
+                MySqlService service = services.get((start + i) % size);
+                if (service.isReadable()) {
+                    first = service;
+                    start = (start + i) % size;
+                    break;
+                }
+            }
+            if (first == null || size == 1) {
+                return first;
+            }
+            //第二个从剩下的里面随机选取。
+            int offset = 1 + random.nextInt(size - 1);
+            MySqlService second = null;
+            for (int i = 0; i < size; i++) {
+                int pos = (start + offset + i) % size;
+                if (pos == start) {
+                    continue;
+                }
+                MySqlService service = services.get(pos);
+                if (service.isReadable()) {
+                    second = service;
+                    break;
+                }
+            }
+            if (second == null) {
+                return first;
+            }
+            return cost(first) <= cost(second) ? first : second;
+        }
+    }
+}
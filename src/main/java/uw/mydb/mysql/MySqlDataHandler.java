@@ -7,6 +7,7 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.util.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uw.mydb.protocol.codec.MysqlContinuationFrame;
 
 /**
  * 处理mysql端的数据交互。
@@ -26,6 +27,14 @@ public class MySqlDataHandler extends ChannelInboundHandlerAdapter {
             ctx.close();
             return;
         }
+        //大包的续帧直接交给当前命令。
+        if (msg instanceof MysqlContinuationFrame) {
+            if (session.getState() == MySqlSession.STATE_USING) {
+                session.handleContinuation(((MysqlContinuationFrame) msg).content());
+            }
+            super.channelRead(ctx, msg);
+            return;
+        }
         //拿到消息
         ByteBuf buf = (ByteBuf) msg;
         switch (session.getState()) {
@@ -64,6 +73,21 @@ public class MySqlDataHandler extends ChannelInboundHandlerAdapter {
         session.trueClose();
     }
 
+    /**
+     * 写缓冲状态变化，用于LOAD DATA转发的流控。
+     *
+     * @param ctx
+     * @throws Exception
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        MySqlSession session = ctx.channel().attr(MYSQL_SESSION).get();
+        if (session != null && session.getState() == MySqlSession.STATE_USING) {
+            session.writabilityChanged();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     /**
      * 退出session。
      *
@@ -73,7 +97,9 @@ public class MySqlDataHandler extends ChannelInboundHandlerAdapter {
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         MySqlSession session = ctx.channel().attr(MYSQL_SESSION).get();
-        session.trueClose();
+        if (session != null) {
+            session.handleClose();
+        }
         super.channelInactive(ctx);
     }
 
@@ -2,6 +2,7 @@ package uw.mydb.mysql;
 
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.SocketChannel;
+import uw.mydb.conf.MydbConfigManager;
 import uw.mydb.protocol.codec.MysqlPacketDecoder;
 
 /**
@@ -16,7 +17,7 @@ public class MySqlDataHandlerFactory extends ChannelInitializer<SocketChannel> {
     @Override
     protected void initChannel(SocketChannel ch) throws Exception {
 //        ch.pipeline().addLast( new LoggingHandler(LogLevel.INFO));
-        ch.pipeline().addLast(new MysqlPacketDecoder());
+        ch.pipeline().addLast(new MysqlPacketDecoder(MydbConfigManager.getConfig().getServer().getMaxPacketSize()));
 //        ch.pipeline().addLast(group,"MysqlDataHander",new MySqlDataHandler());
         ch.pipeline().addLast(new MySqlDataHandler());
 
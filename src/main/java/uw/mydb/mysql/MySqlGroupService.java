@@ -3,10 +3,14 @@ package uw.mydb.mysql;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uw.mydb.conf.MydbConfig;
+import uw.mydb.util.SystemClock;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
  * 用来维护一个mysql配置组。
@@ -17,8 +21,6 @@ public class MySqlGroupService {
 
     private static final Logger logger = LoggerFactory.getLogger(MySqlGroupService.class);
 
-    private static final int MAX_RETRY_TIMES = 30;
-
     /**
      * 当前启动状态.
      */
@@ -41,24 +43,34 @@ public class MySqlGroupService {
     private List<MySqlService> slaveServices = new ArrayList<>();
 
     /**
-     * 读写服务列表，利用weight做了重复数据。
+     * 可读服务列表，weight大于0的服务。
      */
     private List<MySqlService> allServices = new ArrayList<>();
 
     /**
      * 获得master索引位置。
      */
-    private int masterIndex;
+    private final AtomicInteger masterIndex = new AtomicInteger();
 
     /**
-     * 获得slave索引位置。
+     * 故障切换时提升为写节点的slave，为null时写master。
      */
-    private int slaveIndex;
+    private volatile MySqlService promotedService;
 
     /**
-     * 所有列表
+     * master最近一次恢复存活的时间，用于自动回切。
      */
-    private int allIndex;
+    private volatile long masterRecoverTime;
+
+    /**
+     * slave读负载均衡。
+     */
+    private MySqlBalancer slaveBalancer;
+
+    /**
+     * 读负载均衡。
+     */
+    private MySqlBalancer readBalancer;
 
     /**
      * 默认构造器。
@@ -78,20 +90,46 @@ public class MySqlGroupService {
         return config.getName();
     }
 
+    /**
+     * 获得slave最大复制延迟秒数。
+     *
+     * @return
+     */
+    public long getMaxSlaveLag() {
+        return config.getMaxSlaveLag();
+    }
+
+    /**
+     * 是否开启写后读一致性，只对主从组有效。
+     *
+     * @return
+     */
+    public boolean isGtidConsistency() {
+        return config.isGtidConsistency() && config.getGroupType() == MydbConfig.MysqlGroupConfig.GroupTypeEnum.MASTER_SLAVE;
+    }
+
+    /**
+     * 获得组类型。
+     *
+     * @return
+     */
+    public MydbConfig.MysqlGroupConfig.GroupTypeEnum getGroupType() {
+        return config.getGroupType();
+    }
+
     /**
      * 初始化。
      */
     public void init() {
+        slaveBalancer = MySqlBalancer.create(config.getBalanceType());
+        readBalancer = MySqlBalancer.create(config.getBalanceType());
         List<MydbConfig.MysqlConfig> mList = config.getMasters();
         for (MydbConfig.MysqlConfig config : mList) {
             MySqlService mysqlService = new MySqlService(this, config);
             mysqlService.setSlaveNode(false);
             masterServices.add(mysqlService);
-            //权重设置
-            if (config.getWeight() > 9) {
-                config.setWeight(9);
-            }
-            for (int k = 0; k < config.getWeight(); k++) {
+            //权重为0的不参与读。
+            if (config.getWeight() > 0) {
                 allServices.add(mysqlService);
             }
             //初始化
@@ -103,11 +141,8 @@ public class MySqlGroupService {
             MySqlService mysqlService = new MySqlService(this, config);
             mysqlService.setSlaveNode(true);
             slaveServices.add(mysqlService);
-            //权重设置
-            if (config.getWeight() > 9) {
-                config.setWeight(9);
-            }
-            for (int k = 0; k < config.getWeight(); k++) {
+            //权重为0的不参与读。
+            if (config.getWeight() > 0) {
                 allServices.add(mysqlService);
             }
             //初始化
@@ -154,48 +189,187 @@ public class MySqlGroupService {
     }
 
     /**
-     * 得到当前用于写的MySQLService
+     * 得到当前用于写的MySQLService，跳过不存活的服务。
+     * 发生故障切换时返回提升的slave；全部不存活时仍返回一个服务，由获取连接时快速失败。
      */
     public MySqlService getMasterService() {
-        MySqlService service = null;
-        for (int i = 0; i < MAX_RETRY_TIMES; i++) {
-            masterIndex++;
-            service = masterServices.get(masterIndex % masterServices.size());
+        MySqlService promoted = promotedService;
+        if (promoted != null) {
+            if (!checkFailback()) {
+                return promoted;
+            }
+        }
+        int size = masterServices.size();
+        if (size == 0) {
+            return null;
+        }
+        int start = masterIndex.incrementAndGet() & Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            MySqlService service = masterServices.get((start + i) % size);
             if (service.isAlive()) {
-                break;
+                return service;
             }
         }
-        return service;
+        return masterServices.get(start % size);
     }
 
 
     /**
-     * 得到当前用于写的MySQLService
+     * 服务存活状态变化，SWITCH类型的组在此执行故障切换。
+     * 所有master都不存活时，提升一个可用的slave作为写节点。
+     *
+     * @param service
      */
-    public MySqlService getSlaveService() {
-        MySqlService service = null;
-        for (int i = 0; i < MAX_RETRY_TIMES; i++) {
-            slaveIndex++;
-            service = slaveServices.get(slaveIndex % slaveServices.size());
+    synchronized void onServiceStateChanged(MySqlService service) {
+        if (config.getSwitchType() != MydbConfig.MysqlGroupConfig.GroupSwitchTypeEnum.SWITCH) {
+            return;
+        }
+        if (!service.isSlaveNode() && service.isAlive()) {
+            masterRecoverTime = SystemClock.now();
+        }
+        MySqlService promoted = promotedService;
+        if (promoted != null && !promoted.isAlive()) {
+            logger.error("MySqlGroup[{}] promoted slave {} is down!", getName(), promoted.getName());
+            promotedService = null;
+        }
+        if (promotedService == null && !hasAliveMaster()) {
+            promote();
+        }
+    }
+
+    /**
+     * 手动回切到master。
+     *
+     * @return 是否回切成功，没有存活的master时不回切
+     */
+    public synchronized boolean failback() {
+        if (promotedService == null || !hasAliveMaster()) {
+            return false;
+        }
+        logger.warn("MySqlGroup[{}] fail back from {} to master.", getName(), promotedService.getName());
+        promotedService = null;
+        return true;
+    }
+
+    /**
+     * 获得提升为写节点的slave。
+     *
+     * @return 没有发生故障切换时返回null
+     */
+    public MySqlService getPromotedService() {
+        return promotedService;
+    }
+
+    /**
+     * 检查是否满足自动回切条件，满足时回切。
+     *
+     * @return 是否已回切
+     */
+    private boolean checkFailback() {
+        if (config.getFailbackType() != MydbConfig.MysqlGroupConfig.GroupFailbackTypeEnum.AUTO) {
+            return false;
+        }
+        if (SystemClock.elapsedMillis(masterRecoverTime) < SECONDS.toMillis(config.getFailbackDelay())) {
+            return false;
+        }
+        return failback();
+    }
+
+    /**
+     * 提升复制延迟最小的可用slave为写节点，并异步预热连接池。
+     */
+    private void promote() {
+        MySqlService best = null;
+        for (MySqlService service : slaveServices) {
+            if (!service.isAlive()) {
+                continue;
+            }
+            if (best == null || compareForPromote(service, best) < 0) {
+                best = service;
+            }
+        }
+        if (best == null) {
+            logger.error("MySqlGroup[{}] all masters are down, no slave can be promoted!", getName());
+            return;
+        }
+        promotedService = best;
+        best.warmUp();
+        logger.error("MySqlGroup[{}] all masters are down, promote slave {} as write service, lag: {}", getName(), best.getName(), best.getReplicationLag());
+    }
+
+    /**
+     * 比较两个slave的提升优先级，延迟未超限的优先，其次延迟小的优先。
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    private static int compareForPromote(MySqlService a, MySqlService b) {
+        if (a.isLagging() != b.isLagging()) {
+            return a.isLagging() ? 1 : -1;
+        }
+        long lagA = a.getReplicationLag() < 0 ? Long.MAX_VALUE : a.getReplicationLag();
+        long lagB = b.getReplicationLag() < 0 ? Long.MAX_VALUE : b.getReplicationLag();
+        return Long.compare(lagA, lagB);
+    }
+
+    /**
+     * 是否有存活的master。
+     *
+     * @return
+     */
+    private boolean hasAliveMaster() {
+        for (MySqlService service : masterServices) {
             if (service.isAlive()) {
-                break;
+                return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * 得到当前用于读的slave服务，没有可读的slave时使用master。
+     */
+    public MySqlService getSlaveService() {
+        MySqlService service = slaveBalancer.select(slaveServices);
+        if (service == null) {
+            service = getMasterService();
+        }
         return service;
     }
 
     /**
-     * 得到当前用于读的MySQLService（负载均衡模式，如果支持）
+     * 得到当前用于读的MySQLService，按配置的负载均衡类型选择，没有可读的服务时使用master。
      */
     public MySqlService getLBReadService() {
-        MySqlService service = null;
-        for (int i = 0; i < MAX_RETRY_TIMES; i++) {
-            allIndex++;
-            service = allServices.get(allIndex % allServices.size());
-            if (service.isAlive()) {
-                break;
+        MySqlService service = readBalancer.select(allServices);
+        if (service == null) {
+            service = getMasterService();
+        }
+        return service;
+    }
+
+    /**
+     * 得到用于读的MySQLService，只在已应用writeGtid的服务中按负载均衡选择，没有满足的服务时使用master。
+     * slave已应用的GTID来自心跳，最多落后一个心跳周期，刚写入后的读一般会落到master上。
+     *
+     * @param writeGtid 会话最近一次写入的GTID，为null时不限制
+     * @return
+     */
+    public MySqlService getLBReadService(GtidSet writeGtid) {
+        if (writeGtid == null) {
+            return getLBReadService();
+        }
+        List<MySqlService> services = new ArrayList<>(allServices.size());
+        for (MySqlService service : allServices) {
+            if (service.hasAppliedGtid(writeGtid)) {
+                services.add(service);
             }
         }
+        MySqlService service = readBalancer.select(services);
+        if (service == null) {
+            service = getMasterService();
+        }
         return service;
     }
 
@@ -218,7 +392,7 @@ public class MySqlGroupService {
     }
 
     /**
-     * 获得所有的服务（加权计算过）
+     * 获得所有可读的服务
      *
      * @return
      */
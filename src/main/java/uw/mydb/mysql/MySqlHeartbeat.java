@@ -0,0 +1,411 @@
+package uw.mydb.mysql;
+
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uw.mydb.conf.MydbConfig;
+import uw.mydb.protocol.packet.*;
+import uw.mydb.util.SystemClock;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * mysql服务心跳检测。
+ * 使用一个不在连接池中的专用连接，定时执行所属组类型的心跳sql，记录响应时间和复制延迟。
+ * 连续失败/成功达到阈值时才切换服务的存活状态，避免网络抖动导致频繁上下线。
+ *
+ * @author axeon
+ */
+class MySqlHeartbeat implements MySqlSessionCallback, Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MySqlHeartbeat.class);
+
+    /**
+     * 所属的服务。
+     */
+    private final MySqlService mysqlService;
+
+    /**
+     * 心跳sql。
+     */
+    private final byte[] heartbeatSql;
+
+    /**
+     * 是否检测主从复制状态。
+     */
+    private final boolean checkSlaveStatus;
+
+    /**
+     * 是否采集slave已应用的GTID集合。
+     */
+    private final boolean checkGtid;
+
+    /**
+     * 是否有心跳正在进行中，包括建立连接。
+     */
+    private final AtomicBoolean inFlight = new AtomicBoolean(false);
+
+    /**
+     * 专用连接。
+     */
+    private volatile MySqlSession session;
+
+    /**
+     * 调度任务。
+     */
+    private ScheduledFuture<?> scheduledFuture;
+
+    /**
+     * 本次心跳开始时间。
+     */
+    private volatile long startTime;
+
+    /**
+     * 最近一次心跳响应时间，毫秒。
+     */
+    private volatile long rtt = -1;
+
+    /**
+     * 最近一次检测到的复制延迟秒数，-1表示未知或不适用。
+     */
+    private volatile long lag = -1;
+
+    /**
+     * 最近一次心跳时间。
+     */
+    private volatile long lastCheckTime;
+
+    /**
+     * 连续失败次数。
+     */
+    private int failCount;
+
+    /**
+     * 连续成功次数。
+     */
+    private int successCount;
+
+    /**
+     * 结果集列数。
+     */
+    private int fieldCount;
+
+    /**
+     * 字段索引，用于取出检测的列。
+     */
+    private int fieldIndex;
+
+    /**
+     * Seconds_Behind_Master所在列。
+     */
+    private int lagIndex;
+
+    /**
+     * Slave_IO_Running所在列。
+     */
+    private int ioRunningIndex;
+
+    /**
+     * Slave_SQL_Running所在列。
+     */
+    private int sqlRunningIndex;
+
+    /**
+     * Executed_Gtid_Set所在列。
+     */
+    private int gtidIndex;
+
+    /**
+     * 检测失败的原因，null表示成功。
+     */
+    private String failReason;
+
+    /**
+     * 本次检测到的复制延迟。
+     */
+    private long checkLag;
+
+    /**
+     * 本次检测到的已应用GTID集合。
+     */
+    private GtidSet checkGtidSet;
+
+    MySqlHeartbeat(MySqlService mysqlService, MydbConfig.MysqlGroupConfig.GroupTypeEnum groupType) {
+        this.mysqlService = mysqlService;
+        if (groupType == null) {
+            groupType = MydbConfig.MysqlGroupConfig.GroupTypeEnum.SINGLE_NODE;
+        }
+        this.heartbeatSql = groupType.getHeartbeatSQL().getBytes();
+        this.checkSlaveStatus = groupType == MydbConfig.MysqlGroupConfig.GroupTypeEnum.MASTER_SLAVE && mysqlService.isSlaveNode();
+        this.checkGtid = checkSlaveStatus && mysqlService.isTrackGtid();
+    }
+
+    /**
+     * 开始心跳。
+     */
+    void start() {
+        scheduledFuture = MySqlMaintenanceService.scheduleHeartbeat(this, mysqlService.getConfig().getHeartbeatInterval());
+    }
+
+    /**
+     * 停止心跳，关闭专用连接。
+     */
+    void stop() {
+        if (scheduledFuture != null) {
+            scheduledFuture.cancel(false);
+            scheduledFuture = null;
+        }
+        MySqlSession session = this.session;
+        this.session = null;
+        if (session != null) {
+            session.trueClose();
+        }
+    }
+
+    /**
+     * 获得最近一次心跳响应时间。
+     *
+     * @return
+     */
+    long getRtt() {
+        return rtt;
+    }
+
+    /**
+     * 获得最近一次检测到的复制延迟秒数。
+     *
+     * @return
+     */
+    long getLag() {
+        return lag;
+    }
+
+    /**
+     * 获得最近一次心跳时间。
+     *
+     * @return
+     */
+    long getLastCheckTime() {
+        return lastCheckTime;
+    }
+
+    @Override
+    public void run() {
+        try {
+            long now = SystemClock.now();
+            if (inFlight.get()) {
+                if (SystemClock.elapsedMillis(startTime, now) > mysqlService.getConfig().getHeartbeatTimeout()) {
+                    fail("heartbeat timeout");
+                }
+                return;
+            }
+            startTime = now;
+            inFlight.set(true);
+            MySqlSession session = this.session;
+            if (session == null || !session.isAlive()) {
+                //连接建立后在onConnected中发送心跳。
+                this.session = mysqlService.openHeartbeatSession(this);
+            } else {
+                sendHeartbeat(session);
+            }
+        } catch (Exception e) {
+            logger.error("MySqlService[{}] heartbeat error!", mysqlService.getName(), e);
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * 专用连接验证通过。
+     *
+     * @param session
+     */
+    void onConnected(MySqlSession session) {
+        if (session == this.session && inFlight.get()) {
+            sendHeartbeat(session);
+        } else {
+            session.trueClose();
+        }
+    }
+
+    /**
+     * 专用连接建立失败。
+     *
+     * @param session
+     * @param reason
+     */
+    void onConnectFail(MySqlSession session, String reason) {
+        if (session == this.session) {
+            fail(reason);
+        }
+    }
+
+    /**
+     * 发送心跳sql。
+     *
+     * @param session
+     */
+    private void sendHeartbeat(MySqlSession session) {
+        fieldCount = 0;
+        fieldIndex = 0;
+        lagIndex = -1;
+        ioRunningIndex = -1;
+        sqlRunningIndex = -1;
+        gtidIndex = -1;
+        failReason = null;
+        checkLag = -1;
+        checkGtidSet = null;
+        CommandPacket cmd = new CommandPacket();
+        cmd.command = MySqlPacket.CMD_QUERY;
+        cmd.arg = heartbeatSql;
+        session.setState(MySqlSession.STATE_USING);
+        session.bind(this);
+        session.exeCommand(false, cmd);
+    }
+
+    /**
+     * 心跳失败，关闭专用连接，下次心跳时重建。
+     *
+     * @param reason
+     */
+    private void fail(String reason) {
+        if (!inFlight.compareAndSet(true, false)) {
+            return;
+        }
+        MySqlSession session = this.session;
+        this.session = null;
+        if (session != null) {
+            session.trueClose();
+        }
+        lastCheckTime = SystemClock.now();
+        rtt = -1;
+        successCount = 0;
+        failCount++;
+        logger.warn("MySqlService[{}] heartbeat fail({}): {}", mysqlService.getName(), failCount, reason);
+        if (mysqlService.isAlive() && failCount >= mysqlService.getConfig().getHeartbeatFailThreshold()) {
+            mysqlService.markAlive(false, reason);
+        }
+    }
+
+    /**
+     * 心跳成功。
+     */
+    private void success() {
+        if (!inFlight.compareAndSet(true, false)) {
+            return;
+        }
+        long now = SystemClock.now();
+        lastCheckTime = now;
+        rtt = SystemClock.elapsedMillis(startTime, now);
+        lag = checkLag;
+        if (checkSlaveStatus) {
+            mysqlService.updateReplicationLag(checkLag);
+        }
+        if (checkGtid) {
+            mysqlService.updateExecutedGtidSet(checkGtidSet);
+        }
+        failCount = 0;
+        successCount++;
+        if (!mysqlService.isAlive() && successCount >= mysqlService.getConfig().getHeartbeatRecoverThreshold()) {
+            mysqlService.markAlive(true, "heartbeat recovered");
+        }
+    }
+
+    @Override
+    public void receiveOkPacket(byte packetId, ByteBuf buf) {
+    }
+
+    @Override
+    public void receiveErrorPacket(byte packetId, ByteBuf buf) {
+        //能返回错误说明服务器可达，比如没有权限执行show slave status，此时只记录日志。
+        ErrorPacket errorPacket = new ErrorPacket();
+        errorPacket.read(buf);
+        logger.warn("MySqlService[{}] heartbeat sql error {}:{}", mysqlService.getName(), errorPacket.errorNo, errorPacket.message);
+    }
+
+    @Override
+    public void receiveResultSetHeaderPacket(byte packetId, ByteBuf buf) {
+        ResultSetHeaderPacket header = new ResultSetHeaderPacket();
+        header.read(buf);
+        fieldCount = header.fieldCount;
+    }
+
+    @Override
+    public void receiveFieldDataPacket(byte packetId, ByteBuf buf) {
+        if (checkSlaveStatus) {
+            FieldPacket field = new FieldPacket();
+            field.read(buf);
+            String name = new String(field.name);
+            if ("Seconds_Behind_Master".equals(name)) {
+                lagIndex = fieldIndex;
+            } else if ("Slave_IO_Running".equals(name)) {
+                ioRunningIndex = fieldIndex;
+            } else if ("Slave_SQL_Running".equals(name)) {
+                sqlRunningIndex = fieldIndex;
+            } else if (checkGtid && "Executed_Gtid_Set".equals(name)) {
+                gtidIndex = fieldIndex;
+            }
+        }
+        fieldIndex++;
+    }
+
+    @Override
+    public void receiveFieldDataEOFPacket(byte packetId, ByteBuf buf) {
+    }
+
+    @Override
+    public void receiveRowDataPacket(byte packetId, ByteBuf buf) {
+        RowDataPacket row = new RowDataPacket(fieldCount);
+        row.read(buf);
+        if (checkSlaveStatus) {
+            //已提升为写节点的slave，复制线程停止是正常的。
+            if (!mysqlService.isPromoted() && (!"Yes".equals(getValue(row, ioRunningIndex)) || !"Yes".equals(getValue(row, sqlRunningIndex)))) {
+                failReason = "slave replication is not running";
+            }
+            String lagValue = getValue(row, lagIndex);
+            if (lagValue != null && !lagValue.isEmpty()) {
+                try {
+                    checkLag = Long.parseLong(lagValue);
+                } catch (NumberFormatException e) {
+                    checkLag = -1;
+                }
+            }
+            if (checkGtid) {
+                //多源复制时每个通道一行，Executed_Gtid_Set都是全局的。
+                checkGtidSet = GtidSet.parse(getValue(row, gtidIndex));
+            }
+        } else if (fieldCount == 2) {
+            //garela集群状态，节点未就绪时不能提供服务。
+            if ("wsrep_ready".equals(getValue(row, 0)) && !"ON".equals(getValue(row, 1))) {
+                failReason = "wsrep is not ready";
+            }
+        }
+    }
+
+    @Override
+    public void receiveRowDataEOFPacket(byte packetId, ByteBuf buf) {
+    }
+
+    @Override
+    public void unbind() {
+        if (failReason == null) {
+            success();
+        } else {
+            fail(failReason);
+        }
+    }
+
+    /**
+     * 获得行数据中指定列的值。
+     *
+     * @param row
+     * @param index
+     * @return
+     */
+    private static String getValue(RowDataPacket row, int index) {
+        if (index < 0 || index >= row.fieldValues.size()) {
+            return null;
+        }
+        return new String(row.fieldValues.get(index));
+    }
+}
@@ -3,6 +3,7 @@ package uw.mydb.mysql;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -68,6 +69,17 @@ public class MySqlMaintenanceService {
         houseKeepingExecutor.scheduleWithFixedDelay(houseKeeper, 0L, 10_000, MILLISECONDS);
     }
 
+    /**
+     * 调度心跳检测。
+     *
+     * @param heartbeat
+     * @param interval  心跳间隔毫秒数
+     * @return
+     */
+    static ScheduledFuture<?> scheduleHeartbeat(Runnable heartbeat, long interval) {
+        return houseKeepingExecutor.scheduleWithFixedDelay(heartbeat, 0L, interval, MILLISECONDS);
+    }
+
     /**
      * 停止服务.
      */
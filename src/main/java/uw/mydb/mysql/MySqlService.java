@@ -2,22 +2,34 @@ package uw.mydb.mysql;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uw.mydb.conf.MydbConfig;
 import uw.mydb.mysql.util.ConcurrentBag;
+import uw.mydb.protocol.codec.MysqlCompressStats;
+import uw.mydb.protocol.packet.CommandPacket;
+import uw.mydb.protocol.packet.ErrorPacket;
+import uw.mydb.sqlparser.SqlParseResult;
+import uw.mydb.util.EventLoopManager;
 import uw.mydb.util.SystemClock;
+import uw.mydb.util.TransportUtils;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static uw.mydb.mysql.util.ConcurrentBag.IConcurrentBagEntry.STATE_NORMAL;
 import static uw.mydb.mysql.util.ConcurrentBag.IConcurrentBagEntry.STATE_USING;
@@ -32,6 +44,15 @@ import static uw.mydb.util.SystemClock.elapsedMillis;
 public class MySqlService implements ConcurrentBag.IBagStateListener {
 
     private static final Logger logger = LoggerFactory.getLogger(MySqlService.class);
+
+    /**
+     * 执行耗时EWMA的平滑系数。
+     */
+    private static final double LATENCY_EWMA_ALPHA = 0.2;
+    /**
+     * 追加流水线命令时最多尝试的session数。
+     */
+    private static final int MAX_PIPELINE_PROBES = 4;
     /**
      * 新建连接服务。
      */
@@ -44,11 +65,6 @@ public class MySqlService implements ConcurrentBag.IBagStateListener {
      * 异步创建线程实例。
      */
     private final SessionCreator SESSION_CREATOR = new SessionCreator();
-    /**
-     * acceptor线程。
-     */
-    private EventLoopGroup group = null;
-
     /**
      * bootstrap实例。
      */
@@ -87,9 +103,64 @@ public class MySqlService implements ConcurrentBag.IBagStateListener {
     private AtomicInteger connectionCreateErrorCount = new AtomicInteger(0);
 
     /**
-     * 是否活着。
+     * 异步获取session的等待队列，先进先出。
+     */
+    private final Queue<SessionWaiter> waiterQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 等待队列长度。
+     */
+    private final AtomicInteger waiterCount = new AtomicInteger(0);
+
+    /**
+     * 按eventLoop划分的空闲session分区。
+     */
+    private SessionPartition[] partitions = new SessionPartition[0];
+
+    /**
+     * eventLoop到分区的映射，启动后只读。
+     */
+    private Map<EventExecutor, SessionPartition> partitionMap = Collections.emptyMap();
+
+    /**
+     * 压缩协议统计。
+     */
+    private final MysqlCompressStats compressStats = new MysqlCompressStats();
+
+    /**
+     * 可以追加流水线命令的session，关闭流水线的在取出时过滤。
      */
-    private boolean isAlive = true;
+    private final Queue<MySqlSession> pipelineQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 已借出正在执行的session数量。
+     */
+    private final AtomicInteger inFlightCount = new AtomicInteger(0);
+
+    /**
+     * 执行耗时的指数加权移动平均值，毫秒。
+     */
+    private volatile double latencyEwma;
+
+    /**
+     * 是否活着，由心跳检测更新。
+     */
+    private volatile boolean isAlive = true;
+
+    /**
+     * 复制延迟是否超过所属组的阈值，超过时不参与读。
+     */
+    private volatile boolean isLagging = false;
+
+    /**
+     * 心跳检测到的已应用的GTID集合，只在开启写后读一致性的slave上更新。
+     */
+    private volatile GtidSet executedGtidSet;
+
+    /**
+     * 心跳检测。
+     */
+    private MySqlHeartbeat heartbeat;
 
     /**
      * service name。
@@ -129,15 +200,24 @@ public class MySqlService implements ConcurrentBag.IBagStateListener {
      */
     public boolean start() {
         if (status.compareAndSet(false, true)) {
-            group = new NioEventLoopGroup(0, new ThreadFactoryBuilder().setNameFormat("mysql_" + name).build());
-            bootstrap.group(group)
-                    .channel(NioSocketChannel.class)
+            //每个reactor线程一个空闲session分区。
+            Map<EventExecutor, SessionPartition> map = new IdentityHashMap<>();
+            for (EventExecutor eventLoop : EventLoopManager.getWorkerGroup()) {
+                map.put(eventLoop, new SessionPartition());
+            }
+            partitions = map.values().toArray(new SessionPartition[0]);
+            partitionMap = map;
+            //使用和前端连接共享的reactor线程。
+            bootstrap.group(EventLoopManager.getWorkerGroup())
+                    .channel(TransportUtils.getSocketChannelClass())
                     .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
                     .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                     .option(ChannelOption.TCP_NODELAY, false)
                     .handler(new MySqlDataHandlerFactory());
             addSessionExecutor = new ThreadPoolExecutor(1, 10, 20, SECONDS, new SynchronousQueue<>(), new ThreadFactoryBuilder().setNameFormat("mysql-house-keeping-%d").setDaemon(true).build(), new ThreadPoolExecutor.DiscardPolicy());
             MySqlMaintenanceService.scheduleHouseKeeping(new HouseKeeper());
+            heartbeat = new MySqlHeartbeat(this, mysqlGroupService.getGroupType());
+            heartbeat.start();
             return true;
         } else {
             return false;
@@ -151,9 +231,11 @@ public class MySqlService implements ConcurrentBag.IBagStateListener {
      */
     public boolean stop() {
         if (status.compareAndSet(true, false)) {
+            if (heartbeat != null) {
+                heartbeat.stop();
+            }
             sessionBag.close();
             addSessionExecutor.shutdown();
-            group.shutdownGracefully();
             return true;
         } else {
             return false;
@@ -175,6 +257,209 @@ public class MySqlService implements ConcurrentBag.IBagStateListener {
         return isAlive;
     }
 
+    /**
+     * 是否可读，存活并且复制延迟没有超过阈值。
+     *
+     * @return
+     */
+    public boolean isReadable() {
+        return isAlive && !isLagging;
+    }
+
+    /**
+     * 是否已在故障切换中被提升为写节点。
+     *
+     * @return
+     */
+    public boolean isPromoted() {
+        return mysqlGroupService.getPromotedService() == this;
+    }
+
+    /**
+     * 复制延迟是否超过阈值。
+     *
+     * @return
+     */
+    public boolean isLagging() {
+        return isLagging;
+    }
+
+    /**
+     * 根据心跳检测到的复制延迟更新可读状态。
+     * 超过阈值时移出读列表，回落到阈值的一半以内才重新加入，避免在阈值附近反复切换。
+     *
+     * @param lag 延迟秒数，-1表示未知
+     */
+    void updateReplicationLag(long lag) {
+        long maxLag = mysqlGroupService.getMaxSlaveLag();
+        if (maxLag <= 0 || lag < 0) {
+            if (isLagging) {
+                isLagging = false;
+                logger.warn("MySqlService[{}] lag check is cleared, lag: {}", name, lag);
+            }
+            return;
+        }
+        if (!isLagging && lag > maxLag) {
+            isLagging = true;
+            logger.warn("MySqlService[{}] is LAGGING: {}s > {}s, removed from read services.", name, lag, maxLag);
+        } else if (isLagging && lag <= maxLag / 2) {
+            isLagging = false;
+            logger.warn("MySqlService[{}] caught up: {}s, back to read services.", name, lag);
+        }
+    }
+
+    /**
+     * 是否跟踪写入的GTID，所属组开启写后读一致性时为true。
+     *
+     * @return
+     */
+    public boolean isTrackGtid() {
+        return mysqlGroupService.isGtidConsistency();
+    }
+
+    /**
+     * 更新心跳检测到的已应用的GTID集合。
+     *
+     * @param gtidSet
+     */
+    void updateExecutedGtidSet(GtidSet gtidSet) {
+        this.executedGtidSet = gtidSet;
+    }
+
+    /**
+     * 是否已经应用了指定的GTID，master和提升为写节点的slave总是满足。
+     *
+     * @param gtidSet
+     * @return
+     */
+    public boolean hasAppliedGtid(GtidSet gtidSet) {
+        if (!isSlaveNode || isPromoted()) {
+            return true;
+        }
+        GtidSet executed = this.executedGtidSet;
+        return executed != null && executed.contains(gtidSet);
+    }
+
+    /**
+     * 设置存活状态。
+     * 下线时排队中的请求直接失败，不再等到超时。
+     *
+     * @param alive
+     * @param reason
+     */
+    void markAlive(boolean alive, String reason) {
+        if (this.isAlive == alive) {
+            return;
+        }
+        this.isAlive = alive;
+        if (alive) {
+            logger.warn("MySqlService[{}] is UP: {}", name, reason);
+        } else {
+            logger.error("MySqlService[{}] is DOWN: {}", name, reason);
+            SessionWaiter waiter;
+            while ((waiter = waiterQueue.poll()) != null) {
+                waiterCount.decrementAndGet();
+                waiter.fail(new IllegalStateException("MySqlService[" + name + "] is down!"));
+            }
+            drainSessions("(service is down)");
+        }
+        mysqlGroupService.onServiceStateChanged(this);
+    }
+
+    /**
+     * 关闭所有session，执行中的session关闭后由MySqlSession.handleClose通知前端报错。
+     *
+     * @param reason
+     */
+    private void drainSessions(String reason) {
+        for (MySqlSession session : sessionBag.sourceList()) {
+            if (sessionBag.reserve(STATE_NORMAL, session) || sessionBag.reserve(STATE_USING, session)) {
+                closeSession(session, reason);
+            }
+        }
+    }
+
+    /**
+     * 预热连接池，异步创建连接，不阻塞调用线程。
+     */
+    void warmUp() {
+        addBagItem(0);
+    }
+
+    /**
+     * 获得未完成的请求数，包括执行中和排队等待session的请求。
+     *
+     * @return
+     */
+    public int getOutstandingRequests() {
+        return inFlightCount.get() + waiterCount.get();
+    }
+
+    /**
+     * 获得执行耗时的EWMA，毫秒。
+     *
+     * @return
+     */
+    public double getLatencyEwma() {
+        return latencyEwma;
+    }
+
+    /**
+     * 更新执行中的session计数。
+     *
+     * @param delta
+     */
+    void updateInFlight(int delta) {
+        inFlightCount.addAndGet(delta);
+    }
+
+    /**
+     * 记录一次执行耗时。
+     * 并发更新时允许丢失少量样本，不影响均衡效果。
+     *
+     * @param millis
+     */
+    void recordLatency(long millis) {
+        double ewma = latencyEwma;
+        latencyEwma = ewma == 0 ? millis : ewma + LATENCY_EWMA_ALPHA * (millis - ewma);
+    }
+
+    /**
+     * 获得最近一次心跳响应毫秒数，-1表示心跳失败或未检测。
+     *
+     * @return
+     */
+    public long getHeartbeatRtt() {
+        return heartbeat == null ? -1 : heartbeat.getRtt();
+    }
+
+    /**
+     * 获得后端链路的压缩统计。
+     *
+     * @return
+     */
+    public MysqlCompressStats getCompressStats() {
+        return compressStats;
+    }
+
+    /**
+     * 获得最近一次检测到的复制延迟秒数，-1表示未知或不适用。
+     *
+     * @return
+     */
+    public long getReplicationLag() {
+        return heartbeat == null ? -1 : heartbeat.getLag();
+    }
+
+    /**
+     * 获得最近一次心跳时间。
+     *
+     * @return
+     */
+    public long getLastHeartbeatTime() {
+        return heartbeat == null ? 0 : heartbeat.getLastCheckTime();
+    }
+
     /**
      * 获得配置文件。
      *
@@ -218,7 +503,13 @@ public class MySqlService implements ConcurrentBag.IBagStateListener {
         MySqlSession session = null;
         try {
             connectionCreateCount.incrementAndGet();
-            ChannelFuture cf = bootstrap.connect(config.getHost(), config.getPort());
+            //有排队请求时，在排队最久的请求所在线程上建立连接，使新连接落到需要它的分区。
+            SessionWaiter waiter = waiterQueue.peek();
+            Bootstrap b = bootstrap;
+            if (waiter != null && waiter.executor instanceof EventLoop) {
+                b = bootstrap.clone((EventLoop) waiter.executor);
+            }
+            ChannelFuture cf = b.connect(config.getHost(), config.getPort());
             cf.addListener(new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture future) throws Exception {
@@ -242,6 +533,27 @@ public class MySqlService implements ConcurrentBag.IBagStateListener {
         return session;
     }
 
+    /**
+     * 异步建立一个心跳专用连接，不进入连接池。
+     * 验证通过后通知heartbeat.onConnected，失败时通知heartbeat.onConnectFail。
+     *
+     * @param heartbeat
+     * @return
+     */
+    MySqlSession openHeartbeatSession(MySqlHeartbeat heartbeat) {
+        ChannelFuture cf = bootstrap.connect(config.getHost(), config.getPort());
+        Channel channel = cf.channel();
+        MySqlSession session = new MySqlSession(this, channel);
+        session.heartbeat = heartbeat;
+        channel.attr(MySqlDataHandler.MYSQL_SESSION).set(session);
+        cf.addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                heartbeat.onConnectFail(session, String.valueOf(future.cause()));
+            }
+        });
+        return session;
+    }
+
     /**
      * 向bag中增加一个session。
      *
@@ -251,35 +563,28 @@ public class MySqlService implements ConcurrentBag.IBagStateListener {
         sessionBag.add(session);
         pendingCreateCount.decrementAndGet();
         logger.debug("{} - Added connection {}", name, session);
+        offerIdle(session);
+        notifyWaiters();
     }
 
 
     /**
-     * 获得一个可用的session。
+     * 获得一个可用的session，获取不到时阻塞等待。
+     * 会阻塞调用线程，不能在reactor线程中调用，reactor线程中应使用acquireSession。
      *
      * @return
      */
     public MySqlSession getSession(MySqlSessionCallback mysqlSessionCallback) {
         final long startTime = SystemClock.now();
         try {
-            long timeout = 10_000;
+            long timeout = config.getAcquireTimeout();
             do {
                 MySqlSession session = sessionBag.borrow(timeout);
                 if (session == null) {
                     logger.warn("can't get session from pool!");
                     continue; // We timed out... break and throw exception
                 }
-                //检查session状态。
-                if (!session.isAlive()) {
-                    //此处应尝试关闭。
-                    sessionBag.reserve(STATE_USING, session);
-                    closeSession(session, "check session is not alive!");
-                    continue;
-                }
-                //检查是否超过最大寿命。因为在后台检查中可能无法进入寿命检查状态。
-                if (SystemClock.elapsedMillis(session.createTime, startTime) > SECONDS.toMillis(config.getConnMaxAge())) {
-                    sessionBag.reserve(STATE_USING, session);
-                    closeSession(session, "(connection has maxAge timeout)");
+                if (!checkSession(session, startTime)) {
                     continue;
                 }
                 session.bind(mysqlSessionCallback);
@@ -293,6 +598,270 @@ public class MySqlService implements ConcurrentBag.IBagStateListener {
         }
     }
 
+    /**
+     * 异步获取一个可用的session，不阻塞调用线程。
+     * 有空闲session时立即完成，否则进入先进先出的等待队列，在session归还或新建时完成。
+     * 结果在executor线程中通知，排队超时或者队列已满时以失败结束。
+     *
+     * @param mysqlSessionCallback
+     * @param executor             前端session所在的eventLoop，优先获取同线程的session
+     * @return
+     */
+    public Future<MySqlSession> acquireSession(MySqlSessionCallback mysqlSessionCallback, EventExecutor executor) {
+        Promise<MySqlSession> promise = executor.newPromise();
+        if (!isAlive) {
+            promise.setFailure(new IllegalStateException("MySqlService[" + name + "] is down!"));
+            return promise;
+        }
+        MySqlSession session = tryBorrow(executor);
+        if (session != null) {
+            session.bind(mysqlSessionCallback);
+            promise.setSuccess(session);
+            return promise;
+        }
+        if (waiterCount.incrementAndGet() > config.getMaxWaiters()) {
+            waiterCount.decrementAndGet();
+            promise.setFailure(new RejectedExecutionException("MySqlService[" + name + "] too many session waiters!"));
+            return promise;
+        }
+        SessionWaiter waiter = new SessionWaiter(mysqlSessionCallback, executor, promise);
+        waiterQueue.offer(waiter);
+        waiter.timeoutFuture = executor.schedule(() -> {
+            //只有从队列中移除成功的，才由超时任务结束。
+            if (waiterQueue.remove(waiter)) {
+                waiterCount.decrementAndGet();
+                promise.tryFailure(new TimeoutException("MySqlService[" + name + "] acquire session timeout!"));
+            }
+        }, config.getAcquireTimeout(), MILLISECONDS);
+        //通知创建新连接。
+        addBagItem(waiterCount.get());
+        //入队期间可能有session归还，再检查一次。
+        notifyWaiters();
+        return promise;
+    }
+
+    /**
+     * 是否有空闲session，队列中可能有已借出的session，结果只用于判断是否值得走流水线。
+     *
+     * @return
+     */
+    public boolean hasIdleSession() {
+        for (SessionPartition partition : partitions) {
+            if (!partition.idleDeque.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在执行中的session上追加一条流水线sql，不占用新的连接。
+     *
+     * @param callback
+     * @param sqlInfo
+     * @return 追加成功的session，没有可用的返回null
+     */
+    public MySqlSession exePipelined(MySqlSessionCallback callback, SqlParseResult.SqlInfo sqlInfo) {
+        if (!isAlive || config.getPipelineDepth() < 2 || pipelineQueue.isEmpty()) {
+            return null;
+        }
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer();
+        try {
+            sqlInfo.writePacket(buf);
+            return attachPipeline(callback, sqlInfo.getDatabase(), sqlInfo.getTable(), buf, null);
+        } finally {
+            buf.release();
+        }
+    }
+
+    /**
+     * 在执行中的session上追加一个转发的数据包，session必须已在database库中。
+     *
+     * @param callback
+     * @param database
+     * @param packet   完整的数据包，调用方负责释放
+     * @return 追加成功的session，没有可用的返回null
+     */
+    public MySqlSession exePipelined(MySqlSessionCallback callback, String database, ByteBuf packet) {
+        if (!isAlive || config.getPipelineDepth() < 2 || pipelineQueue.isEmpty()) {
+            return null;
+        }
+        return attachPipeline(callback, database, null, packet, database);
+    }
+
+    /**
+     * 从候选队列中找一个session追加流水线命令，追加后放回队尾，让命令分散到不同连接上。
+     *
+     * @return
+     */
+    private MySqlSession attachPipeline(MySqlSessionCallback callback, String database, String table, ByteBuf packet, String requireDatabase) {
+        for (int i = 0; i < MAX_PIPELINE_PROBES; i++) {
+            MySqlSession session = pipelineQueue.poll();
+            if (session == null) {
+                return null;
+            }
+            session.pipelineQueued.set(false);
+            if (!session.isPipelineOpen()) {
+                continue;
+            }
+            boolean success = session.tryPipeline(callback, database, table, packet, requireDatabase);
+            offerPipeline(session);
+            if (success) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 放入流水线候选队列，已在队列中的不重复放入。
+     *
+     * @param session
+     */
+    void offerPipeline(MySqlSession session) {
+        if (session.pipelineQueued.compareAndSet(false, true)) {
+            pipelineQueue.offer(session);
+        }
+    }
+
+    /**
+     * 通过另一个连接发送KILL QUERY，中断target正在执行的命令。
+     * 无论KILL成功与否，结束后都通知target。
+     *
+     * @param target
+     */
+    void killQuery(MySqlSession target) {
+        KillCallback callback = new KillCallback(target);
+        acquireSession(callback, target.channel.eventLoop()).addListener((Future<MySqlSession> future) -> {
+            if (future.isSuccess()) {
+                future.getNow().exeCommand(true, CommandPacket.build("KILL QUERY " + target.getThreadId()));
+            } else {
+                logger.warn("MySqlService[{}] kill query {} fail: {}", name, target.getThreadId(), future.cause().getMessage());
+                target.killDone();
+            }
+        });
+    }
+
+    /**
+     * 非阻塞获取可用的session。
+     * 优先从executor对应的分区获取，分区为空时再从其它分区窃取。
+     *
+     * @param executor 可以为null
+     * @return
+     */
+    private MySqlSession tryBorrow(EventExecutor executor) {
+        final long now = SystemClock.now();
+        final SessionPartition local = executor == null ? null : partitionMap.get(executor);
+        while (true) {
+            MySqlSession session = null;
+            if (local != null) {
+                session = local.poll(false);
+            }
+            if (session == null) {
+                session = steal(local);
+            }
+            if (session == null) {
+                return null;
+            }
+            if (checkSession(session, now)) {
+                return session;
+            }
+        }
+    }
+
+    /**
+     * 从其它分区窃取空闲session，从随机分区开始，避免集中在同一个分区上。
+     *
+     * @param local 跳过的本地分区
+     * @return
+     */
+    private MySqlSession steal(SessionPartition local) {
+        final SessionPartition[] partitions = this.partitions;
+        if (partitions.length == 0) {
+            return null;
+        }
+        int start = ThreadLocalRandom.current().nextInt(partitions.length);
+        for (int i = 0; i < partitions.length; i++) {
+            SessionPartition partition = partitions[(start + i) % partitions.length];
+            if (partition == local) {
+                continue;
+            }
+            MySqlSession session = partition.poll(true);
+            if (session != null) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 把空闲session放回所属eventLoop的分区。
+     *
+     * @param session
+     */
+    private void offerIdle(MySqlSession session) {
+        SessionPartition partition = partitionMap.get(session.channel.eventLoop());
+        if (partition != null) {
+            partition.offer(session);
+        }
+    }
+
+    /**
+     * 归还session到连接池和分区。
+     *
+     * @param session
+     */
+    private void releaseIdle(MySqlSession session) {
+        sessionBag.requite(session);
+        offerIdle(session);
+    }
+
+    /**
+     * 检查借出的session是否可用，不可用的直接关闭。
+     *
+     * @param session
+     * @param now
+     * @return
+     */
+    private boolean checkSession(MySqlSession session, long now) {
+        //检查session状态。
+        if (!session.isAlive()) {
+            //此处应尝试关闭。
+            sessionBag.reserve(STATE_USING, session);
+            closeSession(session, "check session is not alive!");
+            return false;
+        }
+        //检查是否超过最大寿命。因为在后台检查中可能无法进入寿命检查状态。
+        if (SystemClock.elapsedMillis(session.createTime, now) > SECONDS.toMillis(config.getConnMaxAge())) {
+            sessionBag.reserve(STATE_USING, session);
+            closeSession(session, "(connection has maxAge timeout)");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 把空闲session按顺序交给等待者，优先使用等待者所在分区的session。
+     */
+    private void notifyWaiters() {
+        while (waiterCount.get() > 0) {
+            SessionWaiter head = waiterQueue.peek();
+            MySqlSession session = tryBorrow(head == null ? null : head.executor);
+            if (session == null) {
+                return;
+            }
+            SessionWaiter waiter = waiterQueue.poll();
+            if (waiter == null) {
+                releaseIdle(session);
+                return;
+            }
+            waiterCount.decrementAndGet();
+            if (!waiter.complete(session)) {
+                releaseIdle(session);
+            }
+        }
+    }
+
     /**
      * 填充连接池。
      */
@@ -325,6 +894,15 @@ public class MySqlService implements ConcurrentBag.IBagStateListener {
         return sessionBag.getWaitingThreadCount();
     }
 
+    /**
+     * 异步等待队列长度。
+     *
+     * @return
+     */
+    public int getAwaitingRequests() {
+        return waiterCount.get();
+    }
+
     /**
      * 获得建立中的连接数。
      * @return
@@ -359,6 +937,7 @@ public class MySqlService implements ConcurrentBag.IBagStateListener {
      */
     void closeSession(final MySqlSession session, final String closureReason) {
         logger.info("MySqlService[{}]({}) close session {} by {}", this.getName(), sessionBag.size(), session, closureReason);
+        session.clearInFlight();
         if (sessionBag.remove(session)) {
             MySqlMaintenanceService.queueCloseSession(new Runnable() {
                 @Override
@@ -388,7 +967,138 @@ public class MySqlService implements ConcurrentBag.IBagStateListener {
      * @param mysqlSession
      */
     public void requiteSession(MySqlSession mysqlSession) {
-        sessionBag.requite(mysqlSession);
+        releaseIdle(mysqlSession);
+        notifyWaiters();
+    }
+
+    /**
+     * 单个eventLoop的空闲session分区。
+     * 本线程从头部存取，保持热连接优先；其它线程从尾部窃取，减少竞争。
+     * 队列中可能有已被其它途径借出或关闭的session，取出时通过状态CAS过滤。
+     */
+    private static final class SessionPartition {
+
+        /**
+         * 空闲session队列。
+         */
+        private final ConcurrentLinkedDeque<MySqlSession> idleDeque = new ConcurrentLinkedDeque<>();
+
+        /**
+         * 放入空闲session，已在队列中的不重复放入。
+         *
+         * @param session
+         */
+        void offer(MySqlSession session) {
+            if (session.idleQueued.compareAndSet(false, true)) {
+                idleDeque.offerFirst(session);
+            }
+        }
+
+        /**
+         * 取出一个空闲session，并标记为使用中。
+         *
+         * @param steal 是否为其它线程窃取
+         * @return
+         */
+        MySqlSession poll(boolean steal) {
+            MySqlSession session;
+            while ((session = steal ? idleDeque.pollLast() : idleDeque.pollFirst()) != null) {
+                session.idleQueued.set(false);
+                if (session.compareAndSet(STATE_NORMAL, STATE_USING)) {
+                    return session;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * KILL QUERY的回调，结束后通知被中断的session。
+     */
+    private static final class KillCallback extends DiscardSessionCallback {
+
+        /**
+         * 被中断的session。
+         */
+        private final MySqlSession target;
+
+        KillCallback(MySqlSession target) {
+            this.target = target;
+        }
+
+        @Override
+        public void receiveErrorPacket(byte packetId, ByteBuf buf) {
+            ErrorPacket errorPacket = new ErrorPacket();
+            errorPacket.read(buf);
+            logger.warn("MySqlService[{}] kill query {} error {}:{}", target.mysqlService.getName(), target.getThreadId(), errorPacket.errorNo, errorPacket.message);
+        }
+
+        @Override
+        public void unbind() {
+            target.killDone();
+        }
+    }
+
+    /**
+     * 异步获取session的等待者。
+     */
+    private static final class SessionWaiter {
+
+        /**
+         * 前端回调。
+         */
+        private final MySqlSessionCallback callback;
+
+        /**
+         * 等待者所在的eventLoop。
+         */
+        private final EventExecutor executor;
+
+        /**
+         * 获取结果。
+         */
+        private final Promise<MySqlSession> promise;
+
+        /**
+         * 超时任务。
+         */
+        private ScheduledFuture<?> timeoutFuture;
+
+        SessionWaiter(MySqlSessionCallback callback, EventExecutor executor, Promise<MySqlSession> promise) {
+            this.callback = callback;
+            this.executor = executor;
+            this.promise = promise;
+        }
+
+        /**
+         * 交付session，结果在promise所在线程中通知。
+         *
+         * @param session
+         * @return 是否交付成功
+         */
+        boolean complete(MySqlSession session) {
+            if (timeoutFuture != null) {
+                timeoutFuture.cancel(false);
+            }
+            session.bind(callback);
+            if (promise.trySuccess(session)) {
+                return true;
+            }
+            session.bind(null);
+            return false;
+        }
+
+        /**
+         * 获取失败。
+         *
+         * @param cause
+         */
+        void fail(Throwable cause) {
+            if (timeoutFuture != null) {
+                timeoutFuture.cancel(false);
+            }
+            promise.tryFailure(cause);
+        }
     }
 
     /**
@@ -415,7 +1125,7 @@ public class MySqlService implements ConcurrentBag.IBagStateListener {
          */
         private boolean shouldCreateAnotherSession() {
             return (getTotalSessions() + pendingCreateCount.get()) < config.getMaxConn() &&
-                    (sessionBag.getWaitingThreadCount() > pendingCreateCount.get() || (getIdleSessions()) < config.getMinConn());
+                    (sessionBag.getWaitingThreadCount() + waiterCount.get() > pendingCreateCount.get() || (getIdleSessions()) < config.getMinConn());
         }
 
     }
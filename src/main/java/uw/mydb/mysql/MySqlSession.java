@@ -2,18 +2,28 @@ package uw.mydb.mysql;
 
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import org.slf4j.LoggerFactory;
 import uw.mydb.mysql.util.ConcurrentBag;
+import uw.mydb.protocol.codec.MysqlCompressCodec;
 import uw.mydb.protocol.packet.*;
 import uw.mydb.protocol.util.Capability;
+import uw.mydb.protocol.util.ErrorCode;
 import uw.mydb.sqlparser.SqlParseResult;
 import uw.mydb.stats.StatsFactory;
+import uw.mydb.util.ByteBufUtils;
 import uw.mydb.util.SecurityUtils;
 import uw.mydb.util.SystemClock;
 
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
@@ -75,6 +85,22 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
      */
     MySqlSessionCallback sessionCallback;
 
+    /**
+     * 是否已在所属分区的空闲队列中。
+     */
+    final AtomicBoolean idleQueued = new AtomicBoolean(false);
+
+    /**
+     * 心跳专用连接所属的心跳检测，普通连接为null。
+     * 专用连接不进入连接池。
+     */
+    MySqlHeartbeat heartbeat;
+
+    /**
+     * 是否已计入所属服务的执行中计数。
+     */
+    private boolean inFlight;
+
     /**
      * 连接状态。
      */
@@ -136,6 +162,102 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
      */
     private CommandPacket command;
 
+    /**
+     * 是否跟踪写入产生的GTID，用于读写一致性。
+     */
+    private boolean trackGtid;
+
+    /**
+     * 验证通过后正在设置session_track_gtids，等待返回。
+     */
+    private boolean trackGtidInit;
+
+    /**
+     * 连接当前所在的数据库。
+     */
+    private String currentDatabase;
+
+    /**
+     * 正在切换的数据库，切换结果返回前不为null。
+     */
+    private String syncDatabase;
+
+    /**
+     * 连接上已生效的会话变量，null表示同步失败后状态未知，归还时关闭连接。
+     */
+    private SessionVariables variables = SessionVariables.EMPTY;
+
+    /**
+     * 正在同步的会话变量，同步结果返回前不为null。
+     */
+    private SessionVariables syncVariables;
+
+    /**
+     * 同步结果是否就是本次执行的结果，需要转发给前端。
+     */
+    private boolean syncReply;
+
+    /**
+     * 连接上已预编译的语句，key为数据库和sql，value为后端语句id，按访问顺序淘汰。
+     */
+    private LinkedHashMap<String, Long> stmtIdMap;
+
+    /**
+     * 等待预编译结果的执行包。
+     */
+    private StmtExecutePacket pendingExecute;
+
+    /**
+     * 等待预编译结果的语句key。
+     */
+    private String pendingStmtKey;
+
+    /**
+     * 预编译返回中剩余的定义包数量，-1表示等待首包。
+     */
+    private int prepareRemain;
+
+    /**
+     * 是否已在所属服务的流水线候选队列中。
+     */
+    final AtomicBoolean pipelineQueued = new AtomicBoolean(false);
+
+    /**
+     * 流水线中已发送、排在当前命令之后等待返回的命令，按发送顺序排列。
+     * 通过synchronized(this)保护。
+     */
+    private final ArrayDeque<PipelineEntry> pipeline = new ArrayDeque<>();
+
+    /**
+     * 是否允许其他前端追加流水线命令，通过synchronized(this)保护。
+     */
+    private boolean pipelineOpen;
+
+    /**
+     * mysql服务端的连接id，用于KILL QUERY。
+     */
+    private long threadId;
+
+    /**
+     * 是否协商使用压缩协议。
+     */
+    private boolean compress;
+
+    /**
+     * 是否有KILL QUERY正在执行，执行完之前连接不能归还。
+     */
+    private boolean killing;
+
+    /**
+     * KILL QUERY执行期间命令已经结束，等待KILL完成后归还。
+     */
+    private boolean killReturned;
+
+    /**
+     * 连接上是否有未结束的事务，取自最后返回的OK/EOF包状态。有事务的连接不能归还连接池。
+     */
+    private boolean inTransaction;
+
 
     public MySqlSession(MySqlService mysqlService, Channel channel) {
         this.mysqlService = mysqlService;
@@ -163,13 +285,31 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
         return SecurityUtils.scramble411(password, seed);
     }
 
+    /**
+     * 获得mysql服务端的连接id。
+     *
+     * @return
+     */
+    public long getThreadId() {
+        return threadId;
+    }
+
     /**
      * 检测链接可用性。
      *
      * @return
      */
     public boolean isAlive() {
-        return true;
+        return channel.isActive();
+    }
+
+    /**
+     * 获得所属的mysql组名。
+     *
+     * @return
+     */
+    public String getGroupName() {
+        return mysqlService.getGroupName();
     }
 
 
@@ -197,12 +337,471 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
         this.isMasterSql = isMasterSql;
         this.database = sqlInfo.getDatabase();
         this.table = sqlInfo.getTable();
+        syncVariables();
         ByteBuf buf = channel.alloc().buffer();
-        this.command = sqlInfo.genPacket();
-        this.command.write(buf);
+        this.command = null;
+        sqlInfo.writePacket(buf);
         //标记发送字节数。
         sendBytes += buf.readableBytes();
         channel.writeAndFlush(buf);
+        openPipeline();
+    }
+
+    /**
+     * 直接转发前端的数据包。
+     * 如果连接所在数据库不一致，先发送COM_INIT_DB，和数据包一起发送。
+     *
+     * @param isMasterSql
+     * @param database 需要所在的数据库
+     * @param packet   完整的数据包，发送后释放
+     */
+    public void exePassThrough(boolean isMasterSql, String database, ByteBuf packet) {
+        exePassThrough(isMasterSql, database, packet, false);
+    }
+
+    /**
+     * 直接转发前端的数据包。
+     * 超过16MB的数据包后面还有续帧，续帧发送期间不能让其他前端追加流水线命令，否则会插入到数据包中间。
+     *
+     * @param isMasterSql
+     * @param database   需要所在的数据库
+     * @param packet     完整的数据包，发送后释放
+     * @param moreFrames 是否还有续帧，为true时不开放流水线
+     */
+    public void exePassThrough(boolean isMasterSql, String database, ByteBuf packet, boolean moreFrames) {
+        this.isMasterSql = isMasterSql;
+        this.database = database;
+        this.table = null;
+        syncVariables();
+        syncDatabase(database);
+        //数据包序号必须从0开始。
+        packet.setByte(packet.readerIndex() + 3, 0);
+        sendBytes += packet.readableBytes();
+        channel.writeAndFlush(packet);
+        if (!moreFrames) {
+            openPipeline();
+        }
+    }
+
+    /**
+     * 自动提交的读请求执行后，允许其他前端在连接上追加流水线命令。
+     */
+    private void openPipeline() {
+        if (isMasterSql || heartbeat != null || mysqlService.getConfig().getPipelineDepth() < 2) {
+            return;
+        }
+        SessionVariables target = sessionCallback == null ? null : sessionCallback.getSessionVariables();
+        if (target == null || !target.isAutocommit() || inTransaction) {
+            return;
+        }
+        synchronized (this) {
+            pipelineOpen = true;
+        }
+        mysqlService.offerPipeline(this);
+    }
+
+    /**
+     * 是否允许追加流水线命令。
+     *
+     * @return
+     */
+    synchronized boolean isPipelineOpen() {
+        return pipelineOpen;
+    }
+
+    /**
+     * 尝试在当前连接上追加一条流水线命令。
+     * 只有连接没有等待中的同步操作，且会话变量、数据库和前端一致时才能追加，追加的命令不再需要任何同步。
+     *
+     * @param callback        前端回调
+     * @param database        统计用的数据库
+     * @param table           统计用的表
+     * @param packet          完整的数据包，成功时发送它的副本，不改变引用计数
+     * @param requireDatabase 连接必须所在的数据库，null表示不要求
+     * @return 是否追加成功
+     */
+    synchronized boolean tryPipeline(MySqlSessionCallback callback, String database, String table, ByteBuf packet, String requireDatabase) {
+        if (!pipelineOpen || pipeline.size() + 1 >= mysqlService.getConfig().getPipelineDepth()) {
+            return false;
+        }
+        if (syncVariables != null || syncDatabase != null || variables == null || !variables.equals(callback.getSessionVariables())) {
+            return false;
+        }
+        if (requireDatabase != null && !requireDatabase.equals(currentDatabase)) {
+            return false;
+        }
+        //数据包序号必须从0开始。
+        packet.setByte(packet.readerIndex() + 3, 0);
+        pipeline.add(new PipelineEntry(callback, database, table, packet.readableBytes()));
+        mysqlService.updateInFlight(1);
+        //在锁内发送，保证发送顺序和队列顺序一致。
+        channel.writeAndFlush(packet.retainedDuplicate());
+        return true;
+    }
+
+    /**
+     * 当前命令结束后，切换到流水线中的下一条命令。
+     *
+     * @return 没有后续命令时返回false，并关闭流水线
+     */
+    private synchronized boolean nextPipeline() {
+        PipelineEntry entry = pipeline.poll();
+        if (entry == null) {
+            pipelineOpen = false;
+            return false;
+        }
+        this.sessionCallback = entry.callback;
+        this.database = entry.database;
+        this.table = entry.table;
+        this.sendBytes = entry.sendBytes;
+        this.lastAccess = entry.startTime;
+        //当前命令已经结束，后续命令继续使用连接的执行中计数。
+        mysqlService.updateInFlight(-1);
+        return true;
+    }
+
+    /**
+     * 执行预编译语句，sql已经重写过库表名。
+     *
+     * @param isMasterSql
+     * @param sqlInfo
+     * @param execute
+     */
+    public void exeStatement(boolean isMasterSql, SqlParseResult.SqlInfo sqlInfo, StmtExecutePacket execute) {
+        this.isMasterSql = isMasterSql;
+        this.database = sqlInfo.getDatabase();
+        this.table = sqlInfo.getTable();
+        syncVariables();
+        sendStatement(sqlInfo.getNewSql(), execute);
+    }
+
+    /**
+     * 在指定数据库上执行预编译语句。
+     *
+     * @param isMasterSql
+     * @param database    需要所在的数据库
+     * @param sql
+     * @param execute
+     */
+    public void exeStatement(boolean isMasterSql, String database, String sql, StmtExecutePacket execute) {
+        this.isMasterSql = isMasterSql;
+        this.database = database;
+        this.table = null;
+        syncVariables();
+        syncDatabase(database);
+        sendStatement(sql, execute);
+    }
+
+    /**
+     * 发送预编译语句的执行包。
+     * 连接上已有预编译语句的直接执行，否则先预编译，拿到语句id后再执行。
+     *
+     * @param sql
+     * @param execute
+     */
+    private void sendStatement(String sql, StmtExecutePacket execute) {
+        //预编译时的表名解析依赖当前数据库。
+        String key = (syncDatabase != null ? syncDatabase : currentDatabase) + ":" + sql;
+        Long stmtId = stmtIdMap == null ? null : stmtIdMap.get(key);
+        if (stmtId != null) {
+            execute.statementId = stmtId;
+            writeExecute(execute);
+            return;
+        }
+        this.pendingExecute = execute;
+        this.pendingStmtKey = key;
+        this.prepareRemain = -1;
+        CommandPacket prepare = new CommandPacket();
+        prepare.command = MySqlPacket.CMD_STMT_PREPARE;
+        prepare.arg = sql.getBytes();
+        ByteBuf buf = channel.alloc().buffer();
+        prepare.write(buf);
+        sendBytes += buf.readableBytes();
+        channel.writeAndFlush(buf);
+    }
+
+    /**
+     * 写出执行包。
+     *
+     * @param execute
+     */
+    private void writeExecute(StmtExecutePacket execute) {
+        execute.packetId = 0;
+        ByteBuf buf = channel.alloc().buffer(execute.calcPacketSize() + 4);
+        execute.write(buf);
+        sendBytes += buf.readableBytes();
+        channel.writeAndFlush(buf);
+    }
+
+    /**
+     * 缓存后端语句id，超出数量时关闭最久未用的语句。
+     *
+     * @param key
+     * @param stmtId
+     */
+    private void putStatement(String key, long stmtId) {
+        if (stmtIdMap == null) {
+            stmtIdMap = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    if (size() > mysqlService.getConfig().getStmtCacheSize()) {
+                        closeStatement(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+        stmtIdMap.put(key, stmtId);
+    }
+
+    /**
+     * 关闭后端的预编译语句，COM_STMT_CLOSE没有返回包。
+     *
+     * @param stmtId
+     */
+    private void closeStatement(long stmtId) {
+        ByteBuf buf = channel.alloc().buffer(9);
+        ByteBufUtils.writeUB3(buf, 5);
+        buf.writeByte(0);
+        buf.writeByte(MySqlPacket.CMD_STMT_CLOSE);
+        ByteBufUtils.writeUB4(buf, stmtId);
+        sendBytes += buf.readableBytes();
+        channel.write(buf);
+    }
+
+    /**
+     * 同步连接所在的数据库。
+     * 如果连接所在数据库不一致，先发送COM_INIT_DB，切换结果在返回时消化掉。
+     *
+     * @param database
+     */
+    private void syncDatabase(String database) {
+        if (!database.equals(currentDatabase)) {
+            CommandPacket initDb = new CommandPacket();
+            initDb.command = MySqlPacket.CMD_INIT_DB;
+            initDb.arg = database.getBytes();
+            ByteBuf buf = channel.alloc().buffer();
+            initDb.write(buf);
+            sendBytes += buf.readableBytes();
+            this.syncDatabase = database;
+            channel.write(buf);
+        }
+    }
+
+    /**
+     * 执行前端的SET语句，把连接切换到target状态，结果返回给前端。
+     * 连接已经是target状态时直接返回OK，不再访问mysql。
+     *
+     * @param target
+     */
+    public void exeSyncVariables(SessionVariables target) {
+        this.isMasterSql = true;
+        this.database = null;
+        this.table = null;
+        String sql = variables == null ? null : target.diffSql(variables);
+        if (sql == null) {
+            sessionCallback.receiveOkPacket((byte) 1, Unpooled.wrappedBuffer(OKPacket.OK));
+            unbind();
+            return;
+        }
+        writeSyncVariables(target, sql, true);
+        channel.flush();
+    }
+
+    /**
+     * 前端需要的会话变量和连接上的不一致时，发送差异的SET语句，在执行语句前生效。
+     */
+    private void syncVariables() {
+        SessionVariables target = sessionCallback == null ? null : sessionCallback.getSessionVariables();
+        if (target == null || variables == null) {
+            return;
+        }
+        String sql = target.diffSql(variables);
+        if (sql != null) {
+            writeSyncVariables(target, sql, false);
+        }
+    }
+
+    /**
+     * 发送同步会话变量的SET语句。
+     *
+     * @param target
+     * @param sql
+     * @param reply  结果是否转发给前端
+     */
+    private void writeSyncVariables(SessionVariables target, String sql, boolean reply) {
+        CommandPacket cmd = CommandPacket.build(sql);
+        ByteBuf buf = channel.alloc().buffer();
+        cmd.write(buf);
+        sendBytes += buf.readableBytes();
+        this.syncVariables = target;
+        this.syncReply = reply;
+        channel.write(buf);
+    }
+
+    /**
+     * 提前解除前端绑定，剩余的返回数据全部丢弃。
+     * 返回结束后，连接正常归还连接池。
+     */
+    private void detach() {
+        MySqlSessionCallback callback = this.sessionCallback;
+        this.sessionCallback = DiscardSessionCallback.INSTANCE;
+        if (callback != null) {
+            callback.unbind();
+        }
+    }
+
+    /**
+     * 取消前端正在执行的命令。
+     * 通过其他连接发送KILL QUERY中断执行，中断后的报错按正常流程返回，连接正常归还连接池。
+     * 流水线中还有其他前端的命令时，KILL可能中断别人的命令，只解除绑定，不发送KILL。
+     * owner是流水线中排队的命令时，改为丢弃它的返回并立即结束。
+     *
+     * @param owner  当前绑定的前端回调，或者流水线中排队的前端回调
+     * @param detach 是否解除前端绑定，前端断开时剩余的返回全部丢弃
+     */
+    public void cancel(MySqlSessionCallback owner, boolean detach) {
+        if (!channel.eventLoop().inEventLoop()) {
+            channel.eventLoop().execute(() -> cancel(owner, detach));
+            return;
+        }
+        if (heartbeat != null) {
+            return;
+        }
+        if (this.sessionCallback != owner) {
+            cancelPipeline(owner, detach);
+            return;
+        }
+        boolean pipelined;
+        synchronized (this) {
+            pipelineOpen = false;
+            pipelined = !pipeline.isEmpty();
+        }
+        if (detach) {
+            detach();
+        }
+        if (!pipelined && !killing && threadId > 0) {
+            killing = true;
+            mysqlService.killQuery(this);
+        }
+    }
+
+    /**
+     * 取消流水线中排队的命令。
+     * 命令已经发送无法撤回，它的返回改为丢弃；前端未断开时返回中断错误，前端可以马上执行下一条命令。
+     *
+     * @param owner  流水线中排队的前端回调
+     * @param detach 前端是否已断开
+     */
+    private void cancelPipeline(MySqlSessionCallback owner, boolean detach) {
+        boolean found = false;
+        synchronized (this) {
+            for (PipelineEntry entry : pipeline) {
+                if (entry.callback == owner) {
+                    entry.callback = DiscardSessionCallback.INSTANCE;
+                    found = true;
+                    break;
+                }
+            }
+        }
+        if (!found) {
+            return;
+        }
+        if (!detach) {
+            ErrorPacket errorPacket = new ErrorPacket();
+            errorPacket.packetId = 1;
+            errorPacket.errorNo = ErrorCode.ER_QUERY_INTERRUPTED;
+            errorPacket.message = "Query execution was interrupted";
+            ByteBuf buf = channel.alloc().buffer();
+            errorPacket.write(buf);
+            try {
+                owner.receiveErrorPacket(errorPacket.packetId, buf);
+            } finally {
+                buf.release();
+            }
+        }
+        owner.unbind();
+    }
+
+    /**
+     * 归还已获取但还未执行命令的连接，用于前端在获取期间已经结束的情况。
+     *
+     * @param owner 当前绑定的前端回调
+     */
+    public void giveBack(MySqlSessionCallback owner) {
+        if (!channel.eventLoop().inEventLoop()) {
+            channel.eventLoop().execute(() -> giveBack(owner));
+            return;
+        }
+        if (this.sessionCallback == owner) {
+            unbind();
+        }
+    }
+
+    /**
+     * 关闭正在执行命令的连接，mysql会回滚未完成的语句，前端按连接断开收到报错。
+     * 用于KILL QUERY无法中断的场景，如等待LOAD DATA的文件内容。
+     *
+     * @param owner 当前绑定的前端回调
+     */
+    public void abort(MySqlSessionCallback owner) {
+        if (!channel.eventLoop().inEventLoop()) {
+            channel.eventLoop().execute(() -> abort(owner));
+            return;
+        }
+        if (this.sessionCallback == owner) {
+            trueClose();
+        }
+    }
+
+    /**
+     * KILL QUERY执行结束，如果命令已经结束则归还连接。
+     */
+    void killDone() {
+        if (!channel.eventLoop().inEventLoop()) {
+            channel.eventLoop().execute(this::killDone);
+            return;
+        }
+        killing = false;
+        if (killReturned) {
+            killReturned = false;
+            //等待期间连接可能已经断开，已由handleClose处理。
+            if (isAlive()) {
+                release();
+            }
+        }
+    }
+
+    /**
+     * 暂停读取后端数据，用于前端写缓冲满时的流控。
+     * 在channel所在线程中执行，并检查绑定关系，防止影响已归还的session。
+     *
+     * @param owner 当前绑定的前端回调
+     */
+    public void pauseRead(MySqlSessionCallback owner) {
+        if (channel.eventLoop().inEventLoop()) {
+            if (this.sessionCallback == owner) {
+                channel.config().setAutoRead(false);
+            }
+        } else {
+            channel.eventLoop().execute(() -> pauseRead(owner));
+        }
+    }
+
+    /**
+     * 恢复读取后端数据。
+     *
+     * @param owner 当前绑定的前端回调
+     */
+    public void resumeRead(MySqlSessionCallback owner) {
+        if (channel.eventLoop().inEventLoop()) {
+            if (this.sessionCallback == owner) {
+                channel.config().setAutoRead(true);
+            }
+        } else {
+            channel.eventLoop().execute(() -> resumeRead(owner));
+        }
     }
 
     /**
@@ -213,6 +812,22 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
     public void bind(MySqlSessionCallback sessionCallback) {
         this.sessionCallback = sessionCallback;
         this.lastAccess = SystemClock.now();
+        if (sessionCallback == null) {
+            clearInFlight();
+        } else if (!inFlight && heartbeat == null) {
+            inFlight = true;
+            mysqlService.updateInFlight(1);
+        }
+    }
+
+    /**
+     * 清除执行中计数，解绑或关闭连接时调用。
+     */
+    void clearInFlight() {
+        if (inFlight) {
+            inFlight = false;
+            mysqlService.updateInFlight(-1);
+        }
     }
 
     /**
@@ -223,16 +838,26 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
         exeTime = (now - this.lastAccess);
         this.lastAccess = now;
 
-        //最后统计mysql执行信息。
-        StatsFactory.statsMysql(mysqlService.getGroupName(), mysqlService.getName(), database, isMasterSql, isExeSuccess, exeTime, dataRowsCount, affectRowsCount, sendBytes, recvBytes);
+        //最后统计mysql执行信息，心跳不计入统计。
+        if (heartbeat == null) {
+            StatsFactory.statsMysql(mysqlService.getGroupName(), mysqlService.getName(), database, isMasterSql, isExeSuccess, exeTime, dataRowsCount, affectRowsCount, sendBytes, recvBytes);
+            mysqlService.recordLatency(exeTime);
+        }
 
+        //事务中的连接由前端保持，不归还连接池。
+        boolean kept = false;
         if (this.sessionCallback != null) {
+            MySqlSessionCallback callback = this.sessionCallback;
+            kept = heartbeat == null && isAlive() && callback.keepSession(this, inTransaction);
             //再执行解绑
-            this.sessionCallback.unbind();
+            callback.unbind();
             this.sessionCallback = null;
         }
         //数据归零
         command = null;
+        syncVariables = null;
+        syncReply = false;
+        resultStatus = RESULT_INIT;
         isMasterSql = false;
         isExeSuccess = true;
         this.exeTime = 0;
@@ -241,8 +866,56 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
         this.recvBytes = 0;
         this.sendBytes = 0;
 
-        //最后归还链接
-        this.mysqlService.requiteSession(this);
+        //流控状态可能未恢复，归还前必须打开读取。
+        if (!channel.config().isAutoRead()) {
+            channel.config().setAutoRead(true);
+        }
+        //流水线中还有已发送的命令，继续接收它的返回，不归还连接。
+        if (nextPipeline()) {
+            return;
+        }
+        if (kept) {
+            clearInFlight();
+            return;
+        }
+        //KILL QUERY还没有执行完，此时归还可能中断下一个使用者的命令。
+        if (killing) {
+            killReturned = true;
+            return;
+        }
+        release();
+    }
+
+    /**
+     * 归还前端保持的连接，事务已经结束或者前端已断开。
+     */
+    public void releaseKept() {
+        if (!channel.eventLoop().inEventLoop()) {
+            channel.eventLoop().execute(this::releaseKept);
+            return;
+        }
+        if (sessionCallback == null && isAlive()) {
+            release();
+        }
+    }
+
+    /**
+     * 归还连接，心跳专用连接不进入连接池。
+     * 有未结束事务的连接直接关闭，mysql会回滚事务，不能留给其他前端。
+     */
+    private void release() {
+        clearInFlight();
+        if (heartbeat == null) {
+            if (inTransaction && compareAndSet(STATE_USING, STATE_RESERVED)) {
+                this.mysqlService.closeSession(this, "(transaction not finished)");
+            } else if (variables == null && compareAndSet(STATE_USING, STATE_RESERVED)) {
+                this.mysqlService.closeSession(this, "(session variables unknown)");
+            } else {
+                this.mysqlService.requiteSession(this);
+            }
+        } else {
+            setState(STATE_NORMAL);
+        }
     }
 
     /**
@@ -252,10 +925,34 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
      */
     public void handleAuthResponse(ChannelHandlerContext ctx, ByteBuf buf) {
         byte status = buf.getByte(4);
+        if (trackGtidInit) {
+            //设置session_track_gtids的返回，失败时只是不跟踪GTID，连接照常使用。
+            trackGtidInit = false;
+            if (status != MySqlPacket.PACKET_OK) {
+                ErrorPacket errorPacket = new ErrorPacket();
+                errorPacket.read(buf);
+                logger.warn("MySQL[{}]设置session_track_gtids报错{}:{}", mysqlService.getName(), errorPacket.errorNo, errorPacket.message);
+                trackGtid = false;
+            }
+            authDone();
+            return;
+        }
         switch (status) {
             case MySqlPacket.PACKET_OK:
-                setState(STATE_NORMAL);
-                this.mysqlService.addSession(this);
+                //验证通过后的数据包开始压缩。
+                if (compress) {
+                    ctx.pipeline().addFirst(new MysqlCompressCodec(false, mysqlService.getConfig().getCompressLevel(), mysqlService.getCompressStats()));
+                }
+                if (trackGtid) {
+                    //让OK包带回本次写入的GTID，设置完成后再放入连接池。
+                    trackGtidInit = true;
+                    CommandPacket cmd = CommandPacket.build("SET session_track_gtids=OWN_GTID");
+                    ByteBuf cmdBuf = ctx.alloc().buffer();
+                    cmd.write(cmdBuf);
+                    ctx.writeAndFlush(cmdBuf);
+                    return;
+                }
+                authDone();
                 break;
             case MySqlPacket.PACKET_ERROR:
                 //报错了，直接关闭吧。
@@ -264,11 +961,26 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
                 logger.error("MySQL[{}]服务器验证阶段报错{}:{}", mysqlService.getName(), errorPacket.errorNo, errorPacket.message);
                 setState(STATE_REMOVED);
                 trueClose();
+                if (heartbeat != null) {
+                    heartbeat.onConnectFail(this, errorPacket.message);
+                }
                 break;
             default:
         }
     }
 
+    /**
+     * 连接初始化完成，放入连接池或者交给心跳。
+     */
+    private void authDone() {
+        setState(STATE_NORMAL);
+        if (heartbeat == null) {
+            this.mysqlService.addSession(this);
+        } else {
+            heartbeat.onConnected(this);
+        }
+    }
+
     /**
      * 处理初始返回结果。
      *
@@ -283,16 +995,24 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
             //报错了，直接关闭吧。
             setState(STATE_REMOVED);
             trueClose();
+            if (heartbeat != null) {
+                heartbeat.onConnectFail(this, errorPacket.message);
+            }
             return;
         }
         HandshakePacket handshakePacket = new HandshakePacket();
         handshakePacket.read(buf);
+        this.threadId = handshakePacket.threadId;
         // 设置字符集编码
         int charsetIndex = (handshakePacket.serverCharsetIndex & 0xff);
         // 发送应答报文给后端
         AuthPacket packet = new AuthPacket();
         packet.packetId = 1;
-        packet.clientFlags = Capability.initClientFlags();
+        //双方都支持时才使用压缩协议。
+        this.compress = mysqlService.getConfig().isCompress() && (handshakePacket.serverCapabilities & Capability.CLIENT_COMPRESS) != 0;
+        //只有开启读写一致性的组才跟踪GTID，心跳连接不需要。
+        this.trackGtid = heartbeat == null && mysqlService.isTrackGtid() && (handshakePacket.serverCapabilities & Capability.CLIENT_SESSION_TRACK) != 0;
+        packet.clientFlags = Capability.initClientFlags(compress, trackGtid);
         packet.maxPacketSize = 1024 * 1024;
         packet.charsetIndex = charsetIndex;
         packet.user = mysqlService.getConfig().getUser();
@@ -328,6 +1048,64 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
         }
     }
 
+    /**
+     * 处理超过16MB的返回包的续帧，原样交给前端。
+     *
+     * @param buf
+     */
+    public void handleContinuation(ByteBuf buf) {
+        recvBytes += buf.readableBytes();
+        if (sessionCallback != null) {
+            sessionCallback.receiveContinuationPacket(buf.getByte(buf.readerIndex() + 3), buf);
+        }
+    }
+
+    /**
+     * 转发前端超过16MB的数据包的续帧。
+     *
+     * @param frame 包含包头的完整帧，发送后释放
+     */
+    public void writeContinuation(ByteBuf frame) {
+        sendBytes += frame.readableBytes();
+        channel.writeAndFlush(frame);
+    }
+
+    /**
+     * 写入LOAD DATA LOCAL INFILE的文件内容包，需要调用flushLoadData发送。
+     *
+     * @param packet 完整的数据包，发送后释放
+     */
+    public void writeLoadData(ByteBuf packet) {
+        sendBytes += packet.readableBytes();
+        channel.write(packet);
+    }
+
+    /**
+     * 发送已写入的文件内容包。
+     */
+    public void flushLoadData() {
+        channel.flush();
+    }
+
+    /**
+     * 后端连接是否可写。
+     *
+     * @return
+     */
+    public boolean isWritable() {
+        return channel.isWritable();
+    }
+
+    /**
+     * 后端连接写缓冲状态变化，通知绑定的前端。
+     */
+    public void writabilityChanged() {
+        MySqlSessionCallback callback = this.sessionCallback;
+        if (callback != null) {
+            callback.backendWritabilityChanged();
+        }
+    }
+
     /**
      * 处理命令返回结果。
      *
@@ -338,9 +1116,72 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
         recvBytes += buf.readableBytes();
         byte packetId = buf.getByte(3);
         byte status = buf.getByte(4);
+        if (syncVariables != null) {
+            //同步会话变量的返回结果，失败后连接状态未知，归还时关闭。
+            SessionVariables target = syncVariables;
+            boolean reply = syncReply;
+            syncReply = false;
+            synchronized (this) {
+                syncVariables = null;
+                variables = status == MySqlPacket.PACKET_OK ? target : null;
+            }
+            if (status == MySqlPacket.PACKET_OK) {
+                //SET autocommit=1会提交事务。
+                inTransaction = isInTransaction(buf);
+            }
+            if (!reply) {
+                if (status != MySqlPacket.PACKET_OK) {
+                    sessionCallback.receiveErrorPacket(packetId, buf);
+                    isExeSuccess = false;
+                    detach();
+                }
+                return;
+            }
+        }
+        if (syncDatabase != null) {
+            //切换数据库的返回结果，不转发。
+            synchronized (this) {
+                currentDatabase = status == MySqlPacket.PACKET_OK ? syncDatabase : null;
+                syncDatabase = null;
+            }
+            if (status != MySqlPacket.PACKET_OK) {
+                //切换失败，报错给前端，后续结果丢弃。
+                sessionCallback.receiveErrorPacket(packetId, buf);
+                isExeSuccess = false;
+                detach();
+            }
+            return;
+        }
+        if (pendingExecute != null) {
+            handlePrepareResponse(packetId, status, buf);
+            return;
+        }
+        if (resultStatus == RESULT_FIELD && status != MySqlPacket.PACKET_ERROR
+                && !(status == MySqlPacket.PACKET_EOF && buf.readableBytes() <= 9)) {
+            //数据区的行以0x00开头时(二进制行，或首列为空串)，不能当作OK包。
+            sessionCallback.receiveRowDataPacket(packetId, buf);
+            dataRowsCount++;
+            return;
+        }
+        if (status == MySqlPacket.LOAD_DATA_PACKET && resultStatus == RESULT_INIT) {
+            //LOAD DATA LOCAL INFILE请求文件内容，回调不处理时发送空包结束传输。
+            if (!sessionCallback.receiveLocalInfileRequest(packetId, buf)) {
+                ByteBuf empty = channel.alloc().buffer(4);
+                empty.writeMediumLE(0);
+                empty.writeByte(packetId + 1);
+                writeLoadData(empty);
+                flushLoadData();
+            }
+            return;
+        }
         switch (status) {
             case MySqlPacket.PACKET_OK:
-                sessionCallback.receiveOkPacket(packetId, buf);
+                inTransaction = isInTransaction(buf);
+                if (trackGtid) {
+                    receiveTrackedOk(packetId, buf);
+                } else {
+                    sessionCallback.receiveOkPacket(packetId, buf);
+                }
                 //收到数据就可以解绑了。
                 unbind();
                 break;
@@ -360,6 +1201,7 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
                         eof.read(buf);
                         //之前读过了，必须要重置一下。
                         buf.resetReaderIndex();
+                        inTransaction = eof.hasStatusFlag(MySqlPacket.SERVER_STATUS_IN_TRANS);
                         sessionCallback.receiveRowDataEOFPacket(packetId, buf);
                         //确定没有更多数据了，再解绑，此处可能有问题！
                         if (!eof.hasStatusFlag(MySqlPacket.SERVER_MORE_RESULTS_EXISTS)) {
@@ -392,6 +1234,155 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
         }
     }
 
+    /**
+     * 从OK包的状态判断连接是否处于事务中，不移动读位置。
+     *
+     * @param buf 完整的OK包，包含包头
+     * @return
+     */
+    private static boolean isInTransaction(ByteBuf buf) {
+        int index = buf.readerIndex() + 5;
+        //跳过affectedRows和insertId。
+        index += lengthSize(buf.getUnsignedByte(index));
+        index += lengthSize(buf.getUnsignedByte(index));
+        if (index + 2 > buf.writerIndex()) {
+            return false;
+        }
+        return (buf.getUnsignedShortLE(index) & MySqlPacket.SERVER_STATUS_IN_TRANS) != 0;
+    }
+
+    /**
+     * 长度编码整数占用的字节数。
+     *
+     * @param first 首字节
+     * @return
+     */
+    private static int lengthSize(int first) {
+        switch (first) {
+            case 252:
+                return 3;
+            case 253:
+                return 4;
+            case 254:
+                return 9;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * 处理跟踪GTID的连接上的OK包。
+     * 带有会话状态信息时先通知写入的GTID，再去掉状态信息转发，前端没有协商CLIENT_SESSION_TRACK。
+     *
+     * @param packetId
+     * @param buf
+     */
+    private void receiveTrackedOk(byte packetId, ByteBuf buf) {
+        OKPacket okPacket = new OKPacket();
+        okPacket.read(buf);
+        buf.resetReaderIndex();
+        if (okPacket.sessionState == null) {
+            sessionCallback.receiveOkPacket(packetId, buf);
+            return;
+        }
+        GtidSet gtidSet = GtidSet.parse(okPacket.getTrackedGtids());
+        if (gtidSet != null) {
+            sessionCallback.receiveWriteGtid(mysqlService.getGroupName(), gtidSet);
+        }
+        ByteBuf okBuf = channel.alloc().buffer(okPacket.calcPacketSize() + 4);
+        okPacket.write(okBuf);
+        try {
+            sessionCallback.receiveOkPacket(packetId, okBuf);
+        } finally {
+            okBuf.release();
+        }
+    }
+
+    /**
+     * 处理预编译的返回结果，不转发给前端。
+     * 首包拿到语句id，跳过参数和字段定义包后发送执行包。
+     *
+     * @param packetId
+     * @param status
+     * @param buf
+     */
+    private void handlePrepareResponse(byte packetId, byte status, ByteBuf buf) {
+        if (prepareRemain < 0) {
+            if (status == MySqlPacket.PACKET_ERROR) {
+                pendingExecute = null;
+                pendingStmtKey = null;
+                sessionCallback.receiveErrorPacket(packetId, buf);
+                isExeSuccess = false;
+                unbind();
+                return;
+            }
+            PreparedOkPacket okPacket = new PreparedOkPacket();
+            okPacket.read(buf);
+            pendingExecute.statementId = okPacket.statementId;
+            putStatement(pendingStmtKey, okPacket.statementId);
+            prepareRemain = (okPacket.parametersNumber > 0 ? okPacket.parametersNumber + 1 : 0)
+                    + (okPacket.columnsNumber > 0 ? okPacket.columnsNumber + 1 : 0);
+        } else {
+            prepareRemain--;
+        }
+        if (prepareRemain == 0) {
+            StmtExecutePacket execute = pendingExecute;
+            pendingExecute = null;
+            pendingStmtKey = null;
+            writeExecute(execute);
+        }
+    }
+
+    /**
+     * 连接已断开。
+     * 如果还绑定着前端，返回错误并解绑，否则前端会一直等待到超时；连接池中的连接同时移除。
+     */
+    void handleClose() {
+        if (heartbeat != null) {
+            return;
+        }
+        MySqlSessionCallback callback = this.sessionCallback;
+        if (callback != null) {
+            this.sessionCallback = null;
+            closeError(callback);
+            clearInFlight();
+            callback.unbind();
+        }
+        //流水线中等待返回的命令也全部报错。
+        List<PipelineEntry> entries;
+        synchronized (this) {
+            pipelineOpen = false;
+            entries = new ArrayList<>(pipeline);
+            pipeline.clear();
+        }
+        for (PipelineEntry entry : entries) {
+            closeError(entry.callback);
+            mysqlService.updateInFlight(-1);
+            entry.callback.unbind();
+        }
+        if (compareAndSet(STATE_NORMAL, STATE_RESERVED) || compareAndSet(STATE_USING, STATE_RESERVED)) {
+            mysqlService.closeSession(this, "(connection closed)");
+        }
+    }
+
+    /**
+     * 通知前端连接已断开。
+     *
+     * @param callback
+     */
+    private void closeError(MySqlSessionCallback callback) {
+        ErrorPacket errorPacket = new ErrorPacket();
+        errorPacket.packetId = 1;
+        errorPacket.errorNo = ErrorCode.ER_NET_READ_ERROR;
+        errorPacket.message = "MySQL[" + mysqlService.getName() + "] connection closed!";
+        ByteBuf buf = channel.alloc().buffer();
+        errorPacket.write(buf);
+        try {
+            callback.receiveErrorPacket(errorPacket.packetId, buf);
+        } finally {
+            buf.release();
+        }
+    }
 
     /**
      * 真正关闭连接。
@@ -414,4 +1405,42 @@ public class MySqlSession implements ConcurrentBag.IConcurrentBagEntry {
     public void setState(int newState) {
         STATE_UPDATER.set(this, newState);
     }
+
+    /**
+     * 流水线中等待返回的命令。
+     */
+    private static final class PipelineEntry {
+
+        /**
+         * 前端回调，取消后替换为丢弃回调。
+         */
+        MySqlSessionCallback callback;
+
+        /**
+         * 统计用的数据库。
+         */
+        final String database;
+
+        /**
+         * 统计用的表。
+         */
+        final String table;
+
+        /**
+         * 发送字节数。
+         */
+        final long sendBytes;
+
+        /**
+         * 发送时间。
+         */
+        final long startTime = SystemClock.now();
+
+        PipelineEntry(MySqlSessionCallback callback, String database, String table, long sendBytes) {
+            this.callback = callback;
+            this.database = database;
+            this.table = table;
+            this.sendBytes = sendBytes;
+        }
+    }
 }
@@ -72,4 +72,61 @@ public interface MySqlSessionCallback {
      */
     void unbind();
 
+    /**
+     * 收到超过16MB的数据包的续帧，一般是大字段的数据行。
+     *
+     * @param packetId
+     * @param buf      包含包头的完整帧
+     */
+    default void receiveContinuationPacket(byte packetId, ByteBuf buf) {
+        receiveRowDataPacket(packetId, buf);
+    }
+
+    /**
+     * 收到LOAD DATA LOCAL INFILE的文件请求包。
+     *
+     * @param packetId
+     * @param buf
+     * @return 不处理时返回false，由session发送空包结束文件传输
+     */
+    default boolean receiveLocalInfileRequest(byte packetId, ByteBuf buf) {
+        return false;
+    }
+
+    /**
+     * 后端连接的写缓冲状态变化，用于向后端写数据时的流控。
+     */
+    default void backendWritabilityChanged() {
+    }
+
+    /**
+     * 收到写入产生的GTID，在对应的OK包之前通知，用于读写一致性。
+     *
+     * @param mysqlGroup 执行写入的mysql组
+     * @param gtidSet
+     */
+    default void receiveWriteGtid(String mysqlGroup, GtidSet gtidSet) {
+    }
+
+    /**
+     * 获得前端需要的会话变量，执行前同步到后端连接。
+     *
+     * @return 不需要同步时返回null
+     */
+    default SessionVariables getSessionVariables() {
+        return null;
+    }
+
+    /**
+     * 命令结束、解绑之前询问是否继续保持后端session，用于事务中的语句都在同一个连接上执行。
+     * 返回true时session不归还连接池，之后由前端调用releaseKept归还。
+     *
+     * @param mysqlSession
+     * @param inTransaction 连接上是否有未结束的事务
+     * @return
+     */
+    default boolean keepSession(MySqlSession mysqlSession, boolean inTransaction) {
+        return false;
+    }
+
 }
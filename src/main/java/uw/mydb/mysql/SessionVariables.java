@@ -0,0 +1,128 @@
+package uw.mydb.mysql;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 会话变量状态，包括字符集(NAMES)、autocommit、系统变量和用户变量。
+ * 实例不可变，前端每次SET生成新实例，后端连接记录已生效的实例，执行前比较差异。
+ *
+ * @author axeon
+ */
+public final class SessionVariables {
+
+    /**
+     * 空状态，即新建连接的状态。
+     */
+    public static final SessionVariables EMPTY = new SessionVariables(Collections.emptyMap());
+
+    /**
+     * SET NAMES使用的key。
+     */
+    public static final String NAMES = "names";
+
+    /**
+     * 变量值，key为小写变量名，用户变量以@开头，value为原始的字面量。
+     */
+    private final Map<String, String> variables;
+
+    private SessionVariables(Map<String, String> variables) {
+        this.variables = variables;
+    }
+
+    /**
+     * 应用一组赋值，生成新的状态。值为DEFAULT的变量恢复为默认值，不再记录。
+     *
+     * @param assignments
+     * @return
+     */
+    public SessionVariables with(Map<String, String> assignments) {
+        Map<String, String> map = new LinkedHashMap<>(variables);
+        for (Map.Entry<String, String> kv : assignments.entrySet()) {
+            if ("DEFAULT".equalsIgnoreCase(kv.getValue())) {
+                map.remove(kv.getKey());
+            } else {
+                map.put(kv.getKey(), kv.getValue());
+            }
+        }
+        return new SessionVariables(map);
+    }
+
+    /**
+     * 是否为自动提交模式，未设置autocommit时为默认的自动提交。
+     *
+     * @return
+     */
+    public boolean isAutocommit() {
+        String value = variables.get("autocommit");
+        if (value == null) {
+            return true;
+        }
+        if (value.length() > 1 && (value.charAt(0) == '\'' || value.charAt(0) == '"')) {
+            value = value.substring(1, value.length() - 1);
+        }
+        return !("0".equals(value) || "OFF".equalsIgnoreCase(value) || "FALSE".equalsIgnoreCase(value));
+    }
+
+    /**
+     * 生成从current状态切换到当前状态的SET语句，所有差异合并为一条语句。
+     *
+     * @param current 后端连接当前的状态
+     * @return 没有差异时返回null
+     */
+    public String diffSql(SessionVariables current) {
+        if (this == current) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> kv : variables.entrySet()) {
+            if (!kv.getValue().equals(current.variables.get(kv.getKey()))) {
+                appendAssignment(sb, kv.getKey(), kv.getValue());
+            }
+        }
+        for (String name : current.variables.keySet()) {
+            if (!variables.containsKey(name)) {
+                appendAssignment(sb, name, name.charAt(0) == '@' ? "NULL" : "DEFAULT");
+            }
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    /**
+     * 追加一个赋值。
+     *
+     * @param sb
+     * @param name
+     * @param value
+     */
+    private static void appendAssignment(StringBuilder sb, String name, String value) {
+        sb.append(sb.length() == 0 ? "SET " : ", ");
+        if (NAMES.equals(name)) {
+            sb.append("NAMES ").append(value);
+        } else {
+            sb.append(name).append('=').append(value);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return variables.equals(((SessionVariables) o).variables);
+    }
+
+    @Override
+    public int hashCode() {
+        return variables.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return variables.toString();
+    }
+}
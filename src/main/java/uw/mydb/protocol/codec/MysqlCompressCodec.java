@@ -0,0 +1,325 @@
+package uw.mydb.protocol.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandler;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderException;
+
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * mysql压缩协议编解码器，验证通过后加在pipeline最前面。
+ * 压缩包头为3字节压缩后长度、1字节压缩序号、3字节压缩前长度，压缩前长度为0表示未压缩。
+ * 解码输出解压后的字节流，由后面的MysqlPacketDecoder继续拆包。
+ * 编码时把flush之前写入的数据合并压缩，结果集的大量小包才能有效压缩。
+ *
+ * @author axeon
+ */
+public class MysqlCompressCodec extends ByteToMessageDecoder implements ChannelOutboundHandler {
+
+    /**
+     * 压缩包头长度。
+     */
+    private static final int HEADER_SIZE = 7;
+
+    /**
+     * 小于此长度的数据不压缩，和mysql的MIN_COMPRESS_LENGTH一致。
+     */
+    private static final int MIN_COMPRESS_LENGTH = 50;
+
+    /**
+     * 单帧最大长度。
+     */
+    private static final int MAX_PAYLOAD_SIZE = 0xFFFFFF;
+
+    /**
+     * 发送缓冲超过此容量时，发送后释放，不再复用。
+     */
+    private static final int MAX_RETAIN_CAPACITY = 1024 * 1024;
+
+    /**
+     * 是否为服务端。
+     * 服务端的响应序号接着客户端的序号递增；客户端在命令开始(数据包序号为0)时序号从0开始，
+     * LOAD DATA的文件内容等命令中间的发送接着服务端的序号递增。
+     */
+    private final boolean serverSide;
+
+    /**
+     * 统计数据。
+     */
+    private final MysqlCompressStats stats;
+
+    private final Deflater deflater;
+
+    private final Inflater inflater = new Inflater();
+
+    /**
+     * 等待压缩发送的数据。
+     */
+    private ByteBuf pending;
+
+    /**
+     * 等待发送结果的promise。
+     */
+    private final List<ChannelPromise> pendingPromises = new ArrayList<>();
+
+    /**
+     * 压缩序号。
+     */
+    private int seq;
+
+    /**
+     * 解压输入的临时数组。
+     */
+    private byte[] scratch;
+
+    /**
+     * 是否已释放zlib资源。
+     */
+    private boolean ended;
+
+    /**
+     * @param serverSide 是否为服务端
+     * @param level      压缩级别，同Deflater
+     * @param stats      统计数据
+     */
+    public MysqlCompressCodec(boolean serverSide, int level, MysqlCompressStats stats) {
+        this.serverSide = serverSide;
+        this.deflater = new Deflater(level);
+        this.stats = stats;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        ByteBuf buf = (ByteBuf) msg;
+        if (ended) {
+            buf.release();
+            promise.tryFailure(new ClosedChannelException());
+            return;
+        }
+        try {
+            //客户端的序号在命令开始时重置，超过单帧长度时先发送已有数据，让后面的命令从新的压缩帧开始。
+            if (!serverSide && pending != null && pending.readableBytes() + buf.readableBytes() > MAX_PAYLOAD_SIZE) {
+                sendPending(ctx);
+            }
+            if (pending == null) {
+                pending = ctx.alloc().heapBuffer(Math.max(buf.readableBytes(), 1024));
+            }
+            pending.writeBytes(buf);
+        } finally {
+            buf.release();
+        }
+        if (!promise.isVoid()) {
+            pendingPromises.add(promise);
+        }
+        if (serverSide && pending.readableBytes() >= MAX_PAYLOAD_SIZE) {
+            sendPending(ctx);
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        sendPending(ctx);
+        ctx.flush();
+    }
+
+    /**
+     * 压缩并发送等待的数据。
+     *
+     * @param ctx
+     */
+    private void sendPending(ChannelHandlerContext ctx) {
+        ByteBuf pending = this.pending;
+        if (pending == null || !pending.isReadable()) {
+            return;
+        }
+        if (!serverSide && pending.getByte(pending.readerIndex() + 3) == 0) {
+            seq = 0;
+        }
+        long start = System.nanoTime();
+        int rawBytes = pending.readableBytes();
+        ByteBuf out = ctx.alloc().heapBuffer(rawBytes + HEADER_SIZE);
+        do {
+            writeFrame(pending, Math.min(pending.readableBytes(), MAX_PAYLOAD_SIZE), out);
+        } while (pending.isReadable());
+        stats.statsSend(rawBytes, out.readableBytes(), System.nanoTime() - start);
+        if (pending.capacity() > MAX_RETAIN_CAPACITY) {
+            pending.release();
+            this.pending = null;
+        } else {
+            pending.clear();
+        }
+        ChannelPromise promise = ctx.newPromise();
+        if (!pendingPromises.isEmpty()) {
+            ChannelPromise[] promises = pendingPromises.toArray(new ChannelPromise[0]);
+            pendingPromises.clear();
+            promise.addListener(future -> {
+                for (ChannelPromise p : promises) {
+                    if (future.isSuccess()) {
+                        p.trySuccess();
+                    } else {
+                        p.tryFailure(future.cause());
+                    }
+                }
+            });
+        }
+        ctx.write(out, promise);
+    }
+
+    /**
+     * 写入一帧，压缩后没有变小的按未压缩格式写入。
+     *
+     * @param in
+     * @param length
+     * @param out
+     */
+    private void writeFrame(ByteBuf in, int length, ByteBuf out) {
+        int headerIndex = out.writerIndex();
+        out.ensureWritable(HEADER_SIZE + length);
+        out.writerIndex(headerIndex + HEADER_SIZE);
+        if (length >= MIN_COMPRESS_LENGTH) {
+            deflater.reset();
+            deflater.setInput(in.array(), in.arrayOffset() + in.readerIndex(), length);
+            deflater.finish();
+            while (!deflater.finished() && out.writerIndex() - headerIndex - HEADER_SIZE < length) {
+                out.ensureWritable(1024);
+                int n = deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes());
+                out.writerIndex(out.writerIndex() + n);
+            }
+            int compressedLength = out.writerIndex() - headerIndex - HEADER_SIZE;
+            if (deflater.finished() && compressedLength < length) {
+                writeHeader(out, headerIndex, compressedLength, length);
+                in.skipBytes(length);
+                return;
+            }
+            //压缩无效，回退为未压缩。
+            out.writerIndex(headerIndex + HEADER_SIZE);
+        }
+        writeHeader(out, headerIndex, length, 0);
+        out.writeBytes(in, length);
+    }
+
+    /**
+     * 写入压缩包头。
+     *
+     * @param out
+     * @param index
+     * @param payloadLength
+     * @param rawLength
+     */
+    private void writeHeader(ByteBuf out, int index, int payloadLength, int rawLength) {
+        out.setMediumLE(index, payloadLength);
+        out.setByte(index + 3, seq++);
+        out.setMediumLE(index + 4, rawLength);
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        while (in.readableBytes() >= HEADER_SIZE) {
+            int index = in.readerIndex();
+            int payloadLength = in.getUnsignedMediumLE(index);
+            if (in.readableBytes() < HEADER_SIZE + payloadLength) {
+                return;
+            }
+            seq = (in.getByte(index + 3) + 1) & 0xFF;
+            int rawLength = in.getUnsignedMediumLE(index + 4);
+            in.skipBytes(HEADER_SIZE);
+            if (rawLength == 0) {
+                stats.statsRecv(payloadLength, HEADER_SIZE + payloadLength, 0);
+                if (payloadLength > 0) {
+                    out.add(in.readRetainedSlice(payloadLength));
+                }
+                continue;
+            }
+            long start = System.nanoTime();
+            ByteBuf buf = ctx.alloc().heapBuffer(rawLength, rawLength);
+            try {
+                if (in.hasArray()) {
+                    inflater.reset();
+                    inflater.setInput(in.array(), in.arrayOffset() + in.readerIndex(), payloadLength);
+                } else {
+                    if (scratch == null || scratch.length < payloadLength) {
+                        scratch = new byte[Math.max(payloadLength, 1024)];
+                    }
+                    in.getBytes(in.readerIndex(), scratch, 0, payloadLength);
+                    inflater.reset();
+                    inflater.setInput(scratch, 0, payloadLength);
+                }
+                in.skipBytes(payloadLength);
+                int n = inflater.inflate(buf.array(), buf.arrayOffset(), rawLength);
+                if (n != rawLength || !inflater.finished()) {
+                    throw new DecoderException("Compressed packet length mismatch: expect " + rawLength + ", actual " + n);
+                }
+                buf.writerIndex(rawLength);
+            } catch (DataFormatException e) {
+                buf.release();
+                throw new DecoderException(e);
+            } catch (RuntimeException e) {
+                buf.release();
+                throw e;
+            }
+            stats.statsRecv(rawLength, HEADER_SIZE + payloadLength, System.nanoTime() - start);
+            out.add(buf);
+        }
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        if (pending != null) {
+            pending.release();
+            pending = null;
+        }
+        for (ChannelPromise promise : pendingPromises) {
+            promise.tryFailure(new ClosedChannelException());
+        }
+        pendingPromises.clear();
+        deflater.end();
+        inflater.end();
+    }
+
+    @Override
+    public void bind(ChannelHandlerContext ctx, SocketAddress localAddress, ChannelPromise promise) throws Exception {
+        ctx.bind(localAddress, promise);
+    }
+
+    @Override
+    public void connect(ChannelHandlerContext ctx, SocketAddress remoteAddress, SocketAddress localAddress, ChannelPromise promise) throws Exception {
+        ctx.connect(remoteAddress, localAddress, promise);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        ctx.close(promise);
+    }
+
+    @Override
+    public void deregister(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        ctx.deregister(promise);
+    }
+
+    @Override
+    public void read(ChannelHandlerContext ctx) throws Exception {
+        ctx.read();
+    }
+}
@@ -0,0 +1,111 @@
+package uw.mydb.protocol.codec;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压缩协议统计数据，同一类链路的所有连接共用一个实例。
+ *
+ * @author axeon
+ */
+public class MysqlCompressStats {
+
+    /**
+     * 发送的原始字节数。
+     */
+    private final LongAdder rawSendBytes = new LongAdder();
+
+    /**
+     * 发送的压缩后字节数，包含压缩包头。
+     */
+    private final LongAdder compressedSendBytes = new LongAdder();
+
+    /**
+     * 接收的原始字节数。
+     */
+    private final LongAdder rawRecvBytes = new LongAdder();
+
+    /**
+     * 接收的压缩后字节数，包含压缩包头。
+     */
+    private final LongAdder compressedRecvBytes = new LongAdder();
+
+    /**
+     * 压缩耗时，纳秒。
+     */
+    private final LongAdder deflateNanos = new LongAdder();
+
+    /**
+     * 解压耗时，纳秒。
+     */
+    private final LongAdder inflateNanos = new LongAdder();
+
+    /**
+     * 记录一次发送。
+     *
+     * @param rawBytes
+     * @param compressedBytes
+     * @param nanos
+     */
+    void statsSend(long rawBytes, long compressedBytes, long nanos) {
+        rawSendBytes.add(rawBytes);
+        compressedSendBytes.add(compressedBytes);
+        deflateNanos.add(nanos);
+    }
+
+    /**
+     * 记录一次接收。
+     *
+     * @param rawBytes
+     * @param compressedBytes
+     * @param nanos
+     */
+    void statsRecv(long rawBytes, long compressedBytes, long nanos) {
+        rawRecvBytes.add(rawBytes);
+        compressedRecvBytes.add(compressedBytes);
+        inflateNanos.add(nanos);
+    }
+
+    public long getRawSendBytes() {
+        return rawSendBytes.sum();
+    }
+
+    public long getCompressedSendBytes() {
+        return compressedSendBytes.sum();
+    }
+
+    public long getRawRecvBytes() {
+        return rawRecvBytes.sum();
+    }
+
+    public long getCompressedRecvBytes() {
+        return compressedRecvBytes.sum();
+    }
+
+    public long getDeflateNanos() {
+        return deflateNanos.sum();
+    }
+
+    public long getInflateNanos() {
+        return inflateNanos.sum();
+    }
+
+    /**
+     * 获得发送方向的压缩率，压缩后字节数/原始字节数，没有数据时为1。
+     *
+     * @return
+     */
+    public double getSendRatio() {
+        long raw = getRawSendBytes();
+        return raw == 0 ? 1 : (double) getCompressedSendBytes() / raw;
+    }
+
+    /**
+     * 获得接收方向的压缩率，压缩后字节数/原始字节数，没有数据时为1。
+     *
+     * @return
+     */
+    public double getRecvRatio() {
+        long raw = getRawRecvBytes();
+        return raw == 0 ? 1 : (double) getCompressedRecvBytes() / raw;
+    }
+}
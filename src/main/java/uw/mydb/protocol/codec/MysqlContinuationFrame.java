@@ -0,0 +1,32 @@
+package uw.mydb.protocol.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/**
+ * 超过16MB的逻辑数据包中，首帧之后的续帧。
+ * 内容为包含4字节包头的完整帧，可以直接转发。
+ *
+ * @author axeon
+ */
+public class MysqlContinuationFrame extends DefaultByteBufHolder {
+
+    /**
+     * 是否为最后一帧。
+     */
+    private final boolean last;
+
+    public MysqlContinuationFrame(ByteBuf frame, boolean last) {
+        super(frame);
+        this.last = last;
+    }
+
+    /**
+     * 是否为最后一帧。
+     *
+     * @return
+     */
+    public boolean isLast() {
+        return last;
+    }
+}
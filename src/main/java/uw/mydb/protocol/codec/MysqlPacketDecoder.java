@@ -3,6 +3,7 @@ package uw.mydb.protocol.codec;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uw.mydb.util.ByteBufUtils;
@@ -12,11 +13,17 @@ import java.util.List;
 /**
  * mysql数据包解码器。
  * 为了性能和透传考虑，没有解析成对象。
+ * 超过16MB的逻辑数据包按帧输出，首帧为普通ByteBuf，之后的续帧为MysqlContinuationFrame，不在内存中合并。
  *
  * @author axeon
  */
 public class MysqlPacketDecoder extends ByteToMessageDecoder {
 
+    /**
+     * 单帧最大载荷，载荷等于此值时后面还有续帧。
+     */
+    public static final int MAX_FRAME_PAYLOAD = 0xFFFFFF;
+
     private static final Logger logger = LoggerFactory.getLogger(MysqlPacketDecoder.class);
 
     /**
@@ -25,9 +32,40 @@ public class MysqlPacketDecoder extends ByteToMessageDecoder {
     private final int packetHeaderSize = 4;
 
     /**
-     * 最大包大小。
+     * 逻辑数据包的最大大小。
+     */
+    private final long maxPacketSize;
+
+    /**
+     * 下一帧是否为续帧。
      */
-    private final int maxPacketSize = 16 * 1024 * 1024;
+    private boolean continuation;
+
+    /**
+     * 当前逻辑数据包已经读取的大小。
+     */
+    private long logicalSize;
+
+    public MysqlPacketDecoder() {
+        this(Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxPacketSize 逻辑数据包的最大大小
+     */
+    public MysqlPacketDecoder(long maxPacketSize) {
+        this.maxPacketSize = maxPacketSize;
+    }
+
+    /**
+     * 判断数据包是否为多帧逻辑数据包的首帧。
+     *
+     * @param buf 包含包头的数据包
+     * @return
+     */
+    public static boolean isFirstFrame(ByteBuf buf) {
+        return buf.readableBytes() == MAX_FRAME_PAYLOAD + 4;
+    }
 
     /**
      * MySql外层结构解包
@@ -48,8 +86,9 @@ public class MysqlPacketDecoder extends ByteToMessageDecoder {
         //包长度
         int packetLength = ByteBufUtils.readUB3(in);
         // 过载保护
-        if (packetLength > maxPacketSize) {
-            throw new IllegalArgumentException("Packet size over the limit:" + maxPacketSize);
+        long size = (continuation ? logicalSize : 0) + packetLength;
+        if (size > maxPacketSize) {
+            throw new TooLongFrameException("Packet size over the limit:" + maxPacketSize);
         }
         //包不全的情况，下次再读
         if (in.readableBytes() < packetLength + 1) {
@@ -61,6 +100,13 @@ public class MysqlPacketDecoder extends ByteToMessageDecoder {
         int readLength = packetLength + packetHeaderSize;
         // 尝试用zero copy。
         ByteBuf buf = in.readRetainedSlice(readLength);
-        out.add(buf);
+        boolean last = packetLength < MAX_FRAME_PAYLOAD;
+        if (continuation) {
+            out.add(new MysqlContinuationFrame(buf, last));
+        } else {
+            out.add(buf);
+        }
+        continuation = !last;
+        logicalSize = last ? 0 : size;
     }
 }
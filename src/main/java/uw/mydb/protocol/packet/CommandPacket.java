@@ -57,6 +57,11 @@ import uw.mydb.util.ByteBufUtils;
  */
 public class CommandPacket extends MySqlPacket {
 
+    /**
+     * 单帧最大载荷。
+     */
+    private static final int MAX_FRAME_PAYLOAD = 0xFFFFFF;
+
     public byte command = MySqlPacket.CMD_QUERY;
     public byte[] arg;
 
@@ -74,12 +79,37 @@ public class CommandPacket extends MySqlPacket {
         buf.readBytes(arg);
     }
 
+    /**
+     * 写入数据包，载荷达到16MB时按mysql协议拆分为多帧，最后一帧小于16MB。
+     *
+     * @param buf
+     */
     @Override
     public void write(ByteBuf buf) {
-        ByteBufUtils.writeUB3(buf, calcPacketSize());
-        buf.writeByte(packetId);
+        int size = calcPacketSize();
+        if (size < MAX_FRAME_PAYLOAD) {
+            ByteBufUtils.writeUB3(buf, size);
+            buf.writeByte(packetId);
+            buf.writeByte(command);
+            buf.writeBytes(arg);
+            return;
+        }
+        byte seq = packetId;
+        ByteBufUtils.writeUB3(buf, MAX_FRAME_PAYLOAD);
+        buf.writeByte(seq++);
         buf.writeByte(command);
-        buf.writeBytes(arg);
+        int pos = MAX_FRAME_PAYLOAD - 1;
+        buf.writeBytes(arg, 0, pos);
+        while (true) {
+            int length = Math.min(arg.length - pos, MAX_FRAME_PAYLOAD);
+            ByteBufUtils.writeUB3(buf, length);
+            buf.writeByte(seq++);
+            buf.writeBytes(arg, pos, length);
+            pos += length;
+            if (length < MAX_FRAME_PAYLOAD) {
+                break;
+            }
+        }
     }
 
     @Override
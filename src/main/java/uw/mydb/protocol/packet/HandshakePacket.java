@@ -37,7 +37,9 @@ public class HandshakePacket extends MySqlPacket {
         serverCapabilities = ByteBufUtils.readUB2(buf);
         serverCharsetIndex = buf.readByte();
         serverStatus = ByteBufUtils.readUB2(buf);
-        buf.skipBytes(FILLER_13.length);
+        //能力标志的高16位。
+        serverCapabilities |= ByteBufUtils.readUB2(buf) << 16;
+        buf.skipBytes(FILLER_13.length - 2);
         restOfScrambleBuff = ByteBufUtils.readBytesWithNull(buf);
     }
 
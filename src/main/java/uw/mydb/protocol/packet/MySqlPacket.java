@@ -164,11 +164,21 @@ public abstract class MySqlPacket {
      */
     public static final byte CMD_HEARTBEAT = 64;
 
+    /**
+     * 处于事务中
+     */
+    public static final int SERVER_STATUS_IN_TRANS = 1;
+
     /**
      * MORE RESULTS
      */
     public static final int SERVER_MORE_RESULTS_EXISTS = 8;
 
+    /**
+     * OK包中带有会话状态变化信息
+     */
+    public static final int SERVER_SESSION_STATE_CHANGED = 0x4000;
+
     /**
      * 包长度
      */
@@ -2,9 +2,12 @@ package uw.mydb.protocol.packet;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import uw.mydb.util.ByteBufUtils;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * From ServerConfig To Client, at the end of a series of Field Packets, and at the
  * end of a series of Data Packets.With prepared statements, EOF Packet can also
@@ -30,6 +33,16 @@ public class OKPacket extends MySqlPacket {
     public int warningCount;
     public byte[] message;
 
+    /**
+     * 会话状态变化信息，只在后端协商了CLIENT_SESSION_TRACK时出现，不转发给前端。
+     */
+    public byte[] sessionState;
+
+    /**
+     * 会话状态信息中GTID的类型。
+     */
+    private static final int SESSION_TRACK_GTIDS = 3;
+
     /**
      * 向通道中写一条ok指令。
      *
@@ -60,6 +73,11 @@ public class OKPacket extends MySqlPacket {
         ctx.writeAndFlush(byteBuf);
     }
 
+    /**
+     * 写入时不带会话状态信息，前端没有协商CLIENT_SESSION_TRACK。
+     *
+     * @param buf
+     */
     @Override
     public void write(ByteBuf buf) {
         ByteBufUtils.writeUB3(buf, calcPacketSize());
@@ -67,7 +85,7 @@ public class OKPacket extends MySqlPacket {
         ByteBufUtils.writeLength(buf, packetType);
         ByteBufUtils.writeLength(buf, affectedRows);
         ByteBufUtils.writeLength(buf, insertId);
-        ByteBufUtils.writeUB2(buf, serverStatus);
+        ByteBufUtils.writeUB2(buf, serverStatus & ~SERVER_SESSION_STATE_CHANGED);
         ByteBufUtils.writeUB2(buf, warningCount);
         if (message != null) {
             ByteBufUtils.writeWithLength(buf, message);
@@ -85,6 +103,35 @@ public class OKPacket extends MySqlPacket {
         if (buf.readableBytes() > 0) {
             message = ByteBufUtils.readBytesWithLength(buf);
         }
+        if ((serverStatus & SERVER_SESSION_STATE_CHANGED) != 0 && buf.readableBytes() > 0) {
+            sessionState = ByteBufUtils.readBytesWithLength(buf);
+        }
+    }
+
+    /**
+     * 获得会话状态信息中的GTID，需要后端设置session_track_gtids。
+     *
+     * @return 没有时返回null
+     */
+    public String getTrackedGtids() {
+        if (sessionState == null || sessionState.length == 0) {
+            return null;
+        }
+        ByteBuf buf = Unpooled.wrappedBuffer(sessionState);
+        while (buf.readableBytes() > 1) {
+            int type = buf.readByte() & 0xFF;
+            int length = (int) ByteBufUtils.readLength(buf);
+            if (length < 0 || length > buf.readableBytes()) {
+                return null;
+            }
+            if (type == SESSION_TRACK_GTIDS && length > 1) {
+                //首字节是编码规格，目前只有0。
+                ByteBuf data = buf.slice(buf.readerIndex() + 1, length - 1);
+                return new String(ByteBufUtils.readBytesWithLength(data), StandardCharsets.US_ASCII);
+            }
+            buf.skipBytes(length);
+        }
+        return null;
     }
 
     @Override
@@ -0,0 +1,96 @@
+package uw.mydb.protocol.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import uw.mydb.util.ByteBufUtils;
+
+/**
+ * COM_STMT_PREPARE的返回包。
+ * <pre>
+ * Bytes              Name
+ * -----              ----
+ * 1                  status, always = 0x00
+ * 4                  statement_id
+ * 2                  num_columns
+ * 2                  num_params
+ * 1                  reserved_1, always = 0x00
+ * 2                  warning_count
+ * n*Field Packet     num_params > 0时，参数定义包
+ * EOF Packet         num_params > 0时，参数定义结束包
+ * n*Field Packet     num_columns > 0时，字段定义包
+ * EOF Packet         num_columns > 0时，字段定义结束包
+ * </pre>
+ *
+ * @author axeon
+ */
+public class PreparedOkPacket extends MySqlPacket {
+
+    /**
+     * 参数定义包的内容，类型为VAR_STRING，名称为?。
+     */
+    private static final byte[] PARAM_FIELD = new byte[]{3, 'd', 'e', 'f', 0, 0, 0, 1, '?', 0,
+            0x0c, 63, 0, 0, 0, 0, 0, (byte) 0xfd, (byte) 0x80, 0, 0, 0, 0};
+
+    public byte status = PACKET_OK;
+    public long statementId;
+    public int columnsNumber;
+    public int parametersNumber;
+    public int warningCount;
+
+    public void read(ByteBuf buf) {
+        packetLength = ByteBufUtils.readUB3(buf);
+        packetId = buf.readByte();
+        status = buf.readByte();
+        statementId = ByteBufUtils.readUB4(buf);
+        columnsNumber = ByteBufUtils.readUB2(buf);
+        parametersNumber = ByteBufUtils.readUB2(buf);
+        buf.skipBytes(1);
+        warningCount = ByteBufUtils.readUB2(buf);
+    }
+
+    @Override
+    public void write(ByteBuf buf) {
+        ByteBufUtils.writeUB3(buf, calcPacketSize());
+        buf.writeByte(packetId);
+        buf.writeByte(status);
+        ByteBufUtils.writeUB4(buf, statementId);
+        ByteBufUtils.writeUB2(buf, columnsNumber);
+        ByteBufUtils.writeUB2(buf, parametersNumber);
+        buf.writeByte(0);
+        ByteBufUtils.writeUB2(buf, warningCount);
+    }
+
+    /**
+     * 输出完整的返回，包括参数定义包。
+     * 字段定义在执行时随结果集返回，因此不输出字段定义。
+     *
+     * @param ctx
+     */
+    public void writeResponseToChannel(ChannelHandlerContext ctx) {
+        ByteBuf buf = ctx.alloc().buffer();
+        write(buf);
+        byte seq = packetId;
+        if (parametersNumber > 0) {
+            for (int i = 0; i < parametersNumber; i++) {
+                ByteBufUtils.writeUB3(buf, PARAM_FIELD.length);
+                buf.writeByte(++seq);
+                buf.writeBytes(PARAM_FIELD);
+            }
+            EOFPacket eof = new EOFPacket();
+            eof.packetId = ++seq;
+            eof.write(buf);
+        }
+        ctx.writeAndFlush(buf);
+    }
+
+    @Override
+    public int calcPacketSize() {
+        return 12;
+    }
+
+    @Override
+    protected String getPacketInfo() {
+        return "MySQL PreparedOk Packet";
+    }
+
+}
@@ -0,0 +1,313 @@
+package uw.mydb.protocol.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import uw.mydb.util.ByteBufUtils;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * COM_STMT_EXECUTE数据包。
+ * <pre>
+ * Bytes                Name
+ * -----                ----
+ * 1                    code, always = 0x17
+ * 4                    statement_id
+ * 1                    flags, 0x00 CURSOR_TYPE_NO_CURSOR
+ * 4                    iteration_count, always = 1
+ * (param_count+7)/8    null_bit_map
+ * 1                    new_params_bound_flag
+ * n*2                  new_params_bound_flag = 1时，参数类型
+ * n                    参数值，按照参数类型进行二进制编码
+ * </pre>
+ * 通过COM_STMT_SEND_LONG_DATA发送的参数不在参数值中，转发时会直接合并到参数值里。
+ *
+ * @author axeon
+ */
+public class StmtExecutePacket extends MySqlPacket {
+
+    public static final int MYSQL_TYPE_DECIMAL = 0x00;
+    public static final int MYSQL_TYPE_TINY = 0x01;
+    public static final int MYSQL_TYPE_SHORT = 0x02;
+    public static final int MYSQL_TYPE_LONG = 0x03;
+    public static final int MYSQL_TYPE_FLOAT = 0x04;
+    public static final int MYSQL_TYPE_DOUBLE = 0x05;
+    public static final int MYSQL_TYPE_NULL = 0x06;
+    public static final int MYSQL_TYPE_TIMESTAMP = 0x07;
+    public static final int MYSQL_TYPE_LONGLONG = 0x08;
+    public static final int MYSQL_TYPE_INT24 = 0x09;
+    public static final int MYSQL_TYPE_DATE = 0x0a;
+    public static final int MYSQL_TYPE_TIME = 0x0b;
+    public static final int MYSQL_TYPE_DATETIME = 0x0c;
+    public static final int MYSQL_TYPE_YEAR = 0x0d;
+
+    /**
+     * 无符号类型标记。
+     */
+    private static final int UNSIGNED_FLAG = 0x8000;
+
+    public byte command = CMD_STMT_EXECUTE;
+    public long statementId;
+    public byte flags;
+    public long iterationCount = 1;
+    public byte[] nullBitMap;
+    public byte newParamsBoundFlag;
+    /**
+     * 参数类型。
+     */
+    public int[] paramTypes;
+    /**
+     * 参数值，保存二进制编码后的数据，null表示参数为NULL。
+     */
+    public byte[][] paramValues;
+
+    /**
+     * 读取数据包。
+     *
+     * @param buf
+     * @param paramCount 参数个数
+     * @param boundTypes 之前绑定的参数类型，new_params_bound_flag = 0时使用
+     * @param longData   通过COM_STMT_SEND_LONG_DATA发送的参数值，可以为null
+     */
+    public void read(ByteBuf buf, int paramCount, int[] boundTypes, byte[][] longData) {
+        packetLength = ByteBufUtils.readUB3(buf);
+        packetId = buf.readByte();
+        command = buf.readByte();
+        statementId = ByteBufUtils.readUB4(buf);
+        flags = buf.readByte();
+        iterationCount = ByteBufUtils.readUB4(buf);
+        paramTypes = boundTypes;
+        paramValues = new byte[paramCount][];
+        if (paramCount == 0) {
+            return;
+        }
+        nullBitMap = new byte[(paramCount + 7) / 8];
+        buf.readBytes(nullBitMap);
+        newParamsBoundFlag = buf.readByte();
+        if (newParamsBoundFlag == 1) {
+            paramTypes = new int[paramCount];
+            for (int i = 0; i < paramCount; i++) {
+                paramTypes[i] = ByteBufUtils.readUB2(buf);
+            }
+        }
+        if (paramTypes == null) {
+            throw new IllegalStateException("Statement parameter types are not bound!");
+        }
+        for (int i = 0; i < paramCount; i++) {
+            if ((nullBitMap[i / 8] & (1 << (i & 7))) != 0) {
+                continue;
+            }
+            if (longData != null && longData[i] != null) {
+                ByteBuf data = Unpooled.buffer(ByteBufUtils.getLength(longData[i]));
+                ByteBufUtils.writeWithLength(data, longData[i]);
+                paramValues[i] = data.array();
+                continue;
+            }
+            int start = buf.readerIndex();
+            skipValue(buf, paramTypes[i] & 0xff);
+            paramValues[i] = new byte[buf.readerIndex() - start];
+            buf.getBytes(start, paramValues[i]);
+        }
+    }
+
+    @Override
+    public void write(ByteBuf buf) {
+        ByteBufUtils.writeUB3(buf, calcPacketSize());
+        buf.writeByte(packetId);
+        buf.writeByte(command);
+        ByteBufUtils.writeUB4(buf, statementId);
+        buf.writeByte(flags);
+        ByteBufUtils.writeUB4(buf, iterationCount);
+        if (paramValues.length == 0) {
+            return;
+        }
+        buf.writeBytes(nullBitMap);
+        //后端连接可能是第一次执行，参数类型必须每次都带上。
+        buf.writeByte(1);
+        for (int type : paramTypes) {
+            ByteBufUtils.writeUB2(buf, type);
+        }
+        for (byte[] value : paramValues) {
+            if (value != null) {
+                buf.writeBytes(value);
+            }
+        }
+    }
+
+    /**
+     * 复制一个执行包，参数数据共享，用于多节点执行时分别设置语句id。
+     *
+     * @return
+     */
+    public StmtExecutePacket duplicate() {
+        StmtExecutePacket packet = new StmtExecutePacket();
+        packet.packetId = packetId;
+        packet.command = command;
+        packet.statementId = statementId;
+        packet.flags = flags;
+        packet.iterationCount = iterationCount;
+        packet.nullBitMap = nullBitMap;
+        packet.newParamsBoundFlag = newParamsBoundFlag;
+        packet.paramTypes = paramTypes;
+        packet.paramValues = paramValues;
+        return packet;
+    }
+
+    /**
+     * 获得参数的文本值，用于路由计算。
+     *
+     * @return
+     */
+    public String[] getParamStrings() {
+        String[] values = new String[paramValues.length];
+        for (int i = 0; i < values.length; i++) {
+            if (paramValues[i] == null) {
+                values[i] = "NULL";
+            } else {
+                values[i] = decodeValue(paramTypes[i], Unpooled.wrappedBuffer(paramValues[i]));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 跳过一个参数值。
+     *
+     * @param buf
+     * @param type
+     */
+    private static void skipValue(ByteBuf buf, int type) {
+        switch (type) {
+            case MYSQL_TYPE_NULL:
+                break;
+            case MYSQL_TYPE_TINY:
+                buf.skipBytes(1);
+                break;
+            case MYSQL_TYPE_SHORT:
+            case MYSQL_TYPE_YEAR:
+                buf.skipBytes(2);
+                break;
+            case MYSQL_TYPE_LONG:
+            case MYSQL_TYPE_INT24:
+            case MYSQL_TYPE_FLOAT:
+                buf.skipBytes(4);
+                break;
+            case MYSQL_TYPE_LONGLONG:
+            case MYSQL_TYPE_DOUBLE:
+                buf.skipBytes(8);
+                break;
+            case MYSQL_TYPE_DATE:
+            case MYSQL_TYPE_DATETIME:
+            case MYSQL_TYPE_TIMESTAMP:
+            case MYSQL_TYPE_TIME:
+                buf.skipBytes(buf.readByte() & 0xff);
+                break;
+            default:
+                //其它类型都是长度编码的字符串。
+                long length = ByteBufUtils.readLength(buf);
+                if (length > 0) {
+                    buf.skipBytes((int) length);
+                }
+                break;
+        }
+    }
+
+    /**
+     * 把二进制编码的参数值转换为文本。
+     *
+     * @param type
+     * @param buf
+     * @return
+     */
+    private static String decodeValue(int type, ByteBuf buf) {
+        boolean unsigned = (type & UNSIGNED_FLAG) != 0;
+        switch (type & 0xff) {
+            case MYSQL_TYPE_NULL:
+                return "NULL";
+            case MYSQL_TYPE_TINY:
+                return String.valueOf(unsigned ? buf.readUnsignedByte() : buf.readByte());
+            case MYSQL_TYPE_SHORT:
+            case MYSQL_TYPE_YEAR:
+                return String.valueOf(unsigned ? buf.readUnsignedShortLE() : buf.readShortLE());
+            case MYSQL_TYPE_LONG:
+            case MYSQL_TYPE_INT24:
+                return String.valueOf(unsigned ? buf.readUnsignedIntLE() : buf.readIntLE());
+            case MYSQL_TYPE_LONGLONG:
+                return unsigned ? Long.toUnsignedString(buf.readLongLE()) : String.valueOf(buf.readLongLE());
+            case MYSQL_TYPE_FLOAT:
+                return new BigDecimal(Float.toString(Float.intBitsToFloat(buf.readIntLE()))).toPlainString();
+            case MYSQL_TYPE_DOUBLE:
+                return BigDecimal.valueOf(Double.longBitsToDouble(buf.readLongLE())).toPlainString();
+            case MYSQL_TYPE_DATE:
+            case MYSQL_TYPE_DATETIME:
+            case MYSQL_TYPE_TIMESTAMP:
+                return decodeDateTime(buf);
+            case MYSQL_TYPE_TIME:
+                return decodeTime(buf);
+            default:
+                return new String(ByteBufUtils.readBytesWithLength(buf), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 解码日期时间，输出yyyy-MM-dd HH:mm:ss格式。
+     *
+     * @param buf
+     * @return
+     */
+    private static String decodeDateTime(ByteBuf buf) {
+        int length = buf.readByte() & 0xff;
+        int year = 0, month = 0, day = 0, hour = 0, minute = 0, second = 0;
+        if (length >= 4) {
+            year = buf.readUnsignedShortLE();
+            month = buf.readByte();
+            day = buf.readByte();
+        }
+        if (length >= 7) {
+            hour = buf.readByte();
+            minute = buf.readByte();
+            second = buf.readByte();
+        }
+        return String.format("%04d-%02d-%02d %02d:%02d:%02d", year, month, day, hour, minute, second);
+    }
+
+    /**
+     * 解码时间，输出HH:mm:ss格式。
+     *
+     * @param buf
+     * @return
+     */
+    private static String decodeTime(ByteBuf buf) {
+        int length = buf.readByte() & 0xff;
+        if (length < 8) {
+            return "00:00:00";
+        }
+        boolean negative = buf.readByte() == 1;
+        long days = buf.readUnsignedIntLE();
+        int hour = buf.readByte();
+        int minute = buf.readByte();
+        int second = buf.readByte();
+        return String.format("%s%02d:%02d:%02d", negative ? "-" : "", days * 24 + hour, minute, second);
+    }
+
+    @Override
+    public int calcPacketSize() {
+        int size = 10;
+        if (paramValues.length > 0) {
+            size += nullBitMap.length + 1 + paramTypes.length * 2;
+            for (byte[] value : paramValues) {
+                if (value != null) {
+                    size += value.length;
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    protected String getPacketInfo() {
+        return "MySQL Statement Execute Packet";
+    }
+
+}
@@ -89,15 +89,33 @@ public class Capability {
     // 当打开CLIENT_MULTI_STATEMENTS时，这个标志自动的被打开。
     public static final int CLIENT_MULTI_RESULTS = 131072;
 
+    // Capable of handling server state change information
+    // OK包中返回会话状态变化信息，用于获取写入产生的GTID。
+    public static final int CLIENT_SESSION_TRACK = 1 << 23;
+
 
     public static long initClientFlags() {
+        return initClientFlags(false, false);
+    }
+
+    public static long initClientFlags(boolean usingCompress) {
+        return initClientFlags(usingCompress, false);
+    }
+
+    /**
+     * 后端连接的客户端标志。
+     *
+     * @param usingCompress 是否使用压缩协议
+     * @param sessionTrack  是否接收会话状态变化信息
+     * @return
+     */
+    public static long initClientFlags(boolean usingCompress, boolean sessionTrack) {
         int flag = 0;
         flag |= Capability.CLIENT_LONG_PASSWORD;
         flag |= Capability.CLIENT_FOUND_ROWS;
         flag |= Capability.CLIENT_LONG_FLAG;
         flag |= Capability.CLIENT_CONNECT_WITH_DB;
         // flag |= Capability.CLIENT_NO_SCHEMA;
-        boolean usingCompress = false;
         if (usingCompress) {
             flag |= Capability.CLIENT_COMPRESS;
         }
@@ -114,19 +132,32 @@ public class Capability {
         // client extension
         flag |= Capability.CLIENT_MULTI_STATEMENTS;
         flag |= Capability.CLIENT_MULTI_RESULTS;
+        if (sessionTrack) {
+            flag |= Capability.CLIENT_SESSION_TRACK;
+        }
         return flag;
     }
 
     public static int getServerCapabilities() {
+        return getServerCapabilities(false);
+    }
+
+    /**
+     * proxy的服务端能力标志。
+     *
+     * @param usingCompress 是否支持压缩协议
+     * @return
+     */
+    public static int getServerCapabilities(boolean usingCompress) {
         int flag = 0;
         flag |= Capability.CLIENT_LONG_PASSWORD;
         flag |= Capability.CLIENT_FOUND_ROWS;
         flag |= Capability.CLIENT_LONG_FLAG;
         flag |= Capability.CLIENT_CONNECT_WITH_DB;
         // flag |= Capability.CLIENT_NO_SCHEMA;
-        // if (usingCompress) {
-        // flag |= Capability.CLIENT_COMPRESS;
-        // }
+        if (usingCompress) {
+            flag |= Capability.CLIENT_COMPRESS;
+        }
         flag |= Capability.CLIENT_ODBC;
         flag |= Capability.CLIENT_LOCAL_FILES;
         flag |= Capability.CLIENT_IGNORE_SPACE;
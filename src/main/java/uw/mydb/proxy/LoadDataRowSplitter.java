@@ -0,0 +1,250 @@
+package uw.mydb.proxy;
+
+import io.netty.buffer.ByteBuf;
+import uw.mydb.sqlparser.SqlLoadDataParser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * LOAD DATA文件内容的拆行器。
+ * 按语句的分隔、包围、转义设置增量扫描，找出完整的行和路由列的值，数据本身不做转换。
+ * 扫描位置相对于readerIndex保存，调用方跳过已返回的行后可以压缩缓冲。
+ *
+ * @author axeon
+ */
+class LoadDataRowSplitter {
+
+    private final byte[] fieldsTerminated;
+
+    private final byte[] linesTerminated;
+
+    /**
+     * 包围符和转义符，无符号字节，没有时为-1。
+     */
+    private final int enclosed;
+
+    private final int escaped;
+
+    /**
+     * 列序号到路由列序号的映射，不是路由列的为-1。
+     */
+    private final int[] keySlots;
+
+    /**
+     * 路由列值的起止位置。
+     */
+    private final int[] keyStarts, keyEnds;
+
+    /**
+     * 已扫描的位置。
+     */
+    private int scanOffset;
+
+    /**
+     * 当前列序号。
+     */
+    private int fieldIndex;
+
+    /**
+     * 当前列开始位置。
+     */
+    private int fieldStart;
+
+    /**
+     * 是否在列开头。
+     */
+    private boolean atFieldStart = true;
+
+    /**
+     * 是否在包围符内。
+     */
+    private boolean inEnclosed;
+
+    /**
+     * 下一个字节是否被转义。
+     */
+    private boolean escapeNext;
+
+    /**
+     * 上一行是否已经返回，下次扫描前需要重置。
+     */
+    private boolean rowDone;
+
+    /**
+     * @param stmt       LOAD DATA语句
+     * @param keyColumns 每个路由列在列清单中的序号
+     */
+    LoadDataRowSplitter(SqlLoadDataParser stmt, int[] keyColumns) {
+        this.fieldsTerminated = stmt.getFieldsTerminated();
+        this.linesTerminated = stmt.getLinesTerminated();
+        this.enclosed = stmt.getEnclosed();
+        this.escaped = stmt.getEscaped();
+        int max = 0;
+        for (int column : keyColumns) {
+            max = Math.max(max, column);
+        }
+        this.keySlots = new int[max + 1];
+        Arrays.fill(keySlots, -1);
+        for (int i = 0; i < keyColumns.length; i++) {
+            keySlots[keyColumns[i]] = i;
+        }
+        this.keyStarts = new int[keyColumns.length];
+        this.keyEnds = new int[keyColumns.length];
+        Arrays.fill(keyStarts, -1);
+    }
+
+    /**
+     * 扫描下一个完整的行。
+     *
+     * @param buf 从readerIndex开始的文件内容
+     * @param eof 是否已经收到全部内容，此时没有行分隔符的剩余内容也作为一行
+     * @return 行的长度(含行分隔符)，没有完整的行时返回-1
+     */
+    int nextRow(ByteBuf buf, boolean eof) {
+        if (rowDone) {
+            rowDone = false;
+            scanOffset = 0;
+            fieldIndex = 0;
+            fieldStart = 0;
+            atFieldStart = true;
+            inEnclosed = false;
+            escapeNext = false;
+            Arrays.fill(keyStarts, -1);
+        }
+        int base = buf.readerIndex();
+        int len = buf.readableBytes();
+        int o = scanOffset;
+        while (o < len) {
+            int b = buf.getByte(base + o) & 0xFF;
+            if (escapeNext) {
+                escapeNext = false;
+                atFieldStart = false;
+                o++;
+                continue;
+            }
+            if (b == escaped) {
+                escapeNext = true;
+                o++;
+                continue;
+            }
+            if (inEnclosed) {
+                if (b == enclosed) {
+                    if (o + 1 >= len && !eof) {
+                        break;
+                    }
+                    if (o + 1 < len && (buf.getByte(base + o + 1) & 0xFF) == enclosed) {
+                        o += 2;
+                        continue;
+                    }
+                    inEnclosed = false;
+                }
+                o++;
+                continue;
+            }
+            if (atFieldStart && b == enclosed) {
+                inEnclosed = true;
+                atFieldStart = false;
+                o++;
+                continue;
+            }
+            int match = match(buf, base, o, len, linesTerminated);
+            if (match < 0 && !eof) {
+                break;
+            }
+            if (match > 0) {
+                endField(o);
+                rowDone = true;
+                return o + linesTerminated.length;
+            }
+            match = match(buf, base, o, len, fieldsTerminated);
+            if (match < 0 && !eof) {
+                break;
+            }
+            if (match > 0) {
+                endField(o);
+                fieldIndex++;
+                o += fieldsTerminated.length;
+                fieldStart = o;
+                atFieldStart = true;
+                continue;
+            }
+            atFieldStart = false;
+            o++;
+        }
+        scanOffset = o;
+        if (eof && o >= len && len > 0) {
+            endField(len);
+            rowDone = true;
+            return len;
+        }
+        return -1;
+    }
+
+    /**
+     * 获得最近返回的行中路由列的值，去掉包围符和转义符。
+     * 必须在跳过该行之前调用。
+     *
+     * @param buf
+     * @param key 路由列序号
+     * @return 列不存在或为\N时返回null
+     */
+    String keyValue(ByteBuf buf, int key) {
+        int start = keyStarts[key];
+        if (start < 0) {
+            return null;
+        }
+        int base = buf.readerIndex();
+        int end = keyEnds[key];
+        if (end - start >= 2 && (buf.getByte(base + start) & 0xFF) == enclosed && (buf.getByte(base + end - 1) & 0xFF) == enclosed) {
+            start++;
+            end--;
+        } else if (end - start == 2 && (buf.getByte(base + start) & 0xFF) == escaped && buf.getByte(base + start + 1) == 'N') {
+            return null;
+        }
+        byte[] bytes = new byte[end - start];
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buf.getByte(base + i);
+            if ((b & 0xFF) == escaped && i + 1 < end) {
+                b = buf.getByte(base + ++i);
+            } else if ((b & 0xFF) == enclosed && i + 1 < end && (buf.getByte(base + i + 1) & 0xFF) == enclosed) {
+                i++;
+            }
+            bytes[n++] = b;
+        }
+        return new String(bytes, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 结束当前列。
+     *
+     * @param end
+     */
+    private void endField(int end) {
+        if (fieldIndex < keySlots.length) {
+            int slot = keySlots[fieldIndex];
+            if (slot > -1) {
+                keyStarts[slot] = fieldStart;
+                keyEnds[slot] = end;
+            }
+        }
+    }
+
+    /**
+     * 匹配分隔符。
+     *
+     * @return 1为匹配，0为不匹配，-1为数据不足无法判断
+     */
+    private static int match(ByteBuf buf, int base, int offset, int len, byte[] term) {
+        for (int i = 0; i < term.length; i++) {
+            if (offset + i >= len) {
+                return -1;
+            }
+            if (buf.getByte(base + offset + i) != term[i]) {
+                return 0;
+            }
+        }
+        return 1;
+    }
+}
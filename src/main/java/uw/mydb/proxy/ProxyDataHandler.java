@@ -6,6 +6,8 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.util.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uw.mydb.protocol.codec.MysqlContinuationFrame;
+import uw.mydb.protocol.codec.MysqlPacketDecoder;
 import uw.mydb.protocol.packet.MySqlPacket;
 import uw.mydb.protocol.util.ErrorCode;
 
@@ -55,6 +57,17 @@ public class ProxyDataHandler extends ChannelInboundHandlerAdapter {
             logger.warn("!!!发现错误来源的访问信息，来源:{}", ctx.channel().remoteAddress());
             ctx.close();
         }
+        //大包的续帧交给当前命令。
+        if (msg instanceof MysqlContinuationFrame) {
+            MysqlContinuationFrame frame = (MysqlContinuationFrame) msg;
+            if (session.isLoadingData()) {
+                session.loadDataPacket(frame.content(), true);
+            } else {
+                session.largePacketContinuation(ctx, frame.content(), frame.isLast());
+            }
+            super.channelRead(ctx, msg);
+            return;
+        }
         //拿到消息
         ByteBuf buf = (ByteBuf) msg;
         session.updateLastAccess();
@@ -62,8 +75,20 @@ public class ProxyDataHandler extends ChannelInboundHandlerAdapter {
             //未登录状态，执行登录操作。
             session.auth(ctx, buf);
         } else {
+            //LOAD DATA LOCAL INFILE的文件内容，不是命令包。
+            if (session.isLoadingData()) {
+                session.loadDataPacket(buf, false);
+                super.channelRead(ctx, msg);
+                return;
+            }
             //已经登录
             byte type = buf.getByte(4);
+            //只有COM_QUERY支持超过16MB的数据包。
+            if (type != MySqlPacket.CMD_QUERY && MysqlPacketDecoder.isFirstFrame(buf)) {
+                session.discardLargePacket();
+                super.channelRead(ctx, msg);
+                return;
+            }
             switch (type) {
                 case MySqlPacket.CMD_INIT_DB:
                     logger.debug("CMD_INIT_DB");
@@ -97,6 +122,14 @@ public class ProxyDataHandler extends ChannelInboundHandlerAdapter {
                     logger.debug("CMD_STMT_CLOSE");
                     session.stmtClose(ctx, buf);
                     break;
+                case MySqlPacket.CMD_STMT_SEND_LONG_DATA:
+                    logger.debug("CMD_STMT_SEND_LONG_DATA");
+                    session.stmtSendLongData(ctx, buf);
+                    break;
+                case MySqlPacket.CMD_STMT_RESET:
+                    logger.debug("CMD_STMT_RESET");
+                    session.stmtReset(ctx, buf);
+                    break;
                 case MySqlPacket.CMD_HEARTBEAT:
                     logger.debug("CMD_HEARTBEAT");
                     session.heartbeat(ctx, buf);
@@ -109,6 +142,21 @@ public class ProxyDataHandler extends ChannelInboundHandlerAdapter {
         super.channelRead(ctx, msg);
     }
 
+    /**
+     * 写缓冲状态变化，用于结果集转发的流控。
+     *
+     * @param ctx
+     * @throws Exception
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        ProxyMysqlSession session = ctx.channel().attr(MYDB_SESSION).get();
+        if (session != null) {
+            session.writabilityChanged();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     /**
      * 异常捕获。
      *
@@ -133,6 +181,10 @@ public class ProxyDataHandler extends ChannelInboundHandlerAdapter {
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         ProxyMysqlSession session = ctx.channel().attr(MYDB_SESSION).get();
         ProxySessionManager.remove(ctx.channel().remoteAddress().toString());
+        if (session != null) {
+            //前端断开时中断后端还在执行的命令，后端连接可以尽快归还。
+            session.cancelQuery(true);
+        }
         super.channelInactive(ctx);
     }
 
@@ -2,6 +2,7 @@ package uw.mydb.proxy;
 
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.SocketChannel;
+import uw.mydb.conf.MydbConfigManager;
 import uw.mydb.protocol.codec.MysqlPacketDecoder;
 
 /**
@@ -17,7 +18,7 @@ public class ProxyHandlerFactory extends ChannelInitializer<SocketChannel> {
     protected void initChannel(SocketChannel ch) {
         // decode mysql packet depend on it's length
 //        ch.pipeline().addLast( new LoggingHandler(LogLevel.INFO));
-        ch.pipeline().addLast(new MysqlPacketDecoder());
+        ch.pipeline().addLast(new MysqlPacketDecoder(MydbConfigManager.getConfig().getServer().getMaxPacketSize()));
 //        ch.pipeline().addLast(group, "ProxyDataHandler", new ProxyDataHandler());
         ch.pipeline().addLast(new ProxyDataHandler());
     }
@@ -0,0 +1,753 @@
+package uw.mydb.proxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uw.mydb.conf.MydbConfig;
+import uw.mydb.conf.MydbConfigManager;
+import uw.mydb.mysql.GtidSet;
+import uw.mydb.mysql.MySqlGroupManager;
+import uw.mydb.mysql.MySqlGroupService;
+import uw.mydb.mysql.MySqlService;
+import uw.mydb.mysql.MySqlSession;
+import uw.mydb.mysql.MySqlSessionCallback;
+import uw.mydb.mysql.SessionVariables;
+import uw.mydb.protocol.packet.ErrorPacket;
+import uw.mydb.protocol.packet.MySqlPacket;
+import uw.mydb.protocol.packet.OKPacket;
+import uw.mydb.protocol.util.ErrorCode;
+import uw.mydb.route.RouteAlgorithm;
+import uw.mydb.route.RouteManager;
+import uw.mydb.sqlparser.SqlLoadDataParser;
+import uw.mydb.sqlparser.SqlParseResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LOAD DATA LOCAL INFILE的分片导入处理器。
+ * 分片表按行解析路由列，每个分片在各自的后端连接上执行一条LOAD DATA，文件内容按行转发，各分片并行导入；
+ * 非分片表不拆行，文件内容直接转发到baseNode。
+ * 每个分片的缓冲有上限，后端未就绪或写缓冲满时暂停读取客户端数据。
+ * 除后端回调外，全部状态都在前端channel的线程中处理。
+ *
+ * @author axeon
+ */
+public class ProxyLoadDataHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProxyLoadDataHandler.class);
+
+    /**
+     * 路由计算结果的缓存数量，超过时清空。
+     */
+    private static final int ROUTE_CACHE_SIZE = 4096;
+
+    /**
+     * 配置文件。
+     */
+    private static MydbConfig config = MydbConfigManager.getConfig();
+
+    /**
+     * 前端会话。
+     */
+    private final ProxyMysqlSession proxySession;
+
+    /**
+     * 前端channel。
+     */
+    private final ChannelHandlerContext ctx;
+
+    /**
+     * LOAD DATA语句。
+     */
+    private final SqlLoadDataParser stmt;
+
+    /**
+     * 分片表配置，非分片表为null。
+     */
+    private MydbConfig.TableConfig tableConfig;
+
+    /**
+     * 路由列名。
+     */
+    private String[] keyNames;
+
+    /**
+     * 拆行器，非分片表为null。
+     */
+    private LoadDataRowSplitter splitter;
+
+    /**
+     * 各分片的导入。
+     */
+    private final Map<RouteAlgorithm.RouteInfo, Shard> shards = new LinkedHashMap<>();
+
+    /**
+     * 非分片表的唯一导入。
+     */
+    private Shard singleShard;
+
+    /**
+     * 路由值到路由结果的缓存。
+     */
+    private final HashMap<String, RouteAlgorithm.RouteInfo> routeCache = new HashMap<>();
+
+    /**
+     * 未形成完整行的文件内容。
+     */
+    private ByteBuf carry;
+
+    /**
+     * 剩余需要忽略的行数。
+     */
+    private long ignoreLines;
+
+    /**
+     * 客户端最后一个数据包的序号。
+     */
+    private byte clientSeq;
+
+    /**
+     * 文件内容是否已经全部收到。
+     */
+    private boolean inputDone;
+
+    /**
+     * 未结束的分片数。
+     */
+    private int remainCount;
+
+    /**
+     * 转发的行数。
+     */
+    private long rowsCount;
+
+    /**
+     * 影响行数。
+     */
+    private long affectedRows;
+
+    /**
+     * 警告数。
+     */
+    private int warningCount;
+
+    /**
+     * 第一个错误包。
+     */
+    private ErrorPacket errorPacket;
+
+    /**
+     * 是否暂停了客户端读取。
+     */
+    private boolean isReadPaused;
+
+    /**
+     * 是否已经返回结果。
+     */
+    private boolean isFinished;
+
+    public ProxyLoadDataHandler(ProxyMysqlSession proxySession, ChannelHandlerContext ctx, SqlLoadDataParser stmt) {
+        this.proxySession = proxySession;
+        this.ctx = ctx;
+        this.stmt = stmt;
+    }
+
+    /**
+     * 计算路由并请求客户端发送文件内容。
+     *
+     * @return 不能执行时已返回错误，返回false
+     */
+    public boolean start() {
+        MydbConfig.SchemaConfig schema = proxySession.getSchema();
+        tableConfig = RouteManager.getTableConfig(schema, stmt.getTableName());
+        if (tableConfig == null || tableConfig.getRoute() == null) {
+            //非分片表整体转发到baseNode，不拆行。
+            tableConfig = null;
+            singleShard = addShard(new RouteAlgorithm.RouteInfo(schema.getBaseNode(), schema.getName(), stmt.getTableName()), false);
+        } else {
+            RouteAlgorithm.RouteKeyData keyData = RouteManager.getParamMap(new RouteAlgorithm.RouteKeyData(), tableConfig);
+            int keyCount = keyData.isSingle() ? 1 : keyData.getValues().size();
+            List<String> names = new ArrayList<>();
+            List<Integer> positions = new ArrayList<>();
+            List<String> columns = stmt.getColumns();
+            if (columns != null) {
+                for (int i = 0; i < columns.size(); i++) {
+                    String column = columns.get(i);
+                    if (keyData.getValue(column) != null && !names.contains(column)) {
+                        names.add(column);
+                        positions.add(i);
+                    }
+                }
+            }
+            if (names.size() < keyCount) {
+                proxySession.failMessage(ctx, ErrorCode.ERR_NO_ROUTE_KEY, "LOAD DATA column list must contain route key[" + keyData.keyString() + "]: " + stmt.getSql());
+                return false;
+            }
+            if (stmt.getLinesStarting().length > 0) {
+                proxySession.failMessage(ctx, ErrorCode.ERR_NOT_SUPPORTED, "LINES STARTING BY is not supported for sharding table: " + stmt.getSql());
+                return false;
+            }
+            keyNames = names.toArray(new String[0]);
+            int[] keyColumns = new int[positions.size()];
+            for (int i = 0; i < keyColumns.length; i++) {
+                keyColumns[i] = positions.get(i);
+            }
+            splitter = new LoadDataRowSplitter(stmt, keyColumns);
+            ignoreLines = stmt.getIgnoreLines();
+            carry = ctx.alloc().buffer();
+        }
+        //请求客户端发送文件内容。
+        byte[] fileName = stmt.getFileName().getBytes(StandardCharsets.UTF_8);
+        ByteBuf buf = ctx.alloc().buffer(5 + fileName.length);
+        buf.writeMediumLE(1 + fileName.length);
+        buf.writeByte(1);
+        buf.writeByte(MySqlPacket.LOAD_DATA_PACKET);
+        buf.writeBytes(fileName);
+        ctx.writeAndFlush(buf);
+        return true;
+    }
+
+    /**
+     * 处理客户端发来的文件内容包，空包表示文件结束。
+     *
+     * @param buf          包含包头的完整数据包
+     * @param continuation 是否为超过16MB的数据包的续帧
+     */
+    public void receive(ByteBuf buf, boolean continuation) {
+        int length = buf.readableBytes() - 4;
+        clientSeq = buf.getByte(buf.readerIndex() + 3);
+        if (length == 0) {
+            if (!continuation) {
+                endInput();
+            }
+            return;
+        }
+        if (singleShard != null) {
+            singleShard.add(buf, buf.readerIndex() + 4, length);
+        } else {
+            carry.writeBytes(buf, buf.readerIndex() + 4, length);
+            splitRows(false);
+        }
+        for (Shard shard : shards.values()) {
+            shard.flush();
+        }
+        if (!isReadPaused && isCongested()) {
+            isReadPaused = true;
+            ctx.channel().config().setAutoRead(false);
+        }
+    }
+
+    /**
+     * 拆出完整的行并分发到分片。
+     *
+     * @param eof 是否为最后的内容
+     */
+    private void splitRows(boolean eof) {
+        int rowLength;
+        while ((rowLength = splitter.nextRow(carry, eof)) > 0) {
+            if (ignoreLines > 0) {
+                ignoreLines--;
+            } else {
+                Shard shard = routeRow();
+                if (shard != null) {
+                    shard.add(carry, carry.readerIndex(), rowLength);
+                    rowsCount++;
+                }
+            }
+            carry.skipBytes(rowLength);
+        }
+        carry.discardSomeReadBytes();
+    }
+
+    /**
+     * 计算当前行的路由。
+     *
+     * @return 路由失败时返回null，该行丢弃
+     */
+    private Shard routeRow() {
+        String[] values = new String[keyNames.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = splitter.keyValue(carry, i);
+        }
+        String cacheKey = values.length == 1 ? values[0] : String.join("\u0000", values);
+        RouteAlgorithm.RouteInfo routeInfo = routeCache.get(cacheKey);
+        if (routeInfo == null) {
+            RouteAlgorithm.RouteKeyData keyData = RouteManager.getParamMap(new RouteAlgorithm.RouteKeyData(), tableConfig);
+            for (int i = 0; i < values.length; i++) {
+                keyData.getValue(keyNames[i]).putValue(values[i]);
+            }
+            try {
+                RouteAlgorithm.RouteInfoData routeInfoData = RouteManager.calculate(tableConfig, keyData);
+                if (!routeInfoData.isSingle() || !routeInfoData.getRouteInfo().checkValid()) {
+                    throw new RouteAlgorithm.RouteException("no single route for value: " + cacheKey);
+                }
+                routeInfo = routeInfoData.getRouteInfo();
+            } catch (RouteAlgorithm.RouteException e) {
+                setError(ErrorCode.ERR_ROUTE_CALC, "ROUTE CALC ERROR: " + e.getMessage() + ", SQL: " + stmt.getSql());
+                return null;
+            }
+            if (routeCache.size() >= ROUTE_CACHE_SIZE) {
+                routeCache.clear();
+            }
+            routeCache.put(cacheKey, routeInfo);
+        }
+        Shard shard = shards.get(routeInfo);
+        if (shard == null) {
+            shard = addShard(routeInfo, true);
+        }
+        return shard;
+    }
+
+    /**
+     * 新建分片导入，并开始获取后端连接。
+     *
+     * @param routeInfo
+     * @param sharding  是否为分片表
+     * @return
+     */
+    private Shard addShard(RouteAlgorithm.RouteInfo routeInfo, boolean sharding) {
+        Shard shard = new Shard(routeInfo, stmt.rewrite(routeInfo.getDatabase(), routeInfo.getTable(), sharding));
+        shards.put(routeInfo, shard);
+        remainCount++;
+        shard.start();
+        return shard;
+    }
+
+    /**
+     * 文件内容全部收到，结束所有分片。
+     */
+    private void endInput() {
+        inputDone = true;
+        if (splitter != null) {
+            splitRows(true);
+            carry.release();
+            carry = null;
+        }
+        for (Shard shard : shards.values()) {
+            shard.end();
+        }
+        checkFinish();
+    }
+
+    /**
+     * 记录第一个错误。
+     *
+     * @param errorNo
+     * @param message
+     */
+    private void setError(int errorNo, String message) {
+        if (errorPacket == null) {
+            errorPacket = new ErrorPacket();
+            errorPacket.errorNo = errorNo;
+            errorPacket.message = message;
+        }
+    }
+
+    /**
+     * 是否有分片的缓冲超过上限。
+     *
+     * @return
+     */
+    private boolean isCongested() {
+        for (Shard shard : shards.values()) {
+            if (shard.isCongested()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 分片缓冲降低后，恢复读取客户端数据。
+     */
+    private void checkReadResume() {
+        if (isReadPaused && !isCongested()) {
+            isReadPaused = false;
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * 分片执行结束。
+     */
+    private void shardDone() {
+        remainCount--;
+        checkFinish();
+    }
+
+    /**
+     * 文件内容全部收到并且所有分片都结束后，返回汇总结果。
+     */
+    private void checkFinish() {
+        if (isFinished || !inputDone || remainCount > 0) {
+            return;
+        }
+        isFinished = true;
+        if (isReadPaused) {
+            isReadPaused = false;
+            ctx.channel().config().setAutoRead(true);
+        }
+        //部分分片失败时已导入的行也已提交，都需要使结果缓存失效。
+        ProxyResultCache.invalidate(proxySession.getSchema().getName(), stmt.getTableName());
+        if (errorPacket != null) {
+            errorPacket.packetId = (byte) (clientSeq + 1);
+            errorPacket.writeToChannel(ctx);
+        } else {
+            OKPacket okPacket = new OKPacket();
+            okPacket.packetId = (byte) (clientSeq + 1);
+            okPacket.affectedRows = affectedRows;
+            okPacket.warningCount = warningCount;
+            if (splitter != null) {
+                okPacket.message = ("Records: " + rowsCount + "  Deleted: 0  Skipped: " + Math.max(0, rowsCount - affectedRows) + "  Warnings: " + warningCount).getBytes(StandardCharsets.UTF_8);
+            }
+            okPacket.writeToChannel(ctx);
+        }
+        proxySession.loadDataFinished(errorPacket == null, affectedRows);
+    }
+
+    /**
+     * 中断导入，正在导入的后端连接直接关闭，mysql会回滚未完成的语句。
+     *
+     * @param detach 前端已断开时为true，不再返回结果
+     */
+    public void cancel(boolean detach) {
+        if (isFinished) {
+            return;
+        }
+        setError(ErrorCode.ER_QUERY_INTERRUPTED, "Query execution was interrupted");
+        for (Shard shard : shards.values()) {
+            shard.abort();
+        }
+        if (detach) {
+            isFinished = true;
+            if (carry != null) {
+                carry.release();
+                carry = null;
+            }
+        }
+    }
+
+    /**
+     * 单个分片的导入，也是该分片后端连接的回调。
+     */
+    private class Shard implements MySqlSessionCallback {
+
+        /**
+         * 路由信息。
+         */
+        private final RouteAlgorithm.RouteInfo routeInfo;
+
+        /**
+         * 重写后的LOAD DATA语句。
+         */
+        private final String sql;
+
+        /**
+         * 后端连接。
+         */
+        private MySqlSession mysqlSession;
+
+        /**
+         * 是否已收到后端的文件请求包。
+         */
+        private boolean ready;
+
+        /**
+         * 是否已写入结束空包。
+         */
+        private boolean ended;
+
+        /**
+         * 是否已失败，后续数据丢弃。
+         */
+        private boolean failed;
+
+        /**
+         * 发送给后端的数据包序号。
+         */
+        private byte seq;
+
+        /**
+         * 正在填充的数据包，预留包头。
+         */
+        private ByteBuf packet;
+
+        /**
+         * 后端就绪前缓冲的数据包。
+         */
+        private final ArrayDeque<ByteBuf> queue = new ArrayDeque<>();
+
+        /**
+         * 缓冲的字节数。
+         */
+        private long queuedBytes;
+
+        /**
+         * 是否有未flush的数据包。
+         */
+        private boolean unflushed;
+
+        Shard(RouteAlgorithm.RouteInfo routeInfo, String sql) {
+            this.routeInfo = routeInfo;
+            this.sql = sql;
+        }
+
+        /**
+         * 获取主库连接并执行LOAD DATA语句。
+         */
+        void start() {
+            MySqlGroupService groupService = MySqlGroupManager.getMysqlGroupService(routeInfo.getMysqlGroup());
+            MySqlService mysqlService = groupService == null ? null : groupService.getMasterService();
+            if (mysqlService == null) {
+                logger.warn("无法找到合适的mysqlService: {}", routeInfo);
+                fail(ErrorCode.ERR_NO_ROUTE_NODE, "Can't route to mysqlGroup!");
+                shardDone();
+                return;
+            }
+            mysqlService.acquireSession(this, ctx.channel().eventLoop()).addListener((Future<MySqlSession> future) -> {
+                if (!future.isSuccess()) {
+                    logger.warn("无法获得mysqlSession: {}", future.cause().getMessage());
+                    fail(ErrorCode.ERR_NO_ROUTE_NODE, "Can't route to mysqlGroup!");
+                    shardDone();
+                    return;
+                }
+                mysqlSession = future.getNow();
+                if (failed) {
+                    //已中断，直接归还连接。
+                    mysqlSession.unbind();
+                    return;
+                }
+                SqlParseResult.SqlInfo sqlInfo = new SqlParseResult.SqlInfo(sql);
+                sqlInfo.setMysqlGroup(routeInfo.getMysqlGroup());
+                sqlInfo.setDatabase(routeInfo.getDatabase());
+                sqlInfo.setTable(routeInfo.getTable());
+                mysqlSession.exeCommand(true, sqlInfo);
+            });
+        }
+
+        /**
+         * 追加文件内容，按配置的大小切分成数据包。
+         *
+         * @param src
+         * @param index
+         * @param length
+         */
+        void add(ByteBuf src, int index, int length) {
+            if (failed) {
+                return;
+            }
+            int packetSize = config.getServer().getLoadDataPacketSize();
+            while (length > 0) {
+                if (packet == null) {
+                    packet = ctx.alloc().buffer(packetSize + 4);
+                    packet.writerIndex(4);
+                }
+                int n = Math.min(length, packetSize + 4 - packet.writerIndex());
+                packet.writeBytes(src, index, n);
+                index += n;
+                length -= n;
+                if (packet.writerIndex() - 4 >= packetSize) {
+                    enqueue(packet);
+                    packet = null;
+                }
+            }
+        }
+
+        /**
+         * 文件结束，发送剩余内容和结束空包。
+         */
+        void end() {
+            if (ended || failed) {
+                return;
+            }
+            ended = true;
+            if (packet != null) {
+                enqueue(packet);
+                packet = null;
+            }
+            ByteBuf empty = ctx.alloc().buffer(4);
+            empty.writerIndex(4);
+            enqueue(empty);
+            flush();
+        }
+
+        /**
+         * 后端就绪时直接写入，否则缓冲。
+         *
+         * @param buf
+         */
+        private void enqueue(ByteBuf buf) {
+            if (ready) {
+                send(buf);
+            } else {
+                queue.add(buf);
+                queuedBytes += buf.readableBytes();
+            }
+        }
+
+        /**
+         * 设置包头并写入后端。
+         *
+         * @param buf
+         */
+        private void send(ByteBuf buf) {
+            buf.setMediumLE(buf.readerIndex(), buf.readableBytes() - 4);
+            buf.setByte(buf.readerIndex() + 3, seq++);
+            mysqlSession.writeLoadData(buf);
+            unflushed = true;
+        }
+
+        /**
+         * 发送已写入的数据包。
+         */
+        void flush() {
+            if (unflushed) {
+                unflushed = false;
+                mysqlSession.flushLoadData();
+            }
+        }
+
+        /**
+         * 后端请求文件内容，开始发送缓冲的数据。
+         *
+         * @param packetId
+         */
+        private void onReady(byte packetId) {
+            if (failed) {
+                return;
+            }
+            ready = true;
+            seq = (byte) (packetId + 1);
+            ByteBuf buf;
+            while ((buf = queue.poll()) != null) {
+                send(buf);
+            }
+            queuedBytes = 0;
+            flush();
+            checkReadResume();
+        }
+
+        /**
+         * 缓冲是否超过上限。
+         *
+         * @return
+         */
+        boolean isCongested() {
+            if (failed) {
+                return false;
+            }
+            if (ready) {
+                return !mysqlSession.isWritable();
+            }
+            return queuedBytes > config.getServer().getLoadDataBufferBytes();
+        }
+
+        /**
+         * 标记失败，丢弃缓冲的数据。
+         *
+         * @param errorNo
+         * @param message
+         */
+        private void fail(int errorNo, String message) {
+            setError(errorNo, message);
+            failed = true;
+            if (packet != null) {
+                packet.release();
+                packet = null;
+            }
+            ByteBuf buf;
+            while ((buf = queue.poll()) != null) {
+                buf.release();
+            }
+            queuedBytes = 0;
+            checkReadResume();
+        }
+
+        /**
+         * 中断导入。
+         */
+        void abort() {
+            boolean running = !failed && mysqlSession != null;
+            fail(ErrorCode.ER_QUERY_INTERRUPTED, "Query execution was interrupted");
+            if (running) {
+                mysqlSession.abort(this);
+            }
+        }
+
+        @Override
+        public void receiveWriteGtid(String mysqlGroup, GtidSet gtidSet) {
+            proxySession.receiveWriteGtid(mysqlGroup, gtidSet);
+        }
+
+        @Override
+        public void receiveOkPacket(byte packetId, ByteBuf buf) {
+            OKPacket okPacket = new OKPacket();
+            okPacket.read(buf);
+            ctx.executor().execute(() -> {
+                affectedRows += okPacket.affectedRows;
+                warningCount += okPacket.warningCount;
+            });
+        }
+
+        @Override
+        public void receiveErrorPacket(byte packetId, ByteBuf buf) {
+            ErrorPacket error = new ErrorPacket();
+            error.read(buf);
+            ctx.executor().execute(() -> {
+                if (errorPacket == null) {
+                    errorPacket = error;
+                }
+                fail(error.errorNo, error.message);
+            });
+        }
+
+        @Override
+        public boolean receiveLocalInfileRequest(byte packetId, ByteBuf buf) {
+            ctx.executor().execute(() -> onReady(packetId));
+            return true;
+        }
+
+        @Override
+        public void backendWritabilityChanged() {
+            ctx.executor().execute(ProxyLoadDataHandler.this::checkReadResume);
+        }
+
+        @Override
+        public void receiveResultSetHeaderPacket(byte packetId, ByteBuf buf) {
+        }
+
+        @Override
+        public void receiveFieldDataPacket(byte packetId, ByteBuf buf) {
+        }
+
+        @Override
+        public void receiveFieldDataEOFPacket(byte packetId, ByteBuf buf) {
+        }
+
+        @Override
+        public void receiveRowDataPacket(byte packetId, ByteBuf buf) {
+        }
+
+        @Override
+        public void receiveRowDataEOFPacket(byte packetId, ByteBuf buf) {
+        }
+
+        @Override
+        public void unbind() {
+            ctx.executor().execute(ProxyLoadDataHandler.this::shardDone);
+        }
+
+        @Override
+        public SessionVariables getSessionVariables() {
+            return proxySession.getSessionVariables();
+        }
+    }
+}
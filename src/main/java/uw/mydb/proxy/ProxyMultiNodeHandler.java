@@ -3,18 +3,27 @@ package uw.mydb.proxy;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uw.mydb.conf.MydbConfigManager;
+import uw.mydb.mysql.GtidSet;
 import uw.mydb.mysql.MySqlGroupManager;
 import uw.mydb.mysql.MySqlGroupService;
+import uw.mydb.mysql.MySqlService;
 import uw.mydb.mysql.MySqlSession;
 import uw.mydb.mysql.MySqlSessionCallback;
+import uw.mydb.mysql.SessionVariables;
 import uw.mydb.protocol.packet.EOFPacket;
 import uw.mydb.protocol.packet.ErrorPacket;
 import uw.mydb.protocol.packet.OKPacket;
+import uw.mydb.protocol.packet.StmtExecutePacket;
+import uw.mydb.protocol.util.ErrorCode;
 import uw.mydb.sqlparser.SqlParseResult;
 
-import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -22,10 +31,11 @@ import java.util.concurrent.atomic.AtomicLong;
 /**
  * 前端代理的多节点汇聚处理器。
  * 为了高效处理数据，返回时候不对数据集进行任何处理。
+ * 全程异步执行，不占用独立线程，由最后一个返回的节点输出结束包。
  *
  * @author axeon
  */
-public class ProxyMultiNodeHandler implements MySqlSessionCallback, Runnable {
+public class ProxyMultiNodeHandler implements MySqlSessionCallback {
 
     private static final Logger logger = LoggerFactory.getLogger(ProxyMultiNodeHandler.class);
 
@@ -44,6 +54,11 @@ public class ProxyMultiNodeHandler implements MySqlSessionCallback, Runnable {
      */
     private static final int PACKET_STEP_EOF = 2;
 
+    /**
+     * 最长执行时间，单位秒。
+     */
+    private static final long EXECUTE_TIMEOUT = 180;
+
     /**
      * 绑定的channel
      */
@@ -55,9 +70,34 @@ public class ProxyMultiNodeHandler implements MySqlSessionCallback, Runnable {
     private AtomicLong affectedRows = new AtomicLong(-1);
 
     /**
-     * 门栓
+     * 未返回的节点数。
+     */
+    private AtomicInteger remainCount;
+
+    /**
+     * 是否已经输出结束包，之后收到的返回全部丢弃。
+     */
+    private volatile boolean isFinished = false;
+
+    /**
+     * 超时检查任务。
+     */
+    private ScheduledFuture<?> timeoutFuture;
+
+    /**
+     * 绑定的后端session，用于流控。
      */
-    private CountDownLatch countDownLatch;
+    private List<MySqlSession> mysqlSessions;
+
+    /**
+     * 未flush的字节数。
+     */
+    private int unflushedBytes;
+
+    /**
+     * 后端是否已暂停读取。
+     */
+    private volatile boolean isReadPaused;
 
     /**
      * packet序列。
@@ -84,6 +124,11 @@ public class ProxyMultiNodeHandler implements MySqlSessionCallback, Runnable {
      */
     private SqlParseResult routeResult;
 
+    /**
+     * 预编译语句的执行包，为null时按普通sql执行。
+     */
+    private StmtExecutePacket stmtExecute;
+
     /**
      * 数据行计数。
      */
@@ -112,11 +157,41 @@ public class ProxyMultiNodeHandler implements MySqlSessionCallback, Runnable {
      */
     private boolean isExeSuccess = true;
 
+    /**
+     * 前端会话变量，各节点执行前同步。
+     */
+    private SessionVariables sessionVariables;
+
+    /**
+     * 前端session，用于记录写入的GTID和读写一致性路由。
+     */
+    private final ProxyMysqlSession proxySession;
+
 
     public ProxyMultiNodeHandler(ChannelHandlerContext ctx, SqlParseResult routeResult) {
         this.ctx = ctx;
+        this.proxySession = ctx.channel().attr(ProxyDataHandler.MYDB_SESSION).get();
+        this.sessionVariables = proxySession == null ? null : proxySession.getSessionVariables();
         this.routeResult = routeResult;
-        countDownLatch = new CountDownLatch(routeResult.getSqlInfos().size());
+        this.remainCount = new AtomicInteger(routeResult.getSqlInfos().size());
+        this.mysqlSessions = new ArrayList<>(routeResult.getSqlInfos().size());
+    }
+
+    public ProxyMultiNodeHandler(ChannelHandlerContext ctx, SqlParseResult routeResult, StmtExecutePacket stmtExecute) {
+        this(ctx, routeResult);
+        this.stmtExecute = stmtExecute;
+    }
+
+    @Override
+    public SessionVariables getSessionVariables() {
+        return sessionVariables;
+    }
+
+    @Override
+    public void receiveWriteGtid(String mysqlGroup, GtidSet gtidSet) {
+        if (proxySession != null) {
+            proxySession.receiveWriteGtid(mysqlGroup, gtidSet);
+        }
     }
 
     /**
@@ -126,6 +201,9 @@ public class ProxyMultiNodeHandler implements MySqlSessionCallback, Runnable {
      */
     @Override
     public void receiveOkPacket(byte packetId, ByteBuf buf) {
+        if (isFinished) {
+            return;
+        }
         OKPacket okPacket = new OKPacket();
         okPacket.read(buf);
         if (okPacket.affectedRows > 0) {
@@ -141,7 +219,10 @@ public class ProxyMultiNodeHandler implements MySqlSessionCallback, Runnable {
      * @param buf
      */
     @Override
-    public void receiveErrorPacket(byte packetId, ByteBuf buf) {
+    public synchronized void receiveErrorPacket(byte packetId, ByteBuf buf) {
+        if (isFinished) {
+            return;
+        }
         if (errorCount.compareAndSet(0, 1)) {
             this.errorPacket = new ErrorPacket();
             errorPacket.read(buf);
@@ -156,12 +237,15 @@ public class ProxyMultiNodeHandler implements MySqlSessionCallback, Runnable {
      */
     @Override
     public synchronized void receiveResultSetHeaderPacket(byte packetId, ByteBuf buf) {
+        //已经输出结束包，后到的数据直接丢弃，buf由调用方释放。
+        if (isFinished) {
+            return;
+        }
         if (packetStep.get() == PACKET_STEP_EOF_FIELD) {
             return;
         }
         if (packetSeq.compareAndSet(0, packetId)) {
-            sendBytes.addAndGet(buf.readableBytes());
-            ctx.write(buf.retain());
+            writeToClient(buf);
         }
     }
 
@@ -172,12 +256,14 @@ public class ProxyMultiNodeHandler implements MySqlSessionCallback, Runnable {
      */
     @Override
     public synchronized void receiveFieldDataPacket(byte packetId, ByteBuf buf) {
+        if (isFinished) {
+            return;
+        }
         if (packetStep.get() == PACKET_STEP_EOF_FIELD) {
             return;
         }
         if (packetSeq.compareAndSet(packetId - 1, packetId)) {
-            sendBytes.addAndGet(buf.readableBytes());
-            ctx.write(buf.retain());
+            writeToClient(buf);
         }
     }
 
@@ -188,9 +274,11 @@ public class ProxyMultiNodeHandler implements MySqlSessionCallback, Runnable {
      */
     @Override
     public synchronized void receiveFieldDataEOFPacket(byte packetId, ByteBuf buf) {
+        if (isFinished) {
+            return;
+        }
         if (packetStep.compareAndSet(PACKET_STEP_INIT, PACKET_STEP_EOF_FIELD)) {
-            sendBytes.addAndGet(buf.readableBytes());
-            ctx.write(buf.retain());
+            writeToClient(buf);
             packetSeq.incrementAndGet();
         }
     }
@@ -202,11 +290,58 @@ public class ProxyMultiNodeHandler implements MySqlSessionCallback, Runnable {
      */
     @Override
     public synchronized void receiveRowDataPacket(byte packetId, ByteBuf buf) {
-        sendBytes.addAndGet(buf.readableBytes());
+        if (isFinished) {
+            return;
+        }
         dataRowsCount.incrementAndGet();
         packetId = (byte) (packetSeq.incrementAndGet());
         buf.setByte(3, packetId);
+        writeToClient(buf);
+    }
+
+    /**
+     * 向前端写数据。
+     * 按字节数定期flush，前端写缓冲超过高水位时暂停所有后端读取。
+     *
+     * @param buf
+     */
+    private void writeToClient(ByteBuf buf) {
+        int size = buf.readableBytes();
+        sendBytes.addAndGet(size);
+        unflushedBytes += size;
         ctx.write(buf.retain());
+        if (unflushedBytes >= MydbConfigManager.getConfig().getServer().getFlushBytes()) {
+            unflushedBytes = 0;
+            ctx.flush();
+        }
+        if (!isReadPaused && !ctx.channel().isWritable()) {
+            isReadPaused = true;
+            for (MySqlSession mysqlSession : mysqlSessions) {
+                mysqlSession.pauseRead(this);
+            }
+            //暂停前必须flush，否则写缓冲无法降低。
+            unflushedBytes = 0;
+            ctx.flush();
+            //可写事件可能已经在前端线程触发过，再检查一次，防止后端一直停在暂停状态。
+            if (ctx.channel().isWritable()) {
+                isReadPaused = false;
+                for (MySqlSession mysqlSession : mysqlSessions) {
+                    mysqlSession.resumeRead(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * 前端写缓冲状态变化。
+     */
+    public synchronized void writabilityChanged() {
+        if (isReadPaused && ctx.channel().isWritable()) {
+            isReadPaused = false;
+            for (MySqlSession mysqlSession : mysqlSessions) {
+                mysqlSession.resumeRead(this);
+            }
+        }
     }
 
     /**
@@ -224,37 +359,115 @@ public class ProxyMultiNodeHandler implements MySqlSessionCallback, Runnable {
      */
     @Override
     public void unbind() {
-        countDownLatch.countDown();
+        if (remainCount.decrementAndGet() == 0) {
+            finish();
+        }
     }
 
-    @Override
-    public void run() {
+    /**
+     * 中断所有节点上正在执行的命令。
+     *
+     * @param detach 前端已断开时为true，剩余的返回全部丢弃
+     */
+    public synchronized void cancel(boolean detach) {
+        if (isFinished) {
+            return;
+        }
+        for (MySqlSession mysqlSession : new ArrayList<>(mysqlSessions)) {
+            mysqlSession.cancel(this, detach);
+        }
+    }
 
+    /**
+     * 分发执行所有的sqlInfo，不等待执行结果。
+     * 后端session为异步获取，获取失败的节点按路由失败计数。
+     */
+    public void execute() {
+        timeoutFuture = ctx.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                logger.warn("多节点执行超时: {}", routeResult.getSql());
+                //中断仍在执行的节点，剩余的返回全部丢弃。
+                cancel(true);
+                finish();
+            }
+        }, EXECUTE_TIMEOUT, TimeUnit.SECONDS);
         for (SqlParseResult.SqlInfo sqlInfo : routeResult.getSqlInfos()) {
             MySqlGroupService groupService = MySqlGroupManager.getMysqlGroupService(sqlInfo.getMysqlGroup());
             if (groupService == null) {
                 logger.warn("无法找到合适的mysqlGroup!");
+                routeFail();
                 continue;
             }
-            MySqlSession mysqlSession = null;
+            MySqlService mysqlService = null;
             if (routeResult.isMaster()) {
-                mysqlSession = groupService.getMasterService().getSession(this);
+                mysqlService = groupService.getMasterService();
             } else {
-                mysqlSession = groupService.getLBReadService().getSession(this);
+                mysqlService = groupService.getLBReadService(proxySession == null ? null : proxySession.getWriteGtid(sqlInfo.getMysqlGroup()));
             }
-            if (mysqlSession == null) {
-                logger.warn("无法找到合适的mysqlSession!");
+            if (mysqlService == null) {
+                logger.warn("无法找到合适的mysqlService!");
+                routeFail();
                 continue;
             }
-            mysqlSession.exeCommand(routeResult.isMaster(), sqlInfo);
+            //异步获取session，获取到以后再执行。
+            mysqlService.acquireSession(this, ctx.channel().eventLoop()).addListener((Future<MySqlSession> future) -> {
+                if (!future.isSuccess()) {
+                    logger.warn("无法获得mysqlSession: {}", future.cause().getMessage());
+                    routeFail();
+                    return;
+                }
+                MySqlSession mysqlSession = future.getNow();
+                synchronized (this) {
+                    if (isFinished) {
+                        //获取期间已经超时结束，不再执行，直接归还。
+                        mysqlSession.giveBack(this);
+                        return;
+                    }
+                    mysqlSessions.add(mysqlSession);
+                    //其他节点已经暂停读取时，新获取的session也要暂停。
+                    if (isReadPaused) {
+                        mysqlSession.pauseRead(this);
+                    }
+                }
+                if (stmtExecute != null) {
+                    //每个节点的语句id不同，必须各自复制一份。
+                    mysqlSession.exeStatement(routeResult.isMaster(), sqlInfo, stmtExecute.duplicate());
+                } else {
+                    mysqlSession.exeCommand(routeResult.isMaster(), sqlInfo);
+                }
+            });
         }
-        //等待最长180s
-        try {
-            countDownLatch.await(180, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            logger.error(e.getLocalizedMessage(), e);
+    }
+
+    /**
+     * 节点路由失败，记录错误并计数。
+     */
+    private void routeFail() {
+        synchronized (this) {
+            if (errorCount.compareAndSet(0, 1)) {
+                this.errorPacket = new ErrorPacket();
+                errorPacket.packetId = 1;
+                errorPacket.errorNo = ErrorCode.ERR_NO_ROUTE_NODE;
+                errorPacket.message = "Can't route to mysqlGroup!";
+            }
+            errorCount.incrementAndGet();
+        }
+        unbind();
+    }
+
+    /**
+     * 输出最后的汇总包。
+     * 由最后一个返回的节点调用，或者由超时任务调用。
+     */
+    private synchronized void finish() {
+        if (isFinished) {
+            return;
+        }
+        isFinished = true;
+        if (timeoutFuture != null) {
+            timeoutFuture.cancel(false);
         }
-        //如下代码必须要异步线程中跑，否则会出问题。
         //开始返回最后的包。
         if (packetStep.get() > PACKET_STEP_INIT) {
             //输出eof包。
@@ -275,12 +488,36 @@ public class ProxyMultiNodeHandler implements MySqlSessionCallback, Runnable {
                 sendBytes.addAndGet(okPacket.calcPacketSize());
             } else {
                 //说明全部就是错误包啦，直接返回第一個error包
+                if (errorPacket == null) {
+                    errorPacket = new ErrorPacket();
+                    errorPacket.packetId = 1;
+                    errorPacket.errorNo = ErrorCode.ER_QUERY_INTERRUPTED;
+                    errorPacket.message = "Multi node execute timeout!";
+                }
                 errorPacket.writeToChannel(ctx);
                 sendBytes.addAndGet(errorPacket.calcPacketSize());
                 isExeSuccess = false;
             }
         }
+        if (proxySession != null) {
+            //由前端session记录统计并清理本次查询的状态，flush也在其中完成，保证客户端收到结束包前状态已清理。
+            long rows = dataRowsCount.get();
+            long affected = Math.max(affectedRows.get(), 0);
+            long bytes = sendBytes.get();
+            boolean success = isExeSuccess;
+            if (ctx.executor().inEventLoop()) {
+                proxySession.multiNodeFinish(this, success, rows, affected, bytes);
+            } else {
+                ctx.executor().execute(() -> proxySession.multiNodeFinish(this, success, rows, affected, bytes));
+            }
+            return;
+        }
+        //写入完成后再次使结果缓存失效，执行期间开始的查询结果可能是旧的。
+        if (routeResult.getWriteTables() != null) {
+            for (String table : routeResult.getWriteTables()) {
+                ProxyResultCache.invalidate(routeResult.getSchema(), table);
+            }
+        }
         ctx.flush();
-//        StatsFactory.statsMydb();
     }
 }
@@ -1,36 +1,53 @@
 package uw.mydb.proxy;
 
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.util.concurrent.Future;
 import io.netty.util.internal.StringUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uw.mydb.conf.GlobalConstants;
 import uw.mydb.conf.MydbConfig;
 import uw.mydb.conf.MydbConfigManager;
+import uw.mydb.mysql.GtidSet;
 import uw.mydb.mysql.MySqlGroupManager;
 import uw.mydb.mysql.MySqlGroupService;
+import uw.mydb.mysql.MySqlService;
 import uw.mydb.mysql.MySqlSession;
 import uw.mydb.mysql.MySqlSessionCallback;
+import uw.mydb.mysql.SessionVariables;
+import uw.mydb.protocol.codec.MysqlCompressCodec;
+import uw.mydb.protocol.codec.MysqlPacketDecoder;
 import uw.mydb.protocol.packet.*;
 import uw.mydb.protocol.util.Capability;
 import uw.mydb.protocol.util.ErrorCode;
+import uw.mydb.sqlparser.SqlLoadDataParser;
 import uw.mydb.sqlparser.SqlParseResult;
 import uw.mydb.sqlparser.SqlParser;
+import uw.mydb.sqlparser.SqlPassThrough;
+import uw.mydb.sqlparser.SqlSetParser;
+import uw.mydb.sqlparser.StmtTemplate;
+import uw.mydb.sqlparser.parser.ParserException;
 import uw.mydb.stats.StatsFactory;
 import uw.mydb.util.RandomUtils;
 import uw.mydb.util.SecurityUtils;
 import uw.mydb.util.SystemClock;
 
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -52,6 +69,41 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
      */
     private static MydbConfig config = MydbConfigManager.getConfig();
 
+    /**
+     * 没有进行中的大包。
+     */
+    private static final int LARGE_NONE = 0;
+
+    /**
+     * 大包直通转发中。
+     */
+    private static final int LARGE_STREAM = 1;
+
+    /**
+     * 大包合并中，合并后解析路由。
+     */
+    private static final int LARGE_AGGREGATE = 2;
+
+    /**
+     * 不支持的大包，丢弃剩余的帧，结束后报错。
+     */
+    private static final int LARGE_DISCARD = 3;
+
+    /**
+     * 已经报错的大包，丢弃剩余的帧。
+     */
+    private static final int LARGE_SKIP = 4;
+
+    /**
+     * KILL [QUERY|CONNECTION] id语句。
+     */
+    private static final Pattern KILL_PATTERN = Pattern.compile("\\s*kill\\s+(?:(query|connection)\\s+)?(\\d+)\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * 事务控制语句，事务中要发到保持事务的连接上。
+     */
+    private static final Pattern TRANSACTION_PATTERN = Pattern.compile("\\s*(?:commit|rollback|savepoint|release\\s+savepoint|begin|start\\s+transaction)\\b.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
     /**
      * 数据行计数。
      */
@@ -153,10 +205,99 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
     private SqlParseResult routeResult;
 
     /**
-     * 多节点执行的异步线程池。
+     * 直通执行的原始数据包，仅用于慢sql记录。
+     */
+    private ByteBuf passThroughBuf;
+
+    /**
+     * 当前绑定的后端session，用于流控。
+     */
+    private MySqlSession mysqlSession;
+
+    /**
+     * 当前执行的多节点处理器，用于流控。
      */
-    private ThreadPoolExecutor multiNodeExecutor = new ThreadPoolExecutor(10, 1000, 20L, TimeUnit.SECONDS, new SynchronousQueue<>(),
-            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("MutiNodeService-%d").build(), new ThreadPoolExecutor.CallerRunsPolicy());
+    private ProxyMultiNodeHandler multiNodeHandler;
+
+    /**
+     * 未flush的字节数。
+     */
+    private int unflushedBytes;
+
+    /**
+     * 前端写缓冲峰值。
+     */
+    private long peakPendingBytes;
+
+    /**
+     * 后端是否已暂停读取。
+     */
+    private volatile boolean isReadPaused;
+
+    /**
+     * 预编译语句，key为前端语句id。
+     */
+    private Map<Long, ProxyPreparedStatement> stmtMap = new HashMap<>();
+
+    /**
+     * 前端语句id生成器。
+     */
+    private long stmtIdGenerator;
+
+    /**
+     * 直通执行的预编译sql，仅用于慢sql记录。
+     */
+    private String passThroughSql;
+
+    /**
+     * 会话变量，后端连接执行前按差异同步。
+     */
+    private SessionVariables sessionVariables = SessionVariables.EMPTY;
+
+    /**
+     * 执行SET失败时需要恢复的会话变量。
+     */
+    private SessionVariables rollbackVariables;
+
+    /**
+     * 每个mysql组上最近一次写入的GTID，由后端线程写入，前端线程路由时读取。
+     */
+    private final Map<String, GtidSet> writeGtids = new ConcurrentHashMap<>();
+
+    /**
+     * 正在收集的查询结果缓存，不缓存时为null。
+     */
+    private ProxyResultCache.Capture resultCapture;
+
+    /**
+     * 后端最近返回的状态是否处于事务中，事务中不使用结果缓存。
+     */
+    private boolean inTransaction;
+
+    /**
+     * 事务中或autocommit=0时保持绑定的后端session，之后同一mysql组的语句都在它上面执行。
+     */
+    private MySqlSession keptSession;
+
+    /**
+     * 超过16MB的数据包的处理状态。
+     */
+    private int largeState = LARGE_NONE;
+
+    /**
+     * 合并中的大sql，不含包头。
+     */
+    private CompositeByteBuf largeBuf;
+
+    /**
+     * 后端session获取前收到的直通大包帧，首个元素是首帧。
+     */
+    private ArrayDeque<ByteBuf> streamFrames;
+
+    /**
+     * 进行中的LOAD DATA LOCAL INFILE。
+     */
+    private ProxyLoadDataHandler loadDataHandler;
 
 
     public ProxyMysqlSession(ChannelHandlerContext ctx) {
@@ -164,6 +305,10 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
         this.id = sessionIdGenerator.incrementAndGet();
     }
 
+    public long getId() {
+        return id;
+    }
+
     public String getUser() {
         return user;
     }
@@ -209,15 +354,47 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
     public void setSchema(String schemaName) {
         MydbConfig.SchemaConfig newSchema = config.getSchemas().get(schemaName);
         if (newSchema != null) {
+            //后端连接在执行时按需切换数据库，此处不需要访问mysql。
             this.schema = newSchema;
-            MySqlGroupService groupService = MySqlGroupManager.getMysqlGroupService(this.schema.getBaseNode());
-            groupService.getMasterService().getSession(this).exeCommand(false, CommandPacket.build("use " + this.schema.getName()));
+            OKPacket.writeOkToChannel(ctx);
         } else {
             //报错，找不到这个schema。
             failMessage(ErrorCode.ER_NO_DB_ERROR, "No database!");
         }
     }
 
+    /**
+     * 记录写入产生的GTID，之后这个组的读只路由到已应用该GTID的服务。
+     * 只保留最近一次的，slave按提交顺序应用时已经包含之前的写入。
+     *
+     * @param mysqlGroup
+     * @param gtidSet
+     */
+    @Override
+    public void receiveWriteGtid(String mysqlGroup, GtidSet gtidSet) {
+        writeGtids.put(mysqlGroup, gtidSet);
+    }
+
+    /**
+     * 获得会话在mysql组上最近一次写入的GTID。
+     *
+     * @param mysqlGroup
+     * @return 没有写入或者没有开启读写一致性时返回null
+     */
+    public GtidSet getWriteGtid(String mysqlGroup) {
+        return writeGtids.get(mysqlGroup);
+    }
+
+    /**
+     * 获得会话变量。
+     *
+     * @return
+     */
+    @Override
+    public SessionVariables getSessionVariables() {
+        return sessionVariables;
+    }
+
     /**
      * 发送握手包。
      *
@@ -239,7 +416,7 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
         hs.serverVersion = GlobalConstants.SERVER_VERSION;
         hs.threadId = id;
         hs.seed = rand1;
-        hs.serverCapabilities = Capability.getServerCapabilities();
+        hs.serverCapabilities = Capability.getServerCapabilities(config.getServer().isCompress());
 //        hs.serverCharsetIndex = (byte) (session.charsetIndex & 0xff);
         hs.serverStatus = 2;
         hs.restOfScrambleBuff = rand2;
@@ -309,6 +486,10 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
             this.isLogon = true;
             this.authSeed = null;
             OKPacket.writeAuthOkToChannel(ctx);
+            //验证通过后的数据包开始压缩。
+            if (config.getServer().isCompress() && (authPacket.clientFlags & Capability.CLIENT_COMPRESS) != 0) {
+                ctx.pipeline().addFirst(new MysqlCompressCodec(true, config.getServer().getCompressLevel(), StatsFactory.getProxyCompressStats()));
+            }
         } else {
             String s = "Access denied for user '" + authPacket.user + "' to database '" + authPacket.database + "'";
             failMessage(ctx, ErrorCode.ER_DBACCESS_DENIED_ERROR, s);
@@ -328,6 +509,7 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
         OKPacket okPacket = new OKPacket();
         okPacket.read(buf);
         affectRowsCount += okPacket.affectedRows;
+        inTransaction = (okPacket.serverStatus & MySqlPacket.SERVER_STATUS_IN_TRANS) != 0;
         buf.resetReaderIndex();
         ctx.write(buf.retain());
     }
@@ -339,8 +521,12 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
      */
     @Override
     public void receiveErrorPacket(byte packetId, ByteBuf buf) {
-        sendBytes += buf.readableBytes();
-        ctx.write(buf.retain());
+        if (rollbackVariables != null) {
+            sessionVariables = rollbackVariables;
+            rollbackVariables = null;
+        }
+        releaseResultCapture();
+        writeToClient(buf);
         isExeSuccess = false;
     }
 
@@ -351,8 +537,7 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
      */
     @Override
     public void receiveResultSetHeaderPacket(byte packetId, ByteBuf buf) {
-        sendBytes += buf.readableBytes();
-        ctx.write(buf.retain());
+        writeToClient(buf);
     }
 
     /**
@@ -362,8 +547,7 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
      */
     @Override
     public void receiveFieldDataPacket(byte packetId, ByteBuf buf) {
-        sendBytes += buf.readableBytes();
-        ctx.write(buf.retain());
+        writeToClient(buf);
     }
 
     /**
@@ -373,8 +557,7 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
      */
     @Override
     public void receiveFieldDataEOFPacket(byte packetId, ByteBuf buf) {
-        sendBytes += buf.readableBytes();
-        ctx.write(buf.retain());
+        writeToClient(buf);
     }
 
     /**
@@ -384,9 +567,71 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
      */
     @Override
     public void receiveRowDataPacket(byte packetId, ByteBuf buf) {
-        sendBytes += buf.readableBytes();
         dataRowsCount++;
+        writeToClient(buf);
+    }
+
+    /**
+     * 收到超过16MB的数据包的续帧，不计行数。
+     *
+     * @param buf
+     */
+    @Override
+    public void receiveContinuationPacket(byte packetId, ByteBuf buf) {
+        writeToClient(buf);
+    }
+
+    /**
+     * 向前端写数据。
+     * 按字节数定期flush，前端写缓冲超过高水位时暂停后端读取。
+     *
+     * @param buf
+     */
+    private void writeToClient(ByteBuf buf) {
+        if (resultCapture != null && !resultCapture.append(buf)) {
+            releaseResultCapture();
+        }
+        int size = buf.readableBytes();
+        sendBytes += size;
+        unflushedBytes += size;
         ctx.write(buf.retain());
+        if (unflushedBytes >= config.getServer().getFlushBytes()) {
+            unflushedBytes = 0;
+            ctx.flush();
+        }
+        ChannelOutboundBuffer outboundBuffer = ctx.channel().unsafe().outboundBuffer();
+        if (outboundBuffer != null && outboundBuffer.totalPendingWriteBytes() > peakPendingBytes) {
+            peakPendingBytes = outboundBuffer.totalPendingWriteBytes();
+        }
+        if (!isReadPaused && mysqlSession != null && !ctx.channel().isWritable()) {
+            isReadPaused = true;
+            mysqlSession.pauseRead(this);
+            //暂停前必须flush，否则写缓冲无法降低。
+            unflushedBytes = 0;
+            ctx.flush();
+            //可写事件可能在设置暂停标志前已经在前端线程触发，再检查一次，防止后端一直停在暂停状态。
+            if (ctx.channel().isWritable()) {
+                isReadPaused = false;
+                mysqlSession.resumeRead(this);
+            }
+        }
+    }
+
+    /**
+     * 前端写缓冲状态变化。
+     */
+    public void writabilityChanged() {
+        if (ctx.channel().isWritable()) {
+            MySqlSession session = this.mysqlSession;
+            if (isReadPaused && session != null) {
+                isReadPaused = false;
+                session.resumeRead(this);
+            }
+        }
+        ProxyMultiNodeHandler handler = this.multiNodeHandler;
+        if (handler != null) {
+            handler.writabilityChanged();
+        }
     }
 
     /**
@@ -396,8 +641,60 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
      */
     @Override
     public void receiveRowDataEOFPacket(byte packetId, ByteBuf buf) {
-        sendBytes += buf.readableBytes();
-        ctx.write(buf.retain());
+        writeToClient(buf);
+        if (buf.readableBytes() >= 9) {
+            int status = buf.getUnsignedShortLE(buf.readerIndex() + 7);
+            inTransaction = (status & MySqlPacket.SERVER_STATUS_IN_TRANS) != 0;
+            //结果完整结束才缓存，多结果集和事务中的结果不缓存。
+            if (resultCapture != null && !inTransaction && (status & MySqlPacket.SERVER_MORE_RESULTS_EXISTS) == 0) {
+                resultCapture.finish();
+                resultCapture = null;
+            }
+        }
+        releaseResultCapture();
+    }
+
+    /**
+     * 放弃正在收集的查询结果。
+     */
+    private void releaseResultCapture() {
+        if (resultCapture != null) {
+            resultCapture.release();
+            resultCapture = null;
+        }
+    }
+
+    /**
+     * 尝试从结果缓存回放，未命中时开始收集本次的结果。
+     *
+     * @param ctx
+     * @return 命中时返回true
+     */
+    private boolean replayResultCache(ChannelHandlerContext ctx) {
+        ProxyResultCache.CacheKey key = new ProxyResultCache.CacheKey(schema.getName(), ProxyResultCache.normalizeSql(routeResult.getSql()), charsetIndex, sessionVariables);
+        ByteBuf data = ProxyResultCache.get(key);
+        if (data == null) {
+            resultCapture = new ProxyResultCache.Capture(key, schema.getName(), routeResult.getTable(), routeResult.getCacheTtl());
+            return false;
+        }
+        sendBytes += data.readableBytes();
+        ctx.write(data);
+        unbind();
+        return true;
+    }
+
+    /**
+     * 写入语句使涉及表的结果缓存失效。
+     *
+     * @param result
+     */
+    private void invalidateResultCache(SqlParseResult result) {
+        List<String> tables = result.getWriteTables();
+        if (tables != null) {
+            for (String table : tables) {
+                ProxyResultCache.invalidate(schema.getName(), table);
+            }
+        }
     }
 
     /**
@@ -422,18 +719,53 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
     public void query(ChannelHandlerContext ctx, ByteBuf buf) {
         recvBytes += buf.readableBytes();
         lastReadTime = SystemClock.now();
-        //如果schema没有任何表分区定义，则直接转发到默认库。
-        //读取sql
-        CommandPacket cmd = new CommandPacket();
-        cmd.read(buf);
-        String sql = new String(cmd.arg);
-        if (logger.isTraceEnabled()) {
-            logger.trace("接收到SQL: {}", sql);
+        //超过16MB的sql，剩余部分随续帧到达。
+        if (MysqlPacketDecoder.isFirstFrame(buf)) {
+            largeQuery(ctx, buf);
+            return;
+        }
+        //会话级SET只记录状态，后端连接执行前按差异同步。
+        if (SqlSetParser.isSet(buf) && setVariables(ctx, buf)) {
+            return;
         }
+        //KILL的连接id是proxy的会话id，不能转发给mysql。
+        if (isKill(buf) && killStatement(ctx, buf)) {
+            return;
+        }
+        //LOAD DATA LOCAL INFILE的文件内容由proxy接收，按行拆分到各分片。
+        if (SqlLoadDataParser.isLoadData(buf) && loadData(ctx, buf)) {
+            return;
+        }
+        //COMMIT/ROLLBACK等事务控制语句发到保持事务的连接上，不论它在哪个mysql组。
+        MySqlSession kept = this.keptSession;
+        if (kept != null && isTransactionControl(buf)) {
+            passThrough(ctx, buf, kept.getGroupName(), true);
+            return;
+        }
+        //如果sql不涉及分区表，则直接转发到默认库。
+        int passType = SqlPassThrough.check(schema, buf);
+        if (passType != SqlPassThrough.PASS_NONE) {
+            passThrough(ctx, buf, passType == SqlPassThrough.PASS_WRITE);
+            return;
+        }
+        //直接从数据包解析，不再复制到CommandPacket。
+        routeQuery(ctx, SqlParser.newInstance(this, buf));
+    }
+
+    /**
+     * 解析sql并按路由结果执行。
+     *
+     * @param ctx
+     * @param sql
+     */
+    private void routeQuery(ChannelHandlerContext ctx, SqlParser parser) {
         //进行sql解析
         //根据解析结果判定，当前支持1.单实例执行；2.多实例执行
-        SqlParser parser = new SqlParser(this, sql);
         routeResult = parser.parse();
+        parser.recycle();
+        if (logger.isTraceEnabled()) {
+            logger.trace("接收到SQL: {}", routeResult.getSql());
+        }
         //sql解析后，routeResult=null的，可能已经在parser里处理过了。
         if (routeResult.hasError()) {
             //errorcode>0的，发送错误信息。
@@ -442,32 +774,355 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
             }
             return;
         }
+        invalidateResultCache(routeResult);
+        //只读的单节点查询可以使用结果缓存，事务中的读可能看到未提交的数据，不使用缓存。
+        if (routeResult.getCacheTtl() > 0 && ProxyResultCache.isEnabled() && sessionVariables.isAutocommit() && !inTransaction
+                && replayResultCache(ctx)) {
+            return;
+        }
         //压测时，可直接返回ok包的。
         if (routeResult.isSingle()) {
             //单实例执行直接绑定执行即可。
-            MySqlGroupService groupService = MySqlGroupManager.getMysqlGroupService(routeResult.getSqlInfo().getMysqlGroup());
-            if (groupService == null) {
-                failMessage(ctx, ErrorCode.ERR_NO_ROUTE_NODE, "Can't route to mysqlGroup!");
-                logger.warn("无法找到合适的mysqlGroup!");
+            SqlParseResult.SqlInfo sqlInfo = routeResult.getSqlInfo();
+            boolean isMaster = routeResult.isMaster();
+            bindMysqlSession(ctx, sqlInfo.getMysqlGroup(), isMaster, mysqlSession -> mysqlSession.exeCommand(isMaster, sqlInfo),
+                    mysqlService -> mysqlService.exePipelined(this, sqlInfo));
+        } else {
+            //多实例异步分发执行，由最后返回的节点输出结束包。
+            if (!checkMultiNodeTransaction(ctx)) {
+                return;
+            }
+            multiNodeHandler = new ProxyMultiNodeHandler(this.ctx, routeResult);
+            multiNodeHandler.execute();
+        }
+    }
+
+    /**
+     * 处理会话级SET语句。
+     * 状态没有变化时直接返回OK；否则在baseNode上执行一次以校验变量值，失败时恢复原状态。
+     *
+     * @param ctx
+     * @param buf
+     * @return 不能重放的SET语句返回false，按普通sql执行
+     */
+    private boolean setVariables(ChannelHandlerContext ctx, ByteBuf buf) {
+        String sql = buf.toString(buf.readerIndex() + 5, buf.readableBytes() - 5, StandardCharsets.UTF_8);
+        Map<String, String> assignments = SqlSetParser.parse(sql);
+        if (assignments == null) {
+            return false;
+        }
+        SessionVariables target = sessionVariables.with(assignments);
+        if (target.equals(sessionVariables)) {
+            OKPacket.writeOkToChannel(ctx);
+            return true;
+        }
+        rollbackVariables = sessionVariables;
+        sessionVariables = target;
+        //有保持的连接时在它上面执行，SET autocommit=1会提交它上面的事务。
+        MySqlSession kept = this.keptSession;
+        String mysqlGroup = kept != null ? kept.getGroupName() : schema.getBaseNode();
+        bindMysqlSession(ctx, mysqlGroup, true, mysqlSession -> mysqlSession.exeSyncVariables(target));
+        return true;
+    }
+
+    /**
+     * 开始LOAD DATA LOCAL INFILE。
+     *
+     * @param ctx
+     * @param buf
+     * @return 不支持的语句返回false，按普通sql执行
+     */
+    private boolean loadData(ChannelHandlerContext ctx, ByteBuf buf) {
+        String sql = buf.toString(buf.readerIndex() + 5, buf.readableBytes() - 5, StandardCharsets.UTF_8);
+        SqlLoadDataParser stmt = SqlLoadDataParser.parse(sql);
+        if (stmt == null) {
+            return false;
+        }
+        //按行拆分到多个连接执行，不能在事务中进行。
+        if (inTransaction || !sessionVariables.isAutocommit()) {
+            failMessage(ctx, ErrorCode.ERR_NOT_SUPPORTED, "LOAD DATA is not supported in transaction!");
+            return true;
+        }
+        ProxyLoadDataHandler handler = new ProxyLoadDataHandler(this, ctx, stmt);
+        if (handler.start()) {
+            ProxyResultCache.invalidate(schema.getName(), stmt.getTableName());
+            loadDataHandler = handler;
+            passThroughSql = sql;
+            isMasterSql = true;
+        }
+        return true;
+    }
+
+    /**
+     * 是否正在接收LOAD DATA的文件内容。
+     *
+     * @return
+     */
+    public boolean isLoadingData() {
+        return loadDataHandler != null;
+    }
+
+    /**
+     * 接收LOAD DATA的文件内容包。
+     *
+     * @param buf          包含包头的完整数据包
+     * @param continuation 是否为超过16MB的数据包的续帧
+     */
+    public void loadDataPacket(ByteBuf buf, boolean continuation) {
+        recvBytes += buf.readableBytes();
+        loadDataHandler.receive(buf, continuation);
+    }
+
+    /**
+     * LOAD DATA执行结束，结果已经返回给前端。
+     *
+     * @param success
+     * @param affectedRows
+     */
+    void loadDataFinished(boolean success, long affectedRows) {
+        loadDataHandler = null;
+        isExeSuccess = success;
+        affectRowsCount = (int) affectedRows;
+        unbind();
+    }
+
+    /**
+     * 处理超过16MB的sql的首帧。
+     * 可以直通的按帧流式转发，不在内存中合并；需要解析路由的合并后再解析，大小受maxPacketSize限制。
+     *
+     * @param ctx
+     * @param buf
+     */
+    private void largeQuery(ChannelHandlerContext ctx, ByteBuf buf) {
+        int passType = SqlPassThrough.check(schema, buf);
+        if (passType != SqlPassThrough.PASS_NONE) {
+            boolean isMaster = passType == SqlPassThrough.PASS_WRITE;
+            String database = schema.getName();
+            largeState = LARGE_STREAM;
+            streamFrames = new ArrayDeque<>();
+            streamFrames.add(buf.retain());
+            //续帧发完之前不能开放流水线，大包整体不参与流水线。
+            bindMysqlSession(ctx, schema.getBaseNode(), isMaster, mysqlSession -> {
+                mysqlSession.exePassThrough(isMaster, database, streamFrames.poll(), true);
+                ByteBuf frame;
+                while ((frame = streamFrames.poll()) != null) {
+                    mysqlSession.writeContinuation(frame);
+                }
+                streamFrames = null;
+            });
+        } else {
+            largeState = LARGE_AGGREGATE;
+            largeBuf = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
+            largeBuf.addComponent(true, buf.retainedSlice(buf.readerIndex() + 5, buf.readableBytes() - 5));
+        }
+    }
+
+    /**
+     * 处理超过16MB的数据包的续帧。
+     *
+     * @param ctx
+     * @param frame 包含包头的完整帧
+     * @param last  是否为最后一帧
+     */
+    public void largePacketContinuation(ChannelHandlerContext ctx, ByteBuf frame, boolean last) {
+        recvBytes += frame.readableBytes();
+        switch (largeState) {
+            case LARGE_STREAM:
+                if (streamFrames != null) {
+                    streamFrames.add(frame.retain());
+                } else if (mysqlSession != null) {
+                    mysqlSession.writeContinuation(frame.retain());
+                }
+                break;
+            case LARGE_AGGREGATE:
+                largeBuf.addComponent(true, frame.retainedSlice(frame.readerIndex() + 4, frame.readableBytes() - 4));
+                if (last) {
+                    String sql = largeBuf.toString(StandardCharsets.UTF_8);
+                    largeBuf.release();
+                    largeBuf = null;
+                    largeState = LARGE_NONE;
+                    routeQuery(ctx, SqlParser.newInstance(this, sql));
+                }
                 return;
+            case LARGE_DISCARD:
+                if (last) {
+                    failMessage(ctx, ErrorCode.ER_NET_PACKET_TOO_LARGE, "Got a packet bigger than 16MB, only COM_QUERY is supported");
+                }
+                break;
+            default:
+        }
+        if (last) {
+            largeState = LARGE_NONE;
+        }
+    }
+
+    /**
+     * 不支持的大包，丢弃全部帧后报错。
+     */
+    public void discardLargePacket() {
+        largeState = LARGE_DISCARD;
+    }
+
+    /**
+     * 释放未完成的大包数据。
+     */
+    private void releaseLargePacket() {
+        if (largeBuf != null) {
+            largeBuf.release();
+            largeBuf = null;
+        }
+        if (streamFrames != null) {
+            ByteBuf frame;
+            while ((frame = streamFrames.poll()) != null) {
+                frame.release();
             }
-            MySqlSession mysqlSession = null;
-            if (routeResult.isMaster()) {
+            streamFrames = null;
+        }
+        largeState = LARGE_NONE;
+    }
+
+    /**
+     * 直通执行，原始数据包直接转发到baseNode。
+     *
+     * @param ctx
+     * @param buf
+     * @param isMaster
+     */
+    private void passThrough(ChannelHandlerContext ctx, ByteBuf buf, boolean isMaster) {
+        passThrough(ctx, buf, schema.getBaseNode(), isMaster);
+    }
+
+    /**
+     * 直接转发数据包到指定的mysql组。
+     *
+     * @param ctx
+     * @param buf
+     * @param mysqlGroup
+     * @param isMaster
+     */
+    private void passThrough(ChannelHandlerContext ctx, ByteBuf buf, String mysqlGroup, boolean isMaster) {
+        //直通的sql没有解析结果，不能沿用上一条sql的。
+        this.routeResult = null;
+        //获取session可能是异步的，数据包要保留到执行时。
+        this.passThroughBuf = buf.retain();
+        String database = schema.getName();
+        bindMysqlSession(ctx, mysqlGroup, isMaster, mysqlSession -> mysqlSession.exePassThrough(isMaster, database, passThroughBuf.retainedDuplicate()),
+                mysqlService -> mysqlService.exePipelined(this, database, passThroughBuf));
+    }
+
+    /**
+     * 获取并绑定后端session，获取到以后在当前线程执行task。
+     * 获取是异步的，不会阻塞reactor线程，获取失败时直接给前端报错。
+     *
+     * @param ctx
+     * @param mysqlGroup
+     * @param isMaster
+     * @param task
+     */
+    private void bindMysqlSession(ChannelHandlerContext ctx, String mysqlGroup, boolean isMaster, Consumer<MySqlSession> task) {
+        bindMysqlSession(ctx, mysqlGroup, isMaster, task, null);
+    }
+
+    /**
+     * 获取并绑定后端session，获取到以后在当前线程执行task。
+     * 自动提交的读请求在没有空闲session时，先尝试用pipelineTask追加到执行中的session上。
+     *
+     * @param ctx
+     * @param mysqlGroup
+     * @param isMaster
+     * @param task
+     * @param pipelineTask 返回追加成功的session，可以为null
+     */
+    private void bindMysqlSession(ChannelHandlerContext ctx, String mysqlGroup, boolean isMaster, Consumer<MySqlSession> task, Function<MySqlService, MySqlSession> pipelineTask) {
+        //事务中的语句都在保持的连接上执行。
+        MySqlSession kept = this.keptSession;
+        if (kept != null) {
+            if (!kept.isAlive()) {
+                keptSession = null;
+                if (inTransaction) {
+                    inTransaction = false;
+                    acquireFail(ctx, "Transaction connection lost!");
+                    return;
+                }
+            } else if (kept.getGroupName().equals(mysqlGroup)) {
                 isMasterSql = true;
-                mysqlSession = groupService.getMasterService().getSession(this);
+                this.mysqlSession = kept;
+                kept.bind(this);
+                task.accept(kept);
+                return;
+            } else if (inTransaction) {
+                acquireFail(ctx, "Transaction across mysql groups is not supported!");
+                return;
             } else {
-                mysqlSession = groupService.getLBReadService().getSession(this);
+                keptSession = null;
+                kept.releaseKept();
             }
-            if (mysqlSession == null) {
-                failMessage(ctx, ErrorCode.ERR_NO_ROUTE_NODE, "Can't route to mysqlGroup!");
-                logger.warn("无法找到合适的mysqlSession!");
+        }
+        //事务中的读也要在主库执行。
+        if (inTransaction || !sessionVariables.isAutocommit()) {
+            isMaster = true;
+        }
+        MySqlGroupService groupService = MySqlGroupManager.getMysqlGroupService(mysqlGroup);
+        if (groupService == null) {
+            acquireFail(ctx, "Can't route to mysqlGroup!");
+            logger.warn("无法找到合适的mysqlGroup!");
+            return;
+        }
+        MySqlService mysqlService = null;
+        if (isMaster) {
+            isMasterSql = true;
+            mysqlService = groupService.getMasterService();
+        } else {
+            mysqlService = groupService.getLBReadService(writeGtids.get(mysqlGroup));
+        }
+        if (mysqlService == null) {
+            acquireFail(ctx, "Can't route to mysqlGroup!");
+            logger.warn("无法找到合适的mysqlService!");
+            return;
+        }
+        if (pipelineTask != null && !isMaster && sessionVariables.isAutocommit() && !mysqlService.hasIdleSession()) {
+            MySqlSession pipelined = pipelineTask.apply(mysqlService);
+            if (pipelined != null) {
+                this.mysqlSession = pipelined;
                 return;
             }
-            mysqlSession.exeCommand(routeResult.isMaster(), routeResult.getSqlInfo());
-        } else {
-            //多实例执行使用CountDownLatch同步返回所有结果后，再执行转发，可能会导致阻塞。
-            multiNodeExecutor.submit(new ProxyMultiNodeHandler(this.ctx, routeResult));
         }
+        mysqlService.acquireSession(this, ctx.channel().eventLoop()).addListener((Future<MySqlSession> future) -> {
+            if (future.isSuccess()) {
+                this.mysqlSession = future.getNow();
+                task.accept(this.mysqlSession);
+            } else {
+                acquireFail(ctx, "Can't get mysqlSession: " + future.cause().getMessage());
+                logger.warn("无法获得mysqlSession: {}", future.cause().getMessage());
+            }
+        });
+    }
+
+    /**
+     * 获取后端session失败，报错并清理本次执行的数据。
+     *
+     * @param ctx
+     * @param message
+     */
+    private void acquireFail(ChannelHandlerContext ctx, String message) {
+        if (rollbackVariables != null) {
+            sessionVariables = rollbackVariables;
+            rollbackVariables = null;
+        }
+        if (passThroughBuf != null) {
+            passThroughBuf.release();
+            passThroughBuf = null;
+        }
+        //直通中的大包已经报错，剩余的帧丢弃。
+        if (largeState == LARGE_STREAM) {
+            releaseLargePacket();
+            largeState = LARGE_SKIP;
+        }
+        releaseResultCapture();
+        passThroughSql = null;
+        routeResult = null;
+        isMasterSql = false;
+        failMessage(ctx, ErrorCode.ERR_NO_ROUTE_NODE, message);
     }
 
     /**
@@ -495,37 +1150,246 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
      * @param buf
      */
     public void kill(ChannelHandlerContext ctx, ByteBuf buf) {
-        failMessage(ctx, ErrorCode.ERR_NOT_SUPPORTED, "NOT SUPPORT OPT");
+        long targetId = buf.getUnsignedIntLE(buf.readerIndex() + 5);
+        killSession(ctx, targetId, false);
+    }
+
+    /**
+     * 快速判断COM_QUERY数据包是否为KILL语句。
+     *
+     * @param buf
+     * @return
+     */
+    private static boolean isKill(ByteBuf buf) {
+        int end = buf.writerIndex();
+        int pos = buf.readerIndex() + 5;
+        while (pos < end && Character.isWhitespace(buf.getByte(pos))) {
+            pos++;
+        }
+        return pos + 4 < end && (buf.getByte(pos) | 0x20) == 'k' && (buf.getByte(pos + 1) | 0x20) == 'i'
+                && (buf.getByte(pos + 2) | 0x20) == 'l' && (buf.getByte(pos + 3) | 0x20) == 'l';
+    }
+
+    /**
+     * 判断COM_QUERY数据包是否为事务控制语句。
+     *
+     * @param buf 完整的COM_QUERY数据包，包含包头
+     * @return
+     */
+    private static boolean isTransactionControl(ByteBuf buf) {
+        String sql = buf.toString(buf.readerIndex() + 5, buf.readableBytes() - 5, StandardCharsets.UTF_8);
+        return TRANSACTION_PATTERN.matcher(sql).matches();
+    }
+
+    /**
+     * 执行KILL [QUERY|CONNECTION] id语句。
+     *
+     * @param ctx
+     * @param buf
+     * @return 不是KILL语句时返回false，按普通sql执行
+     */
+    private boolean killStatement(ChannelHandlerContext ctx, ByteBuf buf) {
+        String sql = buf.toString(buf.readerIndex() + 5, buf.readableBytes() - 5, StandardCharsets.UTF_8);
+        Matcher matcher = KILL_PATTERN.matcher(sql);
+        if (!matcher.matches()) {
+            return false;
+        }
+        long targetId;
+        try {
+            targetId = Long.parseLong(matcher.group(2));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        killSession(ctx, targetId, "query".equalsIgnoreCase(matcher.group(1)));
+        return true;
+    }
+
+    /**
+     * 中断指定会话的执行或者关闭会话，只能操作同一用户的会话。
+     *
+     * @param ctx
+     * @param targetId  proxy会话id
+     * @param queryOnly true时只中断正在执行的命令，false时关闭会话
+     */
+    private void killSession(ChannelHandlerContext ctx, long targetId, boolean queryOnly) {
+        ProxyMysqlSession target = ProxySessionManager.find(targetId);
+        if (target == null) {
+            failMessage(ctx, ErrorCode.ER_NO_SUCH_THREAD, "Unknown thread id: " + targetId);
+            return;
+        }
+        if (user == null || !user.equals(target.getUser())) {
+            failMessage(ctx, ErrorCode.ER_KILL_DENIED_ERROR, "You are not owner of thread " + targetId);
+            return;
+        }
+        if (queryOnly) {
+            target.cancelQuery(false);
+        } else {
+            //连接关闭时会中断正在执行的命令。
+            target.ctx.close();
+        }
+        OKPacket.writeOkToChannel(ctx);
+    }
+
+    /**
+     * 中断正在执行的命令，后端连接执行结束后正常归还连接池。
+     *
+     * @param detach 前端已断开时为true，剩余的返回全部丢弃；否则前端会收到中断的报错
+     */
+    public void cancelQuery(boolean detach) {
+        if (!ctx.executor().inEventLoop()) {
+            ctx.executor().execute(() -> cancelQuery(detach));
+            return;
+        }
+        if (detach) {
+            releaseLargePacket();
+            //前端断开，保持的连接归还，有未结束事务的会被关闭。正在执行的由命令结束时处理。
+            MySqlSession kept = this.keptSession;
+            this.keptSession = null;
+            if (kept != null && kept != this.mysqlSession) {
+                kept.releaseKept();
+            }
+        }
+        MySqlSession session = this.mysqlSession;
+        if (session != null) {
+            session.cancel(this, detach);
+        }
+        ProxyMultiNodeHandler handler = this.multiNodeHandler;
+        if (handler != null) {
+            handler.cancel(detach);
+        }
+        ProxyLoadDataHandler loadHandler = this.loadDataHandler;
+        if (loadHandler != null) {
+            loadHandler.cancel(detach);
+            if (detach) {
+                loadDataHandler = null;
+            }
+        }
     }
 
     /**
      * pstmt预编译。
+     * 只在proxy内登记语句，参数定义直接由proxy返回，后端的预编译在执行时按路由结果进行。
      *
      * @param ctx
      * @param buf
      */
     public void stmtPrepare(ChannelHandlerContext ctx, ByteBuf buf) {
-        failMessage(ctx, ErrorCode.ERR_NOT_SUPPORTED, "NOT SUPPORT OPT");
+        int maxStmt = config.getServer().getMaxStmtPerSession();
+        if (stmtMap.size() >= maxStmt) {
+            failMessage(ctx, ErrorCode.ER_UNKNOWN_ERROR, "Can't create more than " + maxStmt + " statements!");
+            return;
+        }
+        StmtTemplate template;
+        try {
+            template = StmtTemplate.get(schema, buf);
+        } catch (ParserException e) {
+            failMessage(ctx, ErrorCode.ERR_NOT_SUPPORTED, e.getMessage());
+            return;
+        }
+        ProxyPreparedStatement pstmt = new ProxyPreparedStatement(++stmtIdGenerator, template);
+        stmtMap.put(pstmt.getId(), pstmt);
+        PreparedOkPacket okPacket = new PreparedOkPacket();
+        okPacket.packetId = 1;
+        okPacket.statementId = pstmt.getId();
+        okPacket.parametersNumber = template.getParamCount();
+        okPacket.writeResponseToChannel(ctx);
     }
 
     /**
      * pstmt执行。
+     * 按照绑定的参数值计算路由，不涉及分区表的语句直接在baseNode上执行。
      *
      * @param ctx
      * @param buf
      */
     public void stmtExecute(ChannelHandlerContext ctx, ByteBuf buf) {
-        failMessage(ctx, ErrorCode.ERR_NOT_SUPPORTED, "NOT SUPPORT OPT");
+        recvBytes += buf.readableBytes();
+        lastReadTime = SystemClock.now();
+        long stmtId = buf.getUnsignedIntLE(buf.readerIndex() + 5);
+        ProxyPreparedStatement pstmt = stmtMap.get(stmtId);
+        if (pstmt == null) {
+            failMessage(ctx, ErrorCode.ER_UNKNOWN_STMT_HANDLER, "Unknown prepared statement handler (" + stmtId + ") given to mysqld_stmt_execute");
+            return;
+        }
+        StmtExecutePacket execute;
+        try {
+            execute = pstmt.readExecute(buf);
+        } catch (RuntimeException e) {
+            failMessage(ctx, ErrorCode.ER_WRONG_ARGUMENTS, "Incorrect arguments to mysqld_stmt_execute");
+            return;
+        }
+        StmtTemplate template = pstmt.getTemplate();
+        if (template.isPassThrough()) {
+            this.passThroughSql = template.getSql();
+            String database = schema.getName();
+            bindMysqlSession(ctx, schema.getBaseNode(), template.isMaster(), mysqlSession -> mysqlSession.exeStatement(template.isMaster(), database, template.getSql(), execute));
+            return;
+        }
+        SqlParser parser = SqlParser.newInstance(this, template.getSql());
+        parser.setParams(execute.getParamStrings());
+        routeResult = parser.parse();
+        parser.recycle();
+        if (routeResult.hasError()) {
+            if (routeResult.getErrorCode() > 0) {
+                failMessage(ctx, routeResult.getErrorCode(), routeResult.getErrorMessage());
+            }
+            return;
+        }
+        invalidateResultCache(routeResult);
+        if (routeResult.isSingle()) {
+            SqlParseResult.SqlInfo sqlInfo = routeResult.getSqlInfo();
+            boolean isMaster = routeResult.isMaster();
+            bindMysqlSession(ctx, sqlInfo.getMysqlGroup(), isMaster, mysqlSession -> mysqlSession.exeStatement(isMaster, sqlInfo, execute));
+        } else {
+            if (!checkMultiNodeTransaction(ctx)) {
+                return;
+            }
+            multiNodeHandler = new ProxyMultiNodeHandler(this.ctx, routeResult, execute);
+            multiNodeHandler.execute();
+        }
+    }
+
+    /**
+     * pstmt发送long data，没有返回包。
+     *
+     * @param ctx
+     * @param buf
+     */
+    public void stmtSendLongData(ChannelHandlerContext ctx, ByteBuf buf) {
+        recvBytes += buf.readableBytes();
+        long stmtId = buf.getUnsignedIntLE(buf.readerIndex() + 5);
+        ProxyPreparedStatement pstmt = stmtMap.get(stmtId);
+        if (pstmt != null) {
+            int paramId = buf.getUnsignedShortLE(buf.readerIndex() + 9);
+            pstmt.appendLongData(paramId, buf.slice(buf.readerIndex() + 11, buf.readableBytes() - 11));
+        }
     }
 
     /**
-     * pstmt执行关闭。
+     * pstmt执行关闭，没有返回包。
      *
      * @param ctx
      * @param buf
      */
     public void stmtClose(ChannelHandlerContext ctx, ByteBuf buf) {
-        failMessage(ctx, ErrorCode.ERR_NOT_SUPPORTED, "NOT SUPPORT OPT");
+        stmtMap.remove(buf.getUnsignedIntLE(buf.readerIndex() + 5));
+    }
+
+    /**
+     * pstmt重置。
+     *
+     * @param ctx
+     * @param buf
+     */
+    public void stmtReset(ChannelHandlerContext ctx, ByteBuf buf) {
+        long stmtId = buf.getUnsignedIntLE(buf.readerIndex() + 5);
+        ProxyPreparedStatement pstmt = stmtMap.get(stmtId);
+        if (pstmt == null) {
+            failMessage(ctx, ErrorCode.ER_UNKNOWN_STMT_HANDLER, "Unknown prepared statement handler (" + stmtId + ") given to mysqld_stmt_reset");
+            return;
+        }
+        pstmt.reset();
+        OKPacket.writeOkToChannel(ctx);
     }
 
     /**
@@ -576,6 +1440,65 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
         this.lastAccess = SystemClock.now();
     }
 
+    /**
+     * 事务中或autocommit=0时保持后端session，事务结束后再归还。
+     *
+     * @param mysqlSession
+     * @param inTransaction 连接上是否有未结束的事务
+     * @return
+     */
+    @Override
+    public boolean keepSession(MySqlSession mysqlSession, boolean inTransaction) {
+        if (inTransaction || !sessionVariables.isAutocommit()) {
+            this.keptSession = mysqlSession;
+            return true;
+        }
+        if (this.keptSession == mysqlSession) {
+            this.keptSession = null;
+        }
+        return false;
+    }
+
+    /**
+     * 事务中不支持多节点执行的语句，各节点的连接不会被保持，事务会丢失。
+     *
+     * @param ctx
+     * @return
+     */
+    private boolean checkMultiNodeTransaction(ChannelHandlerContext ctx) {
+        if (inTransaction || !sessionVariables.isAutocommit()) {
+            routeResult = null;
+            failMessage(ctx, ErrorCode.ERR_NOT_SUPPORTED, "Multi-node statement is not supported in transaction!");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 多节点执行结束，由ProxyMultiNodeHandler在前端线程中调用。
+     * 记录统计，清理routeResult和multiNodeHandler，避免影响下一条sql。
+     *
+     * @param handler
+     * @param isExeSuccess
+     * @param dataRowsCount
+     * @param affectRowsCount
+     * @param sendBytes
+     */
+    void multiNodeFinish(ProxyMultiNodeHandler handler, boolean isExeSuccess, long dataRowsCount, long affectRowsCount, long sendBytes) {
+        if (this.multiNodeHandler != handler) {
+            //已经不是当前的查询了，只需要输出结束包。
+            this.ctx.flush();
+            return;
+        }
+        this.multiNodeHandler = null;
+        this.isMasterSql = routeResult != null && routeResult.isMaster();
+        this.isExeSuccess = isExeSuccess;
+        this.dataRowsCount = (int) dataRowsCount;
+        this.affectRowsCount = (int) affectRowsCount;
+        this.sendBytes = sendBytes;
+        unbind();
+    }
+
     /**
      * 通知解绑定。
      */
@@ -583,11 +1506,41 @@ public class ProxyMysqlSession implements MySqlSessionCallback {
     public void unbind() {
         //开始统计数据了。
         this.exeTime = SystemClock.now() - lastReadTime;
+        //写入完成后再次使缓存失效，执行期间开始的查询结果可能是旧的。
+        if (routeResult != null) {
+            invalidateResultCache(routeResult);
+        }
+        releaseResultCapture();
         //开始统计。
-        StatsFactory.statsMydb(host, schema.getName(), routeResult.getTable(), isMasterSql, isExeSuccess, exeTime, dataRowsCount, affectRowsCount, sendBytes, recvBytes);
-        StatsFactory.statsSlowSql(host, schema.getName(), routeResult.getSql(), routeResult.isSingle() ? 1 : routeResult.getSqlInfos().size(), Math.max(dataRowsCount, affectRowsCount), sendBytes, recvBytes, exeTime, lastReadTime);
+        if (routeResult != null) {
+            StatsFactory.statsMydb(host, schema.getName(), routeResult.getTable(), isMasterSql, isExeSuccess, exeTime, dataRowsCount, affectRowsCount, sendBytes, recvBytes);
+            StatsFactory.statsSlowSql(host, schema.getName(), routeResult.getSql(), routeResult.isSingle() ? 1 : routeResult.getSqlInfos().size(), Math.max(dataRowsCount, affectRowsCount), sendBytes, recvBytes, exeTime, lastReadTime);
+        } else {
+            StatsFactory.statsMydb(host, schema.getName(), null, isMasterSql, isExeSuccess, exeTime, dataRowsCount, affectRowsCount, sendBytes, recvBytes);
+            //直通执行的sql，只在慢sql时才解码。
+            if (exeTime > config.getStats().getSlowQueryTimeout()) {
+                String sql = passThroughSql;
+                if (sql == null && passThroughBuf != null) {
+                    sql = passThroughBuf.toString(passThroughBuf.readerIndex() + 5, passThroughBuf.readableBytes() - 5, StandardCharsets.UTF_8);
+                }
+                if (sql != null) {
+                    StatsFactory.statsSlowSql(host, schema.getName(), sql, 1, Math.max(dataRowsCount, affectRowsCount), sendBytes, recvBytes, exeTime, lastReadTime);
+                }
+            }
+        }
+        if (passThroughBuf != null) {
+            passThroughBuf.release();
+            passThroughBuf = null;
+        }
+        StatsFactory.statsPendingBytes(peakPendingBytes);
         //数据归零
         routeResult = null;
+        passThroughSql = null;
+        rollbackVariables = null;
+        mysqlSession = null;
+        isReadPaused = false;
+        unflushedBytes = 0;
+        peakPendingBytes = 0;
         isMasterSql = false;
         isExeSuccess = true;
         this.exeTime = 0;
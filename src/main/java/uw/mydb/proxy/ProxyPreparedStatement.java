@@ -0,0 +1,93 @@
+package uw.mydb.proxy;
+
+import io.netty.buffer.ByteBuf;
+import uw.mydb.protocol.packet.StmtExecutePacket;
+import uw.mydb.sqlparser.StmtTemplate;
+
+/**
+ * 前端会话中的预编译语句。
+ * 保存参数类型和long data，后端的预编译语句由每个mysql连接单独维护。
+ *
+ * @author axeon
+ */
+class ProxyPreparedStatement {
+
+    /**
+     * 前端看到的语句id。
+     */
+    private final long id;
+
+    /**
+     * 语句模板。
+     */
+    private final StmtTemplate template;
+
+    /**
+     * 上次绑定的参数类型。
+     */
+    private int[] boundTypes;
+
+    /**
+     * 通过COM_STMT_SEND_LONG_DATA发送的参数值。
+     */
+    private byte[][] longData;
+
+    ProxyPreparedStatement(long id, StmtTemplate template) {
+        this.id = id;
+        this.template = template;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    StmtTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * 读取执行包，合并long data。执行后long data清空。
+     *
+     * @param buf
+     * @return
+     */
+    StmtExecutePacket readExecute(ByteBuf buf) {
+        StmtExecutePacket packet = new StmtExecutePacket();
+        packet.read(buf, template.getParamCount(), boundTypes, longData);
+        boundTypes = packet.paramTypes;
+        longData = null;
+        //不支持游标，统一按照普通结果集返回。
+        packet.flags = 0;
+        return packet;
+    }
+
+    /**
+     * 追加long data。
+     *
+     * @param paramId
+     * @param buf     数据部分
+     */
+    void appendLongData(int paramId, ByteBuf buf) {
+        if (paramId < 0 || paramId >= template.getParamCount()) {
+            return;
+        }
+        if (longData == null) {
+            longData = new byte[template.getParamCount()][];
+        }
+        byte[] old = longData[paramId];
+        int oldLength = old == null ? 0 : old.length;
+        byte[] data = new byte[oldLength + buf.readableBytes()];
+        if (old != null) {
+            System.arraycopy(old, 0, data, 0, oldLength);
+        }
+        buf.readBytes(data, oldLength, buf.readableBytes());
+        longData[paramId] = data;
+    }
+
+    /**
+     * 重置语句，清空long data。
+     */
+    void reset() {
+        longData = null;
+    }
+}
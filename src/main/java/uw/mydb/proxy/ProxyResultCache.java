@@ -0,0 +1,348 @@
+package uw.mydb.proxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uw.mydb.conf.MydbConfig;
+import uw.mydb.conf.MydbConfigManager;
+import uw.mydb.mysql.SessionVariables;
+import uw.mydb.util.SystemClock;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SELECT结果缓存。
+ * 缓存单节点查询返回给前端的原始数据包，存放在堆外内存，命中时直接回放，不访问后端。
+ * 按总字节数LRU淘汰，每条记录有过期时间。
+ * 每个表有一个版本号，写入时加1，版本号不一致的记录视为失效，执行中的查询结果也不会写入。
+ *
+ * @author axeon
+ */
+public class ProxyResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProxyResultCache.class);
+
+    private static MydbConfig.ServerConfig config = MydbConfigManager.getConfig().getServer();
+
+    /**
+     * 表版本号，key为schema.table，只记录缓存过的表。
+     */
+    private static final Map<String, AtomicLong> tableVersionMap = new ConcurrentHashMap<>();
+
+    /**
+     * 缓存记录，按访问顺序排列。
+     */
+    private static final LinkedHashMap<CacheKey, CacheEntry> entryMap = new LinkedHashMap<>(256, 0.75f, true);
+
+    /**
+     * 缓存的总字节数。
+     */
+    private static long totalBytes;
+
+    /**
+     * 是否开启了结果缓存。
+     *
+     * @return
+     */
+    public static boolean isEnabled() {
+        return config.getResultCacheBytes() > 0;
+    }
+
+    /**
+     * 获得单个结果允许缓存的最大字节数。
+     *
+     * @return
+     */
+    public static int getMaxResultBytes() {
+        return config.getResultCacheMaxResultBytes();
+    }
+
+    /**
+     * 获得表的当前版本号，查询开始前获取，写入缓存时校验。
+     *
+     * @param schema
+     * @param table
+     * @return
+     */
+    public static long getTableVersion(String schema, String table) {
+        return tableVersionMap.computeIfAbsent(tableKey(schema, table), x -> new AtomicLong()).get();
+    }
+
+    /**
+     * 表数据发生变化，使该表的缓存失效。
+     * 写入路由时和执行完成时各调用一次，期间开始的查询结果都不会被缓存。
+     *
+     * @param schema
+     * @param table
+     */
+    public static void invalidate(String schema, String table) {
+        AtomicLong version = tableVersionMap.get(tableKey(schema, table));
+        if (version != null) {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * 查找缓存。
+     *
+     * @param key
+     * @return 命中时返回数据包，使用后由调用方释放；未命中返回null
+     */
+    public static ByteBuf get(CacheKey key) {
+        synchronized (entryMap) {
+            CacheEntry entry = entryMap.get(key);
+            if (entry == null) {
+                return null;
+            }
+            AtomicLong version = tableVersionMap.get(entry.tableKey);
+            if (entry.expireTime < SystemClock.now() || version == null || version.get() != entry.version) {
+                removeEntry(key);
+                return null;
+            }
+            return entry.data.retainedDuplicate();
+        }
+    }
+
+    /**
+     * 写入缓存，表版本号已变化时丢弃。
+     *
+     * @param key
+     * @param schema
+     * @param table
+     * @param version 查询开始时的表版本号
+     * @param ttl     过期秒数
+     * @param data    结果数据包，所有权转交给缓存
+     */
+    public static void put(CacheKey key, String schema, String table, long version, int ttl, ByteBuf data) {
+        String tableKey = tableKey(schema, table);
+        AtomicLong current = tableVersionMap.get(tableKey);
+        if (current == null || current.get() != version) {
+            data.release();
+            return;
+        }
+        CacheEntry entry = new CacheEntry(tableKey, version, SystemClock.now() + ttl * 1000L, data);
+        synchronized (entryMap) {
+            removeEntry(key);
+            entryMap.put(key, entry);
+            totalBytes += data.readableBytes();
+            long maxBytes = config.getResultCacheBytes();
+            Iterator<CacheEntry> it = entryMap.values().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                CacheEntry eldest = it.next();
+                it.remove();
+                totalBytes -= eldest.data.readableBytes();
+                eldest.data.release();
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("缓存查询结果[{}]: {} bytes, total {} bytes", tableKey, data.readableBytes(), totalBytes);
+        }
+    }
+
+    /**
+     * 分配存放结果的堆外缓冲。
+     *
+     * @return
+     */
+    public static ByteBuf allocate() {
+        return PooledByteBufAllocator.DEFAULT.directBuffer();
+    }
+
+    /**
+     * 移除记录，必须在entryMap锁内调用。
+     *
+     * @param key
+     */
+    private static void removeEntry(CacheKey key) {
+        CacheEntry entry = entryMap.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.data.readableBytes();
+            entry.data.release();
+        }
+    }
+
+    /**
+     * 表的key，表名不区分大小写。
+     *
+     * @param schema
+     * @param table
+     * @return
+     */
+    private static String tableKey(String schema, String table) {
+        return schema + '.' + table.toLowerCase();
+    }
+
+    /**
+     * 规范化sql，去掉首尾空白和结尾的分号，字符串外的连续空白合并为一个空格。
+     *
+     * @param sql
+     * @return
+     */
+    public static String normalizeSql(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == '\\' && i + 1 < sql.length()) {
+                    sb.append(sql.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && sb.length() > 0) {
+                sb.append(' ');
+            }
+            space = false;
+            if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            }
+            sb.append(c);
+        }
+        int len = sb.length();
+        while (len > 0 && sb.charAt(len - 1) == ';') {
+            len--;
+        }
+        sb.setLength(len);
+        return sb.toString();
+    }
+
+    /**
+     * 缓存的key，结果的编码和格式受字符集和会话变量影响，需要一起比较。
+     */
+    public static class CacheKey {
+
+        private final String schema;
+
+        private final String sql;
+
+        private final int charsetIndex;
+
+        private final SessionVariables variables;
+
+        private final int hash;
+
+        public CacheKey(String schema, String sql, int charsetIndex, SessionVariables variables) {
+            this.schema = schema;
+            this.sql = sql;
+            this.charsetIndex = charsetIndex;
+            this.variables = variables;
+            this.hash = Objects.hash(schema, sql, charsetIndex, variables);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CacheKey that = (CacheKey) o;
+            return charsetIndex == that.charsetIndex && schema.equals(that.schema) && sql.equals(that.sql) && Objects.equals(variables, that.variables);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * 正在收集的查询结果，边转发边复制，结果完整结束后写入缓存。
+     */
+    public static class Capture {
+
+        private final CacheKey key;
+
+        private final String schema;
+
+        private final String table;
+
+        private final long version;
+
+        private final int ttl;
+
+        private ByteBuf data;
+
+        public Capture(CacheKey key, String schema, String table, int ttl) {
+            this.key = key;
+            this.schema = schema;
+            this.table = table;
+            this.ttl = ttl;
+            this.version = getTableVersion(schema, table);
+        }
+
+        /**
+         * 追加一个转发给前端的数据包。
+         *
+         * @param buf
+         * @return 超过单个结果的最大字节数时返回false，调用方需要release
+         */
+        public boolean append(ByteBuf buf) {
+            if (data == null) {
+                data = allocate();
+            }
+            if (data.readableBytes() + buf.readableBytes() > getMaxResultBytes()) {
+                return false;
+            }
+            data.writeBytes(buf, buf.readerIndex(), buf.readableBytes());
+            return true;
+        }
+
+        /**
+         * 结果完整结束，写入缓存。
+         */
+        public void finish() {
+            ByteBuf data = this.data;
+            this.data = null;
+            if (data != null) {
+                put(key, schema, table, version, ttl, data);
+            }
+        }
+
+        /**
+         * 放弃收集。
+         */
+        public void release() {
+            if (data != null) {
+                data.release();
+                data = null;
+            }
+        }
+    }
+
+    /**
+     * 缓存记录。
+     */
+    private static class CacheEntry {
+
+        private final String tableKey;
+
+        private final long version;
+
+        private final long expireTime;
+
+        private final ByteBuf data;
+
+        CacheEntry(String tableKey, long version, long expireTime, ByteBuf data) {
+            this.tableKey = tableKey;
+            this.version = version;
+            this.expireTime = expireTime;
+            this.data = data;
+        }
+    }
+}
@@ -1,15 +1,16 @@
 package uw.mydb.proxy;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
 import org.slf4j.LoggerFactory;
 import uw.mydb.conf.MydbConfig;
 import uw.mydb.conf.MydbConfigManager;
+import uw.mydb.util.EventLoopManager;
+import uw.mydb.util.TransportUtils;
 
 /**
  * 代理服务器。
@@ -26,29 +27,33 @@ public class ProxyServer {
      */
     private static EventLoopGroup bossGroup = null;
 
-    /**
-     * reactor线程。
-     */
-    private static EventLoopGroup workerGroup = null;
-
     /**
      * 启动服务器
      */
     public static void start() throws InterruptedException {
         MydbConfig.ServerConfig config = MydbConfigManager.getConfig().getServer();
+        boolean epoll = TransportUtils.isEpoll();
+        //开启reusePort后，每个acceptor单独绑定一次端口，由内核负责连接分发。
+        int bindNum = (epoll && config.isReusePort()) ? Math.max(1, config.getAcceptorNum()) : 1;
         // acceptor
-        bossGroup = new NioEventLoopGroup(0, new ThreadFactoryBuilder().setNameFormat("mydb_boss-%d").build());
-        // worker
-        workerGroup = new NioEventLoopGroup(0, new ThreadFactoryBuilder().setNameFormat("mydb_worker-%d").build());
+        bossGroup = TransportUtils.newEventLoopGroup(epoll, bindNum, "mydb_boss-%d");
         ServerBootstrap bootstrap = new ServerBootstrap();
-        bootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
+        //worker使用和后端连接共享的reactor线程。
+        bootstrap.group(bossGroup, EventLoopManager.getWorkerGroup()).channel(TransportUtils.getServerChannelClass(epoll))
                 .option(ChannelOption.SO_BACKLOG, 1024)
                 .childOption(ChannelOption.TCP_NODELAY, true)
                 .option(ChannelOption.SO_RCVBUF, 32 * 1024)
                 .childOption(ChannelOption.SO_SNDBUF, 32 * 1024)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(config.getWriteBufferLowWaterMark(), config.getWriteBufferHighWaterMark()))
                 .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                 .childHandler(new ProxyHandlerFactory());
-        bootstrap.bind(config.getIp(), config.getPort()).sync();
+        if (bindNum > 1) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        for (int i = 0; i < bindNum; i++) {
+            bootstrap.bind(config.getIp(), config.getPort()).sync();
+        }
+        logger.info("mydb proxy server transport: {}, acceptors: {}", epoll ? "epoll" : "nio", bindNum);
         logger.info("mydb proxy server started!");
     }
 
@@ -59,8 +64,5 @@ public class ProxyServer {
         if (bossGroup != null) {
             bossGroup.shutdownGracefully();
         }
-        if (workerGroup != null) {
-            workerGroup.shutdownGracefully();
-        }
     }
 }
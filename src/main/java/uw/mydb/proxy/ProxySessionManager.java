@@ -29,6 +29,21 @@ public class ProxySessionManager {
         return map;
     }
 
+    /**
+     * 按会话id查找session。
+     *
+     * @param id
+     * @return
+     */
+    public static ProxyMysqlSession find(long id) {
+        for (ProxyMysqlSession session : map.values()) {
+            if (session.getId() == id) {
+                return session;
+            }
+        }
+        return null;
+    }
+
     /**
      * 增加一个session。
      *
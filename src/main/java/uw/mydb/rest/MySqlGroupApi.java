@@ -0,0 +1,26 @@
+package uw.mydb.rest;
+
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import uw.mydb.mysql.MySqlGroupManager;
+import uw.mydb.mysql.MySqlGroupService;
+
+/**
+ * mysql组管理接口。
+ * @author axeon
+ */
+@RestController
+@RequestMapping("/api/mysql")
+public class MySqlGroupApi {
+
+    /**
+     * 手动回切到master。
+     */
+    @RequestMapping("/failback")
+    public boolean failback(@RequestParam String group) {
+        MySqlGroupService groupService = MySqlGroupManager.getMysqlGroupService(group);
+        return groupService != null && groupService.failback();
+    }
+
+}
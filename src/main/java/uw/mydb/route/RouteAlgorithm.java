@@ -2,8 +2,10 @@ package uw.mydb.route;
 
 import uw.mydb.conf.MydbConfig;
 
+import java.nio.charset.StandardCharsets;
 import java.security.PrivilegedActionException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 动态分表算法，一般来说表是完全动态创建的。
@@ -82,10 +84,12 @@ public abstract class RouteAlgorithm {
      * @return 修正后的路由信息
      */
     public Map<String, RouteInfo> calculate(MydbConfig.TableConfig tableConfig, Map<String, RouteInfo> routeInfos, List<String> values) throws RouteException {
+        //空key是携带的初始值，按值复制后移除。
+        RouteInfo initInfo = routeInfos.remove("");
         for (String value : values) {
             RouteInfo routeInfo = routeInfos.get(value);
             if (routeInfo == null) {
-                routeInfo = RouteInfo.newDataWithTable(tableConfig.getName());
+                routeInfo = initInfo == null ? RouteInfo.newDataWithTable(tableConfig.getName()) : initInfo.copy();
                 routeInfos.put(value, routeInfo);
             }
             calculate(tableConfig, routeInfo, value);
@@ -168,6 +172,11 @@ public abstract class RouteAlgorithm {
          */
         private Map<String, RouteKeyValue> params;
 
+        /**
+         * clear后保留的单值对象，对象池中的解析器复用，减少分配。
+         */
+        private RouteKeyValue spare;
+
 
         /**
          * 检查是否有key。
@@ -252,6 +261,19 @@ public abstract class RouteAlgorithm {
             }
         }
 
+        /**
+         * 清空key和数值，用于复用。
+         */
+        public void clear() {
+            if (this.value != null) {
+                this.value.reset();
+                this.spare = this.value;
+            }
+            this.key = null;
+            this.value = null;
+            this.params = null;
+        }
+
         /**
          * 初始化key
          *
@@ -260,7 +282,12 @@ public abstract class RouteAlgorithm {
         public void initKey(String key) {
             if (this.key == null) {
                 this.key = key;
-                this.value = new RouteKeyValue();
+                if (spare != null) {
+                    this.value = spare;
+                    this.spare = null;
+                } else {
+                    this.value = new RouteKeyValue();
+                }
             } else {
                 if (!this.key.equals(key)) {
                     if (params == null) {
@@ -274,6 +301,24 @@ public abstract class RouteAlgorithm {
             }
         }
 
+        /**
+         * 获得数值对应的key。
+         *
+         * @param rkv
+         * @return 不存在时返回null
+         */
+        public String getKey(RouteKeyValue rkv) {
+            if (params == null) {
+                return rkv == value ? key : null;
+            }
+            for (Map.Entry<String, RouteKeyValue> entry : params.entrySet()) {
+                if (entry.getValue() == rkv) {
+                    return entry.getKey();
+                }
+            }
+            return null;
+        }
+
         /**
          * 获得数值。
          *
@@ -441,10 +486,10 @@ public abstract class RouteAlgorithm {
         }
 
         /**
-         * 针对范围运行有时候只有一个值来进行优化。
+         * 针对范围运行有时候只有一个值来进行优化，多值类型不处理。
          */
         public void calcType() {
-            if (value1 == null || value2 == null) {
+            if (type != MULTI && (value1 == null || value2 == null)) {
                 type = SINGLE;
                 if (value1 == null && value2 != null) {
                     value1 = value2;
@@ -456,6 +501,16 @@ public abstract class RouteAlgorithm {
         }
 
 
+        /**
+         * 清空类型和数值，用于复用。
+         */
+        public void reset() {
+            type = NULL;
+            value1 = null;
+            value2 = null;
+            values = null;
+        }
+
         public void putValue(String value) {
             type = SINGLE;
             this.value1 = value;
@@ -502,6 +557,11 @@ public abstract class RouteAlgorithm {
      */
     protected static class DataNode {
 
+        /**
+         * 每个DataNode缓存的表名编码上限，按日期等分表时表名不会无限增长。
+         */
+        private static final int MAX_NAME_BYTES_CACHE = 1024;
+
         /**
          * mysql配置组名
          */
@@ -512,6 +572,11 @@ public abstract class RouteAlgorithm {
          */
         String database;
 
+        /**
+         * 各表"库名.表名"的UTF-8编码，路由结果每次新建，编码在这里缓存。
+         */
+        private final Map<String, byte[]> nameBytesMap = new ConcurrentHashMap<>();
+
         public DataNode(String mysqlGroup, String database) {
             this.mysqlGroup = mysqlGroup;
             this.database = database;
@@ -531,6 +596,24 @@ public abstract class RouteAlgorithm {
 
         public void setDatabase(String database) {
             this.database = database;
+            this.nameBytesMap.clear();
+        }
+
+        /**
+         * 获得"库名.表名"的UTF-8编码，超过缓存上限的表名不再缓存。
+         *
+         * @param table
+         * @return
+         */
+        byte[] getNameBytes(String table) {
+            byte[] bytes = nameBytesMap.get(table);
+            if (bytes == null) {
+                bytes = (database + "." + table).getBytes(StandardCharsets.UTF_8);
+                if (nameBytesMap.size() < MAX_NAME_BYTES_CACHE) {
+                    nameBytesMap.put(table, bytes);
+                }
+            }
+            return bytes;
         }
 
         @Override
@@ -606,6 +689,16 @@ public abstract class RouteAlgorithm {
          */
         private String table;
 
+        /**
+         * "库名.表名"的UTF-8编码，重写sql时使用。
+         */
+        private byte[] nameBytes;
+
+        /**
+         * 来源DataNode，用于共享表名编码，单独修改库名后失效。
+         */
+        private DataNode dataNode;
+
         public RouteInfo(String mysqlGroup, String database, String table) {
             this.mysqlGroup = mysqlGroup;
             this.database = database;
@@ -683,7 +776,9 @@ public abstract class RouteAlgorithm {
          * 复制一个RouteInfo。
          */
         public RouteInfo copy() {
-            return new RouteInfo(mysqlGroup, database, table);
+            RouteInfo routeInfo = new RouteInfo(mysqlGroup, database, table);
+            routeInfo.dataNode = dataNode;
+            return routeInfo;
         }
 
         /**
@@ -731,6 +826,26 @@ public abstract class RouteAlgorithm {
         public void setDataNode(DataNode dataNode) {
             this.mysqlGroup = dataNode.getMysqlGroup();
             this.database = dataNode.getDatabase();
+            this.dataNode = dataNode;
+            this.nameBytes = null;
+        }
+
+        /**
+         * 获得"库名.表名"的UTF-8编码，首次使用时生成。
+         *
+         * @return
+         */
+        public byte[] getNameBytes() {
+            byte[] bytes = nameBytes;
+            if (bytes == null) {
+                if (dataNode != null && table != null) {
+                    bytes = dataNode.getNameBytes(table);
+                } else {
+                    bytes = (database + "." + table).getBytes(StandardCharsets.UTF_8);
+                }
+                nameBytes = bytes;
+            }
+            return bytes;
         }
 
         public String getMysqlGroup() {
@@ -747,6 +862,8 @@ public abstract class RouteAlgorithm {
 
         public void setDatabase(String database) {
             this.database = database;
+            this.dataNode = null;
+            this.nameBytes = null;
         }
 
         public String getTable() {
@@ -755,6 +872,7 @@ public abstract class RouteAlgorithm {
 
         public void setTable(String table) {
             this.table = table;
+            this.nameBytes = null;
         }
     }
 
@@ -4,6 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uw.mydb.conf.MydbConfig;
 import uw.mydb.conf.MydbConfigManager;
+import uw.mydb.sqlparser.parser.FnvHash;
 
 import java.util.*;
 
@@ -26,6 +27,11 @@ public class RouteManager {
      */
     private static MydbConfig config = MydbConfigManager.getConfig();
 
+    /**
+     * 所有路由key小写后的hash，已排序，用于解析时不生成字符串判断列名是否可能是路由key。
+     */
+    private static long[] routeKeyHashes = new long[0];
+
 
     /**
      * 初始化管理器，缓存算法实例。
@@ -58,6 +64,33 @@ public class RouteManager {
             }
             routeAlgorithmMap.put(routeConfig.getName(), routeAlgorithms);
         }
+        //编译路由key的hash。
+        Set<Long> hashSet = new HashSet<>();
+        for (MydbConfig.RouteConfig routeConfig : config.getRoutes().values()) {
+            for (MydbConfig.AlgorithmConfig algorithmConfig : routeConfig.getAlgorithms()) {
+                if (algorithmConfig.getRouteKey() != null) {
+                    hashSet.add(FnvHash.fnv1a_64_lower(algorithmConfig.getRouteKey()));
+                }
+            }
+        }
+        long[] hashes = new long[hashSet.size()];
+        int i = 0;
+        for (Long hash : hashSet) {
+            hashes[i++] = hash;
+        }
+        Arrays.sort(hashes);
+        routeKeyHashes = hashes;
+    }
+
+    /**
+     * 按小写hash判断列名是否可能是路由key。
+     * 只做预筛，匹配时仍需按列名精确查找。
+     *
+     * @param hashLower 列名小写后的fnv1a_64 hash
+     * @return
+     */
+    public static boolean isRouteKey(long hashLower) {
+        return Arrays.binarySearch(routeKeyHashes, hashLower) >= 0;
     }
 
     /**
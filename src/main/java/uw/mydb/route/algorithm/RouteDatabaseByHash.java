@@ -34,8 +34,7 @@ public class RouteDatabaseByHash extends RouteAlgorithm {
             logger.warn("指定的value:[{}]无法格式化为long!!!", value);
             throw new RouteException("无法匹配hash节点！");
         }
-        routeInfo.setMysqlGroup(node.getMysqlGroup());
-        routeInfo.setDatabase(node.getDatabase());
+        routeInfo.setDataNode(node);
         return routeInfo;
     }
 
@@ -37,8 +37,7 @@ public class RouteDatabaseByMod extends RouteAlgorithm {
         }
         longValue = Math.abs(longValue);
         DataNode node = dataNodes.get((int) (longValue % dataNodes.size()));
-        routeInfo.setMysqlGroup(node.getMysqlGroup());
-        routeInfo.setDatabase(node.getDatabase());
+        routeInfo.setDataNode(node);
 
         return routeInfo;
     }
@@ -46,8 +46,7 @@ public class RouteDatabaseByPreset extends RouteAlgorithm {
         if (data == null) {
             throw new RouteException("指定的value匹配路由数据!");
         }
-        routeInfo.setMysqlGroup(data.getMysqlGroup());
-        routeInfo.setDatabase(data.getDatabase());
+        routeInfo.setDataNode(data);
 
         return routeInfo;
     }
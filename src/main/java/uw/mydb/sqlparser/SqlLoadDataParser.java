@@ -0,0 +1,537 @@
+package uw.mydb.sqlparser;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LOAD DATA LOCAL INFILE语句解析。
+ * 解析出目标表、字段和行的分隔设置、列清单，用于按行计算路由，并为每个分片重写目标表。
+ * 非LOCAL语句和包含PARTITION等无法重写的语句返回null，仍按普通sql执行。
+ *
+ * @author axeon
+ */
+public class SqlLoadDataParser {
+
+    /**
+     * 解析的sql。
+     */
+    private final String sql;
+
+    /**
+     * 当前位置。
+     */
+    private int pos;
+
+    /**
+     * 文件名。
+     */
+    private String fileName;
+
+    /**
+     * 库名，未指定时为null。
+     */
+    private String schemaName;
+
+    /**
+     * 表名。
+     */
+    private String tableName;
+
+    /**
+     * 表名(含库名)在sql中的起止位置。
+     */
+    private int tableStart, tableEnd;
+
+    /**
+     * IGNORE n LINES子句在sql中的起止位置，没有时为-1。
+     */
+    private int ignoreStart = -1, ignoreEnd = -1;
+
+    /**
+     * 忽略的行数。
+     */
+    private long ignoreLines;
+
+    /**
+     * 字段分隔符。
+     */
+    private byte[] fieldsTerminated = {'\t'};
+
+    /**
+     * 字段包围符(无符号字节)，没有时为-1。
+     */
+    private int enclosed = -1;
+
+    /**
+     * 转义符(无符号字节)，没有时为-1。
+     */
+    private int escaped = '\\';
+
+    /**
+     * 行前缀。
+     */
+    private byte[] linesStarting = {};
+
+    /**
+     * 行分隔符。
+     */
+    private byte[] linesTerminated = {'\n'};
+
+    /**
+     * 列清单，包含@变量，没有指定时为null。
+     */
+    private List<String> columns;
+
+    private SqlLoadDataParser(String sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * 快速判断COM_QUERY数据包是否为LOAD语句。
+     *
+     * @param buf 完整的COM_QUERY数据包，包含包头
+     * @return
+     */
+    public static boolean isLoadData(ByteBuf buf) {
+        int end = buf.writerIndex();
+        int pos = buf.readerIndex() + 5;
+        while (pos < end && Character.isWhitespace(buf.getByte(pos))) {
+            pos++;
+        }
+        return pos + 4 < end && (buf.getByte(pos) | 0x20) == 'l' && (buf.getByte(pos + 1) | 0x20) == 'o'
+                && (buf.getByte(pos + 2) | 0x20) == 'a' && (buf.getByte(pos + 3) | 0x20) == 'd' && Character.isWhitespace(buf.getByte(pos + 4));
+    }
+
+    /**
+     * 解析LOAD DATA LOCAL INFILE语句。
+     *
+     * @param sql
+     * @return 不支持的语句返回null
+     */
+    public static SqlLoadDataParser parse(String sql) {
+        SqlLoadDataParser parser = new SqlLoadDataParser(sql);
+        return parser.parse() ? parser : null;
+    }
+
+    /**
+     * 解析语句。
+     *
+     * @return
+     */
+    private boolean parse() {
+        skipWhitespace();
+        if (!acceptWord("load")) {
+            return false;
+        }
+        skipWhitespace();
+        if (!acceptWord("data")) {
+            return false;
+        }
+        skipWhitespace();
+        if (acceptWord("low_priority") || acceptWord("concurrent")) {
+            skipWhitespace();
+        }
+        if (!acceptWord("local")) {
+            return false;
+        }
+        skipWhitespace();
+        if (!acceptWord("infile")) {
+            return false;
+        }
+        skipWhitespace();
+        fileName = readString();
+        if (fileName == null) {
+            return false;
+        }
+        skipWhitespace();
+        if (acceptWord("replace") || acceptWord("ignore")) {
+            skipWhitespace();
+        }
+        if (!acceptWord("into")) {
+            return false;
+        }
+        skipWhitespace();
+        if (!acceptWord("table")) {
+            return false;
+        }
+        skipWhitespace();
+        tableStart = pos;
+        tableName = readIdentifier();
+        if (tableName == null) {
+            return false;
+        }
+        if (pos < sql.length() && sql.charAt(pos) == '.') {
+            pos++;
+            schemaName = tableName;
+            tableName = readIdentifier();
+            if (tableName == null) {
+                return false;
+            }
+        }
+        tableEnd = pos;
+        while (true) {
+            skipWhitespace();
+            if (pos >= sql.length()) {
+                return true;
+            }
+            char c = sql.charAt(pos);
+            if (c == ';') {
+                pos++;
+                skipWhitespace();
+                return pos == sql.length();
+            }
+            if (c == '(') {
+                if (!readColumns()) {
+                    return false;
+                }
+            } else if (acceptWord("character")) {
+                skipWhitespace();
+                if (!acceptWord("set") || !skipWord()) {
+                    return false;
+                }
+            } else if (acceptWord("charset")) {
+                if (!skipWord()) {
+                    return false;
+                }
+            } else if (acceptWord("fields") || acceptWord("columns")) {
+                if (!readFieldsOptions()) {
+                    return false;
+                }
+            } else if (acceptWord("lines")) {
+                if (!readLinesOptions()) {
+                    return false;
+                }
+            } else if (sql.regionMatches(true, pos, "ignore", 0, 6)) {
+                int start = pos;
+                acceptWord("ignore");
+                skipWhitespace();
+                int numStart = pos;
+                while (pos < sql.length() && Character.isDigit(sql.charAt(pos))) {
+                    pos++;
+                }
+                if (pos == numStart) {
+                    return false;
+                }
+                ignoreLines = Long.parseLong(sql.substring(numStart, pos));
+                skipWhitespace();
+                if (!acceptWord("lines") && !acceptWord("rows")) {
+                    return false;
+                }
+                ignoreStart = start;
+                ignoreEnd = pos;
+            } else if (acceptWord("set")) {
+                //SET子句由mysql处理，路由只取列清单中的原始值。
+                return true;
+            } else {
+                //PARTITION等不支持的子句。
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 读取FIELDS/COLUMNS的选项。
+     *
+     * @return
+     */
+    private boolean readFieldsOptions() {
+        boolean found = false;
+        while (true) {
+            skipWhitespace();
+            if (acceptWord("terminated")) {
+                byte[] value = readByClause();
+                if (value == null || value.length == 0) {
+                    return false;
+                }
+                fieldsTerminated = value;
+            } else if (acceptWord("optionally") || acceptWord("enclosed")) {
+                skipWhitespace();
+                acceptWord("enclosed");
+                byte[] value = readByClause();
+                if (value == null || value.length > 1) {
+                    return false;
+                }
+                enclosed = value.length == 0 ? -1 : value[0] & 0xFF;
+            } else if (acceptWord("escaped")) {
+                byte[] value = readByClause();
+                if (value == null || value.length > 1) {
+                    return false;
+                }
+                escaped = value.length == 0 ? -1 : value[0] & 0xFF;
+            } else {
+                return found;
+            }
+            found = true;
+        }
+    }
+
+    /**
+     * 读取LINES的选项。
+     *
+     * @return
+     */
+    private boolean readLinesOptions() {
+        boolean found = false;
+        while (true) {
+            skipWhitespace();
+            if (acceptWord("starting")) {
+                byte[] value = readByClause();
+                if (value == null) {
+                    return false;
+                }
+                linesStarting = value;
+            } else if (acceptWord("terminated")) {
+                byte[] value = readByClause();
+                if (value == null || value.length == 0) {
+                    return false;
+                }
+                linesTerminated = value;
+            } else {
+                return found;
+            }
+            found = true;
+        }
+    }
+
+    /**
+     * 读取BY 'string'。
+     *
+     * @return
+     */
+    private byte[] readByClause() {
+        skipWhitespace();
+        if (!acceptWord("by")) {
+            return null;
+        }
+        skipWhitespace();
+        String value = readString();
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 读取列清单。
+     *
+     * @return
+     */
+    private boolean readColumns() {
+        pos++;
+        columns = new ArrayList<>();
+        while (true) {
+            skipWhitespace();
+            String name;
+            if (pos < sql.length() && sql.charAt(pos) == '@') {
+                pos++;
+                name = readIdentifier();
+                name = name == null ? null : '@' + name;
+            } else {
+                name = readIdentifier();
+            }
+            if (name == null) {
+                return false;
+            }
+            columns.add(name);
+            skipWhitespace();
+            if (pos >= sql.length()) {
+                return false;
+            }
+            char c = sql.charAt(pos++);
+            if (c == ')') {
+                return true;
+            }
+            if (c != ',') {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 读取引号字符串，并处理转义。
+     *
+     * @return
+     */
+    private String readString() {
+        if (pos >= sql.length()) {
+            return null;
+        }
+        char quote = sql.charAt(pos);
+        if (quote != '\'' && quote != '"') {
+            return null;
+        }
+        pos++;
+        StringBuilder sb = new StringBuilder();
+        while (pos < sql.length()) {
+            char c = sql.charAt(pos++);
+            if (c == '\\') {
+                if (pos >= sql.length()) {
+                    return null;
+                }
+                char x = sql.charAt(pos++);
+                switch (x) {
+                    case '0':
+                        sb.append('\0');
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'Z':
+                        sb.append((char) 26);
+                        break;
+                    default:
+                        sb.append(x);
+                }
+            } else if (c == quote) {
+                if (pos < sql.length() && sql.charAt(pos) == quote) {
+                    sb.append(quote);
+                    pos++;
+                } else {
+                    return sb.toString();
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 读取标识符，支持反引号。
+     *
+     * @return
+     */
+    private String readIdentifier() {
+        if (pos < sql.length() && sql.charAt(pos) == '`') {
+            int end = sql.indexOf('`', pos + 1);
+            if (end < 0) {
+                return null;
+            }
+            String name = sql.substring(pos + 1, end);
+            pos = end + 1;
+            return name;
+        }
+        int start = pos;
+        while (pos < sql.length()) {
+            char c = sql.charAt(pos);
+            if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        return pos == start ? null : sql.substring(start, pos);
+    }
+
+    /**
+     * 跳过一个单词，如字符集名。
+     *
+     * @return
+     */
+    private boolean skipWord() {
+        skipWhitespace();
+        if (pos < sql.length() && (sql.charAt(pos) == '\'' || sql.charAt(pos) == '"')) {
+            return readString() != null;
+        }
+        return readIdentifier() != null;
+    }
+
+    /**
+     * 如果当前位置是指定的单词(忽略大小写)，跳过它。
+     *
+     * @param word
+     * @return
+     */
+    private boolean acceptWord(String word) {
+        int end = pos + word.length();
+        if (end > sql.length() || !sql.regionMatches(true, pos, word, 0, word.length())) {
+            return false;
+        }
+        if (end < sql.length() && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_')) {
+            return false;
+        }
+        pos = end;
+        return true;
+    }
+
+    /**
+     * 跳过空白。
+     */
+    private void skipWhitespace() {
+        while (pos < sql.length() && Character.isWhitespace(sql.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    /**
+     * 重写目标表。
+     *
+     * @param database
+     * @param table
+     * @param removeIgnore 是否去掉IGNORE n LINES子句，拆分到多个分片时忽略的行由proxy跳过
+     * @return
+     */
+    public String rewrite(String database, String table, boolean removeIgnore) {
+        StringBuilder sb = new StringBuilder(sql.length() + 32);
+        sb.append(sql, 0, tableStart).append('`').append(database).append("`.`").append(table).append('`');
+        if (removeIgnore && ignoreStart > -1) {
+            sb.append(sql, tableEnd, ignoreStart).append(sql, ignoreEnd, sql.length());
+        } else {
+            sb.append(sql, tableEnd, sql.length());
+        }
+        return sb.toString();
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public long getIgnoreLines() {
+        return ignoreLines;
+    }
+
+    public byte[] getFieldsTerminated() {
+        return fieldsTerminated;
+    }
+
+    public int getEnclosed() {
+        return enclosed;
+    }
+
+    public int getEscaped() {
+        return escaped;
+    }
+
+    public byte[] getLinesStarting() {
+        return linesStarting;
+    }
+
+    public byte[] getLinesTerminated() {
+        return linesTerminated;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+}
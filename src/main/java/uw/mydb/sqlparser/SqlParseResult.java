@@ -1,10 +1,14 @@
 package uw.mydb.sqlparser;
 
+import io.netty.buffer.ByteBuf;
 import org.slf4j.LoggerFactory;
 import uw.mydb.protocol.packet.CommandPacket;
 import uw.mydb.protocol.packet.MySqlPacket;
+import uw.mydb.util.ByteBufUtils;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 最终的路由结果。
@@ -60,6 +64,16 @@ public class SqlParseResult {
      */
     private ArrayList<SqlInfo> sqlInfos = null;
 
+    /**
+     * 结果缓存秒数，0为不缓存。
+     */
+    private int cacheTtl;
+
+    /**
+     * 写入的表，结果缓存按表失效，不是写入时为null。
+     */
+    private List<String> writeTables;
+
     public SqlParseResult(String schema, String sql) {
         this.schema = schema;
         this.sql = sql;
@@ -154,6 +168,32 @@ public class SqlParseResult {
         }
     }
 
+    /**
+     * 获得结果缓存秒数。
+     *
+     * @return
+     */
+    public int getCacheTtl() {
+        return cacheTtl;
+    }
+
+    public void setCacheTtl(int cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    /**
+     * 获得写入的表。
+     *
+     * @return
+     */
+    public List<String> getWriteTables() {
+        return writeTables;
+    }
+
+    public void setWriteTables(List<String> writeTables) {
+        this.writeTables = writeTables;
+    }
+
     public boolean isSingle() {
         return isSingle;
     }
@@ -183,6 +223,11 @@ public class SqlParseResult {
      */
     public static class SqlInfo {
 
+        /**
+         * 单帧最大载荷。
+         */
+        private static final int MAX_FRAME_PAYLOAD = 0xFFFFFF;
+
         /**
          * 指定的mysqlGroup.
          */
@@ -199,23 +244,45 @@ public class SqlParseResult {
         private String table;
 
         /**
-         * sql信息。
+         * 重写后的sql片段，UTF-8编码，多个分片的sql共享相同的片段。
+         */
+        private List<byte[]> fragments;
+
+        /**
+         * 片段总字节数。
          */
-        private StringBuilder newSqlBuf;
+        private int length;
 
         /**
          * 新的sql。
          */
         private String newSql;
 
-        public SqlInfo(int sqlSize) {
-            newSqlBuf = new StringBuilder(sqlSize);
+        /**
+         * @param fragmentCount 预计的片段数
+         */
+        public SqlInfo(int fragmentCount) {
+            fragments = new ArrayList<>(fragmentCount);
         }
 
         public SqlInfo(String sql) {
             newSql = sql;
         }
 
+        /**
+         * 复制已有sql的片段和路由信息，片段本身不复制。
+         *
+         * @param sqlInfo
+         */
+        public SqlInfo(SqlInfo sqlInfo) {
+            this.fragments = new ArrayList<>(sqlInfo.fragments.size() + 8);
+            this.fragments.addAll(sqlInfo.fragments);
+            this.length = sqlInfo.length;
+            this.mysqlGroup = sqlInfo.mysqlGroup;
+            this.database = sqlInfo.database;
+            this.table = sqlInfo.table;
+        }
+
         public String getMysqlGroup() {
             return mysqlGroup;
         }
@@ -242,16 +309,61 @@ public class SqlParseResult {
 
         public String getNewSql() {
             if (newSql == null) {
-                newSql = newSqlBuf.toString();
+                newSql = new String(toBytes(), StandardCharsets.UTF_8);
             }
             return newSql;
         }
 
         public SqlInfo appendSql(String text) {
-            this.newSqlBuf.append(text);
+            return appendSql(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public SqlInfo appendSql(byte[] bytes) {
+            this.fragments.add(bytes);
+            this.length += bytes.length;
             return this;
         }
 
+        /**
+         * 合并全部片段。
+         *
+         * @return
+         */
+        private byte[] toBytes() {
+            if (fragments == null) {
+                return newSql.getBytes(StandardCharsets.UTF_8);
+            }
+            byte[] bytes = new byte[length];
+            int pos = 0;
+            for (byte[] fragment : fragments) {
+                System.arraycopy(fragment, 0, bytes, pos, fragment.length);
+                pos += fragment.length;
+            }
+            return bytes;
+        }
+
+        /**
+         * 直接把COM_QUERY数据包写入发送缓冲，片段依次写入，不再合并成sql。
+         * 超过16MB需要拆帧的，按CommandPacket写入。
+         *
+         * @param buf
+         */
+        public void writePacket(ByteBuf buf) {
+            if (fragments == null || 1 + length >= MAX_FRAME_PAYLOAD) {
+                genPacket().write(buf);
+                return;
+            }
+            if (logger.isTraceEnabled()) {
+                logger.trace("MySQL执行: {}", getNewSql());
+            }
+            ByteBufUtils.writeUB3(buf, 1 + length);
+            buf.writeByte(0);
+            buf.writeByte(MySqlPacket.CMD_QUERY);
+            for (byte[] fragment : fragments) {
+                buf.writeBytes(fragment);
+            }
+        }
+
         /**
          * 生成packet。
          *
@@ -260,7 +372,7 @@ public class SqlParseResult {
         public CommandPacket genPacket() {
             CommandPacket packet = new CommandPacket();
             packet.command = MySqlPacket.CMD_QUERY;
-            packet.arg = getNewSql().getBytes();
+            packet.arg = toBytes();
 
             if (logger.isTraceEnabled()) {
                 logger.trace("MySQL执行: {}", getNewSql());
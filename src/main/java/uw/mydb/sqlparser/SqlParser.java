@@ -1,6 +1,8 @@
 package uw.mydb.sqlparser;
 
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
 import uw.mydb.conf.MydbConfig;
 import uw.mydb.protocol.util.ErrorCode;
 import uw.mydb.proxy.ProxyMysqlSession;
@@ -10,6 +12,7 @@ import uw.mydb.sqlparser.parser.HintTypes;
 import uw.mydb.sqlparser.parser.Lexer;
 import uw.mydb.sqlparser.parser.Token;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static uw.mydb.sqlparser.parser.Token.*;
@@ -23,6 +26,21 @@ import static uw.mydb.sqlparser.parser.Token.*;
  */
 public class SqlParser {
 
+    /**
+     * 每个线程的SqlParser对象池，连同lexer等解析用的临时对象一起复用。
+     */
+    private static final Recycler<SqlParser> RECYCLER = new Recycler<SqlParser>() {
+        @Override
+        protected SqlParser newObject(Handle<SqlParser> handle) {
+            return new SqlParser(handle);
+        }
+    };
+
+    /**
+     * 对象池句柄，直接构造的实例为null。
+     */
+    private final Recycler.Handle<SqlParser> handle;
+
     private ProxyMysqlSession proxySession;
     /**
      * sql所在的schema。
@@ -34,20 +52,25 @@ public class SqlParser {
      */
     private String sql;
 
+    /**
+     * COM_QUERY数据包，只在parse期间使用，用于按字节扫描解析模板。
+     */
+    private ByteBuf buf;
+
     /**
      * lexer解析器。
      */
     private Lexer lexer;
 
     /**
-     * 被分割的子sql。
+     * 被分割的子sql，UTF-8编码，生成各分片sql时共享。
      */
-    private List<String> subSqls = new ArrayList<>();
+    private final List<byte[]> subSqls = new ArrayList<>();
 
     /**
      * 整个SQL关联的routeKeyData
      */
-    private RouteAlgorithm.RouteKeyData routeKeyData = new RouteAlgorithm.RouteKeyData();
+    private final RouteAlgorithm.RouteKeyData routeKeyData = new RouteAlgorithm.RouteKeyData();
 
     /**
      * 主路由信息。
@@ -64,6 +87,16 @@ public class SqlParser {
      */
     private List<String> tableList;
 
+    /**
+     * 复用的路由信息Map，有子表路由时赋给routeDataMap。
+     */
+    private final Map<String, RouteData> routeDataMapBuffer = new HashMap<>();
+
+    /**
+     * 复用的table列表，有多表时赋给tableList。
+     */
+    private final List<String> tableListBuffer = new ArrayList<>();
+
     /**
      * sql解析结果。
      */
@@ -94,6 +127,36 @@ public class SqlParser {
      */
     private String hintRouteInfo = null;
 
+    /**
+     * hint指定的结果缓存秒数，-1为未指定。
+     */
+    private int hintCacheTtl = -1;
+
+    /**
+     * 是否是SELECT语句。
+     */
+    private boolean isSelect;
+
+    /**
+     * 是否是修改表数据或结构的语句。
+     */
+    private boolean isWrite;
+
+    /**
+     * 预编译语句的绑定参数值，按?出现的顺序排列。
+     */
+    private String[] params = null;
+
+    /**
+     * 解析模板记录器，完整解析时记录模板，不使用模板时为null。
+     */
+    private SqlTemplate.Builder templateBuilder = null;
+
+    /**
+     * mydb hint内容。
+     */
+    private String hint = null;
+
     /**
      * 默认构造器。
      *
@@ -101,14 +164,22 @@ public class SqlParser {
      * @param sql
      */
     public SqlParser(ProxyMysqlSession proxySession, String sql) {
-        this.proxySession = proxySession;
-        this.schema = proxySession.getSchema();
-        this.sql = sql;
-        this.lexer = new Lexer(sql, false, true);
-        this.parseResult = new SqlParseResult(schema.getName(), sql);
+        this.handle = null;
+        init(proxySession, sql);
     }
 
 
+    /**
+     * 从COM_QUERY数据包构造，sql按UTF-8解码一次，模板命中时不再使用Lexer。
+     *
+     * @param proxySession
+     * @param buf          完整的COM_QUERY数据包，包含包头
+     */
+    public SqlParser(ProxyMysqlSession proxySession, ByteBuf buf) {
+        this(proxySession, buf.toString(buf.readerIndex() + 5, buf.readableBytes() - 5, StandardCharsets.UTF_8));
+        this.buf = buf;
+    }
+
     /**
      * 默认构造器。
      *
@@ -116,21 +187,233 @@ public class SqlParser {
      * @param sql
      */
     public SqlParser(MydbConfig.SchemaConfig schema, String sql) {
+        this.handle = null;
         this.schema = schema;
         this.sql = sql;
-        this.lexer = new Lexer(sql, false, true);
         this.parseResult = new SqlParseResult(schema.getName(), sql);
     }
 
+    private SqlParser(Recycler.Handle<SqlParser> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * 从当前线程的对象池获得SqlParser，parse之后调用recycle归还。
+     *
+     * @param proxySession
+     * @param sql
+     * @return
+     */
+    public static SqlParser newInstance(ProxyMysqlSession proxySession, String sql) {
+        SqlParser parser = RECYCLER.get();
+        parser.init(proxySession, sql);
+        return parser;
+    }
+
+    /**
+     * 从当前线程的对象池获得SqlParser，sql从COM_QUERY数据包按UTF-8解码。
+     *
+     * @param proxySession
+     * @param buf          完整的COM_QUERY数据包，包含包头
+     * @return
+     */
+    public static SqlParser newInstance(ProxyMysqlSession proxySession, ByteBuf buf) {
+        SqlParser parser = newInstance(proxySession, buf.toString(buf.readerIndex() + 5, buf.readableBytes() - 5, StandardCharsets.UTF_8));
+        parser.buf = buf;
+        return parser;
+    }
+
+    private void init(ProxyMysqlSession proxySession, String sql) {
+        this.proxySession = proxySession;
+        this.schema = proxySession.getSchema();
+        this.sql = sql;
+        this.parseResult = new SqlParseResult(schema.getName(), sql);
+    }
+
+    /**
+     * 清理状态并归还对象池，lexer和各临时集合保留给下次解析使用。
+     * 解析结果已经交给调用方，不会被复用。直接构造的实例不做处理。
+     */
+    public void recycle() {
+        if (handle == null) {
+            return;
+        }
+        proxySession = null;
+        schema = null;
+        sql = null;
+        buf = null;
+        subSqls.clear();
+        routeKeyData.clear();
+        mainRouteData = null;
+        routeDataMap = null;
+        routeDataMapBuffer.clear();
+        tableList = null;
+        tableListBuffer.clear();
+        parseResult = null;
+        lexerPos = 0;
+        isDML = false;
+        sqlInfo = null;
+        sqlInfos = null;
+        hintRouteInfo = null;
+        hintCacheTtl = -1;
+        isSelect = false;
+        isWrite = false;
+        params = null;
+        templateBuilder = null;
+        hint = null;
+        handle.recycle(this);
+    }
+
+    /**
+     * 设置预编译语句的绑定参数值，用于按参数计算路由。
+     *
+     * @param params
+     */
+    public void setParams(String[] params) {
+        this.params = params;
+    }
+
+    /**
+     * 获得当前token的参数值，?占位符取对应的绑定参数值。
+     *
+     * @param lexer
+     * @return
+     */
+    private String paramValueString(Lexer lexer) {
+        if (params != null && lexer.token() == Token.QUES) {
+            int index = lexer.quesCount() - 1;
+            if (index >= 0 && index < params.length) {
+                return params[index];
+            }
+        }
+        return lexer.paramValueString();
+    }
+
     /**
      * 解析sql。
+     * 普通查询先按去常量的结构查找解析模板，命中时直接填充，未命中时完整解析并记录模板。
      */
     public SqlParseResult parse() {
+        SqlTemplate.Scan scan = null;
+        if (buf != null && params == null && SqlTemplate.isEnabled()) {
+            scan = SqlTemplate.scan(schema.getName(), buf, buf.readerIndex() + 5, buf.writerIndex());
+        }
+        SqlTemplate template = scan == null ? null : SqlTemplate.get(schema.getName(), scan);
+        if (template == null || !applyTemplate(template, scan)) {
+            if (scan != null) {
+                templateBuilder = new SqlTemplate.Builder(scan, sql);
+            }
+            parseTokens();
+            if (templateBuilder != null && isDML && !parseResult.hasError()) {
+                SqlTemplate.put(schema.getName(), scan, templateBuilder, hint, isSelect, isWrite);
+            }
+            templateBuilder = null;
+        }
+        buf = null;
+        //设置table
+        if (this.mainRouteData != null && this.mainRouteData.tableConfig != null) {
+            this.parseResult.setTable(this.mainRouteData.tableConfig.getName());
+        }
+
+        if (!parseResult.hasError()) {
+            //如果master未设置，处于保险，设置为true
+            this.parseResult.setMasterIfNull(true);
+            //计算路由信息。
+            calculateRouteInfo();
+        }
+
+        if (!parseResult.hasError()) {
+            //生成sql。
+            generateSqlInfo();
+        }
+
+        if (!parseResult.hasError()) {
+            setCacheInfo();
+        }
+
+        return parseResult;
+    }
+
+    /**
+     * 按模板填充解析状态，等同于完整解析后的结果。
+     *
+     * @param template
+     * @param scan
+     * @return 路由值需要完整解析才能取得时返回false，此时解析状态未被修改
+     */
+    private boolean applyTemplate(SqlTemplate template, SqlTemplate.Scan scan) {
+        List<SqlTemplate.RouteOp> routeOps = template.getRouteOps();
+        String[][] values = new String[routeOps.size()][];
+        for (int i = 0; i < values.length; i++) {
+            SqlTemplate.RouteOp routeOp = routeOps.get(i);
+            if (routeOp.op == SqlTemplate.OP_TYPE) {
+                continue;
+            }
+            values[i] = new String[routeOp.values.length];
+            for (int j = 0; j < values[i].length; j++) {
+                values[i][j] = scan.value(routeOp.values[j]);
+                if (values[i][j] == null) {
+                    return false;
+                }
+            }
+        }
+        if (template.getHint() != null) {
+            parseHint(template.getHint());
+        }
+        this.isDML = true;
+        this.isSelect = template.isSelect();
+        this.isWrite = template.isWrite();
+        if (isSelect) {
+            this.parseResult.setMasterIfNull(false);
+        }
+        for (String[] table : template.getTables()) {
+            putRouteData(table[0], table[1], table[2]);
+        }
+        int[] positions = template.getSubSqlPositions();
+        for (int i = 0; i < positions.length; i += 4) {
+            subSqls.add(scan.bytes(scan.toSqlPos(positions[i], positions[i + 1]), scan.toSqlPos(positions[i + 2], positions[i + 3])));
+        }
+        for (int i = 0; i < values.length; i++) {
+            SqlTemplate.RouteOp routeOp = routeOps.get(i);
+            RouteAlgorithm.RouteKeyValue routeValue = routeKeyData.getValue(routeOp.key);
+            switch (routeOp.op) {
+                case SqlTemplate.OP_VALUE:
+                    routeValue.putValue(values[i][0]);
+                    break;
+                case SqlTemplate.OP_RANGE_START:
+                    routeValue.putRangeStart(values[i][0]);
+                    break;
+                case SqlTemplate.OP_RANGE_END:
+                    routeValue.putRangeEnd(values[i][0]);
+                    break;
+                case SqlTemplate.OP_VALUES:
+                    routeValue.putValues(new ArrayList<>(Arrays.asList(values[i])));
+                    break;
+                case SqlTemplate.OP_TYPE:
+                    routeValue.setType(routeOp.values[0]);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 逐个token完整解析。
+     */
+    private void parseTokens() {
+        if (lexer == null) {
+            lexer = new Lexer(sql, false, true);
+        } else {
+            lexer.reset(sql);
+        }
         if (!lexer.isEOF()) {
             lexer.nextToken();
             //处理注解
             if (lexer.token() == HINT) {
-                parseHint(lexer);
+                hint = lexer.stringVal();
+                parseHint(hint);
                 lexer.nextToken();
             }
             switch (lexer.token()) {
@@ -139,35 +422,44 @@ public class SqlParser {
                 case MULTI_LINE_COMMENT:
                 case SELECT:
                     this.isDML = true;
+                    this.isSelect = true;
                     this.parseResult.setMasterIfNull(false);
                     parseSelect(lexer);
                     break;
                 case INSERT:
                     this.isDML = true;
+                    this.isWrite = true;
                     parseInsert(lexer);
                     break;
                 case UPDATE:
                     this.isDML = true;
+                    this.isWrite = true;
                     parseUpdate(lexer);
                     break;
                 case DELETE:
                     this.isDML = true;
+                    this.isWrite = true;
                     parseDelete(lexer);
                     break;
                 case REPLACE:
                     this.isDML = true;
+                    this.isWrite = true;
                     parseReplace(lexer);
                     break;
                 case CREATE:
+                    this.isWrite = true;
                     parseCreate(lexer);
                     break;
                 case ALTER:
+                    this.isWrite = true;
                     parseAlter(lexer);
                     break;
                 case DROP:
+                    this.isWrite = true;
                     parseDrop(lexer);
                     break;
                 case TRUNCATE:
+                    this.isWrite = true;
                     parseTruncate(lexer);
                     break;
                 case EXPLAIN:
@@ -187,24 +479,61 @@ public class SqlParser {
                     break;
             }
         }
-        //设置table
-        if (this.mainRouteData != null && this.mainRouteData.tableConfig != null) {
-            this.parseResult.setTable(this.mainRouteData.tableConfig.getName());
-        }
+    }
 
-        if (!parseResult.hasError()) {
-            //如果master未设置，处于保险，设置为true
-            this.parseResult.setMasterIfNull(true);
-            //计算路由信息。
-            calculateRouteInfo();
+    /**
+     * 设置结果缓存信息。
+     * 写入语句记录涉及的表，用于缓存失效；只有配置过的单表单节点读才可以缓存，
+     * 未配置的表可能直通执行，写入时无法感知，子查询中的表也没有解析，都不缓存。
+     */
+    private void setCacheInfo() {
+        if (mainRouteData == null) {
+            return;
         }
-
-        if (!parseResult.hasError()) {
-            //生成sql。
-            generateSqlInfo();
+        if (isWrite) {
+            if (tableList == null) {
+                parseResult.setWriteTables(Collections.singletonList(mainRouteData.tableConfig.getName()));
+                return;
+            }
+            List<String> tables = new ArrayList<>(tableList.size() + 1);
+            tables.add(mainRouteData.tableConfig.getName());
+            tables.addAll(tableList);
+            parseResult.setWriteTables(tables);
+        } else if (isSelect && tableList == null && parseResult.isSingle() && !parseResult.isMaster()) {
+            String table = mainRouteData.tableConfig.getName();
+            if (!schema.getTables().containsKey(table) || hasSubSelect()) {
+                return;
+            }
+            int ttl = hintCacheTtl > -1 ? hintCacheTtl : mainRouteData.tableConfig.getCacheTtl();
+            parseResult.setCacheTtl(ttl);
         }
+    }
 
-        return parseResult;
+    /**
+     * sql中第一个select之后是否还有select。
+     * 字符串中出现select也按有处理，只会少缓存。
+     *
+     * @return
+     */
+    private boolean hasSubSelect() {
+        int pos = indexOfSelect(sql, 0);
+        return pos > -1 && indexOfSelect(sql, pos + 6) > -1;
+    }
+
+    /**
+     * 忽略大小写查找select，不生成小写副本。
+     *
+     * @param s
+     * @param from
+     * @return
+     */
+    private static int indexOfSelect(String s, int from) {
+        for (int i = from, max = s.length() - 6; i <= max; i++) {
+            if (s.regionMatches(true, i, "select", 0, 6)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -230,11 +559,9 @@ public class SqlParser {
     /**
      * 解析mydb专有hint。
      *
-     * @param lexer
+     * @param hint
      */
-    private void parseHint(Lexer lexer) {
-        lexer.check(Token.HINT);
-        String hint = lexer.stringVal();
+    private void parseHint(String hint) {
         if (hint.startsWith(HintTypes.MYDB_HINT)) {
             int mark = HintTypes.MYDB_HINT.length();
             int pos = mark;
@@ -247,7 +574,7 @@ public class SqlParser {
                 //属性值
                 String name = hint.substring(mark, pos).trim();
                 //寻找数值结尾。
-                mark = hint.indexOf(';');
+                mark = hint.indexOf(';', pos);
                 if (mark == -1) {
                     //说明已经到结尾了
                     mark = hint.length();
@@ -262,8 +589,15 @@ public class SqlParser {
                     }
                 } else if (name.equalsIgnoreCase(HintTypes.ROUTE)) {
                     hintRouteInfo = value;
+                } else if (name.equalsIgnoreCase(HintTypes.CACHE)) {
+                    try {
+                        hintCacheTtl = Math.max(0, Integer.parseInt(value));
+                    } catch (NumberFormatException e) {
+                        hintCacheTtl = -1;
+                    }
                 }
-                //进入下一批次处理。
+                //进入下一批次处理，跳过分号。
+                mark++;
                 pos = mark;
             }
         }
@@ -408,7 +742,7 @@ public class SqlParser {
         if (!lexer.isEOF()) {
             lexer.nextToken();
             if (lexer.token() == HINT) {
-                parseHint(lexer);
+                parseHint(lexer.stringVal());
                 lexer.nextToken();
             }
             switch (lexer.token()) {
@@ -540,6 +874,9 @@ public class SqlParser {
      * 放置tableConfig。
      */
     private void putRouteData(String schemaName, String tableName, String aliasName) {
+        if (templateBuilder != null) {
+            templateBuilder.addTable(schemaName, tableName, aliasName);
+        }
         RouteData routeData = getRouteData(tableName);
         //已经有了，直接返回。
         if (routeData == null) {
@@ -553,18 +890,18 @@ public class SqlParser {
         } else {
             //多表的，放集合内
             if (tableList == null) {
-                tableList = new ArrayList<>();
+                tableList = tableListBuffer;
             }
             tableList.add(tableName);
             if (routeDataMap == null) {
-                routeDataMap = new HashMap<>();
+                routeDataMap = routeDataMapBuffer;
             }
             routeDataMap.put(tableName, routeData);
         }
         //添加别名
         if (aliasName != null) {
             if (routeDataMap == null) {
-                routeDataMap = new HashMap<>();
+                routeDataMap = routeDataMapBuffer;
             }
             routeDataMap.put(aliasName, routeData);
         }
@@ -620,12 +957,16 @@ public class SqlParser {
             int pos = 0;
             while (!lexer.isEOF()) {
                 lexer.nextToken();
-                if (lexer.token() == Token.IDENTIFIER) {
+                //先按hash预筛，可能是路由key时才取列名。
+                if (lexer.token() == Token.IDENTIFIER && RouteManager.isRouteKey(lexer.hashLower())) {
                     String colName = lexer.stringVal();
                     RouteAlgorithm.RouteKeyValue routeValue = routeKeyData.getValue(colName);
                     //设置pos位置
                     if (routeValue != null) {
                         routeValue.setType(pos + 100);
+                        if (templateBuilder != null) {
+                            templateBuilder.addRouteType(routeKeyData.getKey(routeValue), pos + 100);
+                        }
                     }
                 } else if (lexer.token() == Token.COMMA) {
                     pos++;
@@ -650,7 +991,7 @@ public class SqlParser {
                     if (routeKeyData.isSingle()) {
                         RouteAlgorithm.RouteKeyValue rkv = routeKeyData.getValue();
                         if (rkv.getType() == pos + 100) {
-                            rkv.putValue(lexer.paramValueString());
+                            putRouteValue(rkv, SqlTemplate.OP_VALUE, lexer);
                             //匹配完了，直接退
                             break;
                         }
@@ -658,7 +999,7 @@ public class SqlParser {
                         Collection<RouteAlgorithm.RouteKeyValue> rkvs = routeKeyData.getValues();
                         for (RouteAlgorithm.RouteKeyValue rkv : rkvs) {
                             if (rkv.getType() == pos + 100) {
-                                rkv.putValue(lexer.paramValueString());
+                                putRouteValue(rkv, SqlTemplate.OP_VALUE, lexer);
                                 break;
                             }
                         }
@@ -746,17 +1087,17 @@ public class SqlParser {
             lexer.nextToken();
             switch (lexer.token()) {
                 case IDENTIFIER:
-                    //属性值的情况，检查匹配。
-                    String colName = lexer.stringVal();
+                    //属性值的情况，检查匹配。先按hash预筛，可能是路由key时才取列名。
+                    String colName = routeKeyName(lexer);
                     lexer.nextToken();
                     if (lexer.token() == Token.DOT) {
                         lexer.nextToken();
                     }
                     if (lexer.token() == Token.IDENTIFIER) {
-                        colName = lexer.stringVal();
+                        colName = routeKeyName(lexer);
                         lexer.nextToken();
                     }
-                    RouteAlgorithm.RouteKeyValue routeValue = routeKeyData.getValue(colName);
+                    RouteAlgorithm.RouteKeyValue routeValue = colName == null ? null : routeKeyData.getValue(colName);
                     if (routeValue != null) {
                         //判断操作符，取参数。
                         switch (lexer.token()) {
@@ -765,42 +1106,42 @@ public class SqlParser {
                                 if (lexer.token() == Token.IDENTIFIER) {
                                     break;
                                 }
-                                routeValue.putValue(lexer.paramValueString());
+                                putRouteValue(routeValue, SqlTemplate.OP_VALUE, lexer);
                                 break;
                             case GT:
                                 lexer.nextToken();
                                 if (lexer.token() == Token.IDENTIFIER) {
                                     break;
                                 }
-                                routeValue.putRangeStart(lexer.paramValueString());
+                                putRouteValue(routeValue, SqlTemplate.OP_RANGE_START, lexer);
                                 break;
                             case GTEQ:
                                 lexer.nextToken();
                                 if (lexer.token() == Token.IDENTIFIER) {
                                     break;
                                 }
-                                routeValue.putRangeStart(lexer.paramValueString());
+                                putRouteValue(routeValue, SqlTemplate.OP_RANGE_START, lexer);
                                 break;
                             case LT:
                                 lexer.nextToken();
                                 if (lexer.token() == Token.IDENTIFIER) {
                                     break;
                                 }
-                                routeValue.putRangeEnd(lexer.paramValueString());
+                                putRouteValue(routeValue, SqlTemplate.OP_RANGE_END, lexer);
                                 break;
                             case LTEQ:
                                 lexer.nextToken();
                                 if (lexer.token() == Token.IDENTIFIER) {
                                     break;
                                 }
-                                routeValue.putRangeEnd(lexer.paramValueString());
+                                putRouteValue(routeValue, SqlTemplate.OP_RANGE_END, lexer);
                                 break;
                             case BANGEQ:
                                 lexer.nextToken();
                                 if (lexer.token() == Token.IDENTIFIER) {
                                     break;
                                 }
-                                routeValue.putRangeEnd(lexer.paramValueString());
+                                putRouteValue(routeValue, SqlTemplate.OP_RANGE_END, lexer);
                                 break;
                             case IN:
                                 lexer.nextToken();
@@ -812,17 +1153,21 @@ public class SqlParser {
                                     break;
                                 }
                                 ArrayList<String> vs = new ArrayList<>();
+                                int[] ends = new int[0];
                                 while (!lexer.isEOF()) {
                                     if (lexer.token() == Token.RPAREN) {
                                         break;
-                                    } else if (lexer.token() == Token.COMMA) {
-                                        break;
-                                    } else {
-                                        vs.add(lexer.paramValueString());
+                                    } else if (lexer.token() != Token.COMMA) {
+                                        vs.add(paramValueString(lexer));
+                                        ends = Arrays.copyOf(ends, ends.length + 1);
+                                        ends[ends.length - 1] = lexer.currentPos();
                                     }
                                     lexer.nextToken();
                                 }
                                 routeValue.putValues(vs);
+                                if (templateBuilder != null) {
+                                    templateBuilder.addRouteOp(routeKeyData.getKey(routeValue), SqlTemplate.OP_VALUES, ends, vs);
+                                }
                                 break;
                             default:
                                 break;
@@ -928,14 +1273,101 @@ public class SqlParser {
         if (lexerPos >= sql.length() - 1) {
             return;
         }
-        if (lexer.isEOF() && lexerPos > 0) {
-            subSqls.add(sql.substring(lexerPos));
-        } else {
-            subSqls.add(sql.substring(lexerPos, lexer.currentMark()));
+        int end = lexer.isEOF() && lexerPos > 0 ? sql.length() : lexer.currentMark();
+        subSqls.add(utf8Bytes(sql, lexerPos, end));
+        if (templateBuilder != null) {
+            templateBuilder.addSubSql(lexerPos, end);
         }
         lexerPos = lexer.currentPos();
     }
 
+    /**
+     * 把s的[start, end)按UTF-8编码成准确长度的数组，不经过substring和getBytes的中间数组。
+     * 不成对的代理字符和String.getBytes一样编码为'?'。
+     *
+     * @param s
+     * @param start
+     * @param end
+     * @return
+     */
+    static byte[] utf8Bytes(String s, int start, int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        byte[] bytes = new byte[length];
+        int pos = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[pos++] = (byte) (0xC0 | (c >> 6));
+                bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                bytes[pos++] = (byte) (0xF0 | (cp >> 18));
+                bytes[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                bytes[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                bytes[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                bytes[pos++] = '?';
+            } else {
+                bytes[pos++] = (byte) (0xE0 | (c >> 12));
+                bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 当前标识符按hash可能是路由key时返回列名，否则返回null，不生成字符串。
+     *
+     * @param lexer
+     * @return
+     */
+    private String routeKeyName(Lexer lexer) {
+        return RouteManager.isRouteKey(lexer.hashLower()) ? lexer.stringVal() : null;
+    }
+
+    /**
+     * 设置路由值，同时记录到解析模板。
+     *
+     * @param routeValue
+     * @param op
+     * @param lexer
+     */
+    private void putRouteValue(RouteAlgorithm.RouteKeyValue routeValue, int op, Lexer lexer) {
+        String value = paramValueString(lexer);
+        switch (op) {
+            case SqlTemplate.OP_RANGE_START:
+                routeValue.putRangeStart(value);
+                break;
+            case SqlTemplate.OP_RANGE_END:
+                routeValue.putRangeEnd(value);
+                break;
+            default:
+                routeValue.putValue(value);
+                break;
+        }
+        if (templateBuilder != null) {
+            templateBuilder.addRouteOp(routeKeyData.getKey(routeValue), op, new int[]{lexer.currentPos()}, Collections.singletonList(value));
+        }
+    }
+
 
     /**
      * 设置LexerPos
@@ -1082,7 +1514,7 @@ public class SqlParser {
         }
         //每个mainRouteInfoData对应一个mysqlGroup
         if (checkSingleRoute()) {
-            sqlInfo = new SqlParseResult.SqlInfo(sql.length() + 64);
+            sqlInfo = new SqlParseResult.SqlInfo(subSqls.size() * 2);
             //开始循环加表名
             for (int i = 0; i < subSqls.size(); i++) {
                 sqlInfo.appendSql(subSqls.get(i));
@@ -1090,7 +1522,7 @@ public class SqlParser {
                     //把主表路由加上。
                     RouteAlgorithm.RouteInfo ri = mainRouteData.routeInfoData.getRouteInfo();
                     if (ri != null) {
-                        sqlInfo.appendSql(ri.getDatabase()).appendSql(".").appendSql(ri.getTable());
+                        sqlInfo.appendSql(ri.getNameBytes());
                         sqlInfo.setMysqlGroup(ri.getMysqlGroup());
                         sqlInfo.setDatabase(ri.getDatabase());
                         sqlInfo.setTable(ri.getTable());
@@ -1101,7 +1533,7 @@ public class SqlParser {
                         RouteAlgorithm.RouteInfoData rid = routeDataMap.get(tableList.get(i - 1)).routeInfoData;
                         if (rid != null) {
                             RouteAlgorithm.RouteInfo ri = rid.getRouteInfo();
-                            sqlInfo.appendSql(ri.checkValid() ? ri.getDatabase() : sqlInfo.getDatabase()).appendSql(".").appendSql(ri.getTable());
+                            appendTableName(sqlInfo, ri);
                         }
                     }
                 }
@@ -1109,7 +1541,7 @@ public class SqlParser {
             this.parseResult.setSqlInfo(sqlInfo);
         } else {
             sqlInfos = new ArrayList<>();
-            SqlParseResult.SqlInfo sb = new SqlParseResult.SqlInfo(sql.length() + 32);
+            SqlParseResult.SqlInfo sb = new SqlParseResult.SqlInfo(subSqls.size() * 2);
             sqlInfos.add(sb);
             //开始循环加表名
             for (int i = 0; i < subSqls.size(); i++) {
@@ -1160,7 +1592,7 @@ public class SqlParser {
             //匹配单个结果。
             RouteAlgorithm.RouteInfo ri = rid.getRouteInfo();
             for (SqlParseResult.SqlInfo si : sqlInfos) {
-                si.appendSql(ri.checkValid() ? ri.getDatabase() : si.getDatabase()).appendSql(".").appendSql(ri.getTable());
+                appendTableName(si, ri);
                 if (isMain) {
                     si.setMysqlGroup(ri.getMysqlGroup());
                     si.setDatabase(ri.getDatabase());
@@ -1172,12 +1604,9 @@ public class SqlParser {
             for (RouteAlgorithm.RouteInfo ri : rid.getRouteInfos()) {
                 //此处应该复制多个sql了。。。
                 for (SqlParseResult.SqlInfo si : sqlInfos) {
-                    SqlParseResult.SqlInfo sqlInfo1 = new SqlParseResult.SqlInfo(sql.length() + 32);
-                    sqlInfo1.appendSql(si.getNewSql());
-                    sqlInfo1.setMysqlGroup(si.getMysqlGroup());
-                    sqlInfo1.setDatabase(si.getDatabase());
-                    sqlInfo1.setTable(si.getTable());
-                    sqlInfo1.appendSql(ri.checkValid() ? ri.getDatabase() : sqlInfo1.getDatabase()).appendSql(".").appendSql(ri.getTable());
+                    //只复制片段列表，片段内容共享。
+                    SqlParseResult.SqlInfo sqlInfo1 = new SqlParseResult.SqlInfo(si);
+                    appendTableName(sqlInfo1, ri);
                     if (isMain) {
                         sqlInfo1.setMysqlGroup(ri.getMysqlGroup());
                         sqlInfo1.setDatabase(ri.getDatabase());
@@ -1190,6 +1619,20 @@ public class SqlParser {
         }
     }
 
+    /**
+     * 附加库表名，路由信息不完整时使用sql当前的库名。
+     *
+     * @param si
+     * @param ri
+     */
+    private void appendTableName(SqlParseResult.SqlInfo si, RouteAlgorithm.RouteInfo ri) {
+        if (ri.checkValid()) {
+            si.appendSql(ri.getNameBytes());
+        } else {
+            si.appendSql(si.getDatabase() + "." + ri.getTable());
+        }
+    }
+
     /**
      * 表路由信息。
      */
@@ -0,0 +1,206 @@
+package uw.mydb.sqlparser;
+
+import io.netty.buffer.ByteBuf;
+import uw.mydb.conf.MydbConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * sql直通检查。
+ * 对于不涉及分库分表的sql，仅通过前缀和表名检查，直接把原始数据包转发到baseNode，不做sql解析。
+ *
+ * @author axeon
+ */
+public class SqlPassThrough {
+
+    /**
+     * 不可直通，需要解析。
+     */
+    public static final int PASS_NONE = 0;
+
+    /**
+     * 可直通的读操作。
+     */
+    public static final int PASS_READ = 1;
+
+    /**
+     * 可直通的写操作。
+     */
+    public static final int PASS_WRITE = 2;
+
+    private static final byte[] SELECT = "select".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] INSERT = "insert".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] UPDATE = "update".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] DELETE = "delete".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] REPLACE = "replace".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * schema表名缓存，表名均为小写。
+     */
+    private static final Map<String, byte[][]> schemaTableMap = new ConcurrentHashMap<>();
+
+    /**
+     * 检查sql数据包是否可以直通。
+     *
+     * @param schema
+     * @param buf    完整的COM_QUERY数据包，包含包头
+     * @return PASS_NONE/PASS_READ/PASS_WRITE
+     */
+    public static int check(MydbConfig.SchemaConfig schema, ByteBuf buf) {
+        int end = buf.writerIndex();
+        int pos = buf.readerIndex() + 5;
+        while (pos < end && isWhitespace(buf.getByte(pos))) {
+            pos++;
+        }
+        //hint和注释都交给解析器处理。
+        int passType;
+        if (startsWithIgnoreCase(buf, pos, end, SELECT)) {
+            passType = PASS_READ;
+        } else if (startsWithIgnoreCase(buf, pos, end, INSERT) || startsWithIgnoreCase(buf, pos, end, UPDATE)
+                || startsWithIgnoreCase(buf, pos, end, DELETE) || startsWithIgnoreCase(buf, pos, end, REPLACE)) {
+            passType = PASS_WRITE;
+        } else {
+            return PASS_NONE;
+        }
+        //带库名前缀的表需要解析器重写库名，多语句也交给解析器。
+        if (hasQualifiedName(buf, pos, end)) {
+            return PASS_NONE;
+        }
+        //出现任何分区表名，都需要解析。只比较完整的标识符，t_order_log不算t_order。
+        byte[][] tables = schemaTableMap.computeIfAbsent(schema.getName(), x -> buildTableNames(schema));
+        for (byte[] table : tables) {
+            if (containsWordIgnoreCase(buf, pos, end, table)) {
+                return PASS_NONE;
+            }
+        }
+        return passType;
+    }
+
+    /**
+     * 生成schema的表名列表。
+     *
+     * @param schema
+     * @return
+     */
+    private static byte[][] buildTableNames(MydbConfig.SchemaConfig schema) {
+        byte[][] tables = new byte[schema.getTables().size()][];
+        int i = 0;
+        for (String name : schema.getTables().keySet()) {
+            tables[i++] = name.toLowerCase().getBytes(StandardCharsets.UTF_8);
+        }
+        return tables;
+    }
+
+    /**
+     * 检查是否存在xxx.yyy形式的限定名或者多语句分隔符，纯数字的小数不算。
+     *
+     * @param buf
+     * @param start
+     * @param end
+     * @return
+     */
+    private static boolean hasQualifiedName(ByteBuf buf, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            byte c = buf.getByte(i);
+            if (c == ';') {
+                return true;
+            }
+            if (c != '.') {
+                continue;
+            }
+            boolean isNumber = true;
+            for (int j = i - 1; j >= start; j--) {
+                byte b = buf.getByte(j);
+                if (b >= '0' && b <= '9') {
+                    continue;
+                }
+                if (isIdentifierChar(b)) {
+                    isNumber = false;
+                    continue;
+                }
+                break;
+            }
+            if (!isNumber) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 忽略大小写检查关键字，关键字后必须是分隔符。
+     *
+     * @param buf
+     * @param pos
+     * @param end
+     * @param keyword 小写关键字
+     * @return
+     */
+    private static boolean startsWithIgnoreCase(ByteBuf buf, int pos, int end, byte[] keyword) {
+        if (end - pos <= keyword.length) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length; i++) {
+            if (toLowerCase(buf.getByte(pos + i)) != keyword[i]) {
+                return false;
+            }
+        }
+        return !isIdentifierChar(buf.getByte(pos + keyword.length));
+    }
+
+    /**
+     * 忽略大小写查找完整的标识符，前后不能紧挨着标识符字符，反引号视为边界。
+     *
+     * @param buf
+     * @param start
+     * @param end
+     * @param target 小写目标
+     * @return
+     */
+    private static boolean containsWordIgnoreCase(ByteBuf buf, int start, int end, byte[] target) {
+        int max = end - target.length;
+        byte first = target[0];
+        for (int i = start; i <= max; i++) {
+            if (toLowerCase(buf.getByte(i)) != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < target.length && toLowerCase(buf.getByte(i + j)) == target[j]) {
+                j++;
+            }
+            if (j < target.length) {
+                continue;
+            }
+            if (i > start && isWordChar(buf.getByte(i - 1))) {
+                continue;
+            }
+            if (i + j < end && isWordChar(buf.getByte(i + j))) {
+                continue;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static byte toLowerCase(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + 32) : b;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static boolean isWordChar(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '$' || b < 0;
+    }
+
+    private static boolean isIdentifierChar(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '$' || b == '`' || b < 0;
+    }
+}
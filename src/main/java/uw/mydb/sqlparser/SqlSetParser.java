@@ -0,0 +1,287 @@
+package uw.mydb.sqlparser;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 会话级SET语句解析。
+ * 只接受值为字面量的SET NAMES、系统变量和用户变量赋值，这些赋值可以在任意后端连接上重放。
+ * GLOBAL、TRANSACTION、PASSWORD、表达式赋值等不能重放的语句返回null，仍按普通sql执行。
+ *
+ * @author axeon
+ */
+public class SqlSetParser {
+
+    /**
+     * 解析的sql。
+     */
+    private final String sql;
+
+    /**
+     * 当前位置。
+     */
+    private int pos;
+
+    private SqlSetParser(String sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * 快速判断COM_QUERY数据包是否为SET语句。
+     *
+     * @param buf 完整的COM_QUERY数据包，包含包头
+     * @return
+     */
+    public static boolean isSet(ByteBuf buf) {
+        int end = buf.writerIndex();
+        int pos = buf.readerIndex() + 5;
+        while (pos < end && Character.isWhitespace(buf.getByte(pos))) {
+            pos++;
+        }
+        return pos + 3 < end && (buf.getByte(pos) | 0x20) == 's' && (buf.getByte(pos + 1) | 0x20) == 'e'
+                && (buf.getByte(pos + 2) | 0x20) == 't' && Character.isWhitespace(buf.getByte(pos + 3));
+    }
+
+    /**
+     * 解析SET语句。
+     *
+     * @param sql
+     * @return 变量名到字面量的赋值，不能重放时返回null
+     */
+    public static Map<String, String> parse(String sql) {
+        return new SqlSetParser(sql).parse();
+    }
+
+    /**
+     * 解析SET语句。
+     *
+     * @return
+     */
+    private Map<String, String> parse() {
+        skipWhitespace();
+        if (!acceptWord("set")) {
+            return null;
+        }
+        Map<String, String> assignments = new LinkedHashMap<>();
+        while (true) {
+            skipWhitespace();
+            String name = readName();
+            if (name == null) {
+                return null;
+            }
+            skipWhitespace();
+            String value;
+            if ("names".equals(name)) {
+                value = readNamesValue();
+            } else {
+                if (sql.startsWith(":=", pos)) {
+                    pos += 2;
+                } else if (pos < sql.length() && sql.charAt(pos) == '=') {
+                    pos++;
+                } else {
+                    return null;
+                }
+                skipWhitespace();
+                value = readLiteral();
+            }
+            if (value == null) {
+                return null;
+            }
+            assignments.put(name, value);
+            skipWhitespace();
+            if (pos < sql.length() && sql.charAt(pos) == ',') {
+                pos++;
+                continue;
+            }
+            if (pos < sql.length() && sql.charAt(pos) == ';') {
+                pos++;
+                skipWhitespace();
+            }
+            return pos == sql.length() ? assignments : null;
+        }
+    }
+
+    /**
+     * 读取变量名，去掉SESSION/LOCAL作用域前缀。
+     *
+     * @return 小写变量名，不支持的类型返回null
+     */
+    private String readName() {
+        if (sql.startsWith("@@", pos)) {
+            pos += 2;
+            String name = readIdentifier(true);
+            if (name == null) {
+                return null;
+            }
+            name = name.toLowerCase(Locale.ROOT);
+            if (name.startsWith("session.")) {
+                name = name.substring(8);
+            } else if (name.startsWith("local.")) {
+                name = name.substring(6);
+            } else if (name.indexOf('.') > -1) {
+                //global.xxx、persist.xxx等
+                return null;
+            }
+            return name.isEmpty() ? null : name;
+        }
+        if (pos < sql.length() && sql.charAt(pos) == '@') {
+            pos++;
+            String name = readIdentifier(false);
+            return name == null ? null : '@' + name.toLowerCase(Locale.ROOT);
+        }
+        String name = readIdentifier(false);
+        if (name == null) {
+            return null;
+        }
+        name = name.toLowerCase(Locale.ROOT);
+        if ("session".equals(name) || "local".equals(name)) {
+            skipWhitespace();
+            return readName();
+        }
+        switch (name) {
+            case "global":
+            case "persist":
+            case "persist_only":
+            case "transaction":
+            case "password":
+            case "character":
+            case "charset":
+            case "role":
+            case "default":
+                return null;
+            default:
+                return name;
+        }
+    }
+
+    /**
+     * 读取SET NAMES的值，形如charset [COLLATE collation]。
+     *
+     * @return
+     */
+    private String readNamesValue() {
+        int start = pos;
+        String charset = readLiteral();
+        if (charset == null) {
+            return null;
+        }
+        int end = pos;
+        skipWhitespace();
+        if (acceptWord("collate")) {
+            skipWhitespace();
+            if (readLiteral() == null) {
+                return null;
+            }
+            end = pos;
+        }
+        return sql.substring(start, end);
+    }
+
+    /**
+     * 读取字面量：引号字符串、数字或单词(ON/OFF/DEFAULT/字符集名等)。
+     * 后面跟着括号或点的单词是函数或限定名，不作为字面量。
+     *
+     * @return
+     */
+    private String readLiteral() {
+        if (pos >= sql.length()) {
+            return null;
+        }
+        int start = pos;
+        char c = sql.charAt(pos);
+        if (c == '\'' || c == '"') {
+            pos++;
+            while (pos < sql.length()) {
+                char x = sql.charAt(pos++);
+                if (x == '\\') {
+                    pos++;
+                } else if (x == c) {
+                    if (pos < sql.length() && sql.charAt(pos) == c) {
+                        pos++;
+                    } else {
+                        return sql.substring(start, pos);
+                    }
+                }
+            }
+            return null;
+        }
+        if (c == '-' || c == '+') {
+            pos++;
+        }
+        while (pos < sql.length()) {
+            char x = sql.charAt(pos);
+            if (Character.isLetterOrDigit(x) || x == '_' || x == '.' || x == '$') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (pos == start || (pos < sql.length() && sql.charAt(pos) == '(')) {
+            return null;
+        }
+        String value = sql.substring(start, pos);
+        //带点的只允许是小数。
+        if (value.indexOf('.') > -1 && !value.matches("[-+]?[0-9]*\\.[0-9]+")) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * 读取标识符，支持反引号。
+     *
+     * @param allowDot 是否允许点号
+     * @return
+     */
+    private String readIdentifier(boolean allowDot) {
+        if (pos < sql.length() && sql.charAt(pos) == '`') {
+            int end = sql.indexOf('`', pos + 1);
+            if (end < 0) {
+                return null;
+            }
+            String name = sql.substring(pos + 1, end);
+            pos = end + 1;
+            return name;
+        }
+        int start = pos;
+        while (pos < sql.length()) {
+            char c = sql.charAt(pos);
+            if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || (allowDot && c == '.')) {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        return pos == start ? null : sql.substring(start, pos);
+    }
+
+    /**
+     * 如果当前位置是指定的单词(忽略大小写)，跳过它。
+     *
+     * @param word
+     * @return
+     */
+    private boolean acceptWord(String word) {
+        int end = pos + word.length();
+        if (end > sql.length() || !sql.regionMatches(true, pos, word, 0, word.length())) {
+            return false;
+        }
+        if (end < sql.length() && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_')) {
+            return false;
+        }
+        pos = end;
+        return true;
+    }
+
+    /**
+     * 跳过空白。
+     */
+    private void skipWhitespace() {
+        while (pos < sql.length() && Character.isWhitespace(sql.charAt(pos))) {
+            pos++;
+        }
+    }
+}
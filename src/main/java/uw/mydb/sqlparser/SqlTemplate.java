@@ -0,0 +1,487 @@
+package uw.mydb.sqlparser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import uw.mydb.conf.MydbConfigManager;
+import uw.mydb.sqlparser.parser.ByteLexer;
+import uw.mydb.sqlparser.parser.FnvHash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * sql解析模板。
+ * 去掉数字和字符串常量后，结构相同的sql解析过程完全一样，只是路由值不同。
+ * 首次完整解析时记录子sql的切分位置、涉及的表和路由值来自第几个常量，之后直接按常量位置填充，不再逐个token解析。
+ * 模板按schema和去常量sql的FNV hash在整个proxy内共享，缓存满时不再缓存新的模板。
+ * 扫描和取值都直接在数据包的字节上进行，命中时不需要Lexer，也不生成标识符字符串。
+ *
+ * @author axeon
+ */
+public class SqlTemplate {
+
+    /**
+     * 路由值操作类型。
+     */
+    static final int OP_VALUE = 1;
+
+    static final int OP_RANGE_START = 2;
+
+    static final int OP_RANGE_END = 3;
+
+    static final int OP_VALUES = 4;
+
+    static final int OP_TYPE = 5;
+
+    /**
+     * 常量在hash中的标记，超出char范围，不会和原文冲突。
+     */
+    private static final int LITERAL_MARK = 0x10000;
+
+    /**
+     * 模板缓存，key为schema和去常量sql的hash。
+     */
+    private static final Map<Long, SqlTemplate> templateMap = new ConcurrentHashMap<>();
+
+    /**
+     * schema名，hash冲突时校验。
+     */
+    private final String schemaName;
+
+    /**
+     * 常量个数。
+     */
+    private final int literalCount;
+
+    /**
+     * 去掉常量后的长度。
+     */
+    private final int skeletonLength;
+
+    /**
+     * mydb hint内容，没有时为null。
+     */
+    private final String hint;
+
+    private final boolean isSelect;
+
+    private final boolean isWrite;
+
+    /**
+     * 子sql的起止位置，每个位置用[常量序号,偏移]表示。
+     */
+    private final int[] subSqlPositions;
+
+    /**
+     * 依次注册的表，每个为[schema,table,alias]。
+     */
+    private final List<String[]> tables;
+
+    /**
+     * 路由值操作。
+     */
+    private final List<RouteOp> routeOps;
+
+    private SqlTemplate(String schemaName, Scan scan, Builder builder, String hint, boolean isSelect, boolean isWrite) {
+        this.schemaName = schemaName;
+        this.literalCount = scan.count;
+        this.skeletonLength = scan.skeletonLength;
+        this.hint = hint;
+        this.isSelect = isSelect;
+        this.isWrite = isWrite;
+        this.subSqlPositions = builder.subSqlPositions;
+        this.tables = builder.tables;
+        this.routeOps = builder.routeOps;
+    }
+
+    /**
+     * 是否开启了模板缓存。
+     *
+     * @return
+     */
+    public static boolean isEnabled() {
+        return MydbConfigManager.getConfig().getServer().getSqlTemplateCacheSize() > 0;
+    }
+
+    /**
+     * 查找模板。
+     *
+     * @param schemaName
+     * @param scan
+     * @return 未命中返回null
+     */
+    public static SqlTemplate get(String schemaName, Scan scan) {
+        SqlTemplate template = templateMap.get(scan.hash);
+        if (template == null || template.literalCount != scan.count || template.skeletonLength != scan.skeletonLength
+                || !template.schemaName.equals(schemaName)) {
+            return null;
+        }
+        return template;
+    }
+
+    /**
+     * 保存模板，记录过程中出现无法模板化的情况时丢弃。
+     *
+     * @param schemaName
+     * @param scan
+     * @param builder
+     * @param hint
+     * @param isSelect
+     * @param isWrite
+     */
+    public static void put(String schemaName, Scan scan, Builder builder, String hint, boolean isSelect, boolean isWrite) {
+        if (builder.failed) {
+            return;
+        }
+        if (templateMap.size() < MydbConfigManager.getConfig().getServer().getSqlTemplateCacheSize()) {
+            templateMap.put(scan.hash, new SqlTemplate(schemaName, scan, builder, hint, isSelect, isWrite));
+        }
+    }
+
+    /**
+     * 获得缓存的模板数量。
+     *
+     * @return
+     */
+    public static int getCacheSize() {
+        return templateMap.size();
+    }
+
+    /**
+     * 扫描sql数据包中的常量，同时计算去掉常量后的hash。
+     * 直接扫描UTF-8字节，不需要先解码成字符串。字符串内有转义时仍然作为常量，取值时再交给完整解析处理。
+     *
+     * @param schemaName
+     * @param buf
+     * @param start      sql开始位置
+     * @param end        sql结束位置
+     * @return 有未闭合的字符串或注释时返回null
+     */
+    public static Scan scan(String schemaName, ByteBuf buf, int start, int end) {
+        long hash = FnvHash.fnv1a_64(schemaName);
+        hash ^= ':';
+        hash *= FnvHash.PRIME;
+        Scan scan = new Scan(buf, start, end);
+        ByteLexer lexer = new ByteLexer(buf, start, end);
+        int last = start;
+        for (int token = lexer.nextToken(); token != ByteLexer.EOF; token = lexer.nextToken()) {
+            if (token == ByteLexer.ERROR) {
+                return null;
+            }
+            if (!lexer.isLiteral()) {
+                continue;
+            }
+            //常量之前的原文全部计入hash，空白也要一致，子sql位置才能按常量换算。
+            for (int i = last; i < lexer.start(); i++) {
+                hash ^= buf.getByte(i);
+                hash *= FnvHash.PRIME;
+            }
+            //常量只计入类型，字符串区分引号，和原文字节区分开。
+            hash ^= token == ByteLexer.STRING ? LITERAL_MARK | buf.getByte(lexer.start()) : LITERAL_MARK;
+            hash *= FnvHash.PRIME;
+            scan.add(lexer.start() - start, lexer.end() - start, lexer.hasEscape());
+            last = lexer.end();
+        }
+        for (int i = last; i < end; i++) {
+            hash ^= buf.getByte(i);
+            hash *= FnvHash.PRIME;
+        }
+        scan.hash = hash;
+        scan.skeletonLength = end - start - scan.literalLength;
+        return scan;
+    }
+
+    public String getHint() {
+        return hint;
+    }
+
+    public boolean isSelect() {
+        return isSelect;
+    }
+
+    public boolean isWrite() {
+        return isWrite;
+    }
+
+    int[] getSubSqlPositions() {
+        return subSqlPositions;
+    }
+
+    List<String[]> getTables() {
+        return tables;
+    }
+
+    List<RouteOp> getRouteOps() {
+        return routeOps;
+    }
+
+    /**
+     * sql常量扫描结果，位置都是相对sql开头的字节偏移。
+     * 引用了数据包，只能在解析过程中使用。
+     */
+    public static class Scan {
+
+        private final ByteBuf buf;
+
+        private final int base;
+
+        private final int length;
+
+        /**
+         * 常量起止位置。
+         */
+        private int[] starts = new int[8], ends = new int[8];
+
+        /**
+         * 有转义的字符串常量。
+         */
+        private boolean[] escapes = new boolean[8];
+
+        private int count;
+
+        private int literalLength;
+
+        private long hash;
+
+        private int skeletonLength;
+
+        Scan(ByteBuf buf, int start, int end) {
+            this.buf = buf;
+            this.base = start;
+            this.length = end - start;
+        }
+
+        private void add(int start, int end, boolean escape) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                escapes = Arrays.copyOf(escapes, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            escapes[count] = escape;
+            count++;
+            literalLength += end - start;
+        }
+
+        /**
+         * 根据常量结束位置查找常量序号。
+         *
+         * @param end
+         * @return 不是常量返回-1
+         */
+        int indexOf(int end) {
+            int index = Arrays.binarySearch(ends, 0, count, end);
+            return index < 0 ? -1 : index;
+        }
+
+        /**
+         * 获得常量的值，和Lexer.paramValueString一致。
+         *
+         * @param index
+         * @return 字符串内有转义时返回null
+         */
+        String value(int index) {
+            int start = starts[index], end = ends[index];
+            byte quote = buf.getByte(base + start);
+            if (quote != '\'' && quote != '"') {
+                return buf.toString(base + start, end - start, StandardCharsets.UTF_8);
+            }
+            if (escapes[index]) {
+                return null;
+            }
+            return buf.toString(base + start + 1, end - start - 2, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * 获得一段sql的字节，直接从数据包复制，不经过字符串。
+         *
+         * @param start
+         * @param end
+         * @return
+         */
+        byte[] bytes(int start, int end) {
+            return ByteBufUtil.getBytes(buf, base + start, end - start);
+        }
+
+        /**
+         * 把sql位置转换为[常量序号,偏移]，序号为之前的常量个数，偏移从该常量结尾算起。
+         *
+         * @param pos
+         * @return 位于常量内部时返回null
+         */
+        int[] toTemplatePos(int pos) {
+            int k = 0;
+            while (k < count && ends[k] <= pos) {
+                k++;
+            }
+            if (k < count && starts[k] < pos) {
+                return null;
+            }
+            return new int[]{k, pos - (k == 0 ? 0 : ends[k - 1])};
+        }
+
+        /**
+         * 把[常量序号,偏移]转换为sql位置。
+         *
+         * @param k
+         * @param offset
+         * @return
+         */
+        int toSqlPos(int k, int offset) {
+            return (k == 0 ? 0 : ends[k - 1]) + offset;
+        }
+    }
+
+    /**
+     * 路由值操作，values为常量序号，OP_TYPE时为类型值。
+     */
+    static class RouteOp {
+
+        final String key;
+
+        final int op;
+
+        final int[] values;
+
+        RouteOp(String key, int op, int[] values) {
+            this.key = key;
+            this.op = op;
+            this.values = values;
+        }
+    }
+
+    /**
+     * 完整解析时记录模板。
+     */
+    public static class Builder {
+
+        private final Scan scan;
+
+        /**
+         * 字符位置对应的字节位置，sql全是ASCII时为null。
+         */
+        private final int[] bytePositions;
+
+        private int[] subSqlPositions = new int[0];
+
+        private final List<String[]> tables = new ArrayList<>();
+
+        private final List<RouteOp> routeOps = new ArrayList<>();
+
+        /**
+         * 是否出现了无法模板化的情况。
+         */
+        private boolean failed;
+
+        /**
+         * @param scan
+         * @param sql  完整解析使用的sql，记录的位置是字符位置，需要换算成字节位置
+         */
+        public Builder(Scan scan, String sql) {
+            this.scan = scan;
+            if (sql.length() == scan.length) {
+                bytePositions = null;
+            } else {
+                bytePositions = new int[sql.length() + 1];
+                int n = 0;
+                for (int i = 0; i < sql.length(); i++) {
+                    bytePositions[i] = n;
+                    char c = sql.charAt(i);
+                    if (c < 0x80) {
+                        n += 1;
+                    } else if (c < 0x800) {
+                        n += 2;
+                    } else if (Character.isHighSurrogate(c)) {
+                        n += 4;
+                        bytePositions[++i] = n;
+                    } else {
+                        n += 3;
+                    }
+                }
+                bytePositions[sql.length()] = n;
+                if (n != scan.length) {
+                    //和数据包内容不一致，不记录模板。
+                    failed = true;
+                }
+            }
+        }
+
+        /**
+         * 字符位置转换为字节位置。
+         */
+        private int toBytePos(int pos) {
+            return bytePositions == null ? pos : bytePositions[pos];
+        }
+
+        /**
+         * 记录子sql。
+         *
+         * @param start
+         * @param end
+         */
+        void addSubSql(int start, int end) {
+            if (failed) {
+                return;
+            }
+            int[] s = scan.toTemplatePos(toBytePos(start)), e = scan.toTemplatePos(toBytePos(end));
+            if (s == null || e == null) {
+                failed = true;
+                return;
+            }
+            int n = subSqlPositions.length;
+            subSqlPositions = Arrays.copyOf(subSqlPositions, n + 4);
+            subSqlPositions[n] = s[0];
+            subSqlPositions[n + 1] = s[1];
+            subSqlPositions[n + 2] = e[0];
+            subSqlPositions[n + 3] = e[1];
+        }
+
+        /**
+         * 记录注册的表。
+         */
+        void addTable(String schemaName, String tableName, String aliasName) {
+            tables.add(new String[]{schemaName, tableName, aliasName});
+        }
+
+        /**
+         * 记录路由值，值必须来自可以直接取值的常量。
+         *
+         * @param key
+         * @param op
+         * @param ends   常量的结束位置
+         * @param values 解析出的值，用于校验
+         */
+        void addRouteOp(String key, int op, int[] ends, List<String> values) {
+            if (key == null || failed) {
+                failed = true;
+                return;
+            }
+            int[] indexes = new int[ends.length];
+            for (int i = 0; i < ends.length; i++) {
+                indexes[i] = scan.indexOf(toBytePos(ends[i]));
+                String value = indexes[i] < 0 ? null : scan.value(indexes[i]);
+                if (value == null || !value.equals(values.get(i))) {
+                    failed = true;
+                    return;
+                }
+            }
+            routeOps.add(new RouteOp(key, op, indexes));
+        }
+
+        /**
+         * 记录路由值类型。
+         */
+        void addRouteType(String key, int type) {
+            if (key == null) {
+                failed = true;
+                return;
+            }
+            routeOps.add(new RouteOp(key, OP_TYPE, new int[]{type}));
+        }
+    }
+}
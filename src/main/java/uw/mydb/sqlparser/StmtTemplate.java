@@ -0,0 +1,115 @@
+package uw.mydb.sqlparser;
+
+import io.netty.buffer.ByteBuf;
+import uw.mydb.conf.MydbConfig;
+import uw.mydb.conf.MydbConfigManager;
+import uw.mydb.sqlparser.parser.Lexer;
+import uw.mydb.sqlparser.parser.Token;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 预编译语句模板。
+ * 同一个schema下相同sql的模板在整个proxy内共享，避免每次预编译都重新扫描sql。
+ *
+ * @author axeon
+ */
+public class StmtTemplate {
+
+    /**
+     * 模板缓存，key为schema名和sql。
+     */
+    private static final Map<String, StmtTemplate> templateMap = new ConcurrentHashMap<>();
+
+    /**
+     * 原始sql。
+     */
+    private final String sql;
+
+    /**
+     * ?参数个数。
+     */
+    private final int paramCount;
+
+    /**
+     * 直通类型，见SqlPassThrough。
+     */
+    private final int passType;
+
+    private StmtTemplate(String sql, int paramCount, int passType) {
+        this.sql = sql;
+        this.paramCount = paramCount;
+        this.passType = passType;
+    }
+
+    /**
+     * 获得预编译语句模板，缓存满时不再缓存新的模板。
+     *
+     * @param schema
+     * @param buf    完整的COM_STMT_PREPARE数据包，包含包头
+     * @return
+     */
+    public static StmtTemplate get(MydbConfig.SchemaConfig schema, ByteBuf buf) {
+        String sql = buf.toString(buf.readerIndex() + 5, buf.readableBytes() - 5, StandardCharsets.UTF_8);
+        String key = schema.getName() + ':' + sql;
+        StmtTemplate template = templateMap.get(key);
+        if (template == null) {
+            template = new StmtTemplate(sql, countParams(sql), SqlPassThrough.check(schema, buf));
+            if (templateMap.size() < MydbConfigManager.getConfig().getServer().getStmtTemplateCacheSize()) {
+                templateMap.put(key, template);
+            }
+        }
+        return template;
+    }
+
+    /**
+     * 获得缓存的模板数量。
+     *
+     * @return
+     */
+    public static int getCacheSize() {
+        return templateMap.size();
+    }
+
+    /**
+     * 扫描sql中的?参数个数。
+     *
+     * @param sql
+     * @return
+     */
+    private static int countParams(String sql) {
+        Lexer lexer = new Lexer(sql, false, true);
+        do {
+            lexer.nextToken();
+        } while (lexer.token() != Token.EOF && lexer.token() != Token.ERROR);
+        return lexer.quesCount();
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int getParamCount() {
+        return paramCount;
+    }
+
+    /**
+     * 是否不涉及分区表，可以直接在baseNode上执行。
+     *
+     * @return
+     */
+    public boolean isPassThrough() {
+        return passType != SqlPassThrough.PASS_NONE;
+    }
+
+    /**
+     * 是否需要在master上执行。
+     *
+     * @return
+     */
+    public boolean isMaster() {
+        return passType != SqlPassThrough.PASS_READ;
+    }
+}
@@ -0,0 +1,288 @@
+package uw.mydb.sqlparser.parser;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 字节级sql词法扫描。
+ * 直接扫描数据包中的UTF-8字节，token只记录起止位置，需要取值时才生成字符串。
+ * 只区分常量、标识符、注释和符号，用于解析模板等只关心sql结构的场景，完整解析仍然使用Lexer。
+ *
+ * @author axeon
+ */
+public class ByteLexer {
+
+    /**
+     * 结束。
+     */
+    public static final int EOF = 0;
+
+    /**
+     * 标识符和关键字，非ASCII字符也按标识符处理。
+     */
+    public static final int IDENTIFIER = 1;
+
+    /**
+     * 反引号标识符。
+     */
+    public static final int QUOTED_IDENTIFIER = 2;
+
+    /**
+     * 单引号或双引号字符串。
+     */
+    public static final int STRING = 3;
+
+    /**
+     * 数字。
+     */
+    public static final int NUMBER = 4;
+
+    /**
+     * 注释，包括hint。
+     */
+    public static final int COMMENT = 5;
+
+    /**
+     * 单个字节的符号。
+     */
+    public static final int SYMBOL = 6;
+
+    /**
+     * 未闭合的字符串或注释。
+     */
+    public static final int ERROR = -1;
+
+    private final ByteBuf buf;
+
+    private final int end;
+
+    private int pos;
+
+    private int token = EOF;
+
+    private int tokenStart;
+
+    private int tokenEnd;
+
+    /**
+     * 字符串内是否有转义。
+     */
+    private boolean hasEscape;
+
+    /**
+     * @param buf
+     * @param start sql开始位置
+     * @param end   sql结束位置
+     */
+    public ByteLexer(ByteBuf buf, int start, int end) {
+        this.buf = buf;
+        this.pos = start;
+        this.end = end;
+    }
+
+    /**
+     * 扫描下一个token，跳过空白。
+     *
+     * @return token类型
+     */
+    public int nextToken() {
+        while (pos < end && isWhitespace(buf.getByte(pos))) {
+            pos++;
+        }
+        tokenStart = pos;
+        hasEscape = false;
+        if (pos >= end) {
+            tokenEnd = pos;
+            return token = EOF;
+        }
+        byte b = buf.getByte(pos);
+        if (b == '\'' || b == '"') {
+            token = STRING;
+            pos = skipString(b);
+        } else if (b >= '0' && b <= '9') {
+            token = NUMBER;
+            pos = skipNumber();
+            if (pos < end && isIdentifierChar(buf.getByte(pos))) {
+                //数字开头的标识符。
+                token = IDENTIFIER;
+                pos = skipIdentifier(pos);
+            }
+        } else if (b == '`') {
+            token = QUOTED_IDENTIFIER;
+            pos = buf.indexOf(pos + 1, end, (byte) '`');
+            pos = pos < 0 ? -1 : pos + 1;
+        } else if (b == '/' && pos + 1 < end && buf.getByte(pos + 1) == '*') {
+            token = COMMENT;
+            pos = skipComment();
+        } else if (b == '#' || (b == '-' && pos + 1 < end && buf.getByte(pos + 1) == '-')) {
+            token = COMMENT;
+            int eol = buf.indexOf(pos, end, (byte) '\n');
+            pos = eol < 0 ? end : eol;
+        } else if (isIdentifierChar(b)) {
+            token = IDENTIFIER;
+            pos = skipIdentifier(pos);
+        } else {
+            token = SYMBOL;
+            pos++;
+        }
+        if (pos < 0) {
+            pos = end;
+            token = ERROR;
+        }
+        tokenEnd = pos;
+        return token;
+    }
+
+    public int token() {
+        return token;
+    }
+
+    /**
+     * 当前token的开始位置。
+     *
+     * @return
+     */
+    public int start() {
+        return tokenStart;
+    }
+
+    /**
+     * 当前token的结束位置，不含。
+     *
+     * @return
+     */
+    public int end() {
+        return tokenEnd;
+    }
+
+    /**
+     * 当前token是否是常量。
+     *
+     * @return
+     */
+    public boolean isLiteral() {
+        return token == STRING || token == NUMBER;
+    }
+
+    /**
+     * 当前字符串内是否有转义。
+     *
+     * @return
+     */
+    public boolean hasEscape() {
+        return hasEscape;
+    }
+
+    /**
+     * 获得当前token的值，字符串去掉引号，和Lexer.paramValueString一致。
+     *
+     * @return 字符串内有转义时返回null
+     */
+    public String stringVal() {
+        if (token == STRING) {
+            return hasEscape ? null : buf.toString(tokenStart + 1, tokenEnd - tokenStart - 2, StandardCharsets.UTF_8);
+        }
+        return buf.toString(tokenStart, tokenEnd - tokenStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 计算当前token小写后的FNV hash，和Lexer.hashLower()一致。
+     * 反引号标识符不含引号。ASCII标识符不生成字符串，含非ASCII字符时按解码后的字符计算。
+     *
+     * @return
+     */
+    public long hashLower() {
+        int from = tokenStart;
+        int to = tokenEnd;
+        if (token == QUOTED_IDENTIFIER) {
+            from++;
+            to--;
+        }
+        long hash = FnvHash.BASIC;
+        for (int i = from; i < to; i++) {
+            byte b = buf.getByte(i);
+            if (b < 0) {
+                return FnvHash.fnv1a_64_lower(buf.toString(from, to - from, StandardCharsets.UTF_8));
+            }
+            if (b >= 'A' && b <= 'Z') {
+                b += 32;
+            }
+            hash ^= b;
+            hash *= FnvHash.PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * 跳过字符串，和Lexer一致，反斜杠转义下一个字符，连续两个引号也视为转义。
+     *
+     * @return 字符串结束后的位置，未闭合返回-1
+     */
+    private int skipString(byte quote) {
+        for (int i = pos + 1; i < end; i++) {
+            byte b = buf.getByte(i);
+            if (b == '\\') {
+                hasEscape = true;
+                i++;
+            } else if (b == quote) {
+                if (i + 1 < end && buf.getByte(i + 1) == quote) {
+                    hasEscape = true;
+                    i++;
+                } else {
+                    return i + 1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 跳过数字，和Lexer.scanNumber一致。
+     */
+    private int skipNumber() {
+        int i = skipDigits(pos);
+        if (i < end && buf.getByte(i) == '.') {
+            i = skipDigits(i + 1);
+        }
+        if (i < end && (buf.getByte(i) == 'e' || buf.getByte(i) == 'E')) {
+            i++;
+            if (i < end && (buf.getByte(i) == '+' || buf.getByte(i) == '-')) {
+                i++;
+            }
+            i = skipDigits(i);
+        }
+        return i;
+    }
+
+    private int skipDigits(int i) {
+        while (i < end && buf.getByte(i) >= '0' && buf.getByte(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    private int skipComment() {
+        for (int i = pos + 2; i + 1 < end; i++) {
+            if (buf.getByte(i) == '*' && buf.getByte(i + 1) == '/') {
+                return i + 2;
+            }
+        }
+        return -1;
+    }
+
+    private int skipIdentifier(int i) {
+        while (i < end && isIdentifierChar(buf.getByte(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isIdentifierChar(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '$' || b < 0;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
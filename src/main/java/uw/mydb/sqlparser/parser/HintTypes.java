@@ -37,5 +37,10 @@ public class HintTypes {
      */
     public static final String ROUTE = "route";
 
+    /**
+     * 结果缓存秒数，0为不缓存。
+     */
+    public static final String CACHE = "cache";
+
 
 }
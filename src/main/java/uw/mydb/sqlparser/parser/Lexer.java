@@ -19,7 +19,7 @@ public class Lexer {
     /**
      * 解析的文本字符串。
      */
-    private final String text;
+    private String text;
 
     /**
      * 当前位置
@@ -65,6 +65,10 @@ public class Lexer {
      * 保存检查点。
      */
     private SavePoint savePoint = null;
+    /**
+     * 已扫描的?参数个数。
+     */
+    private int quesCount = 0;
 
     public Lexer(String input) {
         this(input, false, true);
@@ -78,6 +82,28 @@ public class Lexer {
         ch = charAt(pos);
     }
 
+    /**
+     * 重置为解析新的sql，保留已分配的buf，用于复用Lexer。
+     *
+     * @param input
+     */
+    public void reset(String input) {
+        this.text = input;
+        this.pos = 0;
+        this.mark = 0;
+        this.bufPos = 0;
+        this.token = null;
+        this.stringVal = null;
+        this.hash_lower = 0;
+        this.hash = 0;
+        this.commentCount = 0;
+        this.comments = null;
+        this.endOfComment = false;
+        this.savePoint = null;
+        this.quesCount = 0;
+        ch = charAt(pos);
+    }
+
     /**
      * 参数化sql。
      *
@@ -209,6 +235,7 @@ public class Lexer {
         savePoint.stringVal = stringVal;
         savePoint.hash = hash;
         savePoint.hash_lower = hash_lower;
+        savePoint.quesCount = quesCount;
         return this.savePoint = savePoint;
     }
 
@@ -226,6 +253,7 @@ public class Lexer {
         this.stringVal = savePoint.stringVal;
         this.hash = savePoint.hash;
         this.hash_lower = savePoint.hash_lower;
+        this.quesCount = savePoint.quesCount;
     }
 
     /**
@@ -291,7 +319,7 @@ public class Lexer {
         StringBuilder buf = new StringBuilder();
         buf.append("pos ").append(pos).append(", token ").append(token);
         if (token == Token.IDENTIFIER || token == Token.LITERAL_ALIAS || token == Token.LITERAL_CHARS) {
-            buf.append(" ").append(stringVal);
+            buf.append(" ").append(stringVal());
         }
         return buf.toString();
     }
@@ -406,6 +434,7 @@ public class Lexer {
         if (ch == '?') {
             scanChar();
             token = Token.QUES;
+            quesCount++;
             return;
         }
 
@@ -676,6 +705,7 @@ public class Lexer {
                     scanChar();
 
                     token = Token.QUES;
+                    quesCount++;
 
                     return;
                 case ';':
@@ -931,6 +961,7 @@ public class Lexer {
             case '?':
                 scanChar();
                 token = Token.QUES;
+                quesCount++;
                 break;
             case '~':
                 scanChar();
@@ -1809,17 +1840,11 @@ public class Lexer {
             Token tok = keywords.getKeyword(hash_lower);
             if (tok != null) {
                 token = tok;
-                if (token == Token.IDENTIFIER) {
-                    stringVal = SymbolTable.global.addSymbol(text, mark, bufPos, hash);
-//                    stringVal = text.substring(mark,mark+bufPos);
-                } else {
-                    stringVal = null;
-                }
             } else {
                 token = Token.IDENTIFIER;
-                stringVal = SymbolTable.global.addSymbol(text, mark, bufPos, hash);
-//                stringVal = text.substring(mark,mark+bufPos);
             }
+            //标识符的字符串在stringVal()时才生成，只按hash判断的标识符不再生成字符串。
+            stringVal = null;
 
         }
     }
@@ -1920,6 +1945,7 @@ public class Lexer {
                 }
 
                 stringVal = addSymbol();
+                hash_lower = FnvHash.fnv1a_64_lower(stringVal);
                 token = Token.IDENTIFIER;
             } else {
                 token = Token.LITERAL_INT;
@@ -1987,11 +2013,24 @@ public class Lexer {
      */
     public final String stringVal() {
         if (stringVal == null) {
-            stringVal = subString(mark, bufPos);
+            if (token == Token.IDENTIFIER) {
+                stringVal = SymbolTable.global.addSymbol(text, mark, bufPos, hash);
+            } else {
+                stringVal = subString(mark, bufPos);
+            }
         }
         return stringVal;
     }
 
+    /**
+     * 当前标识符小写后的fnv1a_64 hash，不需要生成字符串。
+     *
+     * @return
+     */
+    public final long hashLower() {
+        return hash_lower;
+    }
+
     private final void stringVal(StringBuffer out) {
         if (stringVal != null) {
             out.append(stringVal);
@@ -2044,6 +2083,15 @@ public class Lexer {
         }
     }
 
+    /**
+     * 获得已扫描的?参数个数。
+     *
+     * @return
+     */
+    public final int quesCount() {
+        return quesCount;
+    }
+
     public boolean hasComment() {
         return comments != null;
     }
@@ -2165,6 +2213,7 @@ public class Lexer {
         char ch;
         long hash;
         long hash_lower;
+        int quesCount;
         String stringVal;
     }
 }
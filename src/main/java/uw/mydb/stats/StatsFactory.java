@@ -3,11 +3,13 @@ package uw.mydb.stats;
 import uw.mydb.conf.MydbConfig;
 import uw.mydb.conf.MydbConfigManager;
 import uw.mydb.mysql.MySqlGroupManager;
+import uw.mydb.protocol.codec.MysqlCompressStats;
 import uw.mydb.stats.vo.*;
 
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -45,6 +47,16 @@ public class StatsFactory {
      */
     private static Map<String, SqlStats> mysqlDbStatsMap = new ConcurrentHashMap();
 
+    /**
+     * 单个查询转发时前端写缓冲的峰值。
+     */
+    private static AtomicLong maxPendingBytes = new AtomicLong();
+
+    /**
+     * 前端链路的压缩统计。
+     */
+    private static final MysqlCompressStats proxyCompressStats = new MysqlCompressStats();
+
     /**
      * 获得server Sql统计。
      *
@@ -224,6 +236,35 @@ public class StatsFactory {
         }
     }
 
+    /**
+     * 统计前端写缓冲峰值。
+     *
+     * @param pendingBytes
+     */
+    public static void statsPendingBytes(long pendingBytes) {
+        if (pendingBytes > maxPendingBytes.get()) {
+            maxPendingBytes.accumulateAndGet(pendingBytes, Math::max);
+        }
+    }
+
+    /**
+     * 获得前端写缓冲峰值。
+     *
+     * @return
+     */
+    public static long getMaxPendingBytes() {
+        return maxPendingBytes.get();
+    }
+
+    /**
+     * 获得前端链路的压缩统计。
+     *
+     * @return
+     */
+    public static MysqlCompressStats getProxyCompressStats() {
+        return proxyCompressStats;
+    }
+
     /**
      * 返回mydb服务状态。
      *
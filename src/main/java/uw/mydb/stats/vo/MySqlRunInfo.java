@@ -1,6 +1,7 @@
 package uw.mydb.stats.vo;
 
 import uw.mydb.mysql.MySqlService;
+import uw.mydb.protocol.codec.MysqlCompressStats;
 
 /**
  * mysql服务统计数据。
@@ -24,6 +25,78 @@ public class MySqlRunInfo {
         return this.mySqlService.getGroupName() + "$" + mySqlService.getName();
     }
 
+    /**
+     * 是否存活。
+     *
+     * @return
+     */
+    public boolean isAlive() {
+        return mySqlService.isAlive();
+    }
+
+    /**
+     * 最近一次心跳响应毫秒数。
+     *
+     * @return
+     */
+    public long getHeartbeatRtt() {
+        return mySqlService.getHeartbeatRtt();
+    }
+
+    /**
+     * 复制延迟秒数。
+     *
+     * @return
+     */
+    public long getReplicationLag() {
+        return mySqlService.getReplicationLag();
+    }
+
+    /**
+     * 后端链路的压缩统计。
+     *
+     * @return
+     */
+    public MysqlCompressStats getCompressStats() {
+        return mySqlService.getCompressStats();
+    }
+
+    /**
+     * 是否已在故障切换中被提升为写节点。
+     *
+     * @return
+     */
+    public boolean isPromoted() {
+        return mySqlService.isPromoted();
+    }
+
+    /**
+     * 复制延迟是否超过阈值，超过时不参与读。
+     *
+     * @return
+     */
+    public boolean isLagging() {
+        return mySqlService.isLagging();
+    }
+
+    /**
+     * 未完成的请求数。
+     *
+     * @return
+     */
+    public int getOutstandingRequests() {
+        return mySqlService.getOutstandingRequests();
+    }
+
+    /**
+     * 执行耗时EWMA毫秒数。
+     *
+     * @return
+     */
+    public double getLatencyEwma() {
+        return mySqlService.getLatencyEwma();
+    }
+
     /**
      * 所有连接数。
      */
@@ -47,6 +120,15 @@ public class MySqlRunInfo {
         return mySqlService.getAwaitingThreads();
     }
 
+    /**
+     * 异步等待获取连接的请求数。
+     *
+     * @return
+     */
+    public int getAwaitingRequests() {
+        return mySqlService.getAwaitingRequests();
+    }
+
 
     /**
      * 获得建立中的连接数。
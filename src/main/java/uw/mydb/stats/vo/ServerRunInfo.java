@@ -1,7 +1,10 @@
 package uw.mydb.stats.vo;
 
+import uw.mydb.protocol.codec.MysqlCompressStats;
 import uw.mydb.proxy.ProxyMysqlSession;
 import uw.mydb.proxy.ProxySessionManager;
+import uw.mydb.sqlparser.StmtTemplate;
+import uw.mydb.stats.StatsFactory;
 
 import java.util.Map;
 import java.util.function.Function;
@@ -36,6 +39,33 @@ public class ServerRunInfo {
         return ProxySessionManager.getCount();
     }
 
+    /**
+     * 获得单个查询转发时前端写缓冲的峰值。
+     *
+     * @return
+     */
+    public long getMaxPendingBytes() {
+        return StatsFactory.getMaxPendingBytes();
+    }
+
+    /**
+     * 获得缓存的预编译语句模板数量。
+     *
+     * @return
+     */
+    public int getStmtTemplateCount() {
+        return StmtTemplate.getCacheSize();
+    }
+
+    /**
+     * 获得前端链路的压缩统计。
+     *
+     * @return
+     */
+    public MysqlCompressStats getCompressStats() {
+        return StatsFactory.getProxyCompressStats();
+    }
+
     /**
      * 获得链接映射表。
      *
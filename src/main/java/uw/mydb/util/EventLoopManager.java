@@ -0,0 +1,67 @@
+package uw.mydb.util;
+
+import io.netty.channel.EventLoopGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uw.mydb.conf.MydbConfigManager;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * EventLoop管理器。
+ * 前端连接和后端mysql连接共享同一组reactor线程，尽量让后端session和前端session在同一个线程上处理，避免数据跨线程转发。
+ *
+ * @author axeon
+ */
+public class EventLoopManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventLoopManager.class);
+
+    /**
+     * 当前启动状态.
+     */
+    private static final AtomicBoolean STATE = new AtomicBoolean(false);
+
+    /**
+     * 共享的reactor线程。
+     */
+    private static EventLoopGroup workerGroup = null;
+
+    /**
+     * 获得共享的reactor线程组。
+     *
+     * @return
+     */
+    public static EventLoopGroup getWorkerGroup() {
+        return workerGroup;
+    }
+
+    /**
+     * 启动服务。
+     */
+    public static boolean start() {
+        if (STATE.compareAndSet(false, true)) {
+            int workerThreads = MydbConfigManager.getConfig().getServer().getWorkerThreads();
+            workerGroup = TransportUtils.newEventLoopGroup(workerThreads, "mydb_worker-%d");
+            logger.info("mydb event loop started, workerThreads: {}", workerThreads);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * 关闭服务。
+     */
+    public static boolean stop() {
+        if (STATE.compareAndSet(true, false)) {
+            if (workerGroup != null) {
+                workerGroup.shutdownGracefully();
+                workerGroup = null;
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package uw.mydb.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uw.mydb.conf.MydbConfig;
+import uw.mydb.conf.MydbConfigManager;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 网络传输工具类。
+ * 根据配置选择epoll或nio实现，epoll不可用时自动降级为nio。
+ *
+ * @author axeon
+ */
+public class TransportUtils {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransportUtils.class);
+
+    /**
+     * 是否使用epoll。
+     */
+    private static volatile Boolean useEpoll = null;
+
+    /**
+     * 按照配置判断是否使用epoll。
+     *
+     * @return
+     */
+    public static boolean isEpoll() {
+        if (useEpoll == null) {
+            synchronized (TransportUtils.class) {
+                if (useEpoll == null) {
+                    useEpoll = isEpoll(MydbConfigManager.getConfig().getServer().getTransportType());
+                }
+            }
+        }
+        return useEpoll;
+    }
+
+    /**
+     * 判断指定的传输类型是否可以使用epoll。
+     *
+     * @param transportType
+     * @return
+     */
+    public static boolean isEpoll(MydbConfig.ServerConfig.TransportTypeEnum transportType) {
+        if (transportType != MydbConfig.ServerConfig.TransportTypeEnum.EPOLL) {
+            return false;
+        }
+        if (Epoll.isAvailable()) {
+            return true;
+        }
+        logger.warn("epoll transport is unavailable, fallback to nio! cause: {}", Epoll.unavailabilityCause().toString());
+        return false;
+    }
+
+    /**
+     * 按照配置建立EventLoopGroup。
+     *
+     * @param nThreads   线程数，0为netty默认值
+     * @param nameFormat 线程名格式
+     * @return
+     */
+    public static EventLoopGroup newEventLoopGroup(int nThreads, String nameFormat) {
+        return newEventLoopGroup(isEpoll(), nThreads, nameFormat);
+    }
+
+    /**
+     * 建立EventLoopGroup。
+     *
+     * @param epoll      是否使用epoll
+     * @param nThreads   线程数，0为netty默认值
+     * @param nameFormat 线程名格式
+     * @return
+     */
+    public static EventLoopGroup newEventLoopGroup(boolean epoll, int nThreads, String nameFormat) {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(nameFormat).build();
+        if (epoll) {
+            return new EpollEventLoopGroup(nThreads, threadFactory);
+        } else {
+            return new NioEventLoopGroup(nThreads, threadFactory);
+        }
+    }
+
+    /**
+     * 按照配置获得ServerChannel类型。
+     *
+     * @return
+     */
+    public static Class<? extends ServerChannel> getServerChannelClass() {
+        return getServerChannelClass(isEpoll());
+    }
+
+    /**
+     * 获得ServerChannel类型。
+     *
+     * @param epoll
+     * @return
+     */
+    public static Class<? extends ServerChannel> getServerChannelClass(boolean epoll) {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * 按照配置获得SocketChannel类型。
+     *
+     * @return
+     */
+    public static Class<? extends SocketChannel> getSocketChannelClass() {
+        return getSocketChannelClass(isEpoll());
+    }
+
+    /**
+     * 获得SocketChannel类型。
+     *
+     * @param epoll
+     * @return
+     */
+    public static Class<? extends SocketChannel> getSocketChannelClass(boolean epoll) {
+        return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+}
@@ -0,0 +1,128 @@
+package uw.mydb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import uw.mydb.sqlparser.parser.ByteLexer;
+import uw.mydb.sqlparser.parser.Lexer;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * ByteLexer的切分和hash测试。
+ */
+public class ByteLexerTest {
+
+    private static ByteLexer lexer(String sql) {
+        ByteBuf buf = Unpooled.wrappedBuffer(sql.getBytes(StandardCharsets.UTF_8));
+        return new ByteLexer(buf, 0, buf.writerIndex());
+    }
+
+    @Test
+    public void testComment() {
+        ByteLexer lexer = lexer("/* c1 */ select # c2\n -- c3\n 1");
+        assertEquals(ByteLexer.COMMENT, lexer.nextToken());
+        assertEquals("/* c1 */", lexer.stringVal());
+        assertEquals(ByteLexer.IDENTIFIER, lexer.nextToken());
+        assertEquals("select", lexer.stringVal());
+        assertEquals(ByteLexer.COMMENT, lexer.nextToken());
+        assertEquals("# c2", lexer.stringVal());
+        assertEquals(ByteLexer.COMMENT, lexer.nextToken());
+        assertEquals("-- c3", lexer.stringVal());
+        assertEquals(ByteLexer.NUMBER, lexer.nextToken());
+        assertEquals(ByteLexer.EOF, lexer.nextToken());
+    }
+
+    @Test
+    public void testString() {
+        ByteLexer lexer = lexer("'abc' \"x\" 'it''s' 'a\\'b' '中文'");
+        assertEquals(ByteLexer.STRING, lexer.nextToken());
+        assertFalse(lexer.hasEscape());
+        assertTrue(lexer.isLiteral());
+        assertEquals("abc", lexer.stringVal());
+        assertEquals(ByteLexer.STRING, lexer.nextToken());
+        assertEquals("x", lexer.stringVal());
+        assertEquals(ByteLexer.STRING, lexer.nextToken());
+        assertTrue(lexer.hasEscape());
+        assertNull(lexer.stringVal());
+        assertEquals(ByteLexer.STRING, lexer.nextToken());
+        assertTrue(lexer.hasEscape());
+        assertNull(lexer.stringVal());
+        assertEquals(ByteLexer.STRING, lexer.nextToken());
+        assertFalse(lexer.hasEscape());
+        assertEquals("中文", lexer.stringVal());
+        assertEquals(ByteLexer.EOF, lexer.nextToken());
+    }
+
+    @Test
+    public void testQuotedIdentifier() {
+        ByteLexer lexer = lexer("`user id`.`Name`");
+        assertEquals(ByteLexer.QUOTED_IDENTIFIER, lexer.nextToken());
+        assertEquals("`user id`", lexer.stringVal());
+        assertFalse(lexer.isLiteral());
+        assertEquals(ByteLexer.SYMBOL, lexer.nextToken());
+        assertEquals(ByteLexer.QUOTED_IDENTIFIER, lexer.nextToken());
+        assertEquals(ByteLexer.EOF, lexer.nextToken());
+    }
+
+    @Test
+    public void testNumber() {
+        ByteLexer lexer = lexer("-12 3.5e-2 0x1F 1abc");
+        assertEquals(ByteLexer.SYMBOL, lexer.nextToken());
+        assertEquals("-", lexer.stringVal());
+        assertEquals(ByteLexer.NUMBER, lexer.nextToken());
+        assertEquals("12", lexer.stringVal());
+        assertEquals(ByteLexer.NUMBER, lexer.nextToken());
+        assertEquals("3.5e-2", lexer.stringVal());
+        //十六进制和数字开头的标识符一样处理。
+        assertEquals(ByteLexer.IDENTIFIER, lexer.nextToken());
+        assertEquals("0x1F", lexer.stringVal());
+        assertEquals(ByteLexer.IDENTIFIER, lexer.nextToken());
+        assertEquals("1abc", lexer.stringVal());
+        assertEquals(ByteLexer.EOF, lexer.nextToken());
+    }
+
+    @Test
+    public void testError() {
+        assertError("select 'abc");
+        assertError("select \"a\\\"");
+        assertError("select /* abc");
+        assertError("select `abc");
+    }
+
+    private static void assertError(String sql) {
+        ByteLexer lexer = lexer(sql);
+        assertEquals(ByteLexer.IDENTIFIER, lexer.nextToken());
+        assertEquals(ByteLexer.ERROR, lexer.nextToken());
+        assertEquals(sql.getBytes(StandardCharsets.UTF_8).length, lexer.end());
+        assertEquals(ByteLexer.EOF, lexer.nextToken());
+    }
+
+    @Test
+    public void testEof() {
+        ByteLexer lexer = lexer(" \t\r\n");
+        assertEquals(ByteLexer.EOF, lexer.nextToken());
+        assertEquals(ByteLexer.EOF, lexer.token());
+        assertEquals(ByteLexer.EOF, lexer.nextToken());
+    }
+
+    @Test
+    public void testHashLower() {
+        assertHashLower("user_id");
+        assertHashLower("User_ID");
+        assertHashLower("$col1");
+        assertHashLower("`Saas_Id`");
+        assertHashLower("用户ID");
+        assertHashLower("`名称Name`");
+    }
+
+    private static void assertHashLower(String sql) {
+        ByteLexer byteLexer = lexer(sql);
+        byteLexer.nextToken();
+        Lexer lexer = new Lexer(sql);
+        lexer.nextToken();
+        assertEquals(sql, lexer.hashLower(), byteLexer.hashLower());
+    }
+}
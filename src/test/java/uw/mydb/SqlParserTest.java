@@ -1,16 +1,19 @@
 package uw.mydb;
 
 
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
 import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
-import org.springframework.boot.SpringApplication;
-import org.springframework.boot.autoconfigure.SpringBootApplication;
 import uw.mydb.conf.MydbConfig;
 import uw.mydb.conf.MydbConfigManager;
+import uw.mydb.proxy.ProxyMysqlSession;
 import uw.mydb.route.RouteManager;
+import uw.mydb.route.algorithm.RouteDatabaseByMod;
 import uw.mydb.sqlparser.SqlParseResult;
 import uw.mydb.sqlparser.SqlParser;
 
@@ -23,10 +26,11 @@ import java.util.concurrent.TimeUnit;
 @State(Scope.Benchmark)//该状态为每个线程独享
 //度量:iterations进行测试的轮次，time每轮进行的时长，timeUnit时长单位,batchSize批次数量
 @Measurement(iterations = 10, time = -1, timeUnit = TimeUnit.SECONDS, batchSize = -1)
-@SpringBootApplication
 public class SqlParserTest {
 
     private static MydbConfig.SchemaConfig schema = null;
+
+    private static ProxyMysqlSession proxySession = null;
     private static String insertSql = "insert into alitrip_hotel_room\n" +
             "(saas_id,distributor_mch_id,channel_room_id,channel_hotel_id,channel_room_name,sys_hotel_id,sys_roomtype_id,\n" +
             "channel_room_state,channel_room_match_state,channel_bed_type,create_date,modify_date)\n" +
@@ -37,6 +41,16 @@ public class SqlParserTest {
         SqlParser parser = new SqlParser(schema, insertSql);
         SqlParseResult result = parser.parse();
     }
+
+    /**
+     * 从对象池获得解析器，解析后归还，和testInsert对比每次操作的分配字节数。
+     */
+    @Benchmark
+    public void testInsertRecycle() {
+        SqlParser parser = SqlParser.newInstance(proxySession, insertSql);
+        SqlParseResult result = parser.parse();
+        parser.recycle();
+    }
 //
 //    private static updateSql = "update user_info set create_date=now() where mch_id=1000 ";
 //    @Benchmark
@@ -45,14 +59,41 @@ public class SqlParserTest {
 //        SqlParseResult result = parser.parse();
 //    }
 
-    public static void main(String[] args) throws RunnerException {
-        SpringApplication.run(UwMydbApplication.class, args);
-        schema = MydbConfigManager.getDefaultSchemaConfig();
-        //初始化路由管理器
+    /**
+     * 直接填充默认配置，alitrip_hotel_room按saas_id分到4个库。
+     */
+    @Setup
+    public void setup() {
+        MydbConfig config = MydbConfigManager.getConfig();
+        MydbConfig.DataNodeConfig dataNode = new MydbConfig.DataNodeConfig();
+        dataNode.setMysqlGroup("g1");
+        dataNode.getDbConfig().add("db$0-3");
+        MydbConfig.AlgorithmConfig algorithm = new MydbConfig.AlgorithmConfig();
+        algorithm.setAlgorithm(RouteDatabaseByMod.class.getName());
+        algorithm.setRouteKey("saas_id");
+        MydbConfig.RouteConfig route = new MydbConfig.RouteConfig();
+        route.getDataNodes().add(dataNode);
+        route.getAlgorithms().add(algorithm);
+        config.getRoutes().put("saas_route", route);
+        MydbConfig.TableConfig table = new MydbConfig.TableConfig();
+        table.setRoute("saas_route");
+        MydbConfig.SchemaConfig schemaConfig = new MydbConfig.SchemaConfig();
+        schemaConfig.setBaseNode("g1");
+        schemaConfig.getTables().put("alitrip_hotel_room", table);
+        config.getSchemas().put("parser_test", schemaConfig);
+        MydbConfigManager.setConfig(config);
         RouteManager.init();
+        schema = MydbConfigManager.getSchemaConfig("parser_test");
+        proxySession = new ProxyMysqlSession(new EmbeddedChannel(new ChannelInboundHandlerAdapter()).pipeline().firstContext());
+        proxySession.setSchema(schema.getName());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        //gc分析器输出gc.alloc.rate.norm，即每次操作的分配字节数。
         Options opt = new OptionsBuilder()
                 .include(SqlParserTest.class.getSimpleName())
-                .forks(0)
+                .addProfiler(GCProfiler.class)
+                .forks(1)
                 .build();
         new Runner(opt).run();
     }
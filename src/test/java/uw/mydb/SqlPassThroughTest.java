@@ -0,0 +1,202 @@
+package uw.mydb;
+
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import uw.mydb.conf.MydbConfig;
+import uw.mydb.conf.MydbConfigManager;
+import uw.mydb.protocol.packet.CommandPacket;
+import uw.mydb.route.RouteManager;
+import uw.mydb.route.algorithm.RouteDatabaseByMod;
+import uw.mydb.sqlparser.SqlParseResult;
+import uw.mydb.sqlparser.SqlParser;
+import uw.mydb.sqlparser.SqlPassThrough;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static uw.mydb.sqlparser.SqlPassThrough.*;
+
+/**
+ * 直通检查测试，以及直通转发和完整解析的性能对比。
+ */
+@BenchmarkMode(Mode.Throughput)//基准测试类型
+@OutputTimeUnit(TimeUnit.MILLISECONDS)//基准测试结果的时间类型
+@Warmup(iterations = 3)//预热的迭代次数
+@Threads(10)//测试线程数量
+@State(Scope.Benchmark)//该状态为每个线程独享
+//度量:iterations进行测试的轮次，time每轮进行的时长，timeUnit时长单位,batchSize批次数量
+@Measurement(iterations = 10, time = -1, timeUnit = TimeUnit.SECONDS, batchSize = -1)
+public class SqlPassThroughTest {
+
+    private static final String SCHEMA = "pass_test";
+
+    private static MydbConfig.SchemaConfig schema = null;
+
+    private static String selectSql = "select id,name,create_date,modify_date from sys_config where name='mydb' and state=1";
+
+    private static ByteBuf selectPacket = null;
+
+    /**
+     * 配置分区表t_order和t_user，sys_config等未配置的表走baseNode。
+     */
+    @BeforeClass
+    public static void init() {
+        //直接填充默认配置，RouteManager等持有的是同一个实例。
+        MydbConfig config = MydbConfigManager.getConfig();
+        MydbConfig.DataNodeConfig dataNode = new MydbConfig.DataNodeConfig();
+        dataNode.setMysqlGroup("g1");
+        dataNode.getDbConfig().add("db$0-1");
+        MydbConfig.AlgorithmConfig algorithm = new MydbConfig.AlgorithmConfig();
+        algorithm.setAlgorithm(RouteDatabaseByMod.class.getName());
+        algorithm.setRouteKey("user_id");
+        MydbConfig.RouteConfig route = new MydbConfig.RouteConfig();
+        route.getDataNodes().add(dataNode);
+        route.getAlgorithms().add(algorithm);
+        config.getRoutes().put("pass_route", route);
+        MydbConfig.SchemaConfig schemaConfig = new MydbConfig.SchemaConfig();
+        schemaConfig.setBaseNode("g1");
+        for (String name : new String[]{"t_order", "t_user"}) {
+            MydbConfig.TableConfig table = new MydbConfig.TableConfig();
+            table.setRoute("pass_route");
+            schemaConfig.getTables().put(name, table);
+        }
+        config.getSchemas().put(SCHEMA, schemaConfig);
+        MydbConfigManager.setConfig(config);
+        RouteManager.init();
+        schema = MydbConfigManager.getSchemaConfig(SCHEMA);
+        selectPacket = packet(selectSql);
+    }
+
+    @Test
+    public void testReadWrite() {
+        assertCheck(PASS_READ, selectSql);
+        assertCheck(PASS_WRITE, "insert into sys_log(id,msg) values(1,'a')");
+        assertCheck(PASS_WRITE, "update sys_config set state=0 where id=1");
+        assertCheck(PASS_WRITE, "delete from sys_log where id=1");
+        assertCheck(PASS_WRITE, "replace into sys_log(id,msg) values(1,'b')");
+        //其他语句都交给解析器。
+        assertCheck(PASS_NONE, "show tables");
+        assertCheck(PASS_NONE, "set autocommit=1");
+        assertCheck(PASS_NONE, "select");
+        assertCheck(PASS_NONE, "selectx from sys_config");
+        assertCheck(PASS_NONE, "");
+    }
+
+    @Test
+    public void testWhitespaceAndCase() {
+        assertCheck(PASS_READ, "  \r\n\tselect * from sys_config");
+        assertCheck(PASS_READ, "SELECT * FROM sys_config");
+        assertCheck(PASS_WRITE, "\nUpDaTe sys_config set state=1");
+        assertCheck(PASS_NONE, "SELECT * FROM T_ORDER where user_id=1");
+        assertCheck(PASS_NONE, "  delete from T_User where user_id=1");
+    }
+
+    @Test
+    public void testRouteTable() {
+        assertCheck(PASS_NONE, "select * from t_order where user_id=1");
+        assertCheck(PASS_NONE, "select * from `t_order` where user_id=1");
+        assertCheck(PASS_NONE, "insert into t_user(user_id) values(1)");
+        assertCheck(PASS_NONE, "select * from sys_config a join t_user b on a.id=b.id");
+        //表名出现在字符串中也交给解析器，宁可多解析。
+        assertCheck(PASS_NONE, "select * from sys_config where name='t_order'");
+    }
+
+    @Test
+    public void testTableNameSubstring() {
+        //分区表名只是其他标识符的一部分时可以直通。
+        assertCheck(PASS_READ, "select * from t_order_log where id=1");
+        assertCheck(PASS_READ, "select * from my_t_order");
+        assertCheck(PASS_READ, "select t_user_id from sys_config");
+        assertCheck(PASS_READ, "select * from `t_order2`");
+        assertCheck(PASS_WRITE, "update t_user$bak set state=1");
+    }
+
+    @Test
+    public void testQualifiedName() {
+        assertCheck(PASS_NONE, "select * from db1.sys_config");
+        assertCheck(PASS_NONE, "select * from `db1`.`sys_config`");
+        assertCheck(PASS_NONE, "select a.id from sys_config a");
+        //小数不是限定名。
+        assertCheck(PASS_READ, "select 1.5 from dual");
+        assertCheck(PASS_WRITE, "update sys_config set rate=0.25 where id=1");
+    }
+
+    @Test
+    public void testMultiStatement() {
+        assertCheck(PASS_NONE, "select 1;select 2");
+        assertCheck(PASS_NONE, "insert into sys_log(id) values(1); delete from t_order");
+        assertCheck(PASS_NONE, "select * from sys_config;");
+    }
+
+    @Test
+    public void testHintAndComment() {
+        assertCheck(PASS_NONE, "/*#mydb:db-type=master*/select * from sys_config");
+        assertCheck(PASS_NONE, "/* c */ select * from sys_config");
+        assertCheck(PASS_NONE, "-- c\nselect * from sys_config");
+        assertCheck(PASS_NONE, "# c\nselect * from sys_config");
+        assertCheck(PASS_NONE, "  /*#mydb:route=g1.db1*/update sys_config set state=1");
+    }
+
+    private static void assertCheck(int expected, String sql) {
+        ByteBuf buf = packet(sql);
+        try {
+            assertEquals(sql, expected, SqlPassThrough.check(schema, buf));
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static ByteBuf packet(String sql) {
+        ByteBuf buf = Unpooled.buffer();
+        //客户端按UTF-8发送，CommandPacket.build使用平台默认编码。
+        CommandPacket cmd = CommandPacket.build("");
+        cmd.arg = sql.getBytes(StandardCharsets.UTF_8);
+        cmd.write(buf);
+        return buf;
+    }
+
+    @Setup
+    public void setup() {
+        init();
+    }
+
+    /**
+     * 旧路径：解码sql，解析并重新生成数据包。
+     */
+    @Benchmark
+    public void testParse() {
+        CommandPacket cmd = new CommandPacket();
+        cmd.read(selectPacket.duplicate());
+        SqlParser parser = new SqlParser(schema, new String(cmd.arg, StandardCharsets.UTF_8));
+        SqlParseResult result = parser.parse();
+        if (result.getSqlInfo() != null) {
+            result.getSqlInfo().genPacket();
+        }
+    }
+
+    /**
+     * 直通路径：仅做前缀和表名检查。
+     */
+    @Benchmark
+    public int testPassThrough() {
+        return SqlPassThrough.check(schema, selectPacket);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SqlPassThroughTest.class.getSimpleName())
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+
+}
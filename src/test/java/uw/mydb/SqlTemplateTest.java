@@ -0,0 +1,191 @@
+package uw.mydb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import uw.mydb.conf.MydbConfig;
+import uw.mydb.conf.MydbConfigManager;
+import uw.mydb.protocol.packet.CommandPacket;
+import uw.mydb.proxy.ProxyMysqlSession;
+import uw.mydb.route.RouteManager;
+import uw.mydb.route.algorithm.RouteDatabaseByRange;
+import uw.mydb.sqlparser.SqlParseResult;
+import uw.mydb.sqlparser.SqlParser;
+import uw.mydb.sqlparser.SqlTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 解析模板测试，同样结构的sql第二次解析走模板，结果必须和完整解析一致。
+ */
+public class SqlTemplateTest {
+
+    private static final String SCHEMA = "template_test";
+
+    private static EmbeddedChannel channel;
+
+    private static ProxyMysqlSession proxySession;
+
+    private static MydbConfig.SchemaConfig schema;
+
+    @BeforeClass
+    public static void init() {
+        //直接填充默认配置，RouteManager等持有的是同一个实例。
+        MydbConfig config = MydbConfigManager.getConfig();
+        MydbConfig.DataNodeConfig dataNode = new MydbConfig.DataNodeConfig();
+        dataNode.setMysqlGroup("g1");
+        dataNode.getDbConfig().add("db$0-3");
+        MydbConfig.AlgorithmConfig algorithm = new MydbConfig.AlgorithmConfig();
+        algorithm.setAlgorithm(RouteDatabaseByRange.class.getName());
+        algorithm.setRouteKey("user_id");
+        algorithm.getParams().put("range", "100");
+        MydbConfig.RouteConfig route = new MydbConfig.RouteConfig();
+        route.getDataNodes().add(dataNode);
+        route.getAlgorithms().add(algorithm);
+        config.getRoutes().put("order_route", route);
+        MydbConfig.TableConfig table = new MydbConfig.TableConfig();
+        table.setRoute("order_route");
+        MydbConfig.SchemaConfig schemaConfig = new MydbConfig.SchemaConfig();
+        schemaConfig.setBaseNode("g1");
+        schemaConfig.getTables().put("t_order", table);
+        config.getSchemas().put(SCHEMA, schemaConfig);
+        MydbConfigManager.setConfig(config);
+        RouteManager.init();
+        schema = MydbConfigManager.getSchemaConfig(SCHEMA);
+
+        channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        proxySession = new ProxyMysqlSession(channel.pipeline().firstContext());
+        proxySession.setSchema(SCHEMA);
+        channel.releaseOutbound();
+    }
+
+    @AfterClass
+    public static void destroy() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testInsertValues() {
+        String result = assertTemplate("insert into t_order(id,user_id,name) values(1,120,'a'),(2,130,'b')",
+                "insert into t_order(id,user_id,name) values(3,350,'c'),(4,360,'d')");
+        assertTrue(result, result.contains("g1.db3.t_order: insert into db3.t_order(id,user_id,name) values(3,350,'c'),(4,360,'d')"));
+    }
+
+    @Test
+    public void testInList() {
+        String result = assertTemplate("select * from t_order where user_id in (10,20) and state=1",
+                "select * from t_order where user_id in (110,320) and state=2");
+        assertTrue(result, result.contains("g1.db1.t_order: ") && result.contains("g1.db3.t_order: "));
+    }
+
+    @Test
+    public void testRange() {
+        String result = assertTemplate("select id from t_order where user_id>=10 and user_id<=150",
+                "select id from t_order where user_id>=210 and user_id<=399");
+        assertTrue(result, result.contains("g1.db2.t_order: ") && result.contains("g1.db3.t_order: "));
+        //between不参与路由计算，两种解析的结果也要一致。
+        assertTemplate("select id from t_order where user_id between 10 and 150",
+                "select id from t_order where user_id between 210 and 399");
+    }
+
+    @Test
+    public void testMultiByte() {
+        String result = assertTemplate("select * from t_order where name='张三' and user_id=10",
+                "select * from t_order where name='李四五' and user_id=220");
+        assertTrue(result, result.contains("where name='李四五' and user_id=220"));
+        assertTemplate("update t_order set name='中文' where user_id=10",
+                "update t_order set name='ascii' where user_id=330");
+    }
+
+    @Test
+    public void testEscape() {
+        //非路由值有转义时仍使用模板。
+        assertTemplate("delete from t_order where user_id=10 and name='a'",
+                "delete from t_order where user_id=220 and name='it''s'");
+        //路由值有转义时退回完整解析。
+        assertTemplate("select name from t_order where user_id='10'",
+                "select name from t_order where user_id='2\\'0'");
+    }
+
+    @Test
+    public void testHint() {
+        String result = assertTemplate("/*#mydb:db-type=master*/select * from t_order where user_id=10",
+                "/*#mydb:db-type=master*/select * from t_order where user_id=220");
+        assertTrue(result, result.startsWith("0|null|true|"));
+        result = assertTemplate("/*#mydb:route=g1.db2*/select * from t_order where user_id=10",
+                "/*#mydb:route=g1.db2*/select * from t_order where user_id=320");
+        assertTrue(result, result.contains("g1.db2."));
+    }
+
+    /**
+     * 先解析seedSql记录模板，再按模板解析sql，和完整解析的结果比较。
+     *
+     * @return 解析结果的描述
+     */
+    private static String assertTemplate(String seedSql, String sql) {
+        parse(seedSql);
+        ByteBuf buf = packet(sql);
+        SqlTemplate.Scan scan = SqlTemplate.scan(SCHEMA, buf, buf.readerIndex() + 5, buf.writerIndex());
+        buf.release();
+        assertNotNull(sql, SqlTemplate.get(SCHEMA, scan));
+        String expected = describe(new SqlParser(schema, sql).parse());
+        String result = parse(sql);
+        assertEquals(sql, expected, result);
+        return result;
+    }
+
+    private static String parse(String sql) {
+        ByteBuf buf = packet(sql);
+        try {
+            return describe(new SqlParser(proxySession, buf).parse());
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static ByteBuf packet(String sql) {
+        ByteBuf buf = Unpooled.buffer();
+        //客户端按UTF-8发送，CommandPacket.build使用平台默认编码。
+        CommandPacket cmd = CommandPacket.build("");
+        cmd.arg = sql.getBytes(StandardCharsets.UTF_8);
+        cmd.write(buf);
+        return buf;
+    }
+
+    /**
+     * 把解析结果转成可比较的字符串，多节点的sql按字符串排序。
+     */
+    private static String describe(SqlParseResult result) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(result.getErrorCode()).append('|').append(result.getErrorMessage())
+                .append('|').append(result.isMaster()).append('|').append(result.getTable())
+                .append('|').append(result.getCacheTtl()).append('|').append(result.getWriteTables());
+        List<String> sqls = new ArrayList<>();
+        if (result.getSqlInfo() != null) {
+            sqls.add(describe(result.getSqlInfo()));
+        }
+        if (result.getSqlInfos() != null) {
+            for (SqlParseResult.SqlInfo sqlInfo : result.getSqlInfos()) {
+                sqls.add(describe(sqlInfo));
+            }
+        }
+        Collections.sort(sqls);
+        for (String s : sqls) {
+            sb.append('\n').append(s);
+        }
+        return sb.toString();
+    }
+
+    private static String describe(SqlParseResult.SqlInfo sqlInfo) {
+        return sqlInfo.getMysqlGroup() + "." + sqlInfo.getDatabase() + "." + sqlInfo.getTable() + ": " + sqlInfo.getNewSql();
+    }
+}
@@ -0,0 +1,135 @@
+package uw.mydb;
+
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.socket.SocketChannel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uw.mydb.conf.MydbConfig;
+import uw.mydb.util.TransportUtils;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * epoll与nio传输的吞吐量对比测试。
+ * 使用本机回环echo服务，每次操作发送一个packet并等待完整回包。
+ * epoll不可用时跳过EPOLL，避免把降级后的nio结果记为EPOLL。
+ */
+@BenchmarkMode(Mode.Throughput)//基准测试类型
+@OutputTimeUnit(TimeUnit.SECONDS)//基准测试结果的时间类型
+@Warmup(iterations = 3)//预热的迭代次数
+@Threads(1)//测试线程数量
+@State(Scope.Benchmark)//该状态为每个线程独享
+//度量:iterations进行测试的轮次，time每轮进行的时长，timeUnit时长单位,batchSize批次数量
+@Measurement(iterations = 10, time = -1, timeUnit = TimeUnit.SECONDS, batchSize = -1)
+public class TransportTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransportTest.class);
+
+    private static final int PORT = 13300;
+
+    @Param({"NIO", "EPOLL"})
+    private String transportType;
+
+    @Param({"128", "16384"})
+    private int packetSize;
+
+    private EventLoopGroup serverGroup;
+
+    private EventLoopGroup clientGroup;
+
+    private Channel serverChannel;
+
+    private Channel channel;
+
+    private ByteBuf packet;
+
+    private final Semaphore semaphore = new Semaphore(0);
+
+    private int received;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        boolean epoll = TransportUtils.isEpoll(MydbConfig.ServerConfig.TransportTypeEnum.valueOf(transportType));
+        if (!transportType.equals(epoll ? "EPOLL" : "NIO")) {
+            throw new IllegalStateException("transport " + transportType + " is unavailable, actual: " + (epoll ? "EPOLL" : "NIO"));
+        }
+        serverGroup = TransportUtils.newEventLoopGroup(epoll, 1, "bench_server-%d");
+        clientGroup = TransportUtils.newEventLoopGroup(epoll, 1, "bench_client-%d");
+        serverChannel = new ServerBootstrap().group(serverGroup).channel(TransportUtils.getServerChannelClass(epoll))
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                ctx.write(msg);
+                            }
+
+                            @Override
+                            public void channelReadComplete(ChannelHandlerContext ctx) {
+                                ctx.flush();
+                            }
+                        });
+                    }
+                }).bind(PORT).sync().channel();
+        channel = new Bootstrap().group(clientGroup).channel(TransportUtils.getSocketChannelClass(epoll))
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .handler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        ByteBuf buf = (ByteBuf) msg;
+                        received += buf.readableBytes();
+                        buf.release();
+                        if (received >= packetSize) {
+                            received -= packetSize;
+                            semaphore.release();
+                        }
+                    }
+                }).connect("127.0.0.1", PORT).sync().channel();
+        packet = PooledByteBufAllocator.DEFAULT.directBuffer(packetSize).writeZero(packetSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.close().syncUninterruptibly();
+        serverChannel.close().syncUninterruptibly();
+        packet.release();
+        clientGroup.shutdownGracefully().syncUninterruptibly();
+        serverGroup.shutdownGracefully().syncUninterruptibly();
+    }
+
+    @Benchmark
+    public void testPingPong() throws InterruptedException {
+        channel.writeAndFlush(packet.retainedDuplicate());
+        semaphore.acquire();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String[] transportTypes = Epoll.isAvailable() ? new String[]{"NIO", "EPOLL"} : new String[]{"NIO"};
+        if (!Epoll.isAvailable()) {
+            logger.warn("epoll is unavailable, skip EPOLL: {}", Epoll.unavailabilityCause().toString());
+        }
+        Options opt = new OptionsBuilder()
+                .include(TransportTest.class.getSimpleName())
+                .param("transportType", transportTypes)
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+
+}
@@ -0,0 +1,186 @@
+package uw.mydb.protocol.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 压缩协议编解码测试，客户端和服务端的codec互相收发。
+ */
+public class MysqlCompressCodecTest {
+
+    /**
+     * 和mysql的MIN_COMPRESS_LENGTH一致。
+     */
+    private static final int MIN_COMPRESS_LENGTH = 50;
+
+    /**
+     * 单帧最大长度。
+     */
+    private static final int MAX_PAYLOAD_SIZE = 0xFFFFFF;
+
+    private MysqlCompressStats stats;
+
+    private EmbeddedChannel client;
+
+    private EmbeddedChannel server;
+
+    @Before
+    public void init() {
+        stats = new MysqlCompressStats();
+        client = new EmbeddedChannel(new MysqlCompressCodec(false, -1, stats));
+        server = new EmbeddedChannel(new MysqlCompressCodec(true, -1, stats));
+    }
+
+    @After
+    public void destroy() {
+        client.finishAndReleaseAll();
+        server.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testMinCompressLength() {
+        //小于MIN_COMPRESS_LENGTH不压缩。
+        List<ByteBuf> frames = send(client, server, packet(0, zeros(MIN_COMPRESS_LENGTH - 1 - 4)));
+        assertEquals(1, frames.size());
+        assertEquals(MIN_COMPRESS_LENGTH - 1, frames.get(0).getUnsignedMediumLE(0));
+        assertEquals(0, frames.get(0).getUnsignedMediumLE(4));
+        release(frames);
+        //等于MIN_COMPRESS_LENGTH开始压缩。
+        frames = send(client, server, packet(0, zeros(MIN_COMPRESS_LENGTH - 4)));
+        assertEquals(1, frames.size());
+        assertTrue(frames.get(0).getUnsignedMediumLE(0) < MIN_COMPRESS_LENGTH);
+        assertEquals(MIN_COMPRESS_LENGTH, frames.get(0).getUnsignedMediumLE(4));
+        release(frames);
+    }
+
+    @Test
+    public void testFallback() {
+        //随机数据压缩后不会变小，按未压缩格式发送。
+        byte[] data = new byte[4096];
+        new Random(1).nextBytes(data);
+        List<ByteBuf> frames = send(client, server, packet(0, data));
+        assertEquals(1, frames.size());
+        assertEquals(data.length + 4, frames.get(0).getUnsignedMediumLE(0));
+        assertEquals(0, frames.get(0).getUnsignedMediumLE(4));
+        release(frames);
+    }
+
+    @Test
+    public void testMaxPayloadSize() {
+        //正好一帧。
+        List<ByteBuf> frames = send(server, client, packet(1, zeros(MAX_PAYLOAD_SIZE - 4)));
+        assertEquals(1, frames.size());
+        assertEquals(MAX_PAYLOAD_SIZE, frames.get(0).getUnsignedMediumLE(4));
+        release(frames);
+        //超过一帧时拆分，压缩序号递增。
+        frames = send(server, client, packet(2, zeros(MAX_PAYLOAD_SIZE - 54)), packet(3, zeros(146)));
+        assertEquals(2, frames.size());
+        assertEquals(MAX_PAYLOAD_SIZE, frames.get(0).getUnsignedMediumLE(4));
+        assertEquals(100, frames.get(1).getUnsignedMediumLE(4));
+        assertEquals((frames.get(0).getByte(3) + 1) & 0xFF, frames.get(1).getByte(3) & 0xFF);
+        release(frames);
+    }
+
+    @Test
+    public void testSequence() {
+        //命令开始时压缩序号为0。
+        List<ByteBuf> frames = send(client, server, packet(0, zeros(100)));
+        assertEquals(0, frames.get(0).getByte(3));
+        release(frames);
+        //服务端接着客户端的序号，不因数据包序号为0而重置。
+        frames = send(server, client, packet(1, zeros(100)));
+        assertEquals(1, frames.get(0).getByte(3));
+        release(frames);
+        frames = send(server, client, packet(0, zeros(100)));
+        assertEquals(2, frames.get(0).getByte(3));
+        release(frames);
+        //命令中间的发送(如LOAD DATA文件内容)接着服务端的序号。
+        frames = send(client, server, packet(2, zeros(100)));
+        assertEquals(3, frames.get(0).getByte(3));
+        release(frames);
+        frames = send(client, server, packet(3, zeros(100)));
+        assertEquals(4, frames.get(0).getByte(3));
+        release(frames);
+        //下一个命令重新从0开始。
+        frames = send(client, server, packet(0, zeros(100)));
+        assertEquals(0, frames.get(0).getByte(3));
+        release(frames);
+        frames = send(server, client, packet(1, zeros(100)));
+        assertEquals(1, frames.get(0).getByte(3));
+        release(frames);
+    }
+
+    @Test
+    public void testMerge() {
+        //flush之前的多个数据包合并成一帧。
+        List<ByteBuf> frames = send(server, client, packet(1, zeros(20)), packet(2, zeros(20)), packet(3, zeros(20)));
+        assertEquals(1, frames.size());
+        assertEquals(72, frames.get(0).getUnsignedMediumLE(4));
+        release(frames);
+        assertTrue(stats.getRawSendBytes() > 0);
+        assertTrue(stats.getRawRecvBytes() > 0);
+    }
+
+    /**
+     * 从from发送数据包，返回压缩帧的副本，并检查to解压后的内容和发送的一致。
+     */
+    private static List<ByteBuf> send(EmbeddedChannel from, EmbeddedChannel to, ByteBuf... packets) {
+        ByteBuf expected = Unpooled.buffer();
+        for (ByteBuf packet : packets) {
+            expected.writeBytes(packet, packet.readerIndex(), packet.readableBytes());
+            from.write(packet);
+        }
+        from.flush();
+        List<ByteBuf> frames = new ArrayList<>();
+        for (ByteBuf out; (out = from.readOutbound()) != null; ) {
+            //拆出每一帧。
+            ByteBuf dup = out.duplicate();
+            while (dup.isReadable()) {
+                int length = dup.getUnsignedMediumLE(dup.readerIndex());
+                frames.add(dup.readBytes(7 + length));
+            }
+            to.writeInbound(out);
+        }
+        assertFalse(frames.isEmpty());
+        ByteBuf actual = Unpooled.buffer();
+        for (ByteBuf buf; (buf = to.readInbound()) != null; ) {
+            actual.writeBytes(buf);
+            buf.release();
+        }
+        assertEquals(expected, actual);
+        expected.release();
+        actual.release();
+        return frames;
+    }
+
+    /**
+     * 构造mysql数据包。
+     */
+    private static ByteBuf packet(int seq, byte[] payload) {
+        ByteBuf buf = Unpooled.buffer(4 + payload.length);
+        buf.writeMediumLE(payload.length);
+        buf.writeByte(seq);
+        buf.writeBytes(payload);
+        return buf;
+    }
+
+    private static byte[] zeros(int length) {
+        return new byte[length];
+    }
+
+    private static void release(List<ByteBuf> frames) {
+        for (ByteBuf frame : frames) {
+            frame.release();
+        }
+    }
+}
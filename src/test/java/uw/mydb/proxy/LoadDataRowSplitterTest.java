@@ -0,0 +1,214 @@
+package uw.mydb.proxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+import uw.mydb.conf.MydbConfig;
+import uw.mydb.conf.MydbConfigManager;
+import uw.mydb.protocol.packet.MySqlPacket;
+import uw.mydb.protocol.util.ErrorCode;
+import uw.mydb.route.RouteManager;
+import uw.mydb.route.algorithm.RouteDatabaseByMod;
+import uw.mydb.sqlparser.SqlLoadDataParser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * LOAD DATA语句解析和拆行测试。
+ * 每组数据分别整块输入和逐字节输入，分隔符、包围符、转义符跨块时结果必须一致。
+ */
+public class LoadDataRowSplitterTest {
+
+    @Test
+    public void testParse() {
+        SqlLoadDataParser stmt = SqlLoadDataParser.parse("LOAD DATA LOCAL INFILE '/tmp/a.csv' IGNORE INTO TABLE db1.`t_order` "
+                + "CHARACTER SET utf8mb4 FIELDS TERMINATED BY '||' OPTIONALLY ENCLOSED BY '\"' ESCAPED BY '\\\\' "
+                + "LINES TERMINATED BY '\\r\\n' IGNORE 2 LINES (id,@skip,user_id) SET name=@skip");
+        assertNotNull(stmt);
+        assertEquals("/tmp/a.csv", stmt.getFileName());
+        assertEquals("db1", stmt.getSchemaName());
+        assertEquals("t_order", stmt.getTableName());
+        assertArrayEquals("||".getBytes(), stmt.getFieldsTerminated());
+        assertEquals('"', stmt.getEnclosed());
+        assertEquals('\\', stmt.getEscaped());
+        assertArrayEquals("\r\n".getBytes(), stmt.getLinesTerminated());
+        assertEquals(2, stmt.getIgnoreLines());
+        assertEquals(Arrays.asList("id", "@skip", "user_id"), stmt.getColumns());
+    }
+
+    @Test
+    public void testParseDefault() {
+        SqlLoadDataParser stmt = SqlLoadDataParser.parse("load data local infile \"a.txt\" into table t_order");
+        assertNotNull(stmt);
+        assertArrayEquals(new byte[]{'\t'}, stmt.getFieldsTerminated());
+        assertEquals(-1, stmt.getEnclosed());
+        assertEquals('\\', stmt.getEscaped());
+        assertArrayEquals(new byte[]{'\n'}, stmt.getLinesTerminated());
+        assertEquals(0, stmt.getIgnoreLines());
+        assertNull(stmt.getColumns());
+        //非LOCAL和PARTITION不支持。
+        assertNull(SqlLoadDataParser.parse("load data infile 'a.txt' into table t_order"));
+        assertNull(SqlLoadDataParser.parse("load data local infile 'a.txt' into table t_order partition (p0)"));
+    }
+
+    @Test
+    public void testIgnoreLines() {
+        SqlLoadDataParser stmt = SqlLoadDataParser.parse("load data local infile 'a.txt' into table t_order ignore 1 lines (id,user_id)");
+        assertEquals(1, stmt.getIgnoreLines());
+        assertEquals("load data local infile 'a.txt' into table `db2`.`t_order_2`  (id,user_id)", stmt.rewrite("db2", "t_order_2", true));
+        assertEquals("load data local infile 'a.txt' into table `db2`.`t_order_2` ignore 1 lines (id,user_id)", stmt.rewrite("db2", "t_order_2", false));
+        stmt = SqlLoadDataParser.parse("load data local infile 'a.txt' into table t_order ignore 10 rows");
+        assertEquals(10, stmt.getIgnoreLines());
+    }
+
+    @Test
+    public void testIsLoadData() {
+        assertTrue(SqlLoadDataParser.isLoadData(packet("  LOAD DATA local infile 'a' into table t")));
+        assertFalse(SqlLoadDataParser.isLoadData(packet("loader")));
+        assertFalse(SqlLoadDataParser.isLoadData(packet("select 1")));
+    }
+
+    @Test
+    public void testSplit() {
+        assertSplit("load data local infile 'a' into table t", new int[]{0},
+                "1\ta\n22\tb\n333\tc",
+                "1\ta\n|1", "22\tb\n|22", "333\tc|333");
+        assertSplit("load data local infile 'a' into table t", new int[]{1},
+                "1\t\n2\t\\N\n",
+                "1\t\n|", "2\t\\N\n|null");
+    }
+
+    @Test
+    public void testMultiByteTerminator() {
+        assertSplit("load data local infile 'a' into table t fields terminated by '||' lines terminated by '\\r\\n'", new int[]{1},
+                "a|b||10||x\r\nc\r||20||y\r\n",
+                "a|b||10||x\r\n|10", "c\r||20||y\r\n|20");
+    }
+
+    @Test
+    public void testEnclosed() {
+        assertSplit("load data local infile 'a' into table t fields terminated by ',' enclosed by '\"'", new int[]{0, 1},
+                "\"a,b\",\"1\n2\"\n\"x\"\"y\",3\n\"\",\"\"\n",
+                "\"a,b\",\"1\n2\"\n|a,b|1\n2", "\"x\"\"y\",3\n|x\"y|3", "\"\",\"\"\n||");
+    }
+
+    @Test
+    public void testEscape() {
+        assertSplit("load data local infile 'a' into table t fields terminated by ','", new int[]{0},
+                "a\\,b,1\nc\\\nd,2\n\\N,3\ne\\\\,4\n",
+                "a\\,b,1\n|a,b", "c\\\nd,2\n|c\nd", "\\N,3\n|null", "e\\\\,4\n|e\\");
+        //自定义转义符，反斜杠作为普通字符。
+        assertSplit("load data local infile 'a' into table t fields terminated by ',' escaped by '^'", new int[]{0},
+                "a\\,1\nb^,c,2\n",
+                "a\\,1\n|a\\", "b^,c,2\n|b,c");
+    }
+
+    @Test
+    public void testMissingRouteColumn() {
+        MydbConfig config = MydbConfigManager.getConfig();
+        MydbConfig.DataNodeConfig dataNode = new MydbConfig.DataNodeConfig();
+        dataNode.setMysqlGroup("g1");
+        dataNode.getDbConfig().add("db$0-1");
+        MydbConfig.AlgorithmConfig algorithm = new MydbConfig.AlgorithmConfig();
+        algorithm.setAlgorithm(RouteDatabaseByMod.class.getName());
+        algorithm.setRouteKey("user_id");
+        MydbConfig.RouteConfig route = new MydbConfig.RouteConfig();
+        route.getDataNodes().add(dataNode);
+        route.getAlgorithms().add(algorithm);
+        config.getRoutes().put("load_route", route);
+        MydbConfig.TableConfig table = new MydbConfig.TableConfig();
+        table.setRoute("load_route");
+        MydbConfig.SchemaConfig schemaConfig = new MydbConfig.SchemaConfig();
+        schemaConfig.setBaseNode("g1");
+        schemaConfig.getTables().put("t_load", table);
+        config.getSchemas().put("load_test", schemaConfig);
+        MydbConfigManager.setConfig(config);
+        RouteManager.init();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ProxyMysqlSession proxySession = new ProxyMysqlSession(channel.pipeline().firstContext());
+        proxySession.setSchema("load_test");
+        channel.releaseOutbound();
+        //列清单中没有路由列。
+        assertFalse(start(channel, proxySession, "load data local infile 'a' into table t_load (id,name)"));
+        ByteBuf buf = channel.readOutbound();
+        assertEquals((byte) 0xFF, buf.getByte(4));
+        assertEquals(ErrorCode.ERR_NO_ROUTE_KEY, buf.getUnsignedShortLE(5));
+        buf.release();
+        //没有列清单。
+        assertFalse(start(channel, proxySession, "load data local infile 'a' into table t_load"));
+        buf = channel.readOutbound();
+        assertEquals(ErrorCode.ERR_NO_ROUTE_KEY, buf.getUnsignedShortLE(5));
+        buf.release();
+        //有路由列时请求客户端发送文件。
+        assertTrue(start(channel, proxySession, "load data local infile 'a' into table t_load (id,@v,user_id)"));
+        buf = channel.readOutbound();
+        assertEquals(MySqlPacket.LOAD_DATA_PACKET, buf.getByte(4));
+        assertEquals("a", buf.toString(5, buf.readableBytes() - 5, StandardCharsets.UTF_8));
+        buf.release();
+        channel.finishAndReleaseAll();
+    }
+
+    private static boolean start(EmbeddedChannel channel, ProxyMysqlSession proxySession, String sql) {
+        return new ProxyLoadDataHandler(proxySession, channel.pipeline().firstContext(), SqlLoadDataParser.parse(sql)).start();
+    }
+
+    /**
+     * 整块和逐字节输入，结果都要和期望一致。
+     *
+     * @param expected 每行为"行内容|路由列值"，多个路由列用|连接
+     */
+    private static void assertSplit(String sql, int[] keyColumns, String data, String... expected) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList(expected), split(sql, keyColumns, bytes, bytes.length));
+        assertEquals(Arrays.asList(expected), split(sql, keyColumns, bytes, 1));
+    }
+
+    /**
+     * 按ProxyLoadDataHandler.splitRows的方式分块拆行。
+     */
+    private static List<String> split(String sql, int[] keyColumns, byte[] data, int chunkSize) {
+        LoadDataRowSplitter splitter = new LoadDataRowSplitter(SqlLoadDataParser.parse(sql), keyColumns);
+        ByteBuf carry = Unpooled.buffer();
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < data.length; i += chunkSize) {
+            carry.writeBytes(data, i, Math.min(chunkSize, data.length - i));
+            readRows(splitter, carry, keyColumns.length, false, rows);
+            carry.discardSomeReadBytes();
+        }
+        readRows(splitter, carry, keyColumns.length, true, rows);
+        assertEquals(0, carry.readableBytes());
+        carry.release();
+        return rows;
+    }
+
+    private static void readRows(LoadDataRowSplitter splitter, ByteBuf carry, int keyCount, boolean eof, List<String> rows) {
+        int rowLength;
+        while ((rowLength = splitter.nextRow(carry, eof)) > 0) {
+            StringBuilder sb = new StringBuilder(carry.toString(carry.readerIndex(), rowLength, StandardCharsets.UTF_8));
+            for (int k = 0; k < keyCount; k++) {
+                String value = splitter.keyValue(carry, k);
+                sb.append('|').append(value);
+            }
+            rows.add(sb.toString());
+            carry.skipBytes(rowLength);
+        }
+    }
+
+    private static ByteBuf packet(String sql) {
+        byte[] bytes = sql.getBytes(StandardCharsets.UTF_8);
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeMediumLE(1 + bytes.length);
+        buf.writeByte(0);
+        buf.writeByte(MySqlPacket.CMD_QUERY);
+        buf.writeBytes(bytes);
+        return buf;
+    }
+}
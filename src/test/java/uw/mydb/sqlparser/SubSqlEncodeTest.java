@@ -0,0 +1,39 @@
+package uw.mydb.sqlparser;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * 子sql编码测试，结果必须和substring后getBytes一致。
+ */
+public class SubSqlEncodeTest {
+
+    @Test
+    public void testUtf8Bytes() {
+        assertEncode("insert into t_order(id,name) values(1,'abc')");
+        assertEncode("select * from t where name='杨过4房' and bed='大床'");
+        assertEncode("select 'é£' from dual");
+        //四字节字符和不成对的代理字符。
+        assertEncode("select '😀x' from dual");
+        assertEncode("select '\uD83Dx\uDE00' from dual");
+        assertEncode("");
+    }
+
+    @Test
+    public void testRange() {
+        String sql = "a😀b中c";
+        for (int start = 0; start <= sql.length(); start++) {
+            for (int end = start; end <= sql.length(); end++) {
+                //在代理对中间切开时两边都是不成对的代理字符。
+                assertArrayEquals(start + "-" + end, sql.substring(start, end).getBytes(StandardCharsets.UTF_8), SqlParser.utf8Bytes(sql, start, end));
+            }
+        }
+    }
+
+    private static void assertEncode(String sql) {
+        assertArrayEquals(sql, sql.getBytes(StandardCharsets.UTF_8), SqlParser.utf8Bytes(sql, 0, sql.length()));
+    }
+}